@@ -0,0 +1,122 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.io.MappedInputReader;
+
+/**
+ * Measures reading primitives from a file with the BinaryFile classes, with
+ * the different InputReaders behind them. Each invocation reads the whole file
+ * from the beginning.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryFileBenchmark {
+
+    /** BinaryFile with a FileInputReader, over a RandomAccessFile. */
+    public final static String FILE = "file";
+    /** BinaryBufferedFile, buffering a FileInputReader. */
+    public final static String BUFFERED = "buffered";
+    /** BinaryFile with a MappedInputReader over a memory mapped file. */
+    public final static String MAPPED = "mapped";
+
+    @Param({
+        FILE,
+        BUFFERED,
+        MAPPED
+    })
+    public String reader;
+
+    /** The number of records of primitives in the file. */
+    @Param("100000")
+    public int count;
+
+    protected File dir;
+    protected File file;
+    protected BinaryFile binaryFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = SyntheticData.createTempDir("ombench");
+        file = SyntheticData.writeBinaryFile(dir, "primitives.bin", 7L, count);
+        if (FILE.equals(reader)) {
+            binaryFile = new BinaryFile(file);
+        } else if (BUFFERED.equals(reader)) {
+            binaryFile = new BinaryBufferedFile(file);
+        } else {
+            binaryFile = new BinaryFile(new MappedInputReader(file));
+        }
+        binaryFile.byteOrder(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        binaryFile.close();
+        SyntheticData.deleteDir(dir);
+    }
+
+    @Benchmark
+    public double readPrimitives() throws IOException, FormatException {
+        binaryFile.seek(0);
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += binaryFile.readInteger();
+            sum += binaryFile.readShort();
+            sum += binaryFile.readFloat();
+            sum += binaryFile.readDouble();
+            sum += binaryFile.readLong();
+        }
+        return sum;
+    }
+
+    /**
+     * Read just the doubles, skipping over the rest of each record, the way
+     * coordinates are usually pulled out of a record.
+     */
+    @Benchmark
+    public double readDoubles() throws IOException, FormatException {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            binaryFile.seek(i * SyntheticData.BINARY_RECORD_SIZE + 10);
+            sum += binaryFile.readDouble();
+        }
+        return sum;
+    }
+}
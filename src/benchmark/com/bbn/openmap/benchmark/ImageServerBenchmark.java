@@ -0,0 +1,94 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbn.openmap.Layer;
+import com.bbn.openmap.image.ImageServer;
+import com.bbn.openmap.image.PNGImageIOFormatter;
+import com.bbn.openmap.layer.OMGraphicHandlerLayer;
+import com.bbn.openmap.proj.Projection;
+
+/**
+ * Measures ImageServer.createImage end to end: projecting and rendering a
+ * stack of OMGraphicHandlerLayers holding OMPolys, and encoding the result as
+ * a PNG. The layers can be rendered one after the other or in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageServerBenchmark {
+
+    @Param({
+        SyntheticData.MERCATOR,
+        SyntheticData.ORTHOGRAPHIC
+    })
+    public String projection;
+
+    /** The number of layers in the image. */
+    @Param("4")
+    public int layerCount;
+
+    /** The number of OMPolys in each layer. */
+    @Param("5000")
+    public int count;
+
+    /** Whether the ImageServer renders its layers in parallel. */
+    @Param({
+        "false",
+        "true"
+    })
+    public boolean parallelLayers;
+
+    protected Projection proj;
+    protected ImageServer imageServer;
+
+    @Setup
+    public void setUp() {
+        proj = SyntheticData.createProjection(projection, SyntheticData.WIDTH, SyntheticData.HEIGHT);
+
+        Layer[] layers = new Layer[layerCount];
+        for (int i = 0; i < layerCount; i++) {
+            OMGraphicHandlerLayer layer = new OMGraphicHandlerLayer();
+            layer.setName("Layer " + i);
+            layer.setList(SyntheticData.createPolyList(100L + i, count, 30));
+            layers[i] = layer;
+        }
+
+        imageServer = new ImageServer(layers, new PNGImageIOFormatter());
+        imageServer.setParallelLayers(parallelLayers);
+    }
+
+    @Benchmark
+    public byte[] createImage() {
+        return imageServer.createImage(proj);
+    }
+}
@@ -0,0 +1,132 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoly;
+import com.bbn.openmap.proj.Projection;
+
+/**
+ * Measures generating an OMGraphicList of OMPolys for a projection, and
+ * rendering the generated list into an offscreen BufferedImage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OMGraphicBenchmark {
+
+    @Param({
+        SyntheticData.MERCATOR,
+        SyntheticData.ORTHOGRAPHIC,
+        SyntheticData.LAMBERT
+    })
+    public String projection;
+
+    /** The number of OMPolys in the list. */
+    @Param({
+        "1000",
+        "20000"
+    })
+    public int count;
+
+    /** The number of vertices in each OMPoly. */
+    @Param("40")
+    public int polyPoints;
+
+    /** Whether the render benchmark antialiases. */
+    @Param("false")
+    public boolean antialias;
+
+    protected Projection proj;
+    protected OMGraphicList list;
+    protected OMPoly single;
+    protected BufferedImage image;
+    protected Graphics2D graphics;
+
+    @Setup
+    public void setUp() {
+        proj = SyntheticData.createProjection(projection, SyntheticData.WIDTH, SyntheticData.HEIGHT);
+        list = SyntheticData.createPolyList(4L, count, polyPoints);
+        single = (OMPoly) list.get(0);
+        image = new BufferedImage(SyntheticData.WIDTH, SyntheticData.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialias ? RenderingHints.VALUE_ANTIALIAS_ON
+                : RenderingHints.VALUE_ANTIALIAS_OFF);
+        list.generate(proj);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    /**
+     * Project one OMPoly.
+     */
+    @Benchmark
+    public boolean generatePoly() {
+        return single.generate(proj);
+    }
+
+    /**
+     * Project the whole list.
+     */
+    @Benchmark
+    public boolean generateList() {
+        return list.generate(proj);
+    }
+
+    /**
+     * Render the list, already generated, into the image.
+     */
+    @Benchmark
+    public BufferedImage renderList() {
+        list.render(graphics);
+        return image;
+    }
+
+    /**
+     * Generate and render the list, what a layer does for each projection
+     * change.
+     */
+    @Benchmark
+    public BufferedImage generateAndRenderList() {
+        list.generate(proj);
+        list.render(graphics);
+        return image;
+    }
+}
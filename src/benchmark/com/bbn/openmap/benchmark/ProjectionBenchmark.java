@@ -0,0 +1,153 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.benchmark;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.PolyBuffer;
+import com.bbn.openmap.proj.ProjMath;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * Measures the point and poly projection methods of each projection class.
+ * The forward and inverse benchmarks project a batch of random points, the
+ * poly benchmarks project a set of random polygons scattered around the world,
+ * with the ArrayList returning forwardPoly and with a reused PolyBuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectionBenchmark {
+
+    @Param({
+        SyntheticData.MERCATOR,
+        SyntheticData.LLXY,
+        SyntheticData.CADRG,
+        SyntheticData.ORTHOGRAPHIC,
+        SyntheticData.GNOMONIC,
+        SyntheticData.LAMBERT,
+        SyntheticData.UTM,
+        SyntheticData.CARTESIAN
+    })
+    public String projection;
+
+    /** The number of points projected by each forward/inverse invocation. */
+    @Param("1000")
+    public int points;
+
+    /** The number of vertices in each of the projected polygons. */
+    @Param("50")
+    public int polyPoints;
+
+    protected Projection proj;
+    protected double[] latLons;
+    protected double[] pixels;
+    /** Polygons in radians for GeoProjs, decimal degrees otherwise. */
+    protected List<double[]> polys;
+    protected PolyBuffer polyBuffer;
+    protected Point2D pixel;
+    protected Point2D latLon;
+
+    @Setup
+    public void setUp() {
+        proj = SyntheticData.createProjection(projection, SyntheticData.WIDTH, SyntheticData.HEIGHT);
+        latLons = SyntheticData.randomLatLons(1L, points);
+        pixels = SyntheticData.randomPixels(2L, points, SyntheticData.WIDTH, SyntheticData.HEIGHT);
+        polys = new ArrayList<double[]>();
+        for (double[] poly : SyntheticData.randomPolygons(3L, 200, polyPoints)) {
+            if (proj instanceof GeoProj) {
+                ProjMath.arrayDegToRad(poly);
+            }
+            polys.add(poly);
+        }
+        polyBuffer = new PolyBuffer();
+        pixel = new Point2D.Double();
+        latLon = proj instanceof GeoProj ? new LatLonPoint.Double() : new Point2D.Double();
+    }
+
+    @Benchmark
+    public double forward() {
+        double sum = 0;
+        for (int i = 0; i < latLons.length; i += 2) {
+            proj.forward(latLons[i], latLons[i + 1], pixel);
+            sum += pixel.getX() + pixel.getY();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double inverse() {
+        double sum = 0;
+        for (int i = 0; i < pixels.length; i += 2) {
+            proj.inverse(pixels[i], pixels[i + 1], latLon);
+            sum += latLon.getX() + latLon.getY();
+        }
+        return sum;
+    }
+
+    /**
+     * Project the polygons with the forwardPoly method that OMPoly used to
+     * call, creating new arrays for each one.
+     */
+    @Benchmark
+    public void forwardPoly(Blackhole bh) {
+        for (double[] poly : polys) {
+            if (proj instanceof GeoProj) {
+                bh.consume(((GeoProj) proj).forwardPoly(poly, OMGraphic.LINETYPE_STRAIGHT, -1, true));
+            } else {
+                bh.consume(proj.forwardPoly(poly, true));
+            }
+        }
+    }
+
+    /**
+     * Project the polygons into a reused PolyBuffer.
+     */
+    @Benchmark
+    public int forwardPolyBuffer() {
+        int parts = 0;
+        for (double[] poly : polys) {
+            if (proj instanceof GeoProj) {
+                ((GeoProj) proj).forwardPoly(poly, OMGraphic.LINETYPE_STRAIGHT, -1, true, polyBuffer);
+            } else {
+                proj.forwardPoly(poly, true, polyBuffer);
+            }
+            parts += polyBuffer.getNumParts();
+        }
+        return parts;
+    }
+}
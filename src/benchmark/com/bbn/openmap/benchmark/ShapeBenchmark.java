@@ -0,0 +1,152 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbn.openmap.dataAccess.shape.DbfColumns;
+import com.bbn.openmap.dataAccess.shape.DbfFile;
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.layer.shape.ESRIRecord;
+import com.bbn.openmap.layer.shape.SpatialIndex;
+
+/**
+ * Measures spatial queries on a shape file with SpatialIndex.locateRecords,
+ * using the ssx spatial index or the R-tree index, and reading its dbf file
+ * with DbfFile.readData() or through the memory mapped DbfColumns view.
+ * <p>
+ * The shape file is written to a temporary directory when the benchmark
+ * starts, and deleted at the end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeBenchmark {
+
+    public final static String SSX = "ssx";
+    public final static String RTREE = "rtree";
+
+    /** The spatial index used by SpatialIndex. */
+    @Param({
+        SSX,
+        RTREE
+    })
+    public String index;
+
+    /** The number of polygons in the shape file. */
+    @Param("20000")
+    public int count;
+
+    /** The number of vertices in each polygon. */
+    @Param("20")
+    public int polyPoints;
+
+    /** The width and height of the query boxes, in degrees. */
+    @Param("10")
+    public double querySize;
+
+    protected File dir;
+    protected String shpPath;
+    protected String dbfPath;
+    protected SpatialIndex spatialIndex;
+    protected double[] queries;
+    protected int queryIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = SyntheticData.createTempDir("ombench");
+        shpPath = SyntheticData.writeShapeFile(dir, "polys", 5L, count, polyPoints, RTREE.equals(index));
+        dbfPath = SpatialIndex.dbf(shpPath);
+        spatialIndex = new SpatialIndex(shpPath);
+
+        Random random = new Random(6L);
+        queries = new double[256 * 2];
+        for (int i = 0; i < queries.length; i += 2) {
+            queries[i] = random.nextDouble() * (180 - querySize) - 90;
+            queries[i + 1] = random.nextDouble() * (360 - querySize) - 180;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.deleteDir(dir);
+    }
+
+    /**
+     * Find the records in a query box, cycling through a set of random boxes.
+     */
+    @Benchmark
+    public ESRIRecord[] locateRecords() throws IOException, FormatException {
+        int i = queryIndex;
+        queryIndex = (queryIndex + 2) % queries.length;
+        double ymin = queries[i];
+        double xmin = queries[i + 1];
+        return spatialIndex.locateRecords(xmin, ymin, xmin + querySize, ymin + querySize);
+    }
+
+    /**
+     * Read all of the dbf records into Lists of Objects.
+     */
+    @Benchmark
+    public int dbfReadData() throws IOException, FormatException {
+        DbfFile dbf = new DbfFile(new BinaryBufferedFile(dbfPath));
+        try {
+            dbf.readData();
+            return dbf.getRowCount();
+        } finally {
+            dbf.close();
+        }
+    }
+
+    /**
+     * Read a numeric dbf column through the memory mapped DbfColumns view.
+     */
+    @Benchmark
+    public double dbfMappedColumn() throws IOException, FormatException {
+        DbfFile dbf = DbfFile.map(dbfPath);
+        try {
+            DbfColumns columns = dbf.getColumns();
+            double[] areas = columns.getDoubleColumn(columns.getColumnIndexForName("AREA"));
+            double sum = 0;
+            for (int i = 0; i < areas.length; i++) {
+                sum += areas[i];
+            }
+            return sum;
+        } finally {
+            dbf.close();
+        }
+    }
+}
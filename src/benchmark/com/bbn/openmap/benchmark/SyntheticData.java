@@ -0,0 +1,335 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.benchmark;
+
+import java.awt.Color;
+import java.awt.geom.Point2D;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.bbn.openmap.dataAccess.shape.DbfTableModel;
+import com.bbn.openmap.dataAccess.shape.EsriPolygon;
+import com.bbn.openmap.dataAccess.shape.EsriPolygonList;
+import com.bbn.openmap.dataAccess.shape.EsriShapeExport;
+import com.bbn.openmap.layer.shape.SpatialIndex;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoly;
+import com.bbn.openmap.proj.CADRG;
+import com.bbn.openmap.proj.Cartesian;
+import com.bbn.openmap.proj.Ellipsoid;
+import com.bbn.openmap.proj.Gnomonic;
+import com.bbn.openmap.proj.LLXY;
+import com.bbn.openmap.proj.LambertConformal;
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.Orthographic;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.UTMProjection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+/**
+ * Generators for the data the benchmarks work on. Everything is created from
+ * a seed, so the same parameters give the same data from run to run and the
+ * results can be compared between versions of the code.
+ */
+public class SyntheticData {
+
+    /** The projection names the benchmarks can be run with. */
+    public final static String MERCATOR = "Mercator";
+    public final static String LLXY = "LLXY";
+    public final static String CADRG = "CADRG";
+    public final static String ORTHOGRAPHIC = "Orthographic";
+    public final static String GNOMONIC = "Gnomonic";
+    public final static String LAMBERT = "LambertConformal";
+    public final static String UTM = "UTM";
+    public final static String CARTESIAN = "Cartesian";
+
+    public final static int WIDTH = 1024;
+    public final static int HEIGHT = 768;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Create a projection, covering most of a hemisphere for the world
+     * projections and a UTM zone for UTM, centered over North America so that
+     * the Lambert projection is usable.
+     *
+     * @param name one of the projection names above.
+     * @param width pixel width of the projection.
+     * @param height pixel height of the projection.
+     */
+    public static Projection createProjection(String name, int width, int height) {
+        LatLonPoint center = new LatLonPoint.Double(40, -100);
+        if (MERCATOR.equals(name)) {
+            return new Mercator(center, 5.0e7f, width, height);
+        } else if (LLXY.equals(name)) {
+            return new LLXY(center, 5.0e7f, width, height);
+        } else if (CADRG.equals(name)) {
+            return new CADRG(center, 5.0e7f, width, height);
+        } else if (ORTHOGRAPHIC.equals(name)) {
+            return new Orthographic(center, 5.0e7f, width, height);
+        } else if (GNOMONIC.equals(name)) {
+            return new Gnomonic(center, 5.0e7f, width, height);
+        } else if (LAMBERT.equals(name)) {
+            return new LambertConformal(center, 3.0e7f, width, height, -100, 33, 45, 23, 0, 0,
+                    Ellipsoid.WGS_84);
+        } else if (UTM.equals(name)) {
+            return new UTMProjection(center, 3.0e6f, width, height, 14, true, Ellipsoid.WGS_84);
+        } else if (CARTESIAN.equals(name)) {
+            return new Cartesian(new Point2D.Double(0, 0), 1.0e4f, width, height);
+        }
+        throw new IllegalArgumentException("unknown projection " + name);
+    }
+
+    /**
+     * Create random lat,lon pairs in decimal degrees, spread over the area the
+     * benchmark projections cover.
+     *
+     * @return double[] of lat, lon, lat, lon...
+     */
+    public static double[] randomLatLons(long seed, int count) {
+        Random random = new Random(seed);
+        double[] lls = new double[count * 2];
+        for (int i = 0; i < lls.length; i += 2) {
+            lls[i] = 15 + random.nextDouble() * 50;
+            lls[i + 1] = -130 + random.nextDouble() * 60;
+        }
+        return lls;
+    }
+
+    /**
+     * Create random pixel coordinates inside a projection.
+     *
+     * @return double[] of x, y, x, y...
+     */
+    public static double[] randomPixels(long seed, int count, int width, int height) {
+        Random random = new Random(seed);
+        double[] xys = new double[count * 2];
+        for (int i = 0; i < xys.length; i += 2) {
+            xys[i] = random.nextDouble() * width;
+            xys[i + 1] = random.nextDouble() * height;
+        }
+        return xys;
+    }
+
+    /**
+     * Create a closed, star shaped polygon around a center point. The vertices
+     * are at increasing angles around the center, at random distances, so the
+     * polygon doesn't cross itself.
+     *
+     * @param random the source of randomness.
+     * @param centerLat center latitude in decimal degrees.
+     * @param centerLon center longitude in decimal degrees.
+     * @param radius the largest distance of a vertex from the center, in
+     *        degrees.
+     * @param numPoints the number of vertices, not counting the closing vertex.
+     * @return double[] of lat, lon, lat, lon... in decimal degrees, with the
+     *         first vertex repeated at the end.
+     */
+    public static double[] randomPolygon(Random random, double centerLat, double centerLon,
+                                         double radius, int numPoints) {
+        double[] lls = new double[(numPoints + 1) * 2];
+        double step = Math.PI * 2 / numPoints;
+        for (int i = 0; i < numPoints; i++) {
+            double angle = i * step + random.nextDouble() * step * 0.5;
+            double dist = radius * (0.3 + random.nextDouble() * 0.7);
+            double lat = centerLat + Math.sin(angle) * dist;
+            double lon = centerLon + Math.cos(angle) * dist;
+            lls[i * 2] = Math.max(-89, Math.min(89, lat));
+            lls[i * 2 + 1] = wrapLon(lon);
+        }
+        lls[numPoints * 2] = lls[0];
+        lls[numPoints * 2 + 1] = lls[1];
+        return lls;
+    }
+
+    /**
+     * Create polygons scattered over the world, so some of them cross the
+     * dateline and some of them are behind the globe for the azimuthal
+     * projections.
+     *
+     * @return a List of double[] lat, lon, lat, lon... in decimal degrees.
+     */
+    public static List<double[]> randomPolygons(long seed, int count, int numPoints) {
+        Random random = new Random(seed);
+        List<double[]> polys = new ArrayList<double[]>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = random.nextDouble() * 150 - 75;
+            double lon = random.nextDouble() * 360 - 180;
+            polys.add(randomPolygon(random, lat, lon, 0.5 + random.nextDouble() * 5, numPoints));
+        }
+        return polys;
+    }
+
+    /**
+     * Create an OMGraphicList of filled OMPolys from randomPolygons().
+     */
+    public static OMGraphicList createPolyList(long seed, int count, int numPoints) {
+        Random random = new Random(seed);
+        OMGraphicList list = new OMGraphicList();
+        for (double[] lls : randomPolygons(seed, count, numPoints)) {
+            OMPoly poly = new OMPoly(lls, OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT);
+            poly.setLinePaint(Color.black);
+            poly.setFillPaint(new Color(random.nextInt(0xffffff)));
+            list.add(poly);
+        }
+        return list;
+    }
+
+    /**
+     * Write a polygon shape file with a dbf file, and the spatial index file
+     * for it. The dbf file has a numeric ID column, a character NAME column,
+     * a numeric AREA column with decimals and a character CATEGORY column.
+     *
+     * @param dir the directory to write the files to.
+     * @param name the name of the files, without the extension.
+     * @param seed random seed for the polygons and attributes.
+     * @param count the number of polygons.
+     * @param numPoints the number of vertices in each polygon.
+     * @param rtree if true, also write the R-tree index file.
+     * @return the path to the shp file.
+     */
+    public static String writeShapeFile(File dir, String name, long seed, int count,
+                                        int numPoints, boolean rtree) throws IOException {
+        Random random = new Random(seed);
+        EsriPolygonList list = new EsriPolygonList();
+        DbfTableModel model = createDbfModel();
+
+        for (double[] lls : randomPolygons(seed, count, numPoints)) {
+            list.add(new EsriPolygon(lls, OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_STRAIGHT));
+            model.addRecord(createRecord(random, model.getRowCount()));
+        }
+
+        dir.mkdirs();
+        String path = new File(dir, name).getPath();
+        EsriShapeExport export = new EsriShapeExport(list, model, path);
+        export.export();
+
+        String shpPath = path + ".shp";
+        if (!new File(shpPath).exists()) {
+            throw new IOException("shape file " + shpPath + " wasn't written");
+        }
+
+        if (rtree) {
+            SpatialIndex.FileIndex.createRTree(shpPath);
+        } else {
+            SpatialIndex.FileIndex.create(shpPath);
+        }
+        return shpPath;
+    }
+
+    protected static DbfTableModel createDbfModel() {
+        DbfTableModel model = new DbfTableModel(4);
+        model.setColumnName(0, "ID");
+        model.setType(0, DbfTableModel.TYPE_NUMERIC);
+        model.setLength(0, 10);
+        model.setDecimalCount(0, (byte) 0);
+        model.setColumnName(1, "NAME");
+        model.setType(1, DbfTableModel.TYPE_CHARACTER);
+        model.setLength(1, 32);
+        model.setDecimalCount(1, (byte) 0);
+        model.setColumnName(2, "AREA");
+        model.setType(2, DbfTableModel.TYPE_NUMERIC);
+        model.setLength(2, 16);
+        model.setDecimalCount(2, (byte) 4);
+        model.setColumnName(3, "CATEGORY");
+        model.setType(3, DbfTableModel.TYPE_CHARACTER);
+        model.setLength(3, 8);
+        model.setDecimalCount(3, (byte) 0);
+        return model;
+    }
+
+    protected static List<Object> createRecord(Random random, int id) {
+        List<Object> record = new ArrayList<Object>(4);
+        record.add(new Double(id));
+        record.add("Feature " + id);
+        record.add(new Double(random.nextDouble() * 100000));
+        record.add("CAT" + random.nextInt(16));
+        return record;
+    }
+
+    /**
+     * Write a file of big endian primitives, count repetitions of an int, a
+     * short, a float, a double and a long, for the BinaryFile benchmarks.
+     *
+     * @return the file.
+     */
+    public static File writeBinaryFile(File dir, String name, long seed, int count)
+            throws IOException {
+        Random random = new Random(seed);
+        dir.mkdirs();
+        File file = new File(dir, name);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < count; i++) {
+                dos.writeInt(random.nextInt());
+                dos.writeShort(random.nextInt());
+                dos.writeFloat(random.nextFloat());
+                dos.writeDouble(random.nextDouble());
+                dos.writeLong(random.nextLong());
+            }
+        } finally {
+            dos.close();
+        }
+        return file;
+    }
+
+    /** The number of bytes in each repetition of writeBinaryFile(). */
+    public final static int BINARY_RECORD_SIZE = 4 + 2 + 4 + 8 + 8;
+
+    /**
+     * Create a temporary directory for benchmark files.
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, "");
+        if (!file.delete() || !file.mkdirs()) {
+            throw new IOException("can't create temporary directory " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Delete a directory created with createTempDir() and its files.
+     */
+    public static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    protected static double wrapLon(double lon) {
+        if (lon > 180) {
+            return lon - 360;
+        } else if (lon < -180) {
+            return lon + 360;
+        }
+        return lon;
+    }
+}
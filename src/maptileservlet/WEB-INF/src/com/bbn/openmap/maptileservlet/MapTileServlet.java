@@ -23,6 +23,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.bbn.openmap.dataAccess.mapTile.MBTilesReader;
 import com.bbn.openmap.util.ComponentFactory;
 import com.bbn.openmap.util.PropUtils;
 import com.bbn.openmap.util.http.HttpConnection;
@@ -96,6 +97,18 @@ public class MapTileServlet extends HttpServlet {
 
     }
 
+    /**
+     * Called when the servlet is taken out of service, closes the tile sets.
+     */
+    public void destroy() {
+        synchronized (mapTileSets) {
+            for (MapTileSet mts : mapTileSets.values()) {
+                mts.close();
+            }
+        }
+        super.destroy();
+    }
+
     /**
      * Given a URL to a properties file describing a MapTileSet, create it and
      * add it to the list.
@@ -206,6 +219,11 @@ public class MapTileServlet extends HttpServlet {
                 return;
             }
 
+            if (mts instanceof TileMillMapTileSet) {
+                writeTile(req, resp, (TileMillMapTileSet) mts, pathInfo);
+                return;
+            }
+
             try {
                 resp.setContentType(HttpConnection.CONTENT_PNG);
                 byte[] imageData = mts.getImageData(pathInfo);
@@ -225,6 +243,40 @@ public class MapTileServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Send a tile from an mbtiles file as it is stored, answering with
+     * 304 Not Modified if the request has a matching If-None-Match header.
+     */
+    protected void writeTile(HttpServletRequest req, HttpServletResponse resp, TileMillMapTileSet mts, String pathInfo)
+            throws IOException {
+        MBTilesReader.Tile tile = mts.getTile(pathInfo);
+        if (tile == null) {
+            Logger logger = getLogger();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Tile not found: " + pathInfo);
+            }
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Problem loading " + pathInfo
+                    + " from map tile set:" + mts.getName());
+            return;
+        }
+
+        String eTag = "\"" + tile.getETag() + "\"";
+        resp.setHeader("ETag", eTag);
+
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(eTag))) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        byte[] imageData = tile.getData();
+        resp.setContentType(tile.getContentType());
+        resp.setContentLength(imageData.length);
+        OutputStream out = resp.getOutputStream();
+        out.write(imageData, 0, imageData.length);
+        out.flush();
+    }
+
     protected MapTileSet getMapTileSetForRequest(String pathInfo) {
         if (pathInfo.startsWith("/")) {
             pathInfo = pathInfo.substring(1);
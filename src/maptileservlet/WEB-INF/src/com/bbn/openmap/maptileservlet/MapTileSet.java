@@ -60,4 +60,10 @@ public interface MapTileSet extends PropertyConsumer {
     * @param description
     */
    public void setDescription(String description);
+
+   /**
+    * Called by the MapTileServlet when it's taken out of service, to let go
+    * of files, connections and caches held for the tile set.
+    */
+   public void close();
 }
@@ -28,6 +28,18 @@ import com.bbn.openmap.util.PropUtils;
  * localCacheRootDir=the local path of the cached tiles, i.e. /data/tiles/{z}/{x}/{y}.png
  * </pre>
  * 
+ * Instead of localCacheRootDir, a managed tile store can be used to hold the
+ * relayed tiles, which keeps them in a few large files, limits the space they
+ * take up, and checks expired tiles with the remote server:
+ * 
+ * <pre>
+ * tileStoreDir=/data/tiles/tileset-store
+ * # megabytes
+ * tileStoreMaxSize=200000
+ * # seconds, for tiles the remote server doesn't give an expiration for
+ * tileTimeToLive=604800
+ * </pre>
+ * 
  * As an example, a url for accessing a tile from this server would be:
  * <pre>
  * http://your.machine/ommaptile/the-name-of-dataset/z/x/y.png
@@ -85,6 +97,10 @@ public class RelayMapTileSet extends ServerMapTileFactory implements MapTileSet
             return imageData;
         }
 
+        if (getTileStore() != null) {
+            return getTileBytes(tInfo.x, tInfo.y, tInfo.zoomLevel);
+        }
+
         if (localCacheDir != null) {
             localFilePath = buildLocalFilePath(tInfo.x, tInfo.y, tInfo.zoomLevel, fileExt);
 
@@ -123,4 +139,11 @@ public class RelayMapTileSet extends ServerMapTileFactory implements MapTileSet
     public void setDescription(String description) {
         this.description = description;
     }
+
+    /**
+     * Closes the tile store.
+     */
+    public void close() {
+        closeTileStore();
+    }
 }
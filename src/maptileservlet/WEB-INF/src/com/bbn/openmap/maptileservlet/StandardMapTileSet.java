@@ -143,4 +143,11 @@ public class StandardMapTileSet extends StandardMapTileFactory implements MapTil
     public void setDescription(String description) {
         this.description = description;
     }
+
+    /**
+     * Dumps the tile cache.
+     */
+    public void close() {
+        reset();
+    }
 }
@@ -2,20 +2,12 @@
  */
 package com.bbn.openmap.maptileservlet;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.util.Properties;
 import java.util.logging.Logger;
 
-import javax.swing.ImageIcon;
-
+import com.bbn.openmap.dataAccess.mapTile.MBTilesReader;
 import com.bbn.openmap.dataAccess.mapTile.TileMillMapTileFactory;
-import com.bbn.openmap.image.BufferedImageHelper;
-import com.bbn.openmap.image.PNGImageIOFormatter;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.util.PropUtils;
 
@@ -26,7 +18,13 @@ import com.bbn.openmap.util.PropUtils;
  * name=the-name-of-dataset
  * class=com.bbn.openmap.maptileservlet.TileMillMapTileSet
  * rootDir=the path to the mbtiles file.
- *  * </pre>
+ * # optional, number of database connections to keep open, default is 4.
+ * poolSize=4
+ * </pre>
+ * 
+ * The tile images are sent as they are stored in the mbtiles file, without
+ * being decoded, and each tile has an ETag so clients can revalidate the tiles
+ * they have cached.
  * 
  * As an example, a url for accessing a tile from this server would be:
  * 
@@ -41,6 +39,11 @@ import com.bbn.openmap.util.PropUtils;
  */
 public class TileMillMapTileSet extends StandardMapTileSet {
 
+    /**
+     * The number of database connections to use for reading tiles.
+     */
+    protected int poolSize = MBTilesReader.DEFAULT_POOL_SIZE;
+
     public TileMillMapTileSet() {
     }
 
@@ -52,56 +55,56 @@ public class TileMillMapTileSet extends StandardMapTileSet {
         props = super.getProperties(props);
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + CLASS_ATTRIBUTE, this.getClass().getName());
+        props.put(prefix + TileMillMapTileFactory.POOL_SIZE_PROPERTY, Integer.toString(poolSize));
 
         return props;
     }
 
-    public byte[] getImageData(String pathInfo) throws IOException, FormatException {
+    public void setProperties(String prefix, Properties props) {
+        super.setProperties(prefix, props);
+        prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
-        byte[] imageData = null;
+        poolSize = PropUtils.intFromProperties(props, prefix
+                + TileMillMapTileFactory.POOL_SIZE_PROPERTY, poolSize);
+    }
 
-        try {
-            Class.forName(TileMillMapTileFactory.DEFAULT_TEST_CLASS);
-        } catch (Exception e) {
-            getLogger().warning("can't locate sqlite JDBC components");
+    /**
+     * Get the tile for a request path, with the image bytes as they are stored
+     * in the mbtiles file and the ETag for them.
+     * 
+     * @param pathInfo path for the tile, in z/x/y format.
+     * @return the tile, or null if it isn't found.
+     */
+    public MBTilesReader.Tile getTile(String pathInfo) {
+        MBTilesReader reader = MBTilesReader.getReader(rootDir, poolSize, TileMillMapTileFactory.DEFAULT_TEST_CLASS);
+        if (reader == null) {
             return null;
         }
 
         try {
-
             TileInfo ti = new TileInfo(pathInfo);
-
-            Connection conn = DriverManager.getConnection(rootDir);
-            Statement stat = conn.createStatement();
-
-            // "select zoom_level, tile_column, tile_row, tile_data from map, images where map.tile_id = images.tile_id";
-            StringBuilder statement = new StringBuilder("select tile_data from map, images where");
-            statement.append(" zoom_level = ").append(ti.zoomLevel);
-            statement.append(" and tile_column = ").append(ti.x);
-            statement.append(" and tile_row = ").append((int) (Math.pow(2, ti.zoomLevel)) - ti.y
-                    - 1);
-            statement.append(" and map.tile_id = images.tile_id;");
-
-            ResultSet rs = stat.executeQuery(statement.toString());
-            while (rs.next()) {
-                byte[] imageBytes = rs.getBytes("tile_data");
-                ImageIcon ii = new ImageIcon(imageBytes);
-                BufferedImage bi = BufferedImageHelper.getBufferedImage(ii.getImage(), 0, 0, -1, -1);
-
-                // TODO: Still have to incorporate properties or something to
-                // all
-                // specification of map image format.
-                imageData = new PNGImageIOFormatter().formatImage(bi);
+            if (ti.valid) {
+                return reader.getTile(ti.zoomLevel, ti.x, ti.y);
             }
-            rs.close();
-            conn.close();
         } catch (Exception e) {
             getLogger().warning("something went wrong fetching image from database: "
                     + e.getMessage());
-            e.printStackTrace();
         }
 
-        return imageData;
+        return null;
+    }
+
+    public byte[] getImageData(String pathInfo) throws IOException, FormatException {
+        MBTilesReader.Tile tile = getTile(pathInfo);
+        return tile != null ? tile.getData() : null;
+    }
+
+    /**
+     * Closes the database connections of the reader for the mbtiles file.
+     */
+    public void close() {
+        super.close();
+        MBTilesReader.release(rootDir);
     }
 
     /**
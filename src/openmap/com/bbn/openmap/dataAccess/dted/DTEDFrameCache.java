@@ -23,6 +23,7 @@
 package com.bbn.openmap.dataAccess.dted;
 
 import java.awt.geom.Point2D;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Vector;
@@ -51,6 +52,8 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * 
  * 
  *         frameCache.cacheSize=40
+ *         # Optional, maximum bytes of elevation data to keep, 0 for no limit
+ *         frameCache.cacheBytes=100000000
  *         frameCache.directoryHandlers=dteddir1 dteddir2
  *         frameCache.dteddir1.translator=com.bbn.openmap.dataAccess.dted.StandardDTEDNameTranslator
  *         frameCache.dteddir1.path=/data/dted
@@ -66,6 +69,11 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * that doesn't conform to the naming conventions specified in the Military
  * Standard, you can use a different DTEDNameTranslator instead for your
  * particular directory handler.
+ * <P>
+ * Frames of different DTED levels take up very different amounts of memory,
+ * from about 30KB for level 0 to about 25MB for level 2. The cacheBytes
+ * property bounds the cache by the size of the elevation data it holds, on
+ * top of the number of frames.
  */
 public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
     /**
@@ -75,6 +83,7 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
     public static final String DTEDDirectoryHandlerProperty = "directoryHandlers";
     public static final String DTEDFrameCacheSizeProperty = "cacheSize";
+    public static final String DTEDFrameCacheBytesProperty = "cacheBytes";
 
     public int DEFAULT_CACHE_SIZE = 20;
 
@@ -198,6 +207,8 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
          */
         public DTEDCacheObject(String id, DTEDFrame obj) {
             super(id, obj);
+            // The frames are read whole, two bytes for each elevation post.
+            setCost(2L * obj.uhl.num_lon_lines * obj.uhl.num_lat_points);
         }
 
         /**
@@ -238,48 +249,9 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
      * @param max_size the new size of the cache.
      */
     public void resizeCache(int max_size) {
-
-        CacheObject[] oldObjs = objs;
-
-        if (max_size != objs.length && max_size > 0) {
-            objs = new CacheObject[max_size];
-        }
-
-        for (int i = 0; i < objs.length; i++) {
-
-            if (i >= oldObjs.length) {
-                break;
-            }
-
-            DTEDCacheObject dco = (DTEDCacheObject) oldObjs[i];
-
-            if (dco == null) {
-                // We load from the front to the back 0 -> length - 1;
-                // Once you hit a null, the rest should be null, too.
-                objs[i] = null;
-                continue;
-            }
-
-            DTEDFrame frame = (DTEDFrame) (dco.obj);
-            dco.cachedTime = 0;
-
-            if (frame == null) {
-                Debug.output("DTEDFrameCache: No Frame for key!");
-                continue;
-            }
-
-            if (oldObjs == objs) {
-                continue;
-            }
-
-            if (i < oldObjs.length) {
-                objs[i] = oldObjs[i];
-            } else {
-                objs[i] = null;
-            }
+        if (max_size > 0 && max_size != getCacheSize()) {
+            resize(max_size);
         }
-
-        oldObjs = null;
     }
 
     public int getHighestResLevel() {
@@ -339,6 +311,53 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         return NO_DATA;
     }
 
+    /**
+     * Return the elevations of a set of points, in meters, the same values
+     * getElevation(lat, lon) returns for each one. The frame for each one
+     * degree cell is only looked up once, instead of once for each point, so
+     * this is much faster for filling dense grids of points.
+     * 
+     * @param lats latitudes of the points, in decimal degrees.
+     * @param lons longitudes of the points, in decimal degrees.
+     * @param elevations array to put the elevations in, or null to have one
+     *        created. Points without data get NO_DATA.
+     * @return array of elevations, in meters.
+     */
+    public short[] getElevations(float[] lats, float[] lons, short[] elevations) {
+        int count = lats.length;
+        if (elevations == null) {
+            elevations = new short[count];
+        }
+
+        // Frames by one degree cell, null for cells without data.
+        HashMap<Long, DTEDFrame> frames = new HashMap<Long, DTEDFrame>();
+        long lastCell = Long.MIN_VALUE;
+        DTEDFrame frame = null;
+
+        for (int i = 0; i < count; i++) {
+            float lat = lats[i];
+            float lon = lons[i];
+            long cell = ((long) Math.floor(lat) << 32) | ((long) Math.floor(lon) & 0xFFFFFFFFL);
+            if (cell != lastCell) {
+                lastCell = cell;
+                Long key = Long.valueOf(cell);
+                if (frames.containsKey(key)) {
+                    frame = frames.get(key);
+                } else {
+                    frame = null;
+                    for (int level = highestResLevel; level >= 0 && frame == null; level--) {
+                        frame = get(lat, lon, level);
+                    }
+                    frames.put(key, frame);
+                }
+            }
+
+            elevations[i] = (short) (frame != null ? frame.elevationAt(lat, lon) : NO_DATA);
+        }
+
+        return elevations;
+    }
+
     /**
      * Return the two-dimensional matrix of elevation posts (heights)
      * representing coverage of a given geographical rectangle. The matrix
@@ -619,6 +638,8 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
         resetCache(PropUtils.intFromProperties(props, prefix
                 + DTEDFrameCacheSizeProperty, DEFAULT_CACHE_SIZE));
+        setMaxCost(PropUtils.longFromProperties(props, prefix
+                + DTEDFrameCacheBytesProperty, getMaxCost()));
     }
 
     /**
@@ -632,6 +653,8 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + DTEDFrameCacheSizeProperty,
                 Integer.toString(getCacheSize()));
+        props.put(prefix + DTEDFrameCacheBytesProperty,
+                Long.toString(getMaxCost()));
 
         // Directory handler properties...
         if (directories != null) {
@@ -665,6 +688,8 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         }
 
         props.put(DTEDFrameCacheSizeProperty, "Size of the frame cache");
+        props.put(DTEDFrameCacheBytesProperty,
+                "Maximum bytes of elevation data in the frame cache, 0 for no limit");
 
         // Not sure how to handle setting up a DTEDDirectoryHandler
         // yet.
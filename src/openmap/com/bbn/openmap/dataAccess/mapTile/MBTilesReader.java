@@ -0,0 +1,338 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The MBTilesReader fetches the stored bytes of tiles from an mbtiles file (a
+ * sqlite database, the TileMill export format). It keeps a small pool of JDBC
+ * connections to the file, each with a prepared tile query, so tiles can be
+ * fetched from several threads without opening a connection for each tile.
+ * The tile bytes are returned as stored, so a server can pass them on without
+ * decoding and re-encoding the image.
+ * <P>
+ * Readers are shared by database path, so the TileMillMapTileFactory and the
+ * TileMillMapTileSet in the same VM use the same connections for the same
+ * file. Use getReader() to get one.
+ * <P>
+ * Tiles are requested with OSM tile coordinates, the y coordinate is flipped
+ * to the TMS row stored in the mbtiles file.
+ */
+public class MBTilesReader {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.mapTile.MBTilesReader");
+
+    /** The default number of connections kept open to an mbtiles file. */
+    public final static int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * The tile query. The tile_id from the map table is used as the ETag when
+     * it is set, TileMill makes it a hash of the image data.
+     */
+    public final static String TILE_QUERY = "select map.tile_id, images.tile_data from map, images where zoom_level = ? and tile_column = ? and tile_row = ? and map.tile_id = images.tile_id";
+
+    protected final static Map<String, MBTilesReader> readers = new ConcurrentHashMap<String, MBTilesReader>();
+
+    /** The JDBC path to the database, "jdbc:sqlite:path to file". */
+    protected final String jdbcPath;
+    /** Connections that aren't being used. */
+    protected final BlockingQueue<PooledQuery> idle;
+    /** Limits the number of connections that are open at any time. */
+    protected final Semaphore permits;
+    protected final int poolSize;
+
+    /**
+     * Create a reader for a database, use getReader() to share readers for the
+     * same file.
+     *
+     * @param jdbcPath the JDBC path to the database.
+     * @param poolSize the maximum number of connections to open.
+     */
+    public MBTilesReader(String jdbcPath, int poolSize) {
+        this.jdbcPath = jdbcPath;
+        this.poolSize = Math.max(1, poolSize);
+        this.idle = new ArrayBlockingQueue<PooledQuery>(this.poolSize);
+        this.permits = new Semaphore(this.poolSize, true);
+    }
+
+    /**
+     * Get the shared reader for a database, creating it if needed.
+     *
+     * @param jdbcPath the JDBC path to the database.
+     * @param poolSize the maximum number of connections to open, only used if
+     *        the reader is created.
+     * @param testClass a class in the JDBC driver package, loaded to make sure
+     *        the driver is available. May be null.
+     * @return MBTilesReader, or null if the driver can't be found.
+     */
+    public static MBTilesReader getReader(String jdbcPath, int poolSize, String testClass) {
+        if (jdbcPath == null) {
+            return null;
+        }
+
+        if (testClass != null) {
+            try {
+                Class.forName(testClass);
+            } catch (Exception e) {
+                logger.warning("can't locate sqlite JDBC components");
+                return null;
+            }
+        }
+
+        synchronized (readers) {
+            MBTilesReader reader = readers.get(jdbcPath);
+            if (reader == null) {
+                reader = new MBTilesReader(jdbcPath, poolSize);
+                readers.put(jdbcPath, reader);
+            }
+            return reader;
+        }
+    }
+
+    /**
+     * Close the connections of the shared reader for a database and forget
+     * about it.
+     */
+    public static void release(String jdbcPath) {
+        if (jdbcPath != null) {
+            MBTilesReader reader = readers.remove(jdbcPath);
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    public String getJdbcPath() {
+        return jdbcPath;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Get a tile, with the bytes as they are stored in the database.
+     *
+     * @param zoomLevel the zoom level of the tile.
+     * @param x OSM tile x coordinate.
+     * @param y OSM tile y coordinate.
+     * @return the Tile, or null if the database doesn't have it.
+     * @throws SQLException if there's a problem with the database.
+     */
+    public Tile getTile(int zoomLevel, int x, int y) throws SQLException {
+        int row = (1 << zoomLevel) - y - 1;
+        PooledQuery query = borrow();
+        boolean ok = false;
+        try {
+            Tile tile = query.fetch(zoomLevel, x, row);
+            ok = true;
+            return tile;
+        } finally {
+            giveBack(query, ok);
+        }
+    }
+
+    /**
+     * Get the stored image bytes for a tile.
+     *
+     * @param zoomLevel the zoom level of the tile.
+     * @param x OSM tile x coordinate.
+     * @param y OSM tile y coordinate.
+     * @return byte[] of image data, or null if the database doesn't have it.
+     * @throws SQLException if there's a problem with the database.
+     */
+    public byte[] getTileData(int zoomLevel, int x, int y) throws SQLException {
+        Tile tile = getTile(zoomLevel, x, y);
+        return tile != null ? tile.getData() : null;
+    }
+
+    /**
+     * Get a connection from the pool, opening a new one if none are idle and
+     * the pool isn't full. Waits for one to be returned otherwise.
+     */
+    protected PooledQuery borrow() throws SQLException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for connection to " + jdbcPath);
+        }
+
+        PooledQuery query = idle.poll();
+        if (query == null) {
+            try {
+                query = new PooledQuery(DriverManager.getConnection(jdbcPath));
+            } catch (SQLException sqle) {
+                permits.release();
+                throw sqle;
+            } catch (RuntimeException re) {
+                permits.release();
+                throw re;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Return a connection to the pool. Connections that had a problem are
+     * closed instead, a new one will be opened when needed.
+     */
+    protected void giveBack(PooledQuery query, boolean ok) {
+        try {
+            if (!ok || !idle.offer(query)) {
+                query.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close the idle connections. Connections in use are closed when they are
+     * returned, if the pool is full.
+     */
+    public void close() {
+        PooledQuery query;
+        while ((query = idle.poll()) != null) {
+            query.close();
+        }
+    }
+
+    /**
+     * Create an ETag for tile data, for tiles that don't have a tile_id.
+     */
+    public static String createETag(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length);
+    }
+
+    /**
+     * Figure out the image content type from the first bytes of image data.
+     *
+     * @return the mime type, image/png if the format isn't recognized.
+     */
+    public static String getContentType(byte[] data) {
+        if (data != null && data.length > 3) {
+            if ((data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8) {
+                return "image/jpeg";
+            }
+            if (data[0] == 'G' && data[1] == 'I' && data[2] == 'F') {
+                return "image/gif";
+            }
+        }
+        return "image/png";
+    }
+
+    /**
+     * The stored bytes of a tile and the ETag for them.
+     */
+    public static class Tile {
+        protected final byte[] data;
+        protected final String eTag;
+
+        public Tile(byte[] data, String eTag) {
+            this.data = data;
+            this.eTag = eTag;
+        }
+
+        /**
+         * @return the image bytes, as stored in the database.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the ETag for the tile, without quotes.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return the mime type of the image data.
+         */
+        public String getContentType() {
+            return MBTilesReader.getContentType(data);
+        }
+    }
+
+    /**
+     * A connection and its prepared tile query. Only used by one thread at a
+     * time.
+     */
+    protected static class PooledQuery {
+        protected final Connection conn;
+        protected final PreparedStatement statement;
+
+        protected PooledQuery(Connection conn) throws SQLException {
+            this.conn = conn;
+            try {
+                this.statement = conn.prepareStatement(TILE_QUERY);
+            } catch (SQLException sqle) {
+                conn.close();
+                throw sqle;
+            }
+        }
+
+        protected Tile fetch(int zoomLevel, int column, int row) throws SQLException {
+            statement.setInt(1, zoomLevel);
+            statement.setInt(2, column);
+            statement.setInt(3, row);
+            ResultSet rs = statement.executeQuery();
+            try {
+                if (rs.next()) {
+                    String tileId = rs.getString(1);
+                    byte[] data = rs.getBytes(2);
+                    if (data == null) {
+                        return null;
+                    }
+                    return new Tile(data, tileId != null && tileId.length() > 0 ? tileId
+                            : createETag(data));
+                }
+                return null;
+            } finally {
+                rs.close();
+            }
+        }
+
+        protected void close() {
+            try {
+                statement.close();
+            } catch (SQLException sqle) {
+                logger.log(Level.FINE, "problem closing statement", sqle);
+            }
+            try {
+                conn.close();
+            } catch (SQLException sqle) {
+                logger.log(Level.FINE, "problem closing connection", sqle);
+            }
+        }
+    }
+}
@@ -31,20 +31,41 @@ import java.awt.Paint;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import com.bbn.openmap.Environment;
@@ -56,6 +77,7 @@ import com.bbn.openmap.image.SunJPEGFormatter;
 import com.bbn.openmap.layer.imageTile.MapTileLayer;
 import com.bbn.openmap.layer.shape.ShapeLayer;
 import com.bbn.openmap.omGraphics.OMColor;
+import com.bbn.openmap.plugin.PlugInLayer;
 import com.bbn.openmap.proj.Mercator;
 import com.bbn.openmap.proj.Proj;
 import com.bbn.openmap.proj.Projection;
@@ -86,6 +108,10 @@ import com.bbn.openmap.util.PropUtils;
  * layers=layer1 layer2 ...
  * rootDir=Path to top level directory for tiles
  * zoomLevels=zoom1 zoom2
+ * # Number of threads making tiles, default 1. Each thread uses its own copies of the layers.
+ * threads=8
+ * # Render blocks of metaTileSize x metaTileSize tiles at once, default 1.
+ * metaTileSize=8
  * 
  * formatter1=.class=com.bbn.openmap.image.PNGImageIOFormatter
  * layer1.class=com.bbn.openmap.layer.shape.ShapeLayer
@@ -106,14 +132,36 @@ import com.bbn.openmap.util.PropUtils;
  * # and repeat for every zoomLevel defined
  * </pre>
  * 
+ * Rendering metatiles saves the layers from preparing their data once for
+ * every tile, and keeps labels and symbols on tile edges consistent. The
+ * finished metatiles are listed in a tiles.progress file in the root
+ * directory while the tiles are being made, and if the MapTileMaker is
+ * stopped, the next run skips them. Delete the progress file to start over.
+ * 
  * @author dietrick
  */
 public class MapTileMaker extends ImageServer implements EmptyTileHandler {
 
     public final static String ROOT_DIRECTORY_PROPERTY = "rootDir";
     public final static String ZOOM_LEVELS_PROPERTY = "zoomLevels";
+    public final static String THREADS_PROPERTY = "threads";
+    public final static String META_TILE_SIZE_PROPERTY = "metaTileSize";
+    /** The file in the root directory listing the finished metatiles. */
+    public final static String PROGRESS_FILE = "tiles.progress";
 
     protected String rootDir;
+    /*
+     * No initializers for threads and metaTileSize, the properties are set
+     * from the ImageServer constructor and initializers would run after that.
+     * Values less than 1 are treated as 1.
+     */
+    /** The number of threads making tiles. */
+    protected int threads;
+    /**
+     * The number of tiles along each side of the block rendered at once,
+     * before being cut up into tiles.
+     */
+    protected int metaTileSize;
     protected List<ZoomLevelMaker> zoomLevels;
     protected MapTileCoordinateTransform mtcTransform = new OSMMapTileCoordinateTransform();
     protected int TILE_SIZE = mtcTransform.getTileSize();
@@ -171,6 +219,8 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
         rootDir = props.getProperty(prefix + ROOT_DIRECTORY_PROPERTY, rootDir);
+        threads = PropUtils.intFromProperties(props, prefix + THREADS_PROPERTY, threads);
+        metaTileSize = PropUtils.intFromProperties(props, prefix + META_TILE_SIZE_PROPERTY, metaTileSize);
         List<ZoomLevelMaker> zoomLevels = (List<ZoomLevelMaker>) PropUtils.objectsFromProperties(props, prefix
                 + ZOOM_LEVELS_PROPERTY, ComponentFactory.ClassNameProperty);
         getZoomLevels().addAll(zoomLevels);
@@ -180,6 +230,8 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         props = super.getProperties(props);
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + ROOT_DIRECTORY_PROPERTY, PropUtils.unnull(rootDir));
+        props.put(prefix + THREADS_PROPERTY, Integer.toString(getThreads()));
+        props.put(prefix + META_TILE_SIZE_PROPERTY, Integer.toString(getMetaTileSize()));
 
         StringBuffer buf = new StringBuffer();
         for (ZoomLevelMaker zfi : getZoomLevels()) {
@@ -197,6 +249,8 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
     public Properties getPropertyInfo(Properties props) {
         props = super.getPropertyInfo(props);
         PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, ROOT_DIRECTORY_PROPERTY, "Tile Directory", "Root directory for holding tile files.", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, THREADS_PROPERTY, "Threads", "Number of threads making tiles.", null);
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, META_TILE_SIZE_PROPERTY, "Metatile Size", "Number of tiles on each side of the blocks rendered at once.", null);
         return props;
     }
 
@@ -361,138 +415,553 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
      * layers already set on the MapTileMaker, or it can have a List of Layer
      * objects to use. The root output directory has to be set in the
      * MapTileMaker. The image formatter also needs to be set.
+     * <p>
+     * The tiles are created by the number of threads set, metaTileSize x
+     * metaTileSize tiles at a time. Finished metatiles are recorded in a
+     * progress file in the root directory, which is deleted when all of the
+     * tiles are done. If the progress file is there when this method is
+     * called, the metatiles it lists are skipped. Tile files that already
+     * exist with the same contents aren't written again.
      */
     public void makeTiles() {
 
         if (rootDir != null) {
             File rd = new File(rootDir);
             if (!rd.exists()) {
-                rd.mkdir();
+                rd.mkdirs();
             }
         }
 
-        Proj proj = new Mercator(new LatLonPoint.Double(), 10000, MapTileCoordinateTransform.TILE_SIZE, MapTileCoordinateTransform.TILE_SIZE);
+        TileProgress progress;
+        try {
+            progress = new TileProgress(new File(getRootDir(), PROGRESS_FILE));
+        } catch (IOException ioe) {
+            logger.warning("Can't write tile progress file: " + ioe.getMessage());
+            return;
+        }
 
-        List<ZoomLevelMaker> zoomLevels = getZoomLevels();
-        for (ZoomLevelMaker zfi : zoomLevels) {
-            logger.info("writing zoom level " + zfi.getName() + " tiles...");
-            int zoomLevel = zfi.getZoomLevel();
-            for (Rectangle2D bounds : zfi.getUVBounds(mtcTransform, zoomLevel)) {
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine(" creating tiles " + bounds);
-                }
-                int startx = (int) bounds.getX();
-                int starty = (int) bounds.getY();
-                int xofflimit = (int) bounds.getWidth();
-                int yofflimit = (int) bounds.getHeight();
+        List<TileWorker> workers = createWorkers();
+        final BlockingQueue<TileWorker> idleWorkers = new LinkedBlockingQueue<TileWorker>(workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size(), new ThreadFactory() {
+            int count = 0;
 
-                for (int xoff = 0; xoff < xofflimit; xoff++) {
-                    int x = startx + xoff;
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MapTileMaker-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        boolean complete = true;
+        try {
+            for (ZoomLevelMaker zfi : getZoomLevels()) {
+                logger.info("writing zoom level " + zfi.getName() + " tiles...");
+                int zoomLevel = zfi.getZoomLevel();
+
+                TileLevel level = new TileLevel(zoomLevel, zfi, zfi, -1, getBackground());
+                boolean levelComplete = makeTiles(level, zfi.getUVBounds(mtcTransform, zoomLevel), executor, idleWorkers, progress);
+
+                // At this point, for a specific ZoomLevelInfo, the basic tiles
+                // for it have been created. Now we can check the range and
+                // create tiles for the range out of the new tiles. Range
+                // levels aren't made from incomplete levels, they would be
+                // recorded as done with missing pieces.
+                int range = zfi.getRange();
+                for (int rangeZoomLevel = zoomLevel - 1; levelComplete && rangeZoomLevel >= range; rangeZoomLevel--) {
+                    ZoomLevelInfo rangeZFI = new ZoomLevelInfo();
+                    rangeZFI.setZoomLevel(rangeZoomLevel);
+                    rangeZFI.setScale(mtcTransform.getScaleForZoom(rangeZoomLevel));
 
-                    // Reset every x loop for first time check through y loop
-                    String parentDirPath = null;
+                    List<Rectangle2D> uvBounds = new ArrayList<Rectangle2D>();
+                    for (Rectangle2D rawBounds : zfi.getBounds()) {
+                        uvBounds.add(rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel));
+                    }
 
-                    for (int yoff = 0; yoff < yofflimit; yoff++) {
-                        int y = starty + yoff;
+                    // Create new tiles from the tiles one zoom level up
+                    level = new TileLevel(rangeZoomLevel, rangeZFI, null, rangeZoomLevel + 1, OMColor.clear);
+                    levelComplete = makeTiles(level, uvBounds, executor, idleWorkers, progress);
+                }
+                complete &= levelComplete;
+            }
+        } catch (InterruptedException ie) {
+            logger.warning("interrupted, tiles are incomplete");
+            complete = false;
+        } finally {
+            executor.shutdownNow();
+            progress.close();
+        }
 
-                        if (parentDirPath == null) {
-                            parentDirPath = zfi.formatParentDirectoryName(getRootDir(), x, y);
-                            File parentDir = new File(parentDirPath);
-                            if (!parentDir.exists()) {
-                                parentDir.mkdirs();
-                            }
-                        }
+        if (complete) {
+            progress.delete();
+            logger.info("done writing tiles");
+        } else {
+            logger.warning("some tiles weren't created, run again to finish them");
+        }
+    }
 
-                        try {
-                            String outputFile = makeTileFile(x, y, zfi, proj);
-                            if (logger.isLoggable(Level.FINER)) {
-                                logger.finer("wrote: " + outputFile);
+    /**
+     * Create the tiles for a zoom level, splitting the work into metatiles
+     * for the workers. Returns when all of the tiles are done.
+     * 
+     * @return true if all the metatiles were completed.
+     */
+    protected boolean makeTiles(final TileLevel level, final List<Rectangle2D> uvBounds,
+                                ExecutorService executor,
+                                final BlockingQueue<TileWorker> idleWorkers,
+                                final TileProgress progress)
+            throws InterruptedException {
+
+        int edgeTileCount = level.pathInfo.getEdgeTileCount();
+        final int n = Math.min(getMetaTileSize(), edgeTileCount);
+
+        // Bounds can overlap, only make each metatile once.
+        Set<String> keys = new HashSet<String>();
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger unchanged = new AtomicInteger();
+        int skipped = 0;
+
+        for (Rectangle2D bounds : uvBounds) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(" creating tiles " + bounds);
+            }
+            int startx = (int) bounds.getX();
+            int starty = (int) bounds.getY();
+            int endx = Math.min(startx + (int) bounds.getWidth(), edgeTileCount);
+            int endy = Math.min(starty + (int) bounds.getHeight(), edgeTileCount);
+
+            for (int mx = startx - startx % n; mx < endx; mx += n) {
+                for (int my = starty - starty % n; my < endy; my += n) {
+                    final String key = level.getKey(mx, my, n);
+                    if (!keys.add(key)) {
+                        continue;
+                    }
+                    if (progress.isDone(key)) {
+                        skipped++;
+                        continue;
+                    }
+
+                    final int metax = mx;
+                    final int metay = my;
+                    results.add(executor.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            TileWorker worker = idleWorkers.take();
+                            try {
+                                makeMetaTile(level, metax, metay, n, uvBounds, worker, written, unchanged);
+                                progress.done(key);
+                            } finally {
+                                idleWorkers.put(worker);
                             }
-                        } catch (IOException ioe) {
-                            logger.warning("Caught IOException writing " + x + ", " + y + ", "
-                                    + zfi);
+                            return null;
                         }
-                    }
+                    }));
+                }
+            }
+        }
+
+        if (skipped > 0) {
+            logger.info(" skipping " + skipped + " metatiles finished in an earlier run");
+        }
+
+        boolean complete = true;
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException ee) {
+                complete = false;
+                logger.log(Level.WARNING, "problem creating tiles for zoom level "
+                        + level.zoomLevel, ee.getCause());
+            }
+        }
+
+        logger.info(" zoom level " + level.zoomLevel + ": " + written.get() + " tiles written, "
+                + unchanged.get() + " unchanged");
+        return complete;
+    }
+
+    /**
+     * Create the tiles in an n x n block of tiles, the ones that are inside
+     * the uv bounds. If n is greater than one, the whole block is rendered in
+     * one image and cut up into tiles.
+     * 
+     * @param level the zoom level being created.
+     * @param mx the uv x coordinate of the upper left tile in the block.
+     * @param my the uv y coordinate of the upper left tile in the block.
+     * @param n the number of tiles on each side of the block.
+     * @param uvBounds the tile bounds for the zoom level.
+     * @param worker the TileWorker holding the layers and projection for the
+     *        current thread.
+     * @param written counter for tile files written.
+     * @param unchanged counter for tile files that were already up to date.
+     * @throws IOException
+     */
+    protected void makeMetaTile(TileLevel level, int mx, int my, int n, List<Rectangle2D> uvBounds,
+                                TileWorker worker, AtomicInteger written, AtomicInteger unchanged)
+            throws IOException {
+
+        Proj proj = worker.proj;
+        int zoomLevel = level.zoomLevel;
 
+        if (n == 1) {
+            if (!isInBounds(mx, my, uvBounds)) {
+                return;
+            }
+
+            byte[] imageBytes;
+            if (level.zfi != null && !worker.copied) {
+                imageBytes = level.zfi.makeTile(mx, my, this, proj);
+            } else {
+                imageBytes = makeTile(mx, my, zoomLevel, worker.getLayers(level), proj, level.background);
+            }
+
+            countTileFile(writeTileFile(imageBytes, level.pathInfo.formatImageFilePath(getRootDir(), mx, my)), written, unchanged);
+            return;
+        }
+
+        BufferedImage metaTile = makeMetaTileImage(mx, my, n, zoomLevel, worker.getLayers(level), proj, level.background);
+        if (metaTile == null) {
+            return;
+        }
+
+        for (int x = mx; x < mx + n; x++) {
+            for (int y = my; y < my + n; y++) {
+                if (!isInBounds(x, y, uvBounds)) {
+                    continue;
                 }
+
+                BufferedImage tileImage = new BufferedImage(TILE_SIZE, TILE_SIZE, metaTile.getType());
+                Graphics2D g = tileImage.createGraphics();
+                g.drawImage(metaTile, -(x - mx) * TILE_SIZE, -(y - my) * TILE_SIZE, null);
+                g.dispose();
+
+                byte[] imageBytes = getFormatter().makeClone().formatImage(tileImage);
+                countTileFile(writeTileFile(imageBytes, level.pathInfo.formatImageFilePath(getRootDir(), x, y)), written, unchanged);
             }
+        }
+    }
 
-            // At this point, for a specific ZoomLevelInfo, the basic tiles for
-            // it have been created. Now we can check the range and create tiles
-            // for the range out of the new tiles.
-            int range = zfi.getRange();
-            if (range < zoomLevel) {
-                Properties rangeProps = new Properties();
-                MapTileLayer tileLayer = new MapTileLayer();
-                StandardMapTileFactory tileFactory = new StandardMapTileFactory();
-                tileFactory.setRootDir(getRootDir());
-                tileFactory.setFileExt(getFormatter().getFormatLabel());
-                tileLayer.setTileFactory(tileFactory);
+    private void countTileFile(boolean changed, AtomicInteger written, AtomicInteger unchanged) {
+        if (changed) {
+            written.incrementAndGet();
+        } else {
+            unchanged.incrementAndGet();
+        }
+    }
+
+    /**
+     * Render an n x n block of tiles into one image.
+     * 
+     * @param mx the uv x coordinate of the upper left tile in the block.
+     * @param my the uv y coordinate of the upper left tile in the block.
+     * @param n the number of tiles on each side of the block.
+     * @param zoomLevel zoom level for the tiles.
+     * @param layers layers to include in image, top layer first.
+     * @param proj projection to use for the image.
+     * @param background the paint to use for the background of the image.
+     * @return BufferedImage for the block, null if it couldn't be created.
+     */
+    public BufferedImage makeMetaTileImage(int mx, int my, int n, int zoomLevel, List<Layer> layers,
+                                           Proj proj, Paint background) {
+        int size = n * TILE_SIZE;
+        Point2D center = tileUVToLatLon(new Point2D.Double(mx + n / 2.0, my + n / 2.0), zoomLevel);
+        proj.setScale(mtcTransform.getScaleForZoom(zoomLevel));
+        proj.setCenter(center);
+        proj.setHeight(size);
+        proj.setWidth(size);
 
-                List<Layer> subLayers = new ArrayList<Layer>();
-                subLayers.add(tileLayer);
+        if (getFormatter() == null) {
+            logger.warning("no formatter set! Can't create image.");
+            return null;
+        }
 
-                for (int rangeZoomLevel = zoomLevel - 1; rangeZoomLevel >= range; rangeZoomLevel--) {
-                    tileLayer.setZoomLevel(rangeZoomLevel);
-                    ZoomLevelInfo rangeZFI = new ZoomLevelInfo();
-                    rangeZFI.setZoomLevel(rangeZoomLevel);
-                    rangeZFI.setScale(mtcTransform.getScaleForZoom(rangeZoomLevel));
-                    // Create new tiles from the tiles one zoom level up
-                    tileLayer.setZoomLevel(rangeZoomLevel + 1);
+        ImageFormatter imageFormatter = getFormatter().makeClone();
+        Graphics graphics = createGraphics(imageFormatter, size, size);
+        if (graphics == null) {
+            return null;
+        }
 
-                    for (Rectangle2D rawBounds : zfi.getBounds()) {
-                        Rectangle2D bounds = rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel);
-                        if (logger.isLoggable(Level.INFO)) {
-                            logger.fine(" creating subtiles " + bounds);
-                        }
-                        int startx = (int) bounds.getX();
-                        int starty = (int) bounds.getY();
-                        int xofflimit = (int) bounds.getWidth();
-                        int yofflimit = (int) bounds.getHeight();
-
-                        for (int xoff = 0; xoff < xofflimit; xoff++) {
-                            int x = startx + xoff;
-
-                            // Reset every x loop for first time check through y
-                            // loop
-                            String parentDirPath = null;
-
-                            for (int yoff = 0; yoff < yofflimit; yoff++) {
-                                int y = starty + yoff;
-
-                                if (parentDirPath == null) {
-                                    parentDirPath = rangeZFI.formatParentDirectoryName(getRootDir(), x, y);
-                                    File parentDir = new File(parentDirPath);
-                                    if (!parentDir.exists()) {
-                                        parentDir.mkdirs();
-                                    }
-                                }
-
-                                try {
-
-                                    byte[] imageBytes = makeTile(x, y, rangeZoomLevel, subLayers, proj, OMColor.clear);
-
-                                    String filePath = rangeZFI.formatImageFilePath(getRootDir(), (int) x, (int) y);
-                                    String outputFile = writeImageFile(imageBytes, filePath, true);
-
-                                    if (logger.isLoggable(Level.INFO)) {
-                                        logger.finer("wrote: " + outputFile);
-                                    }
-                                } catch (IOException ioe) {
-                                    logger.warning("Caught IOException writing " + x + ", " + y
-                                            + ", " + zfi);
-                                }
-                            }
+        proj.drawBackground((Graphics2D) graphics, background);
 
-                        }
+        List<Layer> renderList = new ArrayList<Layer>(layers);
+        Collections.reverse(renderList);
+        renderLayers(proj, graphics, renderList);
+        graphics.dispose();
+
+        return imageFormatter.getBufferedImage();
+    }
 
+    /**
+     * Write a tile file, unless there is already a file there with the same
+     * contents. The formatter's extension is added to the file path if it's
+     * needed, and parent directories are created.
+     * 
+     * @param imageBytes formatted image bytes.
+     * @param filePath path of the tile file.
+     * @return true if the file was written, false if it was already up to
+     *         date.
+     * @throws IOException
+     */
+    protected boolean writeTileFile(byte[] imageBytes, String filePath) throws IOException {
+        File file = new File(getImageFilePath(filePath));
+        if (file.exists()) {
+            if (file.length() == imageBytes.length) {
+                byte[] existing = new byte[imageBytes.length];
+                DataInputStream dis = new DataInputStream(new FileInputStream(file));
+                try {
+                    dis.readFully(existing);
+                } finally {
+                    dis.close();
+                }
+                if (Arrays.equals(existing, imageBytes)) {
+                    return false;
+                }
+            }
+        } else {
+            File parentDir = file.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
+        }
+
+        String outputFile = writeImageFile(imageBytes, file.getPath(), false);
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("wrote: " + outputFile);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a tile is inside any of the uv bounds.
+     */
+    protected boolean isInBounds(int x, int y, List<Rectangle2D> uvBounds) {
+        for (Rectangle2D bounds : uvBounds) {
+            int startx = (int) bounds.getX();
+            int starty = (int) bounds.getY();
+            if (x >= startx && x < startx + (int) bounds.getWidth() && y >= starty
+                    && y < starty + (int) bounds.getHeight()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the layers for a ZoomLevelMaker, in the same order they would be
+     * used by makeTile, top layer first.
+     */
+    protected List<Layer> getLayersForZoomLevel(ZoomLevelMaker zfi) {
+        List<Layer> layerList = zfi.getLayerList();
+        if (layerList != null) {
+            return layerList;
+        }
+
+        List<Layer> ret = new ArrayList<Layer>();
+        Layer[] layers = getLayers();
+        List<String> showLayers = zfi.getLayers();
+        for (int j = showLayers.size() - 1; j >= 0; j--) {
+            String layerName = showLayers.get(j);
+            for (int i = layers.length - 1; i >= 0; i--) {
+                Layer layer = layers[i];
+                String prefix = layer.getPropertyPrefix();
+                if (prefix == null && layer instanceof PlugInLayer) {
+                    prefix = ((PlugInLayer) layer).getPlugIn().getPropertyPrefix();
+                }
+                if (layerName.equals(prefix)) {
+                    ret.add(layer);
+                }
+            }
+        }
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    /**
+     * Create the workers for the threads making tiles. The first one uses the
+     * layers of the MapTileMaker, and the others get their own copies of the
+     * layers, created from the layer properties. If the layers can't be
+     * copied, only one worker is returned.
+     */
+    protected List<TileWorker> createWorkers() {
+        List<TileWorker> workers = new ArrayList<TileWorker>();
+        workers.add(new TileWorker(false));
+        for (int i = 1; i < getThreads(); i++) {
+            TileWorker worker = new TileWorker(true);
+            if (!worker.copyLayers()) {
+                logger.warning("Can't copy layers for threads, making tiles with one thread");
+                return workers.subList(0, 1);
+            }
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    /**
+     * Create a copy of a layer from its properties.
+     * 
+     * @return the new Layer, or null if it couldn't be created.
+     */
+    protected Layer copyLayer(Layer layer) {
+        Properties props = layer.getProperties(new Properties());
+        Object obj = ComponentFactory.create(layer.getClass().getName(), layer.getPropertyPrefix(), props);
+        if (obj instanceof Layer) {
+            return (Layer) obj;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("couldn't copy " + layer.getName());
+        }
+        return null;
+    }
+
+    /**
+     * The settings for the zoom level tiles are being created for.
+     */
+    protected static class TileLevel {
+        final int zoomLevel;
+        /** Builds the tile file paths. */
+        final ZoomLevelInfo pathInfo;
+        /** The ZoomLevelMaker for the layers, null for range levels. */
+        final ZoomLevelMaker zfi;
+        /** The zoom level of the tiles used for range levels. */
+        final int sourceZoomLevel;
+        final Paint background;
+
+        TileLevel(int zoomLevel, ZoomLevelInfo pathInfo, ZoomLevelMaker zfi, int sourceZoomLevel,
+                Paint background) {
+            this.zoomLevel = zoomLevel;
+            this.pathInfo = pathInfo;
+            this.zfi = zfi;
+            this.sourceZoomLevel = sourceZoomLevel;
+            this.background = background;
+        }
+
+        /**
+         * The key for a metatile in the progress file.
+         */
+        String getKey(int mx, int my, int n) {
+            return (zfi != null ? "z" : "r") + zoomLevel + "/" + mx + "/" + my + "/" + n;
+        }
+    }
+
+    /**
+     * The layers and projection used by one thread at a time to make tiles.
+     */
+    protected class TileWorker {
+        final Proj proj = new Mercator(new LatLonPoint.Double(), 10000, MapTileCoordinateTransform.TILE_SIZE, MapTileCoordinateTransform.TILE_SIZE);
+        /** Whether the worker has its own copies of the layers. */
+        final boolean copied;
+        final Map<Layer, Layer> copies = new IdentityHashMap<Layer, Layer>();
+        final Map<Integer, MapTileLayer> tileLayers = new HashMap<Integer, MapTileLayer>();
+
+        TileWorker(boolean copied) {
+            this.copied = copied;
+        }
+
+        boolean copyLayers() {
+            List<Layer> layers = new ArrayList<Layer>();
+            Layer[] imageServerLayers = MapTileMaker.this.getLayers();
+            if (imageServerLayers != null) {
+                layers.addAll(Arrays.asList(imageServerLayers));
+            }
+            for (ZoomLevelMaker zfi : getZoomLevels()) {
+                if (zfi.getLayerList() != null) {
+                    layers.addAll(zfi.getLayerList());
+                }
+            }
+
+            for (Layer layer : layers) {
+                if (!copies.containsKey(layer)) {
+                    Layer copy = copyLayer(layer);
+                    if (copy == null) {
+                        return false;
                     }
+                    copies.put(layer, copy);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the layers for a zoom level, top layer first.
+         */
+        List<Layer> getLayers(TileLevel level) {
+            if (level.zfi == null) {
+                return Collections.<Layer> singletonList(getTileLayer(level.sourceZoomLevel));
+            }
+
+            List<Layer> layers = getLayersForZoomLevel(level.zfi);
+            if (copied) {
+                List<Layer> ret = new ArrayList<Layer>(layers.size());
+                for (Layer layer : layers) {
+                    ret.add(copies.get(layer));
                 }
+                layers = ret;
+            }
+            return layers;
+        }
+
+        /**
+         * Get a MapTileLayer showing the tiles already created for a zoom
+         * level.
+         */
+        MapTileLayer getTileLayer(int zoomLevel) {
+            MapTileLayer tileLayer = tileLayers.get(Integer.valueOf(zoomLevel));
+            if (tileLayer == null) {
+                tileLayer = new MapTileLayer();
+                StandardMapTileFactory tileFactory = new StandardMapTileFactory();
+                tileFactory.setRootDir(getRootDir());
+                tileFactory.setFileExt(getFormatter().getFormatLabel());
+                tileLayer.setTileFactory(tileFactory);
+                tileLayer.setZoomLevel(zoomLevel);
+                tileLayers.put(Integer.valueOf(zoomLevel), tileLayer);
+            }
+            return tileLayer;
+        }
+    }
 
+    /**
+     * Keeps track of the finished metatiles in a file, so an interrupted run
+     * can pick up where it left off.
+     */
+    protected static class TileProgress {
+        final File file;
+        final Set<String> done = new HashSet<String>();
+        PrintWriter writer;
+
+        TileProgress(File file) throws IOException {
+            this.file = file;
+            if (file.exists()) {
+                BufferedReader reader = new BufferedReader(new FileReader(file));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        done.add(line.trim());
+                    }
+                } finally {
+                    reader.close();
+                }
+                logger.info("resuming tile creation, " + done.size()
+                        + " metatiles already done according to " + file);
             }
+            writer = new PrintWriter(new FileWriter(file, true));
+        }
+
+        synchronized boolean isDone(String key) {
+            return done.contains(key);
+        }
+
+        synchronized void done(String key) {
+            done.add(key);
+            writer.println(key);
+            writer.flush();
         }
 
-        logger.info("done writing tiles");
+        synchronized void close() {
+            writer.close();
+        }
+
+        void delete() {
+            file.delete();
+        }
     }
 
     public String getRootDir() {
@@ -503,6 +972,30 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         this.rootDir = rootDir;
     }
 
+    public int getThreads() {
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Set the number of threads making tiles. If more than one, the layers
+     * need to be copyable through their properties.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getMetaTileSize() {
+        return Math.max(1, metaTileSize);
+    }
+
+    /**
+     * Set the number of tiles along each side of the blocks that are rendered
+     * at once and cut up into tiles.
+     */
+    public void setMetaTileSize(int metaTileSize) {
+        this.metaTileSize = metaTileSize;
+    }
+
     public List<ZoomLevelMaker> getZoomLevels() {
         if (zoomLevels == null) {
             zoomLevels = new LinkedList<ZoomLevelMaker>();
@@ -30,6 +30,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
 import java.util.Properties;
 import java.util.logging.Level;
 
@@ -63,16 +65,43 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * 
  * # Additional properties
  * localCacheRootDir=if specified, the factory will store tiles locally at this root directory.  This directory is checked before going to the server, too.
+ * 
+ * # Managed tile store, used instead of localCacheRootDir if specified
+ * tileStoreDir=directory for a TileStore holding the tiles retrieved from the server.
+ * tileStoreMaxSize=the maximum size of the tile store, in megabytes. The default is 1024.
+ * tileTimeToLive=seconds stored tiles are good for when the server doesn't say, 0 (default) if they don't expire.
+ * fetchThreads=the number of tiles requested from the server at the same time. The default is 4.
  * </pre>
  * 
+ * The tile store keeps the tiles in a few large files rather than a file for
+ * each tile, drops the least recently used tiles when it reaches its maximum
+ * size, and remembers the expiration time and ETag sent by the server with
+ * each tile. Expired tiles are checked with the server with a conditional
+ * request, and are still used if the server can't be reached.
+ * 
  * @author dietrick
  */
 public class ServerMapTileFactory extends StandardMapTileFactory implements MapTileFactory,
         PropertyConsumer {
 
     public final static String LOCAL_CACHE_ROOT_DIR_PROPERTY = "localCacheRootDir";
+    /**
+     * The default number of tiles requested from the server at the same time.
+     */
+    public final static int DEFAULT_SERVER_FETCH_THREADS = 4;
+    public final static String TILE_STORE_DIR_PROPERTY = "tileStoreDir";
+    public final static String TILE_STORE_MAX_SIZE_PROPERTY = "tileStoreMaxSize";
+    public final static String TILE_TIME_TO_LIVE_PROPERTY = "tileTimeToLive";
 
     protected String localCacheDir = null;
+    protected String tileStoreDir = null;
+    /** Megabytes. */
+    protected long tileStoreMaxSize = TileStore.DEFAULT_MAX_SIZE / (1024 * 1024);
+    /** Seconds, 0 for tiles that don't expire. */
+    protected long tileTimeToLive = 0;
+    protected TileStore tileStore = null;
+    /** Closes the open tileStore when the JVM exits, removed when it's closed. */
+    protected Thread tileStoreShutdownHook = null;
 
     public ServerMapTileFactory() {
         this(null);
@@ -81,6 +110,7 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
     public ServerMapTileFactory(String rootDir) {
         this.rootDir = rootDir;
         this.fileExt = ".png";
+        this.fetchThreads = DEFAULT_SERVER_FETCH_THREADS;
         verbose = logger.isLoggable(Level.FINE);
     }
 
@@ -141,18 +171,21 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
             }
 
             byte[] imageBytes = null;
-
-            CacheObject localVersion = super.load(key, x, y, zoomLevel, proj);
-
-            if (localVersion != null) {
-                logger.fine("found version of tile in local cache: " + key);
-                return localVersion;
-            }
-
             // build file path here uses rootDir, which is the URL.
             String imagePath = buildFilePath(x, y, zoomLevel, fileExt);
 
-            imageBytes = getImageBytes(imagePath, (String) key);
+            if (getTileStore() != null) {
+                imageBytes = getTileBytes(x, y, zoomLevel);
+            } else {
+                CacheObject localVersion = super.load(key, x, y, zoomLevel, proj);
+
+                if (localVersion != null) {
+                    logger.fine("found version of tile in local cache: " + key);
+                    return localVersion;
+                }
+
+                imageBytes = getImageBytes(imagePath, (String) key);
+            }
 
             if (imageBytes != null && imageBytes.length > 0) {
                 // image found
@@ -229,19 +262,7 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
                 // image
             } else if (urlc.getContentType().startsWith("image")) {
 
-                InputStream in = urlc.getInputStream();
-                // ------- Testing without this
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                int buflen = 2048; // 2k blocks
-                byte buf[] = new byte[buflen];
-                int len = -1;
-                while ((len = in.read(buf, 0, buflen)) != -1) {
-                    out.write(buf, 0, len);
-                }
-                out.flush();
-                out.close();
-
-                imageBytes = out.toByteArray();
+                imageBytes = readBytes(urlc.getInputStream());
 
                 if (localFilePath != null) {
                     File localFile = new File(localFilePath);
@@ -249,10 +270,23 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
                     File parentDir = localFile.getParentFile();
                     parentDir.mkdirs();
 
-                    FileOutputStream fos = new FileOutputStream(localFile);
-                    fos.write(imageBytes);
-                    fos.flush();
-                    fos.close();
+                    // Tiles are fetched in several threads, write to a
+                    // temporary file so a partial tile is never read.
+                    File tmpFile = new File(parentDir, localFile.getName() + "."
+                            + Thread.currentThread().getId() + ".tmp");
+                    FileOutputStream fos = new FileOutputStream(tmpFile);
+                    try {
+                        fos.write(imageBytes);
+                        fos.flush();
+                    } finally {
+                        fos.close();
+                    }
+                    if (!tmpFile.renameTo(localFile)) {
+                        localFile.delete();
+                        if (!tmpFile.renameTo(localFile)) {
+                            tmpFile.delete();
+                        }
+                    }
                 }
 
             } // end if image
@@ -266,6 +300,255 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
 
     }
 
+    /**
+     * Get the image bytes for a tile from the tile store, going to the server
+     * if the store doesn't have the tile or the stored copy has expired. Tiles
+     * from the server are put in the store. If there isn't a tile store, the
+     * tile is just fetched from the server.
+     * 
+     * @param x tile coordinate
+     * @param y tile coordinate
+     * @param zoomLevel zoom level
+     * @return byte[] of image, null if the tile isn't available.
+     */
+    public byte[] getTileBytes(int x, int y, int zoomLevel) {
+        String imagePath = buildFilePath(x, y, zoomLevel, fileExt);
+        TileStore store = getTileStore();
+        if (store == null) {
+            return getImageBytes(imagePath, null);
+        }
+
+        TileStore.Tile tile = null;
+        try {
+            tile = store.get(x, y, zoomLevel);
+        } catch (IOException ioe) {
+            logger.fine("problem reading tile from store: " + ioe.getMessage());
+        }
+
+        if (tile != null && !tile.isExpired()) {
+            return tile.getData();
+        }
+
+        return getImageBytes(imagePath, x, y, zoomLevel, tile, store);
+    }
+
+    /**
+     * Fetch a tile from the server and put it in the tile store. If an expired
+     * version of the tile is provided, the server is asked if the tile has
+     * changed, and the expired version is used if it hasn't or if the server
+     * can't be reached.
+     * 
+     * @param imagePath the source URL image path.
+     * @param x tile coordinate
+     * @param y tile coordinate
+     * @param zoomLevel zoom level
+     * @param expired the expired version of the tile from the store, may be
+     *        null.
+     * @param store the TileStore to put the tile in.
+     * @return byte[] of image, null if the tile isn't available.
+     */
+    protected byte[] getImageBytes(String imagePath, int x, int y, int zoomLevel,
+                                   TileStore.Tile expired, TileStore store) {
+        try {
+            java.net.URL url = new java.net.URL(imagePath);
+            URLConnection urlc = url.openConnection();
+
+            if (expired != null) {
+                if (expired.getETag() != null) {
+                    urlc.setRequestProperty("If-None-Match", expired.getETag());
+                }
+                urlc.setIfModifiedSince(expired.getStored());
+
+                if (urlc instanceof HttpURLConnection
+                        && ((HttpURLConnection) urlc).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer("tile not modified: " + imagePath);
+                    }
+                    putInTileStore(store, x, y, zoomLevel, expired.getData(), expired.getETag(), getExpiration(urlc));
+                    return expired.getData();
+                }
+            }
+
+            String contentType = urlc.getContentType();
+            if (contentType != null && contentType.startsWith("image")) {
+                byte[] imageBytes = readBytes(urlc.getInputStream());
+                String etag = urlc.getHeaderField("ETag");
+                putInTileStore(store, x, y, zoomLevel, imageBytes, etag, getExpiration(urlc));
+                return imageBytes;
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("no tile image from " + imagePath + ", content type " + contentType);
+            }
+
+        } catch (java.net.MalformedURLException murle) {
+            logger.warning("ServerMapTileFactory: URL \"" + imagePath + "\" is malformed.");
+        } catch (java.io.IOException ioe) {
+            logger.fine("Couldn't connect to " + imagePath + ", connection problem");
+        }
+
+        // An expired tile is better than nothing.
+        return expired != null ? expired.getData() : null;
+    }
+
+    /**
+     * Put a tile in the tile store, logging any problem.
+     */
+    protected void putInTileStore(TileStore store, int x, int y, int zoomLevel, byte[] imageBytes,
+                                  String etag, long expires) {
+        try {
+            store.put(x, y, zoomLevel, imageBytes, etag, expires);
+        } catch (IOException ioe) {
+            logger.warning("Couldn't put tile in store: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Figure out when a tile from the server expires, from the Cache-Control
+     * max-age or Expires headers. If the server doesn't say, the
+     * tileTimeToLive setting is used.
+     * 
+     * @param urlc the connection to the server.
+     * @return the time in milliseconds the tile expires, 0 if it doesn't.
+     */
+    protected long getExpiration(URLConnection urlc) {
+        long now = System.currentTimeMillis();
+        String cacheControl = urlc.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring(8).trim()) * 1000L;
+                    } catch (NumberFormatException nfe) {
+                        // Fall through to the Expires header.
+                    }
+                }
+            }
+        }
+
+        long expires = urlc.getExpiration();
+        if (expires > 0) {
+            return expires;
+        }
+
+        return tileTimeToLive > 0 ? now + tileTimeToLive * 1000L : 0;
+    }
+
+    /**
+     * Read all the bytes from an input stream, and close it.
+     */
+    protected byte[] readBytes(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int buflen = 2048; // 2k blocks
+            byte buf[] = new byte[buflen];
+            int len = -1;
+            while ((len = in.read(buf, 0, buflen)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the TileStore for the tileStoreDir, opening it if it isn't open.
+     * 
+     * @return TileStore, or null if a tile store directory isn't set or the
+     *         store can't be opened.
+     */
+    public synchronized TileStore getTileStore() {
+        if (tileStore == null && tileStoreDir != null) {
+            try {
+                final TileStore store = new TileStore(new File(tileStoreDir), tileStoreMaxSize * 1024L * 1024L);
+                // Writing the index on the way out saves scanning the store
+                // the next time it's opened.
+                tileStoreShutdownHook = new Thread() {
+                    public void run() {
+                        store.close();
+                    }
+                };
+                Runtime.getRuntime().addShutdownHook(tileStoreShutdownHook);
+                tileStore = store;
+            } catch (IOException ioe) {
+                logger.warning("Couldn't open tile store at " + tileStoreDir + ": " + ioe.getMessage());
+                tileStoreDir = null;
+            }
+        }
+        return tileStore;
+    }
+
+    /**
+     * Close the TileStore, if one is open. It will be opened again if it's
+     * needed.
+     */
+    public synchronized void closeTileStore() {
+        if (tileStore != null) {
+            tileStore.close();
+            tileStore = null;
+        }
+        if (tileStoreShutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(tileStoreShutdownHook);
+            } catch (IllegalStateException ise) {
+                // Already shutting down, the hook closes a closed store.
+            }
+            tileStoreShutdownHook = null;
+        }
+    }
+
+    public String getTileStoreDir() {
+        return tileStoreDir;
+    }
+
+    /**
+     * Set the directory for the TileStore. The current store is closed if the
+     * directory changes.
+     * 
+     * @param tileStoreDir directory path, null to go without a tile store.
+     */
+    public synchronized void setTileStoreDir(String tileStoreDir) {
+        if (tileStoreDir != null && tileStoreDir.length() == 0) {
+            tileStoreDir = null;
+        }
+        if (tileStore != null && (tileStoreDir == null || !tileStoreDir.equals(this.tileStoreDir))) {
+            closeTileStore();
+        }
+        this.tileStoreDir = tileStoreDir;
+    }
+
+    /**
+     * @return the maximum size of the tile store, in megabytes.
+     */
+    public long getTileStoreMaxSize() {
+        return tileStoreMaxSize;
+    }
+
+    /**
+     * Set the maximum size of the tile store, in megabytes. Takes effect the
+     * next time the store is opened.
+     */
+    public void setTileStoreMaxSize(long tileStoreMaxSize) {
+        this.tileStoreMaxSize = tileStoreMaxSize;
+    }
+
+    /**
+     * @return the number of seconds tiles are good for when the server doesn't
+     *         say, 0 if they don't expire.
+     */
+    public long getTileTimeToLive() {
+        return tileTimeToLive;
+    }
+
+    public void setTileTimeToLive(long tileTimeToLive) {
+        this.tileTimeToLive = tileTimeToLive;
+    }
+
     /**
      * Acts the same as the buildFilePath method, but works for a local
      * directory specified in the properties.
@@ -307,6 +590,9 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
     public Properties getProperties(Properties getList) {
         getList = super.getProperties(getList);
         getList.put(prefix + LOCAL_CACHE_ROOT_DIR_PROPERTY, PropUtils.unnull(localCacheDir));
+        getList.put(prefix + TILE_STORE_DIR_PROPERTY, PropUtils.unnull(tileStoreDir));
+        getList.put(prefix + TILE_STORE_MAX_SIZE_PROPERTY, Long.toString(tileStoreMaxSize));
+        getList.put(prefix + TILE_TIME_TO_LIVE_PROPERTY, Long.toString(tileTimeToLive));
         return getList;
     }
 
@@ -314,6 +600,9 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
         list = super.getPropertyInfo(list);
         I18n i18n = Environment.getI18n();
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, LOCAL_CACHE_ROOT_DIR_PROPERTY, "Local Cache Tile Directory", "Root directory containing image tiles retrieved from image server.", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, TILE_STORE_DIR_PROPERTY, "Tile Store Directory", "Directory for a managed, size limited store of tiles retrieved from image server.", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, TILE_STORE_MAX_SIZE_PROPERTY, "Tile Store Size", "Maximum size of the tile store, in megabytes.", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, TILE_TIME_TO_LIVE_PROPERTY, "Tile Time To Live", "Seconds stored tiles are used before checking with the server, when the server doesn't say. 0 for never.", null);
         return list;
     }
 
@@ -322,14 +611,25 @@ public class ServerMapTileFactory extends StandardMapTileFactory implements MapT
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
         localCacheDir = setList.getProperty(prefix + LOCAL_CACHE_ROOT_DIR_PROPERTY, localCacheDir);
+        tileStoreMaxSize = PropUtils.longFromProperties(setList, prefix + TILE_STORE_MAX_SIZE_PROPERTY, tileStoreMaxSize);
+        tileTimeToLive = PropUtils.longFromProperties(setList, prefix + TILE_TIME_TO_LIVE_PROPERTY, tileTimeToLive);
+        setTileStoreDir(setList.getProperty(prefix + TILE_STORE_DIR_PROPERTY, tileStoreDir));
     }
 
     /**
      * Tell the factory to dump the cache. For the ServerMapTileFactory, this
-     * also includes the local file cache dir.
+     * also includes the local file cache dir and the tile store.
      */
     public void reset() {
         super.reset();
+        TileStore store = getTileStore();
+        if (store != null) {
+            try {
+                store.clear();
+            } catch (IOException e) {
+                logger.fine("There's a problem clearing the tile store: " + e.getMessage());
+            }
+        }
         if (localCacheDir != null) {
             File localCacheDirFile = new File(localCacheDir);
             if (localCacheDirFile.exists()) {
@@ -34,9 +34,22 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.logging.Level;
@@ -87,8 +100,19 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.StandardImagePreparer
  * # or
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.GreyscaleImagePreparer
+ * # The number of tiles loaded at the same time, default is 1, which loads tiles
+ * # one after another. Only set it higher if the factory can load tiles from
+ * # several threads at once.
+ * fetchThreads=4
  * </pre>
  * 
+ * Tiles that aren't in the cache are loaded by a pool of fetch threads, if
+ * fetchThreads is more than 1, starting in the middle of the map and working
+ * out toward the edges. Each tile is added to the list when it arrives, and
+ * the MapTileRequester is notified. If the MapTileRequester says the request
+ * is no longer wanted, or another getTiles() request comes in, the tiles not
+ * yet loaded are cancelled.
+ * 
  * @author dietrick
  */
 public class StandardMapTileFactory extends CacheHandler implements MapTileFactory,
@@ -104,6 +128,11 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
     public final static String ZOOM_LEVEL_INFO_PROPERTY = "zoomLevelInfo";
     public final static String ZOOM_LEVEL_TILE_SIZE_PROPERTY = "zoomLevelTileSize";
     public final static String TILE_IMAGE_PREPARER_PROPERTY = "tileImagePreparer";
+    public final static String FETCH_THREADS_PROPERTY = "fetchThreads";
+    /**
+     * The default number of tiles loaded at the same time.
+     */
+    public final static int DEFAULT_FETCH_THREADS = 1;
     /**
      * Inserted into properties loaded via tiles.omp, so that the
      * EmptyTileHandler can know where the tile set is located, in case it needs
@@ -150,6 +179,19 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
      * sources have different origins for tile coordinates.
      */
     protected MapTileCoordinateTransform mtcTransform = new OSMMapTileCoordinateTransform();
+    /**
+     * The number of tiles that can be loaded at the same time.
+     */
+    protected int fetchThreads = DEFAULT_FETCH_THREADS;
+    /**
+     * The thread pool that loads tiles, created when needed.
+     */
+    private ThreadPoolExecutor fetchExecutor;
+    /**
+     * The tile loads for the current getTiles() request, cancelled if a new
+     * request comes in.
+     */
+    private final List<Future<LoadObj>> pendingLoads = new ArrayList<Future<LoadObj>>();
 
     public StandardMapTileFactory() {
         super(100);
@@ -337,22 +379,14 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
      *        tiles matches the rendered projection.
      * @return object from cache.
      */
-    public Object get(Object key, int x, int y, int zoomLevel, Projection proj) {
-        CacheObject ret = searchCache(key);
-        if (ret != null) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("found tile (" + x + ", " + y + ") in cache");
+    public Object get(final Object key, final int x, final int y, final int zoomLevel,
+                      final Projection proj) {
+        CacheObject ret = getOrLoad(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                return load(key, x, y, zoomLevel, proj);
             }
-            return ret.obj;
-        }
-
-        ret = load(key, x, y, zoomLevel, proj);
-        if (ret == null) {
-            return null;
-        }
-
-        replaceLeastUsed(ret);
-        return ret.obj;
+        });
+        return ret != null ? ret.obj : null;
     }
 
     /**
@@ -554,6 +588,10 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         int x;
         int y;
         int zoomLevel;
+        /** Distance from the center tile, used to order loading. */
+        double distance;
+        /** The loaded tile, set by the fetch thread. */
+        OMGraphic raster;
 
         LoadObj(String p, int x, int y, int z) {
             this.imagePath = p;
@@ -563,6 +601,16 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
     }
 
+    /**
+     * Sorts LoadObjs so the ones closest to the center of the map are loaded
+     * first.
+     */
+    static final Comparator<LoadObj> SPIRAL_ORDER = new Comparator<LoadObj>() {
+        public int compare(LoadObj lo1, LoadObj lo2) {
+            return Double.compare(lo1.distance, lo2.distance);
+        }
+    };
+
     protected void getTiles(int uvleft, int uvright, int uvup, int uvbottom,
                             ZoomLevelInfo zoomLevelInfo, Projection proj, OMGraphicList list) {
         if (verbose) {
@@ -632,20 +680,33 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
 
         /*
          * Load the tiles that are not already in the cache, that need to be
-         * fetched from the source.
+         * fetched from the source, from the middle of the map out.
          */
+        double cx = (uvleftM + uvrightM) / 2.0;
+        double cy = (uvupM + uvbottomM) / 2.0;
         for (LoadObj reload : reloads) {
-            // Check and see of we should bother fetching the new tile.
-            if (mapTileRequester != null && !mapTileRequester.shouldContinue()) {
-                return;
-            }
+            double dx = reload.x + .5 - cx;
+            double dy = reload.y + .5 - cy;
+            reload.distance = dx * dx + dy * dy;
+        }
+        Collections.sort(reloads, SPIRAL_ORDER);
+
+        if (fetchThreads <= 1 || reloads.size() < 2) {
+            for (LoadObj reload : reloads) {
+                // Check and see of we should bother fetching the new tile.
+                if (mapTileRequester != null && !mapTileRequester.shouldContinue()) {
+                    return;
+                }
 
-            loadTile(reload.imagePath, reload.x, reload.y, reload.zoomLevel, proj, list);
+                loadTile(reload.imagePath, reload.x, reload.y, reload.zoomLevel, proj, list);
 
-            // OK, got it, notify requester the list has been updated.
-            if (mapTileRequester != null) {
-                mapTileRequester.listUpdated();
+                // OK, got it, notify requester the list has been updated.
+                if (mapTileRequester != null) {
+                    mapTileRequester.listUpdated();
+                }
             }
+        } else if (!loadTiles(reloads, proj, list)) {
+            return;
         }
 
         if (verbose) {
@@ -730,6 +791,175 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
     }
 
+    /**
+     * Load tiles in the fetch threads, adding each one to the list as it
+     * arrives and notifying the MapTileRequester. Tile loads still pending
+     * from a previous request are cancelled first. If the MapTileRequester
+     * says the request isn't wanted anymore, the loads that haven't finished
+     * are cancelled.
+     * 
+     * @param reloads the tiles to load, in the order they should be loaded.
+     * @param proj the current projection.
+     * @param list the OMGraphicList to add the tiles to.
+     * @return true if all of the tiles were handled, false if the request was
+     *         cancelled.
+     */
+    protected boolean loadTiles(List<LoadObj> reloads, final Projection proj, OMGraphicList list) {
+        CompletionService<LoadObj> loads = new ExecutorCompletionService<LoadObj>(getFetchExecutor());
+        List<Future<LoadObj>> futures = new ArrayList<Future<LoadObj>>(reloads.size());
+
+        synchronized (pendingLoads) {
+            cancelPendingLoads();
+            for (final LoadObj reload : reloads) {
+                futures.add(loads.submit(new Callable<LoadObj>() {
+                    public LoadObj call() throws Exception {
+                        CacheObject ret = fetchTile(reload.imagePath, reload.x, reload.y, reload.zoomLevel, proj);
+                        if (ret != null) {
+                            reload.raster = (OMGraphic) ret.obj;
+                        }
+                        return reload;
+                    }
+                }));
+            }
+            pendingLoads.addAll(futures);
+        }
+
+        try {
+            int remaining = futures.size();
+            while (remaining > 0) {
+                if (mapTileRequester != null && !mapTileRequester.shouldContinue()) {
+                    return false;
+                }
+
+                // Wake up now and then to check shouldContinue.
+                Future<LoadObj> done = loads.poll(250, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    continue;
+                }
+                remaining--;
+
+                LoadObj loaded;
+                try {
+                    loaded = done.get();
+                } catch (CancellationException ce) {
+                    // Another request took over.
+                    return false;
+                } catch (ExecutionException ee) {
+                    logger.fine("problem loading tile: " + ee.getCause());
+                    continue;
+                }
+
+                OMGraphic raster = loaded.raster;
+                if (raster != null) {
+                    raster.generate(proj);
+                    list.add(raster);
+
+                    if (logger.isLoggable(Level.FINE)) {
+                        raster.putAttribute(OMGraphic.TOOLTIP, loaded.imagePath);
+                    }
+
+                    // OK, got it, notify requester the list has been updated.
+                    if (mapTileRequester != null) {
+                        mapTileRequester.listUpdated();
+                    }
+                }
+            }
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            synchronized (pendingLoads) {
+                for (Future<LoadObj> future : futures) {
+                    future.cancel(false);
+                }
+                pendingLoads.removeAll(futures);
+            }
+        }
+    }
+
+    /**
+     * Cancel any tile loads that haven't started yet. Loads already in progress
+     * finish and are added to the cache.
+     */
+    public void cancelPendingLoads() {
+        synchronized (pendingLoads) {
+            for (Future<LoadObj> future : pendingLoads) {
+                future.cancel(false);
+            }
+            pendingLoads.clear();
+        }
+    }
+
+    /**
+     * Get the thread pool used to load tiles, creating it if needed.
+     */
+    protected synchronized ThreadPoolExecutor getFetchExecutor() {
+        if (fetchExecutor == null) {
+            int numThreads = Math.max(1, fetchThreads);
+            fetchExecutor = new ThreadPoolExecutor(numThreads, numThreads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MapTileFetch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            fetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * @return the number of tiles that can be loaded at the same time.
+     */
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    /**
+     * Set the number of tiles that can be loaded at the same time. 1 means
+     * tiles are loaded one after another in the calling thread.
+     */
+    public synchronized void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+        if (fetchExecutor != null) {
+            int numThreads = Math.max(1, fetchThreads);
+            if (numThreads > fetchExecutor.getMaximumPoolSize()) {
+                fetchExecutor.setMaximumPoolSize(numThreads);
+                fetchExecutor.setCorePoolSize(numThreads);
+            } else {
+                fetchExecutor.setCorePoolSize(numThreads);
+                fetchExecutor.setMaximumPoolSize(numThreads);
+            }
+        }
+    }
+
+    /**
+     * Load a tile from the source, or create the empty tile for it, and put it
+     * in the cache. Called from the fetch threads. If another thread is already
+     * loading the same tile, waits for it instead of loading it again.
+     * 
+     * @return the CacheObject for the tile, or null if there isn't anything to
+     *         show for it.
+     */
+    protected CacheObject fetchTile(final String imagePath, final int x, final int y,
+                                    final int zoomLevel, final Projection proj) {
+        return getOrLoad(imagePath, new Callable<CacheObject>() {
+            public CacheObject call() {
+                CacheObject ret = load(imagePath, x, y, zoomLevel, proj);
+                if (ret == null) {
+
+                    // Check if the factory wants to do anything for empty
+                    // tiles.
+                    ret = getEmptyTile(imagePath, x, y, zoomLevel, proj);
+                }
+                return ret;
+            }
+        });
+    }
+
     /**
      * Handles going to the cache, getting the cache to load the tile, and then
      * manage the resulting OMRaster tile. Adds the tile to the list after
@@ -747,15 +977,9 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
     private void loadTile(String imagePath, int x, int y, int zoomLevel, Projection proj,
                           OMGraphicList list) {
 
-        CacheObject ret = load(imagePath, x, y, zoomLevel, proj);
-        if (ret == null) {
-
-            // Check if the factory wants to do anything for empty tiles.
-            ret = getEmptyTile(imagePath, x, y, zoomLevel, proj);
-        }
+        CacheObject ret = fetchTile(imagePath, x, y, zoomLevel, proj);
 
         if (ret != null) {
-            replaceLeastUsed(ret);
             OMGraphic raster = (OMGraphic) ret.obj;
 
             if (raster != null) {
@@ -856,8 +1080,8 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         Pattern py = Pattern.compile(rey, Pattern.CASE_INSENSITIVE);
 
         String startingPath;
-        boolean patternsUsed = false;
-        boolean patternUseChecked = false;
+        volatile boolean patternsUsed = false;
+        volatile boolean patternUseChecked = false;
 
         public TilePathBuilder(String rootDir) {
             startingPath = rootDir;
@@ -926,6 +1150,7 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
 
         getList.put(prefix + ZOOM_LEVEL_TILE_SIZE_PROPERTY, Integer.toString(zoomLevelTileSize));
+        getList.put(prefix + FETCH_THREADS_PROPERTY, Integer.toString(fetchThreads));
         TileImagePreparer tip = getTileImagePreparer();
         if (!(tip instanceof StandardImagePreparer)) {
             getList.put(prefix + TILE_IMAGE_PREPARER_PROPERTY, tip.getClass().getName());
@@ -943,6 +1168,7 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, FILE_EXT_PROPERTY, "Image File Extension", "Extension of image files (.jpg, .png, etc)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, CACHE_SIZE_PROPERTY, "Cache Size", "Number of tile images held in memory", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, ZOOM_LEVEL_TILE_SIZE_PROPERTY, "Zoom Level Tile Size", "The maximum pixel size of a tile before switching to a higher zoom level (350 is default)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, FETCH_THREADS_PROPERTY, "Fetch Threads", "The number of tiles loaded at the same time (1 is default)", null);
         return list;
     }
     
@@ -1013,6 +1239,7 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
 
         zoomLevelTileSize = PropUtils.intFromProperties(setList, prefix
                 + ZOOM_LEVEL_TILE_SIZE_PROPERTY, zoomLevelTileSize);
+        setFetchThreads(PropUtils.intFromProperties(setList, prefix + FETCH_THREADS_PROPERTY, fetchThreads));
     }
 
     public void setPropertyPrefix(String prefix) {
@@ -25,10 +25,6 @@
 package com.bbn.openmap.dataAccess.mapTile;
 
 import java.awt.image.BufferedImage;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.util.Properties;
 import java.util.logging.Level;
 
@@ -60,9 +56,14 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * # The class used to test for the existance of jdbc components.  Assumes sqlitejdbc, but the code fetching the tiles
  * # is pretty standard SQL - so you should be able to use any jdbc driver library.
  * testClass=org.sqlite.JDBC
+ * # The number of database connections to keep open for loading tiles, default is 4.
+ * poolSize=4
  *
  * </pre>
  *
+ * The tiles are read with a MBTilesReader, which is shared with any other
+ * component reading the same file.
+ *
  * @author dietrick
  */
 public class TileMillMapTileFactory
@@ -70,10 +71,15 @@ public class TileMillMapTileFactory
     implements MapTileFactory, PropertyConsumer {
     public final static String DEFAULT_TEST_CLASS = "org.sqlite.JDBC";
     public final static String TEST_CLASS_PROPERTY = "testClass";
+    public final static String POOL_SIZE_PROPERTY = "poolSize";
     /**
      * Test class to use for existence of JDBC drivers.
      */
     protected String testClass = DEFAULT_TEST_CLASS;
+    /**
+     * The number of database connections to use for loading tiles.
+     */
+    protected int poolSize = MBTilesReader.DEFAULT_POOL_SIZE;
 
     public TileMillMapTileFactory() {
         this(null);
@@ -90,28 +96,14 @@ public class TileMillMapTileFactory
      */
     public CacheObject load(Object key, int x, int y, int zoomLevel, Projection proj) {
 
-        try {
-            Class.forName(testClass);
-        } catch (Exception e) {
-            logger.warning("can't locate sqlite JDBC components");
+        MBTilesReader reader = MBTilesReader.getReader(rootDir, poolSize, testClass);
+        if (reader == null) {
             return null;
         }
 
         try {
-            Connection conn =
-                DriverManager.getConnection(rootDir);
-            Statement stat = conn.createStatement();
-
-            //"select zoom_level, tile_column, tile_row, tile_data from map, images where map.tile_id = images.tile_id";
-            StringBuilder statement = new StringBuilder("select tile_data from map, images where");
-            statement.append(" zoom_level = ").append(zoomLevel);
-            statement.append(" and tile_column = ").append(x);
-            statement.append(" and tile_row = ").append(Math.pow(2, zoomLevel) - y - 1);
-            statement.append(" and map.tile_id = images.tile_id;");
-
-            ResultSet rs = stat.executeQuery(statement.toString());
-            while (rs.next()) {
-                byte[] imageBytes = rs.getBytes("tile_data");
+            byte[] imageBytes = reader.getTileData(zoomLevel, x, y);
+            if (imageBytes != null) {
 
                 ImageIcon ii = new ImageIcon(imageBytes);
 
@@ -122,10 +114,7 @@ public class TileMillMapTileFactory
                 if (raster != null) {
                     return new CacheObject((String) key, raster);
                 }
-
             }
-            rs.close();
-            conn.close();
         } catch (Exception e) {
             logger.warning("something went wrong fetching image from database: " + e.getMessage());
             e.printStackTrace();
@@ -139,6 +128,7 @@ public class TileMillMapTileFactory
         if (testClass != null && !testClass.equals(DEFAULT_TEST_CLASS)) {
             getList.put(prefix + TEST_CLASS_PROPERTY, PropUtils.unnull(testClass));
         }
+        getList.put(prefix + POOL_SIZE_PROPERTY, Integer.toString(poolSize));
         return getList;
     }
 
@@ -149,6 +139,10 @@ public class TileMillMapTileFactory
             TEST_CLASS_PROPERTY, "JDBC Availability Test Class",
             "A class in the JDBC driver package to use to test for JDBC driver configuration (any class in package).",
             null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class,
+            POOL_SIZE_PROPERTY, "Connection Pool Size",
+            "The number of database connections to keep open for loading tiles.",
+            null);
         return list;
     }
 
@@ -157,5 +151,6 @@ public class TileMillMapTileFactory
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
         testClass = setList.getProperty(prefix + TEST_CLASS_PROPERTY, testClass);
+        poolSize = PropUtils.intFromProperties(setList, prefix + POOL_SIZE_PROPERTY, poolSize);
     }
 }
\ No newline at end of file
@@ -0,0 +1,940 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * The TileStore is a persistent, size bounded container for map tile image
+ * bytes, used by the ServerMapTileFactory to keep the tiles it fetches from a
+ * server. Instead of a file for every tile, the tiles are appended to a small
+ * number of shard files in the store directory, and an in-memory index maps
+ * z/x/y to the tile's location in its shard.
+ * <p>
+ * The store has a maximum size in bytes. When a new tile pushes it over, the
+ * least recently used tiles are dropped from the index, and a shard file is
+ * rewritten without its dropped tiles once they take up more than half of it.
+ * The rewriting is done on a background thread, only holding up the reads and
+ * writes of that one shard.
+ * Each tile is kept with the time it was stored, an expiration time and the
+ * ETag the server sent with it, so the factory can revalidate expired tiles
+ * with the server instead of downloading them again.
+ * <p>
+ * Every record in a shard file carries a CRC, and records are only added to
+ * the end of a shard. Removing a tile adds a tombstone record for it, so it
+ * stays removed if the shards have to be scanned again. When the store is
+ * closed, the index is written to the
+ * directory so it can be read back quickly. If the store wasn't closed, the
+ * shard files are scanned when the store is opened and anything after the
+ * last complete record in a shard, what a crash in the middle of a write
+ * leaves behind, is cut off. Rewritten shards are written to a temporary file
+ * and renamed over the old one.
+ * <p>
+ * The store is safe to use from several threads.
+ */
+public class TileStore {
+
+    protected final static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.mapTile.TileStore");
+
+    /** The number of shard files in a new store. */
+    public final static int DEFAULT_SHARDS = 16;
+    /** 1 GB */
+    public final static long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+    /** The name of the index file written when the store is closed. */
+    public final static String INDEX_FILE = "tiles.idx";
+    public final static String SHARD_FILE_PREFIX = "tiles-";
+    public final static String SHARD_FILE_EXT = ".dat";
+    /** The largest tile the store will take. */
+    public final static int MAX_DATA_SIZE = 16 * 1024 * 1024;
+    /** ETags longer than this aren't stored. */
+    public final static int MAX_ETAG_SIZE = 1024;
+
+    protected final static int RECORD_MAGIC = 0x4f4d5452;
+    /** Marks a record that removes the tile for its key. */
+    protected final static int TOMBSTONE_MAGIC = 0x4f4d5458;
+    protected final static int INDEX_MAGIC = 0x4f4d5449;
+    protected final static int INDEX_VERSION = 1;
+    /**
+     * magic, key, stored time, expiration time, data length, etag length.
+     */
+    protected final static int HEADER_SIZE = 4 + 8 + 8 + 8 + 4 + 2;
+    protected final static int CRC_SIZE = 4;
+    /** Shards with less unused space than this aren't rewritten. */
+    protected final static long MIN_COMPACT_SIZE = 1024L * 1024L;
+    protected final static Charset UTF8 = Charset.forName("UTF-8");
+
+    protected final File dir;
+    protected final long maxSize;
+    protected final Shard[] shards;
+    /** Access ordered, the least recently used tile first. */
+    protected final LinkedHashMap<Long, Entry> index = new LinkedHashMap<Long, Entry>(1024, 0.75f, true);
+    protected long size;
+    protected boolean closed;
+    /** Runs the shard compactions, created when it's first needed. */
+    protected ExecutorService compactor;
+
+    /**
+     * Open the store in a directory, creating it if needed.
+     *
+     * @param dir the directory for the store files.
+     * @param maxSize the maximum number of bytes of tiles to keep.
+     * @throws IOException if the directory or shard files can't be opened.
+     */
+    public TileStore(File dir, long maxSize) throws IOException {
+        this(dir, maxSize, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Open the store in a directory, creating it if needed.
+     *
+     * @param dir the directory for the store files.
+     * @param maxSize the maximum number of bytes of tiles to keep.
+     * @param numShards the number of shard files to use for a new store. An
+     *        existing store keeps the number of shards it was created with.
+     * @throws IOException if the directory or shard files can't be opened.
+     */
+    public TileStore(File dir, long maxSize, int numShards) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+
+        dir.mkdirs();
+        if (!dir.isDirectory()) {
+            throw new IOException("Can't create tile store directory " + dir);
+        }
+
+        int existing = 0;
+        while (getShardFile(existing).exists()) {
+            existing++;
+        }
+        if (existing > 0) {
+            // Tiles are assigned to shards by their key, the count can't
+            // change.
+            numShards = existing;
+        }
+
+        shards = new Shard[Math.max(numShards, 1)];
+        for (int i = 0; i < shards.length; i++) {
+            new File(dir, getShardFile(i).getName() + ".tmp").delete();
+            shards[i] = new Shard(i, getShardFile(i));
+        }
+
+        if (!readIndex()) {
+            recover();
+        }
+        trim();
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("opened tile store " + dir + " with " + index.size() + " tiles, " + size
+                    + " bytes");
+        }
+    }
+
+    /**
+     * Create the key for a tile.
+     *
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @return key for the tile.
+     */
+    public static long key(int x, int y, int zoomLevel) {
+        return ((long) zoomLevel << 58) | (((long) x & 0x1fffffffL) << 29) | ((long) y & 0x1fffffffL);
+    }
+
+    /**
+     * Get a tile from the store.
+     *
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @return the Tile, expired or not, or null if the store doesn't have it.
+     * @throws IOException
+     */
+    public Tile get(int x, int y, int zoomLevel) throws IOException {
+        Entry entry;
+        Shard shard;
+        synchronized (this) {
+            checkOpen();
+            entry = index.get(Long.valueOf(key(x, y, zoomLevel)));
+            if (entry == null) {
+                return null;
+            }
+            shard = shards[entry.shard];
+        }
+
+        // Only the shard is locked for reading, the offset can't change while
+        // we hold it.
+        byte[] data = new byte[entry.dataLength];
+        synchronized (shard) {
+            long offset = entry.offset;
+            if (offset < 0 || shard.file == null) {
+                // Dropped from the store since we looked it up.
+                return null;
+            }
+            shard.file.seek(offset + entry.dataOffset);
+            shard.file.readFully(data);
+        }
+        return new Tile(data, entry.etag, entry.stored, entry.expires);
+    }
+
+    /**
+     * @return true if the store has the tile, expired or not.
+     */
+    public synchronized boolean contains(int x, int y, int zoomLevel) {
+        return index.containsKey(Long.valueOf(key(x, y, zoomLevel)));
+    }
+
+    /**
+     * Put a tile in the store, replacing any tile already stored for the
+     * location. Least recently used tiles are dropped if the store goes over
+     * its maximum size.
+     *
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @param data the image bytes for the tile.
+     * @param etag the ETag the server provided for the tile, may be null.
+     * @param expires the time in milliseconds the tile expires, 0 if it
+     *        doesn't.
+     * @throws IOException
+     */
+    public void put(int x, int y, int zoomLevel, byte[] data, String etag, long expires)
+            throws IOException {
+        byte[] etagBytes = etag != null ? etag.getBytes(UTF8) : new byte[0];
+        if (etagBytes.length > MAX_ETAG_SIZE) {
+            etag = null;
+            etagBytes = new byte[0];
+        }
+
+        int recordLength = HEADER_SIZE + etagBytes.length + data.length + CRC_SIZE;
+        if (data.length > MAX_DATA_SIZE || recordLength > maxSize) {
+            return;
+        }
+
+        long key = key(x, y, zoomLevel);
+        long stored = System.currentTimeMillis();
+        byte[] record = createRecord(RECORD_MAGIC, key, stored, expires, etagBytes, data);
+
+        // The shard is always locked before the store, see compact().
+        Shard shard = shards[shardFor(key)];
+        synchronized (shard) {
+            synchronized (this) {
+                checkOpen();
+                long offset = shard.append(record);
+                Entry entry = new Entry(key, shard.id, offset, recordLength, data.length, HEADER_SIZE
+                        + etagBytes.length, stored, expires, etag);
+                add(entry);
+                trim();
+            }
+        }
+    }
+
+    /**
+     * Remove a tile from the store. A tombstone record is written for the
+     * tile, so it isn't brought back if the shards have to be scanned to
+     * rebuild the index.
+     *
+     * @return true if the store had the tile.
+     * @throws IOException if the tombstone can't be written, the tile is left
+     *         in the store.
+     */
+    public boolean remove(int x, int y, int zoomLevel) throws IOException {
+        long key = key(x, y, zoomLevel);
+        byte[] tombstone = createRecord(TOMBSTONE_MAGIC, key, System.currentTimeMillis(), 0, new byte[0], new byte[0]);
+
+        Shard shard = shards[shardFor(key)];
+        synchronized (shard) {
+            synchronized (this) {
+                checkOpen();
+                // Written even if the tile isn't in the index, the shard may
+                // still hold a record for it that was dropped to save space.
+                shard.append(tombstone);
+                shard.unused += tombstone.length;
+
+                Entry entry = index.remove(Long.valueOf(key));
+                if (entry != null) {
+                    drop(entry);
+                    trim();
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove all of the tiles from the store, deleting the contents of the
+     * shard files.
+     *
+     * @throws IOException
+     */
+    public void clear() throws IOException {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                synchronized (this) {
+                    checkOpen();
+                    Iterator<Entry> it = index.values().iterator();
+                    while (it.hasNext()) {
+                        Entry entry = it.next();
+                        if (entry.shard == shard.id) {
+                            it.remove();
+                            entry.offset = -1;
+                            size -= entry.recordLength;
+                        }
+                    }
+                    shard.file.setLength(0);
+                    shard.length = 0;
+                    shard.unused = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of tiles in the store.
+     */
+    public synchronized int getTileCount() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of bytes taken up by the tiles in the store.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of bytes of tiles the store keeps.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the directory holding the store files.
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Write the index and close the shard files. The store can't be used
+     * after it's closed.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                writeIndex();
+            } catch (IOException ioe) {
+                logger.warning("Couldn't write tile store index for " + dir + ": " + ioe.getMessage());
+            }
+
+            if (compactor != null) {
+                // A compaction that's running finds the store closed and
+                // leaves its shard alone.
+                compactor.shutdown();
+            }
+        }
+
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.close();
+            }
+        }
+    }
+
+    protected void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Tile store " + dir + " is closed");
+        }
+    }
+
+    protected File getShardFile(int i) {
+        return new File(dir, SHARD_FILE_PREFIX + i + SHARD_FILE_EXT);
+    }
+
+    /**
+     * Create a record for a shard file.
+     *
+     * @param magic RECORD_MAGIC for a tile, TOMBSTONE_MAGIC for a removal.
+     */
+    protected byte[] createRecord(int magic, long key, long stored, long expires, byte[] etagBytes,
+                                  byte[] data) {
+        int recordLength = HEADER_SIZE + etagBytes.length + data.length + CRC_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(magic);
+        record.putLong(key);
+        record.putLong(stored);
+        record.putLong(expires);
+        record.putInt(data.length);
+        record.putShort((short) etagBytes.length);
+        record.put(etagBytes);
+        record.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, recordLength - 4 - CRC_SIZE);
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    protected int shardFor(long key) {
+        // Spread neighboring tiles across the shards.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 33) % shards.length;
+    }
+
+    /**
+     * Add an entry to the index, accounting for any entry it replaces.
+     */
+    protected void add(Entry entry) {
+        Entry old = index.put(Long.valueOf(entry.key), entry);
+        if (old != null) {
+            drop(old);
+        }
+        size += entry.recordLength;
+    }
+
+    /**
+     * Account for an entry that has been removed from the index. Its record
+     * stays in the shard until the shard is compacted.
+     */
+    protected void drop(Entry entry) {
+        entry.offset = -1;
+        size -= entry.recordLength;
+        shards[entry.shard].unused += entry.recordLength;
+    }
+
+    /**
+     * Drop the least recently used tiles until the store is under its
+     * maximum size, and start compacting the shards that are mostly unused
+     * space. Called with the store locked.
+     */
+    protected void trim() {
+        Iterator<Entry> it = index.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            drop(entry);
+        }
+
+        for (final Shard shard : shards) {
+            if (!shard.compacting && shard.unused > MIN_COMPACT_SIZE
+                    && shard.unused > shard.length / 2) {
+                shard.compacting = true;
+                getCompactor().execute(new Runnable() {
+                    public void run() {
+                        try {
+                            compact(shard);
+                        } catch (IOException ioe) {
+                            logger.warning("Couldn't compact tile store shard " + shard.path
+                                    + ": " + ioe.getMessage());
+                        } finally {
+                            synchronized (TileStore.this) {
+                                shard.compacting = false;
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the single thread that compacts the shards in the background.
+     */
+    protected synchronized ExecutorService getCompactor() {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TileStore compactor " + dir.getName());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return compactor;
+    }
+
+    /**
+     * Rewrite a shard file with only the tiles that are still in the index.
+     * The new file is written next to the old one and renamed over it when
+     * it's complete.
+     * <p>
+     * The tiles in the shard are listed with the store locked, but they're
+     * copied with only the shard locked, so the other shards can be used in
+     * the meantime. Tiles can only be added to or removed from the shard with
+     * the shard locked, so the only changes while copying are tiles dropped
+     * to make room in the other shards. The store is locked again to switch
+     * to the new file, and the tiles dropped in the meantime are counted as
+     * unused space in it.
+     */
+    protected void compact(Shard shard) throws IOException {
+        File tmpFile = new File(dir, shard.path.getName() + ".tmp");
+
+        synchronized (shard) {
+            List<Entry> entries = new ArrayList<Entry>();
+            long[] oldOffsets;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                for (Entry entry : index.values()) {
+                    if (entry.shard == shard.id) {
+                        entries.add(entry);
+                    }
+                }
+                oldOffsets = new long[entries.size()];
+                for (int i = 0; i < oldOffsets.length; i++) {
+                    oldOffsets[i] = entries.get(i).offset;
+                }
+            }
+
+            long[] offsets = new long[entries.size()];
+            RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+            try {
+                out.setLength(0);
+                byte[] buf = new byte[8192];
+                long pos = 0;
+                for (int i = 0; i < offsets.length; i++) {
+                    Entry entry = entries.get(i);
+                    if (buf.length < entry.recordLength) {
+                        buf = new byte[entry.recordLength];
+                    }
+                    // Dropped entries still have their record in the file
+                    // until the shard is replaced.
+                    shard.file.seek(oldOffsets[i]);
+                    shard.file.readFully(buf, 0, entry.recordLength);
+                    out.write(buf, 0, entry.recordLength);
+                    offsets[i] = pos;
+                    pos += entry.recordLength;
+                }
+                out.getFD().sync();
+            } catch (IOException ioe) {
+                out.close();
+                tmpFile.delete();
+                throw ioe;
+            }
+            out.close();
+
+            synchronized (this) {
+                if (closed) {
+                    // The index has already been written for the old file.
+                    tmpFile.delete();
+                    return;
+                }
+
+                shard.close();
+                if (!tmpFile.renameTo(shard.path)) {
+                    // Windows won't rename over an existing file.
+                    if (!shard.path.delete() || !tmpFile.renameTo(shard.path)) {
+                        tmpFile.delete();
+                        if (!shard.path.exists()) {
+                            // The old file is gone, and the tiles with it.
+                            for (Entry entry : entries) {
+                                if (entry.offset >= 0) {
+                                    index.remove(Long.valueOf(entry.key));
+                                    drop(entry);
+                                }
+                            }
+                            shard.unused = 0;
+                        }
+                        shard.open();
+                        throw new IOException("Couldn't replace " + shard.path);
+                    }
+                }
+                shard.open();
+
+                long unused = 0;
+                for (int i = 0; i < offsets.length; i++) {
+                    Entry entry = entries.get(i);
+                    if (entry.offset >= 0) {
+                        entry.offset = offsets[i];
+                    } else {
+                        unused += entry.recordLength;
+                    }
+                }
+                shard.unused = unused;
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("compacted " + shard.path + " to " + shard.length + " bytes");
+        }
+    }
+
+    /**
+     * Scan the shard files to rebuild the index, cutting each file off after
+     * its last complete record. The last record for a tile in its shard wins,
+     * and a tombstone removes the tile. The least recently used order is
+     * rebuilt from the times the tiles were stored.
+     */
+    protected void recover() throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Shard shard : shards) {
+            recover(shard, entries);
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                return e1.stored < e2.stored ? -1 : (e1.stored == e2.stored ? 0 : 1);
+            }
+        });
+
+        for (Entry entry : entries) {
+            add(entry);
+        }
+    }
+
+    protected void recover(Shard shard, List<Entry> entries) throws IOException {
+        // A tile's records are always in the same shard, in the order they
+        // were written.
+        LinkedHashMap<Long, Entry> live = new LinkedHashMap<Long, Entry>();
+        RandomAccessFile file = shard.file;
+        long length = file.length();
+        long pos = 0;
+        byte[] header = new byte[HEADER_SIZE];
+        CRC32 crc = new CRC32();
+
+        while (pos + HEADER_SIZE + CRC_SIZE <= length) {
+            file.seek(pos);
+            file.readFully(header);
+            ByteBuffer hb = ByteBuffer.wrap(header);
+            int magic = hb.getInt();
+            long key = hb.getLong();
+            long stored = hb.getLong();
+            long expires = hb.getLong();
+            int dataLength = hb.getInt();
+            int etagLength = hb.getShort();
+
+            if ((magic != RECORD_MAGIC && magic != TOMBSTONE_MAGIC) || dataLength < 0 || dataLength > MAX_DATA_SIZE
+                    || etagLength < 0 || etagLength > MAX_ETAG_SIZE) {
+                break;
+            }
+
+            int recordLength = HEADER_SIZE + etagLength + dataLength + CRC_SIZE;
+            if (pos + recordLength > length) {
+                break;
+            }
+
+            byte[] body = new byte[recordLength - HEADER_SIZE];
+            file.readFully(body);
+            crc.reset();
+            crc.update(header, 4, HEADER_SIZE - 4);
+            crc.update(body, 0, body.length - CRC_SIZE);
+            if ((int) crc.getValue() != ByteBuffer.wrap(body, body.length - CRC_SIZE, CRC_SIZE).getInt()) {
+                break;
+            }
+
+            Long k = Long.valueOf(key);
+            if (magic == TOMBSTONE_MAGIC) {
+                live.remove(k);
+            } else {
+                String etag = etagLength > 0 ? new String(body, 0, etagLength, UTF8) : null;
+                live.remove(k);
+                live.put(k, new Entry(key, shard.id, pos, recordLength, dataLength, HEADER_SIZE
+                        + etagLength, stored, expires, etag));
+            }
+            pos += recordLength;
+        }
+
+        long liveBytes = 0;
+        for (Entry entry : live.values()) {
+            liveBytes += entry.recordLength;
+        }
+        entries.addAll(live.values());
+
+        if (pos < length) {
+            logger.warning("Tile store shard " + shard.path + " has " + (length - pos)
+                    + " bytes of incomplete data, truncating");
+            file.setLength(pos);
+        }
+        shard.length = pos;
+        shard.unused = pos - liveBytes;
+    }
+
+    /**
+     * Write the index to the store directory, in least recently used order.
+     */
+    protected void writeIndex() throws IOException {
+        File tmpFile = new File(dir, INDEX_FILE + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            dos.writeInt(INDEX_MAGIC);
+            dos.writeInt(INDEX_VERSION);
+            dos.writeInt(shards.length);
+            for (Shard shard : shards) {
+                dos.writeLong(shard.length);
+                dos.writeLong(shard.unused);
+            }
+            dos.writeInt(index.size());
+            for (Entry entry : index.values()) {
+                dos.writeLong(entry.key);
+                dos.writeInt(entry.shard);
+                dos.writeLong(entry.offset);
+                dos.writeInt(entry.recordLength);
+                dos.writeInt(entry.dataLength);
+                dos.writeInt(entry.dataOffset);
+                dos.writeLong(entry.stored);
+                dos.writeLong(entry.expires);
+                dos.writeUTF(entry.etag != null ? entry.etag : "");
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!tmpFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                tmpFile.delete();
+                throw new IOException("Couldn't write " + indexFile);
+            }
+        }
+    }
+
+    /**
+     * Read the index written when the store was last closed. The index file
+     * is deleted after it's read, so the shards are scanned if the store isn't
+     * closed again.
+     *
+     * @return false if there isn't an index, or it doesn't match the shard
+     *         files.
+     */
+    protected boolean readIndex() {
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        boolean ret = false;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (dis.readInt() == INDEX_MAGIC && dis.readInt() == INDEX_VERSION
+                        && dis.readInt() == shards.length) {
+                    boolean matches = true;
+                    for (Shard shard : shards) {
+                        matches &= dis.readLong() == shard.length;
+                        shard.unused = dis.readLong();
+                    }
+
+                    if (matches) {
+                        int count = dis.readInt();
+                        for (int i = 0; i < count; i++) {
+                            long key = dis.readLong();
+                            int shard = dis.readInt();
+                            long offset = dis.readLong();
+                            int recordLength = dis.readInt();
+                            int dataLength = dis.readInt();
+                            int dataOffset = dis.readInt();
+                            long stored = dis.readLong();
+                            long expires = dis.readLong();
+                            String etag = dis.readUTF();
+                            add(new Entry(key, shard, offset, recordLength, dataLength, dataOffset, stored, expires, etag.length() > 0 ? etag
+                                    : null));
+                        }
+                        ret = true;
+                    }
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException ioe) {
+            logger.fine("Couldn't read tile store index: " + ioe.getMessage());
+        }
+
+        if (!ret) {
+            index.clear();
+            size = 0;
+            for (Shard shard : shards) {
+                shard.unused = 0;
+            }
+        }
+
+        indexFile.delete();
+        return ret;
+    }
+
+    /**
+     * A tile from the store.
+     */
+    public static class Tile {
+        protected final byte[] data;
+        protected final String etag;
+        protected final long stored;
+        protected final long expires;
+
+        public Tile(byte[] data, String etag, long stored, long expires) {
+            this.data = data;
+            this.etag = etag;
+            this.stored = stored;
+            this.expires = expires;
+        }
+
+        /**
+         * @return the image bytes.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the ETag from the server, or null if there wasn't one.
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return the time in milliseconds the tile was stored.
+         */
+        public long getStored() {
+            return stored;
+        }
+
+        /**
+         * @return the time in milliseconds the tile expires, 0 if it doesn't.
+         */
+        public long getExpires() {
+            return expires;
+        }
+
+        /**
+         * @return true if the tile should be checked with the server before
+         *         it's used.
+         */
+        public boolean isExpired() {
+            return expires > 0 && System.currentTimeMillis() >= expires;
+        }
+    }
+
+    /**
+     * The index information for a tile.
+     */
+    protected static class Entry {
+        final long key;
+        final int shard;
+        /** Offset of the record in the shard, -1 once it's been dropped. */
+        volatile long offset;
+        final int recordLength;
+        final int dataLength;
+        /** Offset of the image bytes from the start of the record. */
+        final int dataOffset;
+        final long stored;
+        final long expires;
+        final String etag;
+
+        Entry(long key, int shard, long offset, int recordLength, int dataLength, int dataOffset,
+                long stored, long expires, String etag) {
+            this.key = key;
+            this.shard = shard;
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.dataLength = dataLength;
+            this.dataOffset = dataOffset;
+            this.stored = stored;
+            this.expires = expires;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * One of the files the tile records are appended to. Access to the file
+     * is synchronized on the Shard. Code that needs both locks takes the
+     * Shard's before the store's.
+     */
+    protected static class Shard {
+        final int id;
+        final File path;
+        RandomAccessFile file;
+        /** The end of the last complete record. */
+        long length;
+        /** Bytes taken up by records that are no longer in the index. */
+        long unused;
+        /** Set while a compaction is scheduled or running, store locked. */
+        boolean compacting;
+
+        Shard(int id, File path) throws IOException {
+            this.id = id;
+            this.path = path;
+            open();
+        }
+
+        void open() throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            length = file.length();
+        }
+
+        void close() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ioe) {
+                    // Nothing to do about it.
+                }
+                file = null;
+            }
+        }
+
+        /**
+         * Write a record at the end of the file.
+         *
+         * @return the offset of the record.
+         */
+        long append(byte[] record) throws IOException {
+            long offset = length;
+            try {
+                file.seek(offset);
+                file.write(record);
+            } catch (IOException ioe) {
+                // Don't leave a partial record behind for the next one to
+                // follow.
+                file.setLength(offset);
+                throw ioe;
+            }
+            length += record.length;
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.shape;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Locale;
+
+import com.bbn.openmap.omGraphics.rule.RuleColumns;
+
+/**
+ * A column-oriented, read-only view of the records in a dbf file, working
+ * directly on the file bytes (usually a memory-mapped file). Only the columns
+ * allowed by the DbfFile column mask at the time the view was created are
+ * visible, and cells are decoded when they are asked for, so there's no need to
+ * hold the whole table in memory as Lists of Doubles and Strings.
+ * <P>
+ * Numerical cells can be read as primitives with getDouble() and getInt(), or
+ * a whole column at a time with getDoubleColumn() and getIntColumn(), which are
+ * decoded once and kept. getRecord() returns a List for a row that decodes
+ * each cell the first time it is asked for, with the same values that
+ * DbfFile.getRecordData() provides, so it can be handed to IndexRules.
+ * <P>
+ * The view only uses absolute reads on its buffer, so it can be used from
+ * several threads at once.
+ */
+public class DbfColumns implements RuleColumns {
+
+    protected final ByteBuffer data;
+    protected final int rowCount;
+    protected final int headerLength;
+    protected final int recordLength;
+
+    protected final String[] names;
+    protected final byte[] types;
+    protected final int[] lengths;
+    protected final byte[] decimalCounts;
+    /** The byte offsets of the columns within a record. */
+    protected final int[] offsets;
+
+    /** Decoded numerical columns, created when asked for. */
+    protected final double[][] doubleColumns;
+    protected final int[][] intColumns;
+
+    private final static double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1d;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+        }
+    }
+
+    /**
+     * Create a view on dbf file contents, with the columns set in the DbfFile.
+     *
+     * @param dbf the DbfFile with the header information and column mask.
+     * @param data the contents of the dbf file, starting at the beginning of
+     *        the file.
+     */
+    public DbfColumns(DbfFile dbf, ByteBuffer data) {
+        this.data = data.duplicate();
+        this.rowCount = dbf.getRowCount();
+        this.headerLength = dbf.getHeaderLength();
+        this.recordLength = dbf.getRecordLength();
+
+        int columnCount = dbf.getColumnCount();
+        names = new String[columnCount];
+        types = new byte[columnCount];
+        lengths = new int[columnCount];
+        decimalCounts = new byte[columnCount];
+        offsets = new int[columnCount];
+        doubleColumns = new double[columnCount][];
+        intColumns = new int[columnCount][];
+
+        Object[] mask = dbf._columnMask;
+        int fileColumnCount = mask != null ? mask.length : columnCount;
+        // Skip the delete flag.
+        int offset = 1;
+        int target = 0;
+        for (int c = 0; c < fileColumnCount; c++) {
+            if (mask == null || mask[c] == Boolean.TRUE) {
+                int length = dbf.getLength(target);
+                if (length == -1) {
+                    length = 255;
+                }
+                names[target] = dbf.getColumnName(target);
+                types[target] = dbf.getType(target);
+                lengths[target] = length;
+                decimalCounts[target] = dbf.getDecimalCount(target);
+                offsets[target] = offset;
+                offset += length;
+                target++;
+            } else {
+                offset += ((Integer) mask[c]).intValue();
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    public byte getType(int column) {
+        return types[column];
+    }
+
+    public boolean isNumerical(int column) {
+        return DbfTableModel.isNumericalType(types[column]);
+    }
+
+    /**
+     * @param columnName the name of a column, case insensitive.
+     * @return the index of the column in this view, -1 if it isn't here.
+     */
+    public int getColumnIndexForName(String columnName) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the record is marked as deleted.
+     */
+    public boolean isDeleted(int row) {
+        return data.get(headerLength + row * recordLength) == '*';
+    }
+
+    /**
+     * @return true if the cell contains only spaces (or nulls).
+     */
+    public boolean isEmpty(int row, int column) {
+        int pos = cellPosition(row, column);
+        int end = pos + lengths[column];
+        for (; pos < end; pos++) {
+            byte b = data.get(pos);
+            if (b != ' ' && b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the contents of a cell as a String, with leading and trailing
+     * whitespace removed.
+     */
+    public String getString(int row, int column) {
+        int pos = cellPosition(row, column);
+        int end = pos + lengths[column];
+        while (pos < end && (data.get(pos) & 0xff) <= ' ') {
+            pos++;
+        }
+        while (end > pos && (data.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        if (end == pos) {
+            return "";
+        }
+        byte[] bytes = new byte[end - pos];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(pos + i);
+        }
+        return new String(bytes);
+    }
+
+    /**
+     * Get the numerical value of a cell.
+     *
+     * @return the value, or Double.NaN if the cell is empty or isn't a number.
+     */
+    public double getDouble(int row, int column) {
+        int pos = cellPosition(row, column);
+        int end = pos + lengths[column];
+        while (pos < end && (data.get(pos) & 0xff) <= ' ') {
+            pos++;
+        }
+        while (end > pos && (data.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        if (pos == end) {
+            return Double.NaN;
+        }
+
+        int start = pos;
+        boolean negative = false;
+        byte b = data.get(pos);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        boolean sawDigit = false;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; pos < end; pos++) {
+            b = data.get(pos);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                sawDigit = true;
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (pos != end || !sawDigit || digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            // Exponents, extra long numbers or junk, let Java sort it out.
+            return parseDouble(start, end);
+        }
+
+        double value = mantissa;
+        if (fractionDigits > 0) {
+            value /= POWERS_OF_TEN[fractionDigits];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Get the numerical value of a cell as an int, truncating any fraction.
+     *
+     * @return the value, or 0 if the cell is empty or isn't a number.
+     */
+    public int getInt(int row, int column) {
+        double value = getDouble(row, column);
+        return Double.isNaN(value) ? 0 : (int) value;
+    }
+
+    /**
+     * Get all of the values of a numerical column. The column is decoded the
+     * first time it's asked for and kept, so don't modify the returned array.
+     *
+     * @return double[] with a value for each row, Double.NaN for empty cells.
+     */
+    public double[] getDoubleColumn(int column) {
+        double[] values = doubleColumns[column];
+        if (values == null) {
+            values = new double[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                values[row] = getDouble(row, column);
+            }
+            doubleColumns[column] = values;
+        }
+        return values;
+    }
+
+    /**
+     * Get all of the values of a numerical column as ints. The column is
+     * decoded the first time it's asked for and kept, so don't modify the
+     * returned array.
+     *
+     * @return int[] with a value for each row, 0 for empty cells.
+     */
+    public int[] getIntColumn(int column) {
+        int[] values = intColumns[column];
+        if (values == null) {
+            values = new int[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                values[row] = getInt(row, column);
+            }
+            intColumns[column] = values;
+        }
+        return values;
+    }
+
+    /**
+     * Get the value of a cell as the same kind of Object that
+     * DbfFile.getRecordData() provides: Doubles for numerical columns (or a
+     * blank String if the cell is empty), Strings otherwise.
+     */
+    public Object getValue(int row, int column) {
+        byte type = types[column];
+        if (DbfTableModel.isNumericalType(type)) {
+            double value = getDouble(row, column);
+            if (!Double.isNaN(value)) {
+                return new Double(value);
+            }
+        }
+
+        String cell = getString(row, column);
+        try {
+            return DbfTableModel.getObjectForType(cell, type, createDecimalFormat(column), lengths[column]);
+        } catch (ParseException pe) {
+            return cell;
+        }
+    }
+
+    /**
+     * Get a List for a row, holding the same values as
+     * DbfFile.getRecordData(). Each cell is decoded the first time it's
+     * asked for.
+     */
+    public List<Object> getRecord(int row) {
+        return new Record(row);
+    }
+
+    protected int cellPosition(int row, int column) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("DbfColumns: row " + row + " not in [0, " + rowCount
+                    + ")");
+        }
+        return headerLength + row * recordLength + offsets[column];
+    }
+
+    protected double parseDouble(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(start + i);
+        }
+        try {
+            return Double.parseDouble(new String(bytes));
+        } catch (NumberFormatException nfe) {
+            return Double.NaN;
+        }
+    }
+
+    protected DecimalFormat createDecimalFormat(int column) {
+        DecimalFormat df = new DecimalFormat();
+        df.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.ENGLISH));
+        df.setMaximumFractionDigits(decimalCounts[column]);
+        return df;
+    }
+
+    /**
+     * A record List that decodes cells when they are asked for.
+     */
+    protected class Record extends AbstractList<Object> {
+        protected final int row;
+        protected final Object[] values;
+
+        protected Record(int row) {
+            this.row = row;
+            this.values = new Object[names.length];
+        }
+
+        public Object get(int index) {
+            Object value = values[index];
+            if (value == null) {
+                value = getValue(row, index);
+                values[index] = value;
+            }
+            return value;
+        }
+
+        public int size() {
+            return values.length;
+        }
+    }
+}
@@ -23,10 +23,12 @@
 package com.bbn.openmap.dataAccess.shape;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormatSymbols;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -37,6 +39,8 @@ import com.bbn.openmap.dataAccess.shape.output.DbfOutputStream;
 import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.io.InputReader;
+import com.bbn.openmap.io.MappedInputReader;
 import com.bbn.openmap.util.ArgParser;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.FileUtils;
@@ -46,6 +50,11 @@ import com.bbn.openmap.util.FileUtils;
  * needed, in conjunction with some spatial indexing mechanism. Can be told to
  * which columns to read and which to skip, so unnecessary/unused information
  * isn't held in memory.
+ * <P>
+ * A DbfFile created with map() reads a memory-mapped dbf file, and
+ * getColumns() provides a DbfColumns view of the records that decodes cells
+ * directly from the file as they are needed, with primitive accessors for
+ * numerical columns.
  * 
  * @author dietrick
  */
@@ -72,6 +81,10 @@ public class DbfFile
     protected Object[] _columnMask = null;
     protected java.text.DecimalFormat df;
     protected BinaryFile bf;
+    /**
+     * The columnar view of the file, for the current column mask.
+     */
+    protected transient DbfColumns columns;
 
     protected DbfFile() {
         df = new java.text.DecimalFormat();
@@ -102,6 +115,7 @@ public class DbfFile
 
     public void readHeader(BinaryFile bf)
             throws FormatException, IOException {
+        columns = null;
         try {
             bf.seek(0);
             bf.byteOrder(false);
@@ -252,6 +266,45 @@ public class DbfFile
         return record;
     }
 
+    /**
+     * Get a column-oriented view of the records that reads cells directly from
+     * the file data, using the current column mask. Only available if the
+     * file is memory-mapped (see map()).
+     * 
+     * @return DbfColumns, or null if the file isn't mapped.
+     */
+    public DbfColumns getColumns() {
+        DbfColumns cols = columns;
+        if (cols == null) {
+            InputReader reader = bf != null ? bf.getInputReader() : null;
+            if (reader instanceof MappedInputReader) {
+                ByteBuffer data = ((MappedInputReader) reader).getBuffer();
+                cols = new DbfColumns(this, data);
+                columns = cols;
+            }
+        }
+        return cols;
+    }
+
+    /**
+     * Create a DbfFile for a dbf file, memory-mapping it if it's a local file
+     * so getColumns() can be used. Other files are read with a
+     * BinaryBufferedFile.
+     * 
+     * @param dbfFileName path, resource or URL of the dbf file.
+     * @return DbfFile
+     * @throws IOException
+     * @throws FormatException
+     */
+    public static DbfFile map(String dbfFileName)
+            throws IOException, FormatException {
+        File file = new File(dbfFileName);
+        if (file.isFile() && file.length() <= Integer.MAX_VALUE) {
+            return new DbfFile(new BinaryFile(new MappedInputReader(file)));
+        }
+        return new DbfFile(new BinaryBufferedFile(dbfFileName));
+    }
+
     /**
      * Clear the record information from memory.
      * 
@@ -425,6 +478,7 @@ public class DbfFile
                 }
             }
             resolveColumns();
+            columns = null;
         }
     }
 
@@ -32,6 +32,7 @@ import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.omGraphics.DrawingAttributes;
 import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.rule.CompiledRules;
 import com.bbn.openmap.omGraphics.rule.IndexRule;
 import com.bbn.openmap.omGraphics.rule.Rule;
 import com.bbn.openmap.omGraphics.rule.RuleHandler;
@@ -109,8 +110,17 @@ public class DbfHandler extends RuleHandler<List> {
     }
 
     public DbfHandler(BinaryFile bf) throws IOException, FormatException {
+        this(new DbfFile(bf));
+    }
+
+    /**
+     * Create a DbfHandler for a DbfFile. If the DbfFile was created with
+     * DbfFile.map(), the rules are compiled against its columns, and each
+     * record's rule is found from primitive column values and remembered.
+     */
+    public DbfHandler(DbfFile dbf) {
         this();
-        dbf = new DbfFile(bf);
+        this.dbf = dbf;
         dbf.close();
     }
 
@@ -136,6 +146,7 @@ public class DbfHandler extends RuleHandler<List> {
 
     public void setDbf(DbfFile dbf) {
         this.dbf = dbf;
+        resetCompiledRules();
     }
 
     public DrawingAttributes getDefaultDA() {
@@ -166,6 +177,23 @@ public class DbfHandler extends RuleHandler<List> {
         return new DbfRule(dbf);
     }
 
+    /**
+     * Compiles the rules against the DbfColumns of a memory-mapped dbf file.
+     */
+    // Overrides the raw List<Rule> signature of RuleHandler.
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected CompiledRules compileRules(List<Rule> rules) {
+        DbfFile dbf = this.dbf;
+        return dbf != null ? CompiledRules.compile(rules, dbf.getColumns()) : null;
+    }
+
+    @Override
+    protected int getRecordIndexForOMGraphic(OMGraphic omg) {
+        Object index = omg.getAttribute(ShapeConstants.SHAPE_INDEX_ATTRIBUTE);
+        return index instanceof Integer ? ((Integer) index).intValue() : -1;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -176,7 +204,12 @@ public class DbfHandler extends RuleHandler<List> {
     @Override
     public List getRecordDataForOMGraphic(OMGraphic omg) {
         try {
-            return (List) dbf.getRecordData((Integer) omg.getAttribute(ShapeConstants.SHAPE_INDEX_ATTRIBUTE));
+            Integer index = (Integer) omg.getAttribute(ShapeConstants.SHAPE_INDEX_ATTRIBUTE);
+            DbfColumns columns = dbf.getColumns();
+            if (columns != null) {
+                return columns.getRecord(index.intValue());
+            }
+            return (List) dbf.getRecordData(index);
         } catch (IOException ioe) {
 
         } catch (FormatException fe) {
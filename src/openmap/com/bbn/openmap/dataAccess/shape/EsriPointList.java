@@ -45,6 +45,7 @@ public class EsriPointList extends EsriGraphicList {
      * @param shape the non-null OMGraphic to add
      */
     public boolean add(OMGraphic shape) {
+        clearSpatialIndex();
         try {
 
             if (typeMatches(shape)) {
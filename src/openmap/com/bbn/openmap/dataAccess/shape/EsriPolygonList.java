@@ -55,6 +55,7 @@ public class EsriPolygonList extends EsriGraphicList {
      * @param shape the non-null OMGraphic to add
      */
     public boolean add(OMGraphic shape) {
+        clearSpatialIndex();
         boolean ret = false;
         try {
 
@@ -49,6 +49,7 @@ public class EsriPolylineList extends EsriGraphicList {
      * @param shape the non-null OMGraphic to add
      */
     public boolean add(OMGraphic shape) {
+        clearSpatialIndex();
         boolean ret = false;
         try {
             if (typeMatches(shape)) {
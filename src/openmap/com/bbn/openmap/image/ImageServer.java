@@ -28,17 +28,25 @@ import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.RenderingHints;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,6 +57,7 @@ import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.plugin.PlugIn;
 import com.bbn.openmap.plugin.PlugInLayer;
 import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.LLXY;
 import com.bbn.openmap.proj.Mercator;
 import com.bbn.openmap.proj.Proj;
 import com.bbn.openmap.proj.Projection;
@@ -56,6 +65,7 @@ import com.bbn.openmap.proj.ProjectionFactory;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.ComponentFactory;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * The image server is the class you want to deal with when creating images. It
@@ -77,10 +87,18 @@ import com.bbn.openmap.util.PropUtils;
  * layer array contents and the request layer mask at the time the request
  * processing is started, not when it is submitted.
  * <P>
- * Right now, the ImageServer is single threaded - processing requests one after
- * another. The request setup was written to support multi-threaded processing,
- * though, where each image could be generated in it's own thread. That code is
- * not written - maybe someday.
+ * Each request is handled in the calling thread, so several threads can ask
+ * for images at the same time. OMGraphicHandlerLayers with the
+ * concurrentRendering flag set create their OMGraphics for each request
+ * without locking, other layers handle requests one at a time. If the
+ * parallelLayers property is set, the layers of a single image are rendered
+ * at the same time into their own buffers, which are combined in layer order
+ * when they are all done.
+ * <P>
+ * If the metaTilePixels property is set, Mercator and LLXY images are cut out of
+ * larger metatiles laid out on a grid for each scale. The metatiles are
+ * rendered once and the most recently used ones are cached, so tiled clients
+ * asking for neighboring images at the same scale share one rendering.
  * <P>
  * <pre>
  *                   
@@ -145,9 +163,55 @@ public class ImageServer
      */
     public static final String BackgroundProperty = "background";
 
+    /**
+     * Property to render the layers of an image in separate threads, each into
+     * its own buffer (true/false, false by default).
+     */
+    public static final String ParallelLayersProperty = "parallelLayers";
+
+    /**
+     * Property for the pixel size of the metatiles used for Mercator and LLXY
+     * images (0 by default, metatiles are not used). With metatiles, the map
+     * is divided into a grid of square metatiles at each scale, and an image
+     * is cut out of the metatiles it covers, which are rendered once and
+     * cached. Clients asking for adjacent tiles at the same scale are then
+     * served from the same rendering.
+     */
+    public static final String MetaTilePixelsProperty = "metaTilePixels";
+
+    /**
+     * Property for the number of rendered metatiles to keep in memory, the
+     * least recently used are dropped first (16 by default).
+     */
+    public static final String MetaTileCacheSizeProperty = "metaTileCacheSize";
+
+    /** The default number of rendered metatiles held in memory. */
+    public static final int DEFAULT_META_TILE_CACHE_SIZE = 16;
+
+    /**
+     * The most metatiles an image can be cut out of, images covering more are
+     * rendered directly.
+     */
+    protected static final int MAX_META_TILES_PER_IMAGE = 4;
+
     /** Flag to do graphics and text anti-aliasing on the map image. */
     protected boolean doAntiAliasing = false;
 
+    /** Flag to render the layers of an image at the same time. */
+    protected boolean parallelLayers = false;
+
+    /** The pixel size of metatiles, 0 if they are not used. */
+    protected int metaTilePixels = 0;
+
+    /** The number of rendered metatiles held in memory. */
+    protected int metaTileCacheSize = DEFAULT_META_TILE_CACHE_SIZE;
+
+    /**
+     * The rendered metatiles, by key, in least recently used order. Metatiles
+     * being rendered are in here too, so other requests can wait for them.
+     */
+    protected Map<String, Future<BufferedImage>> metaTileCache;
+
     /**
      * A place to hold on to a property prefix in case one is used. Useful for
      * ImageServer properties files where more than one image server is defined.
@@ -224,6 +288,61 @@ public class ImageServer
         return doAntiAliasing;
     }
 
+    /**
+     * Set whether the layers of an image should be rendered at the same time,
+     * each in its own thread and buffer.
+     */
+    public void setParallelLayers(boolean set) {
+        parallelLayers = set;
+    }
+
+    /**
+     * @return true if the layers of an image are rendered at the same time.
+     */
+    public boolean isParallelLayers() {
+        return parallelLayers;
+    }
+
+    /**
+     * Set the pixel size of the metatiles used for Mercator and LLXY images,
+     * 0 or less to not use them. Clears the metatile cache.
+     */
+    public void setMetaTilePixels(int size) {
+        metaTilePixels = Math.max(0, size);
+        clearMetaTileCache();
+    }
+
+    public int getMetaTilePixels() {
+        return metaTilePixels;
+    }
+
+    /**
+     * Set the number of rendered metatiles held in memory. Clears the metatile
+     * cache.
+     */
+    public void setMetaTileCacheSize(int size) {
+        metaTileCacheSize = Math.max(1, size);
+        synchronized (this) {
+            metaTileCache = null;
+        }
+    }
+
+    public int getMetaTileCacheSize() {
+        return metaTileCacheSize;
+    }
+
+    /**
+     * Drop all of the rendered metatiles. Should be called when the data the
+     * layers are displaying changes, since images will be cut out of the
+     * cached metatiles until they are pushed out of the cache.
+     */
+    public void clearMetaTileCache() {
+        Map<String, Future<BufferedImage>> cache = getMetaTileCache();
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
     /**
      * Set the layers used on the NEXT request that is processed. Will not
      * affect any image currently being created.
@@ -238,6 +357,7 @@ public class ImageServer
         } else {
             layers = newLayers;
         }
+        clearMetaTileCache();
     }
 
     /**
@@ -349,15 +469,7 @@ public class ImageServer
             return new byte[0];
         }
 
-        ImageFormatter imageFormatter = formatter.makeClone();
-        java.awt.Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
-
-        if (graphics == null) {
-            return new byte[0];
-        }
-
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
-
+        List<Layer> renderList = new ArrayList<Layer>();
         if (showLayers != null) {
             int size = showLayers.size();
             for (int j = size - 1; j >= 0; j--) {
@@ -375,7 +487,7 @@ public class ImageServer
                     }
 
                     if (layerName.equals(prefix)) {
-                        layer.renderDataForProjection(proj, graphics);
+                        renderList.add(layer);
                         if (logger.isLoggable(Level.FINE)) {
                             logger.fine("image request adding layer graphics from : " + layer.getName());
                         }
@@ -386,9 +498,7 @@ public class ImageServer
             logger.fine("no layers available for image");
         }
 
-        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
-        graphics.dispose();
-        return formattedImage;
+        return renderImage(proj, scaledWidth, scaledHeight, renderList, background);
     }
 
     /**
@@ -412,21 +522,13 @@ public class ImageServer
             return new byte[0];
         }
 
-        ImageFormatter imageFormatter = formatter.makeClone();
-        java.awt.Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
-
-        if (graphics == null) {
-            return new byte[0];
-        }
-
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
-
+        List<Layer> renderList = new ArrayList<Layer>();
         if (layers != null && !layers.isEmpty()) {
             for (int i = layers.size() - 1; i >= 0; i--) {
                 Layer layer = layers.get(i);
 
                 if (layer != null) {
-                    layer.renderDataForProjection(proj, graphics);
+                    renderList.add(layer);
 
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine("image request adding layer graphics from : " + layer.getName());
@@ -438,9 +540,7 @@ public class ImageServer
             logger.fine("no layers available for image");
         }
 
-        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
-        graphics.dispose();
-        return formattedImage;
+        return renderImage(proj, scaledWidth, scaledHeight, renderList, background);
     }
 
     /**
@@ -509,20 +609,12 @@ public class ImageServer
             return new byte[0];
         }
 
-        ImageFormatter imageFormatter = formatter.makeClone();
-
-        Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
-
-        if (graphics == null) {
-            return new byte[0];
-        }
-
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
-
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("considering " + layers.length + " for image...");
         }
 
+        Layer[] layers = this.layers;
+        List<Layer> renderList = new ArrayList<Layer>();
         if (layers != null) {
             for (int i = layers.length - 1; i >= 0; i--) {
                 if ((includedLayerMask & (0x00000001 << i)) != 0) {
@@ -530,7 +622,7 @@ public class ImageServer
                         logger.fine("image request adding layer graphics from : " + layers[i].getName());
                     }
 
-                    layers[i].renderDataForProjection(proj, graphics);
+                    renderList.add(layers[i]);
                 } else {
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine("skipping layer graphics from : " + layers[i].getName());
@@ -543,11 +635,297 @@ public class ImageServer
             }
         }
 
+        return renderImage(proj, scaledWidth, scaledHeight, renderList, background);
+    }
+
+    /**
+     * Render the layers into an image and format it. If metatiles are being
+     * used and the projection allows it, the image is cut out of cached
+     * metatiles instead of being rendered directly.
+     * 
+     * @param proj projection of map.
+     * @param scaledWidth scaled pixel width of final image, -1 for unscaled.
+     * @param scaledHeight scaled pixel height of final image, -1 for unscaled.
+     * @param renderList layers, bottom layer first.
+     * @param background the background Paint to use for the image.
+     * @return a byte[] representing the formatted image.
+     */
+    protected byte[] renderImage(Projection proj, int scaledWidth, int scaledHeight, List<Layer> renderList, Paint background) {
+        ImageFormatter imageFormatter = formatter.makeClone();
+        Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
+
+        if (graphics == null) {
+            return new byte[0];
+        }
+
+        if (!drawMetaTiles(proj, graphics, renderList, background)) {
+            ((Proj) proj).drawBackground((Graphics2D) graphics, background);
+            renderLayers(proj, graphics, renderList);
+        }
+
         byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
         graphics.dispose();
         return formattedImage;
     }
 
+    /**
+     * Draw the part of the metatiles covered by the projection into the image
+     * Graphics, rendering the metatiles that aren't in the cache. Metatiles
+     * are only used for Mercator and LLXY projections, where moving the
+     * center just shifts the map, so the map at a scale can be laid out on a
+     * fixed pixel grid with its origin at 0, 0 lat/lon.
+     * 
+     * @param proj projection of the image.
+     * @param graphics the image Graphics.
+     * @param renderList layers, bottom layer first.
+     * @param background the background Paint to use for the metatiles.
+     * @return false if metatiles can't be used for the projection, and the
+     *         image should be rendered directly.
+     */
+    protected boolean drawMetaTiles(Projection proj, Graphics graphics, List<Layer> renderList, Paint background) {
+        int size = metaTilePixels;
+        if (size <= 0 || !(proj instanceof Mercator || proj instanceof LLXY)) {
+            return false;
+        }
+
+        int width = proj.getWidth();
+        int height = proj.getHeight();
+
+        // Grid coordinates of the upper left corner of the image. The
+        // reference projection is centered on the grid origin.
+        Proj ref = (Proj) proj.makeClone();
+        ref.setCenter(0, 0);
+        double refX = ref.getWidth() / 2.0;
+        double refY = ref.getHeight() / 2.0;
+
+        Point2D ul = proj.inverse(0, 0);
+        Point2D check = proj.forward(ul);
+        if (Math.abs(check.getX()) > .5 || Math.abs(check.getY()) > .5) {
+            // Corner is past the edge of the projection, near the poles.
+            return false;
+        }
+        Point2D ulGrid = ref.forward(ul);
+        long x = Math.round(ulGrid.getX() - refX);
+        long y = Math.round(ulGrid.getY() - refY);
+
+        long minCol = floorDiv(x, size);
+        long maxCol = floorDiv(x + width - 1, size);
+        long minRow = floorDiv(y, size);
+        long maxRow = floorDiv(y + height - 1, size);
+        if ((maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_META_TILES_PER_IMAGE) {
+            return false;
+        }
+
+        String layerKey = getMetaTileKey(proj, renderList, background);
+        for (long row = minRow; row <= maxRow; row++) {
+            for (long col = minCol; col <= maxCol; col++) {
+                // Center the metatile projection on the metatile.
+                Point2D center = ref.inverse(col * size + size / 2.0 + refX, row * size + size / 2.0 + refY);
+                if (Math.abs(ref.forward(center).getY() - (row * size + size / 2.0 + refY)) > .5) {
+                    return false;
+                }
+                Proj metaProj = (Proj) proj.makeClone();
+                metaProj.setWidth(size);
+                metaProj.setHeight(size);
+                metaProj.setCenter(center);
+
+                BufferedImage metaTile = getMetaTile(layerKey + col + "_" + row, metaProj, renderList, background);
+                if (metaTile == null) {
+                    return false;
+                }
+                graphics.drawImage(metaTile, (int) (col * size - x), (int) (row * size - y), null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the part of the metatile cache key that covers what is drawn,
+     * the type and scale of the projection, the layers and the background. The
+     * scale is rounded to six significant digits, since the scale computed
+     * from tile bounding boxes at one zoom level can vary in the last digits.
+     */
+    protected String getMetaTileKey(Projection proj, List<Layer> renderList, Paint background) {
+        StringBuilder key = new StringBuilder(proj.getClass().getName());
+        key.append('_').append(new BigDecimal(proj.getScale()).round(new MathContext(6)).toString());
+        key.append('_').append(metaTilePixels);
+        for (Layer layer : renderList) {
+            key.append('_').append(Integer.toHexString(System.identityHashCode(layer)));
+        }
+        if (background instanceof Color) {
+            key.append('_').append(Integer.toHexString(((Color) background).getRGB()));
+        } else {
+            key.append('_').append(Integer.toHexString(System.identityHashCode(background)));
+        }
+        key.append('_').append(doAntiAliasing).append('_');
+        return key.toString();
+    }
+
+    /**
+     * Get a metatile from the cache, rendering it if it's not there. If
+     * another thread is already rendering the metatile, this waits for it.
+     * 
+     * @return the metatile image, or null if it couldn't be rendered.
+     */
+    protected BufferedImage getMetaTile(String key, final Projection metaProj, final List<Layer> renderList,
+                                        final Paint background) {
+        Map<String, Future<BufferedImage>> cache = getMetaTileCache();
+        FutureTask<BufferedImage> task = null;
+        Future<BufferedImage> metaTile;
+        synchronized (cache) {
+            metaTile = cache.get(key);
+            if (metaTile == null) {
+                task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+                    public BufferedImage call() throws Exception {
+                        return renderMetaTile(metaProj, renderList, background);
+                    }
+                });
+                cache.put(key, task);
+                metaTile = task;
+            }
+        }
+
+        if (task != null) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("rendering metatile " + key);
+            }
+            task.run();
+        }
+
+        try {
+            return metaTile.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            logger.warning("interrupted while waiting for metatile");
+        } catch (ExecutionException ee) {
+            logger.log(Level.WARNING, "problem rendering metatile", ee.getCause());
+            synchronized (cache) {
+                if (cache.get(key) == metaTile) {
+                    cache.remove(key);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Render the layers into a new metatile image, over the background.
+     */
+    protected BufferedImage renderMetaTile(Projection metaProj, List<Layer> renderList, Paint background) {
+        BufferedImage image = new BufferedImage(metaProj.getWidth(), metaProj.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            if (doAntiAliasing) {
+                g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
+            ((Proj) metaProj).drawBackground(g2d, background);
+            renderLayers(metaProj, g2d, renderList);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Get the metatile cache, creating it if needed. The cache drops the least
+     * recently used metatiles when it holds more than the metatile cache size.
+     */
+    protected synchronized Map<String, Future<BufferedImage>> getMetaTileCache() {
+        if (metaTileCache == null) {
+            final int maxSize = getMetaTileCacheSize();
+            metaTileCache = new LinkedHashMap<String, Future<BufferedImage>>(maxSize + 1, .75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, Future<BufferedImage>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+        return metaTileCache;
+    }
+
+    /**
+     * Integer division rounding toward negative infinity, for grid cells left
+     * of and above the origin.
+     */
+    protected static long floorDiv(long a, long b) {
+        long q = a / b;
+        if ((a % b != 0) && ((a < 0) != (b < 0))) {
+            q--;
+        }
+        return q;
+    }
+
+    /**
+     * Render layers into the image Graphics. If parallel layer rendering is
+     * turned on and there is more than one layer, each layer is rendered into
+     * its own transparent buffer in a separate thread (the last one in the
+     * calling thread), and the buffers are drawn into the image in list order
+     * when they are all done.
+     * 
+     * @param proj projection of the image.
+     * @param graphics the image Graphics.
+     * @param renderList layers, bottom layer first.
+     */
+    protected void renderLayers(Projection proj, Graphics graphics, List<Layer> renderList) {
+        int count = renderList.size();
+        if (!parallelLayers || count < 2) {
+            for (Layer layer : renderList) {
+                layer.renderDataForProjection(proj, graphics);
+            }
+            return;
+        }
+
+        final int width = proj.getWidth();
+        final int height = proj.getHeight();
+        List<Future<BufferedImage>> results = new ArrayList<Future<BufferedImage>>(count - 1);
+        for (int i = 0; i < count - 1; i++) {
+            final Layer layer = renderList.get(i);
+            final Projection layerProj = proj.makeClone();
+            results.add(TaskService.singleton().spawn(new Callable<BufferedImage>() {
+                public BufferedImage call() throws Exception {
+                    return renderLayerImage(layer, layerProj, width, height);
+                }
+            }));
+        }
+
+        BufferedImage last = renderLayerImage(renderList.get(count - 1), proj, width, height);
+
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                BufferedImage layerImage = results.get(i).get();
+                graphics.drawImage(layerImage, 0, 0, null);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                logger.warning("interrupted while rendering layers");
+                return;
+            } catch (ExecutionException ee) {
+                logger.log(Level.WARNING, "problem rendering " + renderList.get(i).getName(), ee.getCause());
+            }
+        }
+        graphics.drawImage(last, 0, 0, null);
+    }
+
+    /**
+     * Render a single layer into a new transparent image, using the same
+     * rendering hints as the image Graphics.
+     */
+    protected BufferedImage renderLayerImage(Layer layer, Projection proj, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            if (doAntiAliasing) {
+                g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
+            layer.renderDataForProjection(proj, g2d);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
     /**
      * Create a java.awt.Graphics to use for an image. The Graphics will affect
      * the image contained within the ImageFormatter.
@@ -634,6 +1012,12 @@ public class ImageServer
         layers = getLayers(props, instantiatedLayers);
         formatter = getFormatters(props);
         doAntiAliasing = PropUtils.booleanFromProperties(props, prefix + AntiAliasingProperty, false);
+        parallelLayers = PropUtils.booleanFromProperties(props, prefix + ParallelLayersProperty, false);
+        metaTilePixels = Math.max(0, PropUtils.intFromProperties(props, prefix + MetaTilePixelsProperty, 0));
+        metaTileCacheSize = Math.max(1, PropUtils.intFromProperties(props, prefix + MetaTileCacheSizeProperty, DEFAULT_META_TILE_CACHE_SIZE));
+        synchronized (this) {
+            metaTileCache = null;
+        }
 
         background = getBackground(props, prefix + BackgroundProperty);
     }
@@ -721,6 +1105,9 @@ public class ImageServer
         props.put(prefix + ImageFormattersProperty, buf.toString().trim());
 
         props.put(prefix + AntiAliasingProperty, Boolean.toString(doAntiAliasing));
+        props.put(prefix + ParallelLayersProperty, Boolean.toString(parallelLayers));
+        props.put(prefix + MetaTilePixelsProperty, Integer.toString(metaTilePixels));
+        props.put(prefix + MetaTileCacheSizeProperty, Integer.toString(metaTileCacheSize));
 
         if (background instanceof Color) {
             String colorString = Integer.toHexString(((Color) background).getRGB());
@@ -741,6 +1128,9 @@ public class ImageServer
         list.put(ImageServerLayersProperty, "A list of marker names (space-separated) for layer definitions");
         list.put(ImageFormattersProperty, "A list of marker names (space-separated) for ImageFormatter definitions");
         list.put(AntiAliasingProperty, "Whether to use anti-aliasing for the image");
+        list.put(ParallelLayersProperty, "Whether to render the layers of an image at the same time");
+        list.put(MetaTilePixelsProperty, "Pixel size of cached metatiles that Mercator and LLXY images are cut out of, 0 to not use them");
+        list.put(MetaTileCacheSizeProperty, "Number of rendered metatiles to keep in memory");
         return list;
     }
 
@@ -1030,31 +1420,11 @@ public class ImageServer
      */
     public String writeImageFile(byte[] imageBytes, String outputPath, boolean checkFormatterForExtension)
             throws IOException {
-        String appendix = "";
-
+        String finalOutputPath = outputPath;
         if (checkFormatterForExtension) {
-            ImageFormatter formatter = getFormatter();
-            if (formatter == null) {
-                appendix = ".jpg";
-            } else {
-                String fileType = formatter.getFormatLabel();
-                if (fileType.equals(WMTConstants.IMAGEFORMAT_JPEG)) {
-                    appendix = ".jpg";
-                } else {
-                    appendix = "." + fileType.toLowerCase();
-                }
-            }
-
-            // If the file output path already ends properly, don't bother
-            // changing
-            // it.
-            if (outputPath.endsWith(appendix)) {
-                appendix = "";
-            }
+            finalOutputPath = getImageFilePath(outputPath);
         }
 
-        String finalOutputPath = outputPath + appendix;
-
         FileOutputStream fos = new FileOutputStream(finalOutputPath);
 
         fos.write(imageBytes);
@@ -1064,6 +1434,37 @@ public class ImageServer
         return finalOutputPath;
     }
 
+    /**
+     * Add the extension for the current active formatter to a file path, if
+     * the path doesn't already end with it.
+     * 
+     * @param outputPath the path of the image file.
+     * @return the file path with the image type extension.
+     */
+    public String getImageFilePath(String outputPath) {
+        String appendix;
+
+        ImageFormatter formatter = getFormatter();
+        if (formatter == null) {
+            appendix = ".jpg";
+        } else {
+            String fileType = formatter.getFormatLabel();
+            if (fileType.equals(WMTConstants.IMAGEFORMAT_JPEG)) {
+                appendix = ".jpg";
+            } else {
+                appendix = "." + fileType.toLowerCase();
+            }
+        }
+
+        // If the file output path already ends properly, don't bother
+        // changing it.
+        if (outputPath.endsWith(appendix)) {
+            return outputPath;
+        }
+
+        return outputPath + appendix;
+    }
+
     /**
      * For convenience, to create an image file based on the contents of a
      * properties file (like an openmap.properties file).
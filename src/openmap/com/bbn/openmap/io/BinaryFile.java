@@ -76,7 +76,7 @@ public class BinaryFile {
      * 
      * @param inputReader the input reader to be opened for reading
      */
-    private BinaryFile(InputReader inputReader) {
+    public BinaryFile(InputReader inputReader) {
         this.inputReader = inputReader;
         classCount++;
         openCount++;
@@ -0,0 +1,181 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bbn.openmap.util.Debug;
+
+/**
+ * An InputReader that reads from a memory-mapped local file. The mapping is
+ * made once and shared, and each MappedInputReader keeps its own position on
+ * a duplicate of the mapped buffer, so several readers (and several threads,
+ * one reader each) can work on the same file without reopening it. Closing
+ * the reader only resets the position, the mapping stays valid until the
+ * buffer is garbage collected.
+ * <P>
+ * Files larger than Integer.MAX_VALUE bytes can't be mapped into a single
+ * buffer, use a FileInputReader for those.
+ */
+public class MappedInputReader implements InputReader {
+
+    /** The view into the mapped file that this reader moves around in. */
+    protected ByteBuffer buffer;
+    /** Needed for input reader interface. */
+    protected String name;
+
+    /**
+     * Map a local file for reading.
+     *
+     * @param f the file to map.
+     * @throws IOException if the file can't be opened or is too big to map.
+     */
+    public MappedInputReader(File f) throws IOException {
+        this(f.getName(), map(f));
+    }
+
+    /**
+     * Create a reader over a buffer that has already been mapped. The buffer
+     * is duplicated, so the position of the provided buffer isn't affected by
+     * this reader.
+     *
+     * @param name the name of the source.
+     * @param mappedBuffer the mapped file contents.
+     */
+    public MappedInputReader(String name, ByteBuffer mappedBuffer) {
+        this.name = name;
+        this.buffer = mappedBuffer.duplicate();
+        this.buffer.position(0);
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedInputReader created for " + name);
+        }
+    }
+
+    /**
+     * Map the contents of a local file, read-only.
+     *
+     * @param f the file to map.
+     * @return MappedByteBuffer for the whole file.
+     * @throws IOException if the file can't be opened or is too big to map.
+     */
+    public static MappedByteBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("MappedInputReader: " + f.getName() + " too big to map ("
+                        + size + " bytes)");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            // The mapping remains valid after the channel is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the mapped buffer this reader is working on. The position of the
+     * buffer is the position of the reader.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long skipBytes(long n) throws IOException {
+        int skip = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skip);
+        return skip;
+    }
+
+    public long getFilePointer() throws IOException {
+        return buffer.position();
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0 || pos > buffer.limit()) {
+            throw new EOFException("MappedInputReader: can't seek to " + pos + " in " + name);
+        }
+        buffer.position((int) pos);
+    }
+
+    public long length() throws IOException {
+        return buffer.limit();
+    }
+
+    public long available() throws IOException {
+        return buffer.remaining();
+    }
+
+    /**
+     * Resets the position to the start of the file. The mapping isn't
+     * released, so the reader can be used again.
+     */
+    public void close() throws IOException {
+        buffer.position(0);
+    }
+
+    public int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int remaining = buffer.remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = Math.min(len, remaining);
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public byte[] readBytes(int howmany, boolean allowless) throws EOFException, FormatException {
+        int remaining = buffer.remaining();
+        if (remaining < howmany) {
+            if (!allowless) {
+                if (remaining > 0) {
+                    throw new FormatException("EOF while reading data");
+                } else {
+                    throw new EOFException();
+                }
+            }
+            howmany = remaining;
+        }
+        byte[] foo = new byte[howmany];
+        buffer.get(foo);
+        return foo;
+    }
+
+}
@@ -27,6 +27,7 @@ import java.awt.BasicStroke;
 import java.awt.Component;
 import java.awt.Composite;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
@@ -230,6 +231,30 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      */
     public final static String InterruptableProperty = "interruptable";
 
+    /**
+     * The property to tell the layer that its prepare() method can be called
+     * by several threads at once, each with its own projection, when the layer
+     * is used by an ImageServer. Only set this to true if prepare() builds a
+     * new OMGraphicList from getProjection() each time it's called, without
+     * changing other shared layer state. The default is false.
+     */
+    public final static String ConcurrentRenderingProperty = "concurrentRendering";
+
+    /**
+     * The property to tell the layer to generate large OMGraphicLists with
+     * several threads. The OMGraphicLists the layer holds are split into
+     * chunks that are projected at the same time, which helps layers with
+     * lots of graphics. The default is false.
+     */
+    public final static String ParallelGenerateProperty = "parallelGenerate";
+
+    /**
+     * The property to tell the layer to index where the graphics on large
+     * OMGraphicLists are projected, so mouse events only have to be checked
+     * against the graphics near the mouse. The default is false.
+     */
+    public final static String SpatialIndexingProperty = "spatialIndexing";
+
     /**
      * Filter support that can be used to manage OMGraphics.
      */
@@ -279,6 +304,31 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      */
     protected boolean interruptable = true;
 
+    /**
+     * Flag set if prepare() can be called from several threads at once, with
+     * different projections. If true, renderDataForProjection() doesn't lock
+     * the layer or change its list and projection.
+     */
+    protected boolean concurrentRendering = false;
+
+    /**
+     * Flag set if the layer's OMGraphicLists should be generated with several
+     * threads.
+     */
+    protected boolean parallelGenerate = false;
+
+    /**
+     * Flag set if the layer's OMGraphicLists should build spatial indexes when
+     * they are generated.
+     */
+    protected boolean spatialIndexing = false;
+
+    /**
+     * The projection for a renderDataForProjection() call made in concurrent
+     * rendering mode, returned from getProjection() in that thread.
+     */
+    protected final transient ThreadLocal<Projection> requestProjection = new ThreadLocal<Projection>();
+
     /**
      * Sets the interruptible flag, allowing the current swing worker thread to
      * have interrupt called on it.
@@ -297,6 +347,74 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
         return interruptable;
     }
 
+    /**
+     * Set whether prepare() can be called from several threads at once, each
+     * with its own projection, during renderDataForProjection() calls.
+     */
+    public void setConcurrentRendering(boolean concurrentRendering) {
+        this.concurrentRendering = concurrentRendering;
+    }
+
+    /**
+     * @return true if renderDataForProjection() calls create OMGraphics for
+     *         each call without locking the layer.
+     */
+    public boolean isConcurrentRendering() {
+        return concurrentRendering;
+    }
+
+    /**
+     * Set whether large OMGraphicLists held by the layer should be generated
+     * with several threads. Applied to the list given to setList(), and to
+     * the list generated by prepare().
+     */
+    public void setParallelGenerate(boolean parallelGenerate) {
+        this.parallelGenerate = parallelGenerate;
+        OMGraphicList list = getList();
+        if (list != null) {
+            list.setParallelGenerate(parallelGenerate);
+        }
+    }
+
+    /**
+     * @return true if the layer's OMGraphicLists are generated with several
+     *         threads.
+     */
+    public boolean isParallelGenerate() {
+        return parallelGenerate;
+    }
+
+    /**
+     * Set whether large OMGraphicLists held by the layer should build spatial
+     * indexes when they are generated, to speed up finding the graphics under
+     * the mouse. Applied to the list given to setList(), and to the list
+     * generated by prepare().
+     */
+    public void setSpatialIndexing(boolean spatialIndexing) {
+        this.spatialIndexing = spatialIndexing;
+        OMGraphicList list = getList();
+        if (list != null) {
+            list.setSpatialIndexing(spatialIndexing);
+        }
+    }
+
+    /**
+     * @return true if the layer's OMGraphicLists build spatial indexes.
+     */
+    public boolean isSpatialIndexing() {
+        return spatialIndexing;
+    }
+
+    /**
+     * Returns the projection for the renderDataForProjection() call being
+     * handled by the current thread in concurrent rendering mode, or the
+     * current layer projection otherwise.
+     */
+    public Projection getProjection() {
+        Projection proj = requestProjection.get();
+        return proj != null ? proj : super.getProjection();
+    }
+
     // OMGraphicHandler methods, deferred to FilterSupport...
 
     /**
@@ -359,6 +477,12 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      * canSetGraphicList == true.
      */
     public void setList(OMGraphicList omgl) {
+        if (omgl != null && parallelGenerate) {
+            omgl.setParallelGenerate(true);
+        }
+        if (omgl != null && spatialIndexing) {
+            omgl.setSpatialIndexing(true);
+        }
         filter.setList(omgl);
     }
 
@@ -518,19 +642,65 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      * <P>
      * If the layer doesn't override this method, then the paint(Graphics)
      * method will be called.
+     * <P>
+     * If concurrent rendering is turned on, the OMGraphics are created for the
+     * call with prepareForProjection() and rendered directly, so several
+     * threads can render the layer for different projections at the same
+     * time. Otherwise, the layer's projection and list are updated and calls
+     * are handled one at a time.
      *
      * @param proj Projection of the map.
      * @param g java.awt.Graphics to draw into.
      */
-    public synchronized void renderDataForProjection(Projection proj, Graphics g) {
+    public void renderDataForProjection(Projection proj, Graphics g) {
         if (proj == null) {
             logger.warning("Layer(" + getName() + ").renderDataForProjection: null projection!");
             return;
-        } else if (!proj.equals(getProjection())) {
-            setProjection(proj.makeClone());
-            setList(getRenderPolicy().prepare());
         }
-        paint(g);
+
+        if (isConcurrentRendering()) {
+            OMGraphicList list = prepareForProjection(proj);
+            if (list != null && isProjectionOK(proj)) {
+                Graphics2D g2 = (Graphics2D) g.create();
+                try {
+                    Composite composite = getRenderPolicy().getComposite();
+                    if (composite != null) {
+                        g2.setComposite(composite);
+                    }
+                    list.render(g2);
+                } finally {
+                    g2.dispose();
+                }
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (!proj.equals(getProjection())) {
+                setProjection(proj.makeClone());
+                setList(getRenderPolicy().prepare());
+            }
+            paint(g);
+        }
+    }
+
+    /**
+     * Create the OMGraphicList for a projection without changing the layer's
+     * list or projection. prepare() is called with getProjection() returning a
+     * copy of the given projection in the calling thread. Meant for layers
+     * with concurrent rendering turned on, where prepare() creates new
+     * OMGraphics for every call.
+     *
+     * @param proj the projection for the request.
+     * @return OMGraphicList for the projection, may be null.
+     */
+    public OMGraphicList prepareForProjection(Projection proj) {
+        requestProjection.set(proj.makeClone());
+        try {
+            return prepare();
+        } finally {
+            requestProjection.remove();
+        }
     }
 
     /**
@@ -632,6 +802,12 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
         // if the layer hasn't been added to the MapBean
         // the projection could be null.
         if (currentList != null && proj != null) {
+            if (parallelGenerate) {
+                currentList.setParallelGenerate(true);
+            }
+            if (spatialIndexing) {
+                currentList.setSpatialIndexing(true);
+            }
             currentList.generate(proj);
         }
 
@@ -896,6 +1072,12 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
         setTransparency(PropUtils.floatFromProperties(props, realPrefix + TransparencyProperty, getTransparency()));
 
         setInterruptable(PropUtils.booleanFromProperties(props, realPrefix + InterruptableProperty, isInterruptable()));
+
+        setConcurrentRendering(PropUtils.booleanFromProperties(props, realPrefix + ConcurrentRenderingProperty, isConcurrentRendering()));
+
+        setParallelGenerate(PropUtils.booleanFromProperties(props, realPrefix + ParallelGenerateProperty, isParallelGenerate()));
+
+        setSpatialIndexing(PropUtils.booleanFromProperties(props, realPrefix + SpatialIndexingProperty, isSpatialIndexing()));
     }
 
     /**
@@ -969,6 +1151,12 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
 
         props.put(prefix + InterruptableProperty, Boolean.toString(isInterruptable()));
 
+        props.put(prefix + ConcurrentRenderingProperty, Boolean.toString(isConcurrentRendering()));
+
+        props.put(prefix + ParallelGenerateProperty, Boolean.toString(isParallelGenerate()));
+
+        props.put(prefix + SpatialIndexingProperty, Boolean.toString(isSpatialIndexing()));
+
         return props;
     }
 
@@ -1032,6 +1220,12 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
 
         PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, InterruptableProperty, "Interruptable", "Flat to set whether the layer should immediately stop performing current work when the projection changes.", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
 
+        PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, ConcurrentRenderingProperty, "Concurrent rendering", "Flag to set whether image server requests can create this layer's graphics in several threads at once.", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+
+        PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, ParallelGenerateProperty, "Parallel generate", "Flag to set whether large lists of graphics are projected with several threads.", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+
+        PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, SpatialIndexingProperty, "Spatial indexing", "Flag to set whether large lists of graphics are indexed by location to find the graphics under the mouse quickly.", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+
         return list;
     }
 
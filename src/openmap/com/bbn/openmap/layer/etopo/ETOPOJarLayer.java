@@ -135,6 +135,15 @@ public class ETOPOJarLayer extends ETOPOLayer {
 
 	}
 
+	/**
+	 * The data sets are resources in a jar and can't be memory-mapped, so the
+	 * tiles aren't used. Returns null, so the data is loaded into memory and
+	 * interpolated by buildRaster().
+	 */
+	protected OMRaster buildTiledRaster() {
+		return null;
+	}
+
 	byte iv_buffer[];
 	int iv_bytesinbuffer;
 	int iv_curptr;
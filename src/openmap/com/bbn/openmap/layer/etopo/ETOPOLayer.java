@@ -30,6 +30,13 @@ import java.awt.event.ActionListener;
 import java.awt.geom.Point2D;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.swing.Box;
 import javax.swing.JButton;
@@ -45,8 +52,10 @@ import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
 import com.bbn.openmap.layer.policy.ListResetPCPolicy;
 import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMList;
 import com.bbn.openmap.omGraphics.OMRaster;
 import com.bbn.openmap.proj.CADRG;
+import com.bbn.openmap.proj.GreatCircle;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
@@ -109,10 +118,23 @@ import com.bbn.openmap.util.PropUtils;
  * # must be 5, 10, or 15 <BR>
  * etopo.minute.spacing=10 <BR>
  * <BR>
+ * # Render from memory-mapped, cached tiles of shaded data (default true) <BR>
+ * etopo.tiled=true <BR>
+ * <BR>
+ * # Maximum number of shaded tiles to cache (default 256) <BR>
+ * etopo.tile.cache.size=256 <BR>
+ * <BR>
  * #------------------------------------- <BR>
  * # End of properties for ETOPOLayer <BR>
  * #------------------------------------- <BR>
- * 
+ * <p>
+ * When tiled, the layer doesn't load a whole data set. The ETOPO files are
+ * memory-mapped as the levels of an ETOPOPyramid, and the view is drawn from
+ * the coarsest level (no finer than the minute spacing) that still has a data
+ * point for every pixel. Tiles of that level are slope shaded and colored in
+ * parallel the first time they are seen, and cached until the shading
+ * settings change. If the files can't be mapped, the layer falls back to
+ * loading the data into memory.
  */
 public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener {
 
@@ -193,6 +215,8 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 	public static final String ETOPOSlopeAdjustProperty = "contrast";
 	public static final String ETOPOMinuteSpacingProperty = "minute.spacing";
 	public static final String ETOPOPixelSpacerProperty = "spacer";
+	public static final String ETOPOTiledProperty = "tiled";
+	public static final String ETOPOTileCacheSizeProperty = "tile.cache.size";
 
 	/**
 	 * Holds the slope values, updated when the resolution changes or the slope
@@ -224,6 +248,15 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 	/* flag to load new elevation file */
 	protected boolean spacingReset = true;
 
+	/** Whether to render from the shaded tiles of the pyramid. */
+	protected boolean tiled = true;
+
+	/** The maximum number of shaded tiles the pyramid caches. */
+	protected int tileCacheSize = ETOPOPyramid.DEFAULT_CACHE_SIZE;
+
+	/** The mapped data sets and shaded tiles, created when first needed. */
+	protected ETOPOPyramid pyramid = null;
+
 	/**
 	 * The default constructor for the Layer. All of the attributes are set to
 	 * their default values.
@@ -248,6 +281,15 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 
 	public void setPath(String pathToETOPODir) {
 		path = pathToETOPODir;
+		pyramid = null;
+	}
+
+	public boolean isTiled() {
+		return tiled;
+	}
+
+	public void setTiled(boolean tiled) {
+		this.tiled = tiled;
 	}
 
 	protected void setDefaultValues() {
@@ -341,6 +383,15 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 		spacer = PropUtils.intFromProperties(properties, prefix
 				+ ETOPOPixelSpacerProperty, spacer);
 
+		tiled = PropUtils.booleanFromProperties(properties, prefix
+				+ ETOPOTiledProperty, tiled);
+
+		tileCacheSize = PropUtils.intFromProperties(properties, prefix
+				+ ETOPOTileCacheSizeProperty, tileCacheSize);
+
+		// path or spacer may have changed
+		pyramid = null;
+
 	}
 
 	/**
@@ -648,6 +699,360 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 
 	}
 
+	/**
+	 * Get the pyramid of mapped data sets and shaded tiles for the path,
+	 * creating it the first time.
+	 */
+	protected synchronized ETOPOPyramid getPyramid() {
+		if (pyramid == null && path != null) {
+			pyramid = new ETOPOPyramid(path, spacer, tileCacheSize);
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Pick the level to draw a projection from. Starting at the minute
+	 * spacing, coarser levels are used as long as their data points are no
+	 * farther apart than the pixels of the projection.
+	 * 
+	 * @return the Level, or null if none of the files can be mapped.
+	 */
+	protected ETOPOPyramid.Level getLevel(Projection projection) {
+		ETOPOPyramid etopoPyramid = getPyramid();
+		if (etopoPyramid == null) {
+			return null;
+		}
+
+		// get resolution index
+		int resIdx = minuteSpacing / 5; // ep-g
+		if (resIdx < 0)
+			resIdx = 0;
+		else if (resIdx > 3) // ep-g
+			resIdx = 3; // ep-g
+
+		// degrees between two pixels in the middle of the view
+		int cx = projection.getWidth() / 2;
+		int cy = projection.getHeight() / 2;
+		Point2D p1 = projection.inverse(cx, cy);
+		Point2D p2 = projection.inverse(cx + 1, cy);
+		double pixelDegrees = Math.toDegrees(GreatCircle.sphericalDistance(
+				Math.toRadians(p1.getY()), Math.toRadians(p1.getX()),
+				Math.toRadians(p2.getY()), Math.toRadians(p2.getX())));
+
+		ETOPOPyramid.Level level = null;
+		for (int i = resIdx; i < etopoFileNames.length; i++) {
+			ETOPOPyramid.Level next = etopoPyramid.getLevel(i);
+			if (next == null) {
+				continue;
+			}
+			if (level != null && 180. / next.getHeight() > pixelDegrees) {
+				break;
+			}
+			level = next;
+		}
+		return level;
+	}
+
+	/**
+	 * Returns the color of a data point, for the view type, as an ARGB int.
+	 */
+	protected int getShadedRGB(short elevation, byte slopeVal) {
+		if (viewType == SLOPESHADING) {
+			int gray = 127 + slopeVal;
+			return new Color(gray, gray, gray, opaqueness).getRGB();
+		} else if (viewType == COLOREDSHADING) {
+			return getColor(elevation, slopeVal).getRGB();
+		}
+		return 0;
+	}
+
+	/**
+	 * Slope shades and colors a tile of a level. The slope is figured the
+	 * same way as buildSlopeMap(), from the next line of the mapped data.
+	 * 
+	 * @return ARGB colors, TILE_SIZE lines of TILE_SIZE points. Tiles on the
+	 *         edge of the level are only partly filled.
+	 */
+	protected int[] buildTile(ETOPOPyramid.Level level, int tileIndex) {
+		int tileSize = ETOPOPyramid.TILE_SIZE;
+		int width = level.getWidth();
+		int height = level.getHeight();
+		int x0 = (tileIndex % level.getTilesX()) * tileSize;
+		int y0 = (tileIndex / level.getTilesX()) * tileSize;
+		int x1 = Math.min(x0 + tileSize, width);
+		int y1 = Math.min(y0 + tileSize, height);
+
+		double deltaX = etopoSpacings[level.getResolutionIndex()];
+		int[] colors = new int[tileSize * tileSize];
+
+		for (int y = y0; y < y1; y++) {
+
+			double lat = 90. - 180. * (double) y / (double) height;
+			double coslat = Math.cos(Math.toRadians(lat));
+			double slopeScaler = (double) slopeAdjust * coslat / deltaX;
+
+			// special case at end
+			int yDown = (y == height - 1) ? y : y + 1;
+			int idx = (y - y0) * tileSize;
+
+			for (int x = x0; x < x1; x++) {
+				short el = level.getElevation(y, x);
+				double slope = slopeScaler
+						* ((double) level.getElevation(yDown, x) - (double) el);
+
+				// clip
+				if (slope > 0.99)
+					slope = 0.99;
+				else if (slope < -0.99)
+					slope = -0.99;
+
+				colors[idx + x - x0] = getShadedRGB(el, (byte) (slope * 127.));
+			}
+		}
+		return colors;
+	}
+
+	/**
+	 * Builds the raster for the current projection from the shaded tiles of
+	 * the pyramid. Like buildRaster(), each pixel is inverse projected to
+	 * find its data point, including the Orthographic HACK described there.
+	 * The pixels are located in parallel, then the tiles they need that
+	 * aren't cached are shaded in parallel, and then the pixels are filled
+	 * from the tiles.
+	 * 
+	 * @return OMRaster, or null if the pyramid can't be used.
+	 */
+	protected OMRaster buildTiledRaster() {
+		Projection projection = getProjection();
+		ETOPOPyramid.Level level = getLevel(projection);
+		if (level == null) {
+			return null;
+		}
+
+		ETOPOPyramid etopoPyramid = getPyramid();
+		etopoPyramid.setCacheSize(tileCacheSize);
+		etopoPyramid.setShading(Arrays.asList(viewType, slopeAdjust,
+				opaqueness));
+
+		int width = projection.getWidth();
+		int height = projection.getHeight();
+
+		// starting and ending indices
+		int sx = 0, sy = 0, ex = width, ey = height;
+
+		// handle CADRG
+		if (projection instanceof CADRG) {
+			Point2D ulp = projection.forward(projection.getUpperLeft());
+			Point2D lrp = projection.forward(projection.getLowerRight());
+			sx = Math.max((int) ulp.getX(), 0);
+			ex = Math.min((int) lrp.getX(), width);
+			sy = Math.max((int) ulp.getY(), 0);
+			ey = Math.min((int) lrp.getY(), height);
+		}
+
+		int[] cells = new int[width * height];
+		Arrays.fill(cells, NO_CELL);
+		BitSet neededTiles = new BitSet(level.getTilesX() * level.getTilesY());
+
+		// Warm up the color tables before the tasks share them.
+		getShadedRGB((short) 0, (byte) 0);
+
+		ForkJoinPool pool = OMList.getGeneratePool();
+		int rowsPerTask = Math.max((ey - sy) / (pool.getParallelism() * 4), 16);
+		invoke(pool, new CellTask(projection, level, cells, neededTiles, sx,
+				ex, sy, ey, rowsPerTask));
+
+		// Shade the tiles that aren't cached.
+		int[][] tiles = new int[level.getTilesX() * level.getTilesY()][];
+		List<Integer> missing = new ArrayList<Integer>();
+		for (int t = neededTiles.nextSetBit(0); t >= 0; t = neededTiles
+				.nextSetBit(t + 1)) {
+			tiles[t] = etopoPyramid.getTile(level, t);
+			if (tiles[t] == null) {
+				missing.add(t);
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			if (Debug.debugging("etopo")) {
+				Debug.output(getName() + "|ETOPOLayer: shading "
+						+ missing.size() + " of " + neededTiles.cardinality()
+						+ " tiles from " + etopoFileNames[level.getResolutionIndex()]);
+			}
+			invoke(pool, new TileTask(etopoPyramid, level, missing, tiles, 0,
+					missing.size()));
+		}
+
+		// Fill in the pixels from the tiles.
+		int tileSize = ETOPOPyramid.TILE_SIZE;
+		int levelWidth = level.getWidth();
+		int black = new Color(0, 0, 0, opaqueness).getRGB();
+		int[] colors = new int[width * height];
+		for (int i = 0; i < cells.length; i++) {
+			int cell = cells[i];
+			if (cell >= 0) {
+				int y = cell / levelWidth;
+				int x = cell % levelWidth;
+				colors[i] = tiles[level.getTileIndex(y, x)][(y % tileSize)
+						* tileSize + x % tileSize];
+			} else if (cell == CENTER_CELL) {
+				colors[i] = black;
+			}
+		}
+
+		return new OMRaster(0, 0, width, height, colors);
+	}
+
+	/** Marks pixels outside of the area drawn. */
+	protected final static int NO_CELL = -1;
+
+	/** Marks pixels at the projection center, see the HACK in buildRaster. */
+	protected final static int CENTER_CELL = -2;
+
+	/**
+	 * Run a task in the pool, or in the current pool if already in one.
+	 */
+	protected static void invoke(ForkJoinPool pool, RecursiveAction task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	/**
+	 * Inverse projects a band of pixel rows to find the data point of the
+	 * level under each pixel, and notes the tiles those points are in.
+	 */
+	protected class CellTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected final Projection projection;
+		protected final ETOPOPyramid.Level level;
+		protected final int[] cells;
+		protected final BitSet neededTiles;
+		protected final int sx, ex, sy, ey, rowsPerTask;
+
+		protected CellTask(Projection projection, ETOPOPyramid.Level level,
+				int[] cells, BitSet neededTiles, int sx, int ex, int sy,
+				int ey, int rowsPerTask) {
+			this.projection = projection;
+			this.level = level;
+			this.cells = cells;
+			this.neededTiles = neededTiles;
+			this.sx = sx;
+			this.ex = ex;
+			this.sy = sy;
+			this.ey = ey;
+			this.rowsPerTask = rowsPerTask;
+		}
+
+		protected void compute() {
+			if (ey - sy > rowsPerTask) {
+				int mid = (sy + ey) >>> 1;
+				invokeAll(new CellTask(projection, level, cells, neededTiles,
+						sx, ex, sy, mid, rowsPerTask), new CellTask(
+						projection, level, cells, neededTiles, sx, ex, mid,
+						ey, rowsPerTask));
+				return;
+			}
+
+			// Projections aren't safe to share between threads.
+			Projection proj = projection.makeClone();
+			int pixelWidth = proj.getWidth();
+			int levelWidth = level.getWidth();
+			int levelHeight = level.getHeight();
+			boolean offsetLon = level.getResolutionIndex() == 0;
+
+			// compute scalers for lat/lon indicies
+			float scy = (float) levelHeight / 180F;
+			float scx = (float) levelWidth / 360F;
+
+			Point2D center = proj.getCenter();
+			LatLonPoint llp = new LatLonPoint.Double();
+			BitSet tiles = new BitSet(neededTiles.size());
+
+			for (int y = sy; y < ey; y++) {
+				for (int x = sx; x < ex; x++) {
+
+					// inverse project x,y to lon,lat
+					proj.inverse(x, y, llp);
+
+					// HACK (see buildRaster)
+					if ((llp.getLatitude() == center.getY())
+							&& (llp.getLongitude() == center.getX())) {
+						cells[y * pixelWidth + x] = CENTER_CELL;
+						continue;
+					}
+
+					float lat = llp.getLatitude();
+					float lon = llp.getLongitude();
+
+					// the 2 minute data starts at -180
+					if (offsetLon) {
+						lon += 180.;
+					} else if (lon < 0.) {
+						lon += 360.;
+					}
+
+					// find indicies
+					int lat_idx = Math.min(Math.max((int) ((90. - lat) * scy),
+							0), levelHeight - 1);
+					int lon_idx = Math.min(Math.max((int) (lon * scx), 0),
+							levelWidth - 1);
+
+					cells[y * pixelWidth + x] = lat_idx * levelWidth + lon_idx;
+					tiles.set(level.getTileIndex(lat_idx, lon_idx));
+				}
+			}
+
+			synchronized (neededTiles) {
+				neededTiles.or(tiles);
+			}
+		}
+	}
+
+	/**
+	 * Shades a range of tiles and caches them in the pyramid.
+	 */
+	protected class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected final ETOPOPyramid etopoPyramid;
+		protected final ETOPOPyramid.Level level;
+		protected final List<Integer> tileIndexes;
+		protected final int[][] tiles;
+		protected final int start, end;
+
+		protected TileTask(ETOPOPyramid etopoPyramid,
+				ETOPOPyramid.Level level, List<Integer> tileIndexes,
+				int[][] tiles, int start, int end) {
+			this.etopoPyramid = etopoPyramid;
+			this.level = level;
+			this.tileIndexes = tileIndexes;
+			this.tiles = tiles;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new TileTask(etopoPyramid, level, tileIndexes,
+						tiles, start, mid), new TileTask(etopoPyramid, level,
+						tileIndexes, tiles, mid, end));
+				return;
+			}
+
+			for (int i = start; i < end; i++) {
+				int tileIndex = tileIndexes.get(i);
+				int[] colors = buildTile(level, tileIndex);
+				tiles[tileIndex] = colors;
+				etopoPyramid.putTile(level, tileIndex, colors);
+			}
+		}
+	}
+
 	/**
 	 * Prepares the graphics for the layer. This is where the getRectangle()
 	 * method call is made on the etopo.
@@ -666,17 +1071,22 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 			return new OMGraphicList();
 		}
 
-		// load the buffer
-		if (dataBuffer == null || spacingReset) {
-			loadBuffer();
-			spacingReset = false;
-			slopeReset = true;
-		}
+		// try the shaded tiles first
+		OMRaster raster = tiled ? buildTiledRaster() : null;
 
-		// re-do the slope map
-		if (slopeReset) {
-			buildSlopeMap();
-			slopeReset = false;
+		if (raster == null) {
+			// load the buffer
+			if (dataBuffer == null || spacingReset) {
+				loadBuffer();
+				spacingReset = false;
+				slopeReset = true;
+			}
+
+			// re-do the slope map
+			if (slopeReset) {
+				buildSlopeMap();
+				slopeReset = false;
+			}
 		}
 
 		Debug.message("basic", getName() + "|ETOPOLayer.prepare(): doing it");
@@ -696,7 +1106,10 @@ public class ETOPOLayer extends OMGraphicHandlerLayer implements ActionListener
 
 		// build graphics list
 		OMGraphicList omGraphicList = new OMGraphicList();
-		omGraphicList.add(buildRaster());
+		if (raster == null) {
+			raster = buildRaster();
+		}
+		omGraphicList.add(raster);
 
 		// ///////////////////
 		// safe quit
@@ -0,0 +1,248 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.etopo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.bbn.openmap.io.MappedInputReader;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * The ETOPO data sets, treated as levels of a pyramid of shaded tiles. Each
+ * level is one of the ETOPO files, memory-mapped when it's first needed
+ * instead of being read into memory, so switching between levels doesn't
+ * reload anything. The levels are cut into square tiles of TILE_SIZE data
+ * points, and the ETOPOLayer colors a tile (slope and elevation shading) the
+ * first time a view needs it. The colored tiles are kept in a least recently
+ * used cache, so a view only costs the projection of its pixels plus the
+ * tiles that haven't been seen yet.
+ * <p>
+ * The tiles hold colors for one set of shading settings, the cache is cleared
+ * when the settings change.
+ */
+public class ETOPOPyramid {
+
+	/** The number of data points on the side of a tile. */
+	public final static int TILE_SIZE = 128;
+
+	/** The default maximum number of tiles in the cache. */
+	public final static int DEFAULT_CACHE_SIZE = 256;
+
+	/** The directory holding the ETOPO files. */
+	protected String path;
+
+	/** Extra spacer points per line, see ETOPOLayer. */
+	protected int spacer;
+
+	/** The levels, by resolution index, mapped as needed. */
+	protected Level[] levels = new Level[ETOPOLayer.etopoFileNames.length];
+
+	/** Set for the levels whose files couldn't be mapped. */
+	protected boolean[] missing = new boolean[ETOPOLayer.etopoFileNames.length];
+
+	/** The colored tiles, in least recently used order. */
+	protected TileCache tiles;
+
+	/** The settings the cached tiles were colored with. */
+	protected Object shading;
+
+	/**
+	 * Create a pyramid over the ETOPO files in a directory.
+	 *
+	 * @param path
+	 *            the directory holding the ETOPO files.
+	 * @param spacer
+	 *            the number of extra points per line, added to the width of
+	 *            each data set.
+	 * @param cacheSize
+	 *            the maximum number of colored tiles to keep.
+	 */
+	public ETOPOPyramid(String path, int spacer, int cacheSize) {
+		this.path = path;
+		this.spacer = spacer;
+		tiles = new TileCache(cacheSize);
+	}
+
+	/**
+	 * Get a level of the pyramid, mapping its file the first time it's asked
+	 * for.
+	 *
+	 * @param resIdx
+	 *            the resolution index, into the ETOPOLayer file names.
+	 * @return the Level, or null if the file isn't there or can't be mapped.
+	 */
+	public synchronized Level getLevel(int resIdx) {
+		if (resIdx < 0 || resIdx >= levels.length || missing[resIdx]) {
+			return null;
+		}
+
+		if (levels[resIdx] == null) {
+			String fileName = path + ETOPOLayer.etopoFileNames[resIdx];
+			File file = new File(fileName);
+			if (!file.isFile()) {
+				missing[resIdx] = true;
+				return null;
+			}
+
+			try {
+				// Same line padding and byte order (MSB first)
+				// ETOPOLayer.loadBuffer() uses.
+				int pad = (resIdx == 1 ? 0 : 1) + spacer;
+				ShortBuffer data = MappedInputReader.map(file).order(
+						ByteOrder.BIG_ENDIAN).asShortBuffer();
+				levels[resIdx] = new Level(resIdx, data,
+						ETOPOLayer.etopoWidths[resIdx],
+						ETOPOLayer.etopoHeights[resIdx], pad);
+			} catch (IOException ioe) {
+				Debug.error("ETOPOPyramid: can't map " + fileName + ": "
+						+ ioe.getMessage());
+				missing[resIdx] = true;
+			}
+		}
+
+		return levels[resIdx];
+	}
+
+	/**
+	 * Set the shading settings for the tiles that will be asked for. The
+	 * cache is cleared if they aren't equal to the last settings.
+	 */
+	public synchronized void setShading(Object settings) {
+		if (shading == null || !shading.equals(settings)) {
+			tiles.clear();
+			shading = settings;
+		}
+	}
+
+	/**
+	 * @return the colored tile from the cache, or null if it needs to be
+	 *         made.
+	 */
+	public synchronized int[] getTile(Level level, int tileIndex) {
+		return tiles.get(level.getTileKey(tileIndex));
+	}
+
+	/**
+	 * Put a colored tile in the cache.
+	 */
+	public synchronized void putTile(Level level, int tileIndex, int[] colors) {
+		tiles.put(level.getTileKey(tileIndex), colors);
+	}
+
+	/**
+	 * Empty the tile cache.
+	 */
+	public synchronized void clearTiles() {
+		tiles.clear();
+	}
+
+	public synchronized void setCacheSize(int cacheSize) {
+		tiles.maxSize = cacheSize;
+	}
+
+	public synchronized int getCacheSize() {
+		return tiles.maxSize;
+	}
+
+	/**
+	 * One ETOPO data set. The elevations are read straight from the mapped
+	 * file, with the same line stride ETOPOLayer uses for its buffer, and
+	 * points past the end of the file are at 0.
+	 */
+	public static class Level {
+		protected final int resIdx;
+		protected final ShortBuffer data;
+		/** Number of elevations in the file that are used. */
+		protected final int count;
+		/** Points per line, including the spacer. */
+		protected final int width;
+		protected final int height;
+		protected final int tilesX;
+		protected final int tilesY;
+
+		protected Level(int resIdx, ShortBuffer data, int dataWidth,
+				int height, int pad) {
+			this.resIdx = resIdx;
+			this.data = data;
+			this.count = Math.min(dataWidth * height, data.capacity());
+			this.width = dataWidth + pad;
+			this.height = height;
+			tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+			tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		}
+
+		/**
+		 * @return the elevation at a line and point.
+		 */
+		public short getElevation(int y, int x) {
+			int idx = y * width + x;
+			return idx < count ? data.get(idx) : 0;
+		}
+
+		public int getResolutionIndex() {
+			return resIdx;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getTilesX() {
+			return tilesX;
+		}
+
+		public int getTilesY() {
+			return tilesY;
+		}
+
+		/**
+		 * @return the index of the tile holding a line and point.
+		 */
+		public int getTileIndex(int y, int x) {
+			return (y / TILE_SIZE) * tilesX + x / TILE_SIZE;
+		}
+
+		protected long getTileKey(int tileIndex) {
+			return ((long) resIdx << 32) | tileIndex;
+		}
+	}
+
+	/**
+	 * LinkedHashMap in access order, dropping the least recently used tile
+	 * when there are too many.
+	 */
+	protected static class TileCache extends LinkedHashMap<Long, int[]> {
+		private static final long serialVersionUID = 1L;
+		protected int maxSize;
+
+		protected TileCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
@@ -112,6 +112,10 @@ public class EventLayer extends OMGraphicHandlerLayer implements
                 scenarioGraphics = new TemporalOMGraphicList(list);
             }
 
+            // Lets playback move large numbers of events to the new time in
+            // parallel.
+            scenarioGraphics.setParallelGenerate(parallelGenerate);
+
             long currentTime = getTime();
 
             if (DEBUG) {
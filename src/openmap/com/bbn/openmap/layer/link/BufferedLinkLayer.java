@@ -26,10 +26,12 @@ package com.bbn.openmap.layer.link;
 import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Properties;
 
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.PropUtils;
 
 /**
  * The BufferedLinkLayer is a Swing component, and an OpenMap layer,
@@ -45,10 +47,27 @@ import com.bbn.openmap.util.Debug;
  * link.host=host.com
  * # URL of properties file for server attributes
  * link.propertiesURL=http://location.of.properties.file.com
+ * # number of connections to the server that can be open at once
+ * link.linkPoolSize=2
  * </code>
+ * <P>
+ * The BufferedLinkLayer reads the answers to its requests in the thread that
+ * sends them, so it can keep more than one connection to the server open. A
+ * map request that takes a while doesn't hold up gesture and drawing requests
+ * on another connection.
  */
 public class BufferedLinkLayer extends LinkLayer {
 
+    /**
+     * The property to set the number of connections to the server that can be
+     * open at once. "linkPoolSize"
+     */
+    public final static String LinkPoolSizeProperty = "linkPoolSize";
+
+    public final static int DEFAULT_LINK_POOL_SIZE = 2;
+
+    protected int linkPoolSize = DEFAULT_LINK_POOL_SIZE;
+
     /**
      * The default constructor for the Layer. All of the attributes
      * are set to their default values.
@@ -70,6 +89,16 @@ public class BufferedLinkLayer extends LinkLayer {
     public BufferedLinkLayer(String host, int port, String propertiesURL) {
         super(host, port, propertiesURL);
         setProjectionChangePolicy(new com.bbn.openmap.layer.policy.StandardPCPolicy(this));
+        linkManager.setMaxLinks(linkPoolSize);
+    }
+
+    public void setProperties(String prefix, Properties properties) {
+        super.setProperties(prefix, properties);
+
+        String realPrefix = PropUtils.getScopedPropertyPrefix(prefix);
+        linkPoolSize = PropUtils.intFromProperties(properties, realPrefix
+                + LinkPoolSizeProperty, linkPoolSize);
+        linkManager.setMaxLinks(linkPoolSize);
     }
 
     /**
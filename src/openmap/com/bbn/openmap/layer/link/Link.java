@@ -436,6 +436,17 @@ public class Link implements LinkConstants {
         return ret;
     }
 
+    /**
+     * Check if there is input waiting to be read off the link, either
+     * already buffered or in the socket, so reading it won't block.
+     * 
+     * @return true if there is input waiting.
+     * @throws IOException
+     */
+    public boolean isInputAvailable() throws IOException {
+        return dis != null && dis.available() > 0;
+    }
+
     /**
      * Other threads can check to see if the link is in use.
      * 
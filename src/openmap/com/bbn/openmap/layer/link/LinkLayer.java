@@ -24,6 +24,8 @@ package com.bbn.openmap.layer.link;
 
 /*  Java Core  */
 import java.awt.Container;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.io.IOException;
@@ -33,6 +35,8 @@ import java.util.Enumeration;
 import java.util.Properties;
 import java.util.Vector;
 
+import javax.swing.Timer;
+
 import com.bbn.openmap.MapBean;
 import com.bbn.openmap.MapHandler;
 import com.bbn.openmap.event.MapMouseListener;
@@ -78,6 +82,10 @@ import com.bbn.openmap.util.PropUtils;
  *       # server.  How the server handles the property depends on the server,
  *       # but non-applicable properties are ignored.
  *       link.propertiesURL=http://location.of.properties.file.com
+ *
+ *       # Milliseconds to wait for the server to answer a map request
+ *       # before sending a newer one, 0 to send one for every projection.
+ *       link.mapRequestTimeout=5000
  * 
  * 
  * 
@@ -86,6 +94,13 @@ import com.bbn.openmap.util.PropUtils;
  * 
  * You have to call setProperties() on this layer to set its parameters, and to
  * start the thread that listens to updates from the server.
+ * <P>
+ * While the server is working on a map request, the projections that come in
+ * are not sent to it. When the server answers with graphics, or the
+ * mapRequestTimeout runs out, only the latest projection is sent, so the
+ * server doesn't spend time on views the map has already moved past when the
+ * map is panned quickly. The current graphics are reprojected for each
+ * projection in the meantime.
  */
 public class LinkLayer extends OMGraphicHandlerLayer implements
         MapMouseListener, LinkPropertiesConstants, LinkActionConstants,
@@ -166,6 +181,34 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
      */
     public final static String ExitOnCommandProperty = "exitOnCommand";
 
+    /**
+     * The property to set the milliseconds to wait for the server to answer a
+     * map request before sending a request for a newer projection. 0 sends a
+     * request for every projection. "mapRequestTimeout"
+     */
+    public final static String MapRequestTimeoutProperty = "mapRequestTimeout";
+
+    public final static int DEFAULT_MAP_REQUEST_TIMEOUT = 5000;
+
+    protected int mapRequestTimeout = DEFAULT_MAP_REQUEST_TIMEOUT;
+    /**
+     * When the unanswered map request was sent, from System.nanoTime(), 0 if
+     * there isn't one.
+     */
+    protected long mapRequestSent = 0;
+    /**
+     * Set if a projection came in while a map request was unanswered, and
+     * needs to be sent when the answer arrives.
+     */
+    protected boolean mapRequestWaiting = false;
+    /** Guards the map request state. */
+    protected final Object mapRequestLock = new Object();
+    /**
+     * Sends the waiting projection if the server hasn't answered by the time
+     * the mapRequestTimeout runs out.
+     */
+    protected Timer mapRequestTimer;
+
     /**
      * The default constructor for the Layer. All of the attributes are set to
      * their default values.
@@ -342,6 +385,9 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
         distanceLimit = PropUtils.intFromProperties(properties, realPrefix
                 + DistanceLimitProperty, distanceLimit);
 
+        mapRequestTimeout = PropUtils.intFromProperties(properties, realPrefix
+                + MapRequestTimeoutProperty, mapRequestTimeout);
+
         // listener = new LinkListener(linkManager, this,
         // currentGenerator);
     }
@@ -381,6 +427,107 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
 
     protected void setListener(LinkListener ll) {
         listener = ll;
+        if (ll == null) {
+            // Nobody is going to read the answer to a map request.
+            cancelMapRequest();
+        }
+    }
+
+    /**
+     * Check if a map request can be sent to the server now. If the server
+     * hasn't answered the last one yet, the request is held until it does.
+     * 
+     * @return true if the request should be sent.
+     */
+    protected boolean startMapRequest() {
+        synchronized (mapRequestLock) {
+            long now = System.nanoTime();
+            if (mapRequestTimeout > 0 && mapRequestSent != 0
+                    && now - mapRequestSent < mapRequestTimeout * 1000000L) {
+                mapRequestWaiting = true;
+                int left = (int) ((mapRequestSent + mapRequestTimeout * 1000000L - now) / 1000000L) + 1;
+                getMapRequestTimer().setInitialDelay(left);
+                getMapRequestTimer().restart();
+                return false;
+            }
+            mapRequestSent = now;
+            mapRequestWaiting = false;
+            stopMapRequestTimer();
+            return true;
+        }
+    }
+
+    /**
+     * Get the timer that calls doPrepare() when the mapRequestTimeout runs out
+     * with a projection waiting. Call with the mapRequestLock held.
+     */
+    protected Timer getMapRequestTimer() {
+        if (mapRequestTimer == null) {
+            mapRequestTimer = new Timer(mapRequestTimeout, new ActionListener() {
+                public void actionPerformed(ActionEvent ae) {
+                    boolean resend;
+                    synchronized (mapRequestLock) {
+                        resend = mapRequestWaiting;
+                    }
+                    if (resend) {
+                        Debug.message("link", getName()
+                                + "|LinkLayer: no answer to map request, sending waiting projection");
+                        doPrepare();
+                    }
+                }
+            });
+            mapRequestTimer.setRepeats(false);
+        }
+        return mapRequestTimer;
+    }
+
+    /**
+     * Stop the map request timer if it's running. Call with the
+     * mapRequestLock held.
+     */
+    protected void stopMapRequestTimer() {
+        if (mapRequestTimer != null) {
+            mapRequestTimer.stop();
+        }
+    }
+
+    /**
+     * Forget about the outstanding map request, when it couldn't be sent or
+     * won't be answered.
+     */
+    protected void cancelMapRequest() {
+        synchronized (mapRequestLock) {
+            mapRequestSent = 0;
+            mapRequestWaiting = false;
+            stopMapRequestTimer();
+        }
+    }
+
+    /**
+     * Called by the LinkListener when graphics from the server have been
+     * read, the answer to a map request. Action lists, the answers to
+     * gestures, don't count. If there is a newer projection waiting, it's
+     * sent.
+     */
+    protected void responseReceived() {
+        boolean resend;
+        synchronized (mapRequestLock) {
+            if (mapRequestSent != 0) {
+                linkManager.recordRoundTrip(System.nanoTime() - mapRequestSent);
+            }
+            mapRequestSent = 0;
+            resend = mapRequestWaiting;
+            mapRequestWaiting = false;
+            stopMapRequestTimer();
+        }
+
+        if (Debug.debugging("link")) {
+            Debug.output(linkManager.getMetrics());
+        }
+
+        if (resend) {
+            doPrepare();
+        }
     }
 
     protected LinkListener getListener() {
@@ -452,6 +599,12 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
 
         // LinkOMGraphicList omGraphicList;
 
+        if (!startMapRequest()) {
+            Debug.message("link", getName()
+                    + "|LinkLayer.prepare(): waiting for server to answer last map request");
+            return currentList;
+        }
+
         // //////////// Call getRectangle for server....
         try {
             // We do want the link object here... If another thread is
@@ -461,6 +614,7 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
             if (l == null) {
                 System.err
                         .println("LinkLayer: unable to get link in prepare().");
+                cancelMapRequest();
                 return currentList;
             }
 
@@ -473,12 +627,14 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
 
         } catch (UnknownHostException uhe) {
             System.err.println("LinkLayer: unknown host!");
+            cancelMapRequest();
             // return currentList;
         } catch (java.io.IOException ioe) {
             System.err
                     .println("LinkLayer: IOException contacting server for map request!");
             System.err.println(ioe);
 
+            cancelMapRequest();
             linkManager.resetLink();
 
             if (!quiet) {
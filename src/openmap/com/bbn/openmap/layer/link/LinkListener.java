@@ -139,9 +139,15 @@ public class LinkListener extends Thread implements LinkPropertiesConstants {
             link.readAndParse(null, currentGenerator, layer);
             Debug.message("link", "LinkListener: received content from server");
 
-            layer.handleLinkGraphicList(link.getGraphicList());
+            LinkGraphicList lgl = link.getGraphicList();
+            layer.handleLinkGraphicList(lgl);
             layer.handleLinkActionRequest(link.getActionRequest());
             layer.handleLinkActionList(link.getActionList());
+            if (lgl != null) {
+                // Map requests are answered with graphics, gestures with
+                // actions.
+                layer.responseReceived();
+            }
 
             link = linkManager.getLink(this);
         }
@@ -19,16 +19,31 @@
 // $Author: dietrick $
 // 
 // **********************************************************************
-
 package com.bbn.openmap.layer.link;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.bbn.openmap.util.Debug;
 
 /**
- * The LinkManager..
+ * The LinkManager hands out the ClientLinks to a server to the threads of a
+ * client that need to use them. A thread gets a link with getLink(boolean),
+ * which locks the link for that thread, and must give it back with finLink()
+ * when it is done.
+ * <P>
+ * By default, there is one link to the server, which is shared by all the
+ * threads, one at a time. Threads waiting for the link are woken up as soon as
+ * it is released. If the client reads the responses to its requests in the
+ * same thread that sends them, the LinkManager can keep more than one link
+ * open (setMaxLinks()), so that a long request doesn't hold up the others.
+ * The first link opened is the one handed to a LinkListener.
+ * <P>
+ * The LinkManager also keeps track of how long threads wait for a link, and
+ * of the round trip times reported by the client with recordRoundTrip(), for
+ * tuning. Use the "link" debug flag to have them printed.
  */
 public class LinkManager {
 
@@ -38,10 +53,28 @@ public class LinkManager {
 
     /**
      * volatile because we want internal methods to get the message
-     * that a link was nulled out.
+     * that a link was nulled out. This is the first link opened, the
+     * one used by a LinkListener.
      */
     protected volatile ClientLink link;
 
+    /** All of the open links, including the first one. */
+    protected List<ClientLink> links = new ArrayList<ClientLink>();
+    /** The number of links being opened, counted against maxLinks. */
+    protected int linksOpening = 0;
+    /** The number of links that can be open at once. */
+    protected int maxLinks = 1;
+    /** The link locked by each thread, so finLink() knows what to release. */
+    protected ThreadLocal<ClientLink> heldLink = new ThreadLocal<ClientLink>();
+
+    // Metrics, guarded by the LinkManager.
+    protected long linkRequests = 0;
+    protected long totalWaitNanos = 0;
+    protected long maxWaitNanos = 0;
+    protected long roundTrips = 0;
+    protected long totalRoundTripNanos = 0;
+    protected long maxRoundTripNanos = 0;
+
     /** Constructor. */
     protected LinkManager() {}
 
@@ -59,6 +92,20 @@ public class LinkManager {
         return obeyCommandToExit;
     }
 
+    /**
+     * Set the number of links to the server that can be open at once. Only
+     * clients that read the responses to their requests in the requesting
+     * thread should use more than one, since a LinkListener only listens to
+     * the first link.
+     */
+    public synchronized void setMaxLinks(int maxLinks) {
+        this.maxLinks = Math.max(1, maxLinks);
+    }
+
+    public synchronized int getMaxLinks() {
+        return maxLinks;
+    }
+
     /**
      * This should be the only method a multi-threaded object uses to
      * gain use of the thread, i.e., on the client side where a GUI
@@ -75,21 +122,22 @@ public class LinkManager {
      *         if the link is not available.
      */
     public ClientLink getLink(boolean waitForLock) throws java.io.IOException {
+        long start = System.nanoTime();
 
-        // NOTE: This should be the only place that the link
-        // object gets assigned. Otherwise, the layer can end up
-        // using two different links via different threads.
-        if (link == null) {
-            synchronized (this) {
-                if (link == null) {
-                    link = getLink();
-                    link.setObeyCommandToExit(obeyCommandToExit);
+        synchronized (this) {
+            while (true) {
+                for (ClientLink l : links) {
+                    if (l.setLocked(true)) {
+                        return held(l, start);
+                    }
                 }
-            }
-        }
 
-        try {
-            while (!link.setLocked(true)) {
+                if (links.size() + linksOpening < maxLinks) {
+                    // Open the new link outside of the lock, so other
+                    // threads can release and get links in the meantime.
+                    linksOpening++;
+                    break;
+                }
 
                 // This handles the case where we don't want to wait
                 // for the link to become available.
@@ -97,23 +145,50 @@ public class LinkManager {
                     return null;
                 }
 
-                // We will wait here for the link to not be in use.
-                // Catch a link == null in case the link was shut down
-                // in finLink() from another thread. IF we didn't
-                // catch the lock, we stay in the loop.
+                // We will wait here for a link to be released by
+                // finLink(), or shut down by resetLink().
                 try {
-                    Thread.sleep(300);
-                } catch (java.lang.InterruptedException ie) {
+                    wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return null;
                 }
             }
-        } catch (NullPointerException npe) {
-            // since probably means link is null, so just return null
-            // in case some other thread tries to do something
-            // tricky..
-            return null;
         }
 
-        return link;
+        ClientLink newLink = null;
+        try {
+            newLink = getLink();
+            newLink.setObeyCommandToExit(obeyCommandToExit);
+            newLink.setLocked(true);
+        } finally {
+            synchronized (this) {
+                linksOpening--;
+                if (newLink != null) {
+                    links.add(newLink);
+                    if (link == null) {
+                        link = newLink;
+                    }
+                }
+                notifyAll();
+            }
+        }
+
+        synchronized (this) {
+            return held(newLink, start);
+        }
+    }
+
+    /**
+     * Note that a link was locked for the current thread.
+     */
+    private ClientLink held(ClientLink l, long requestTime) {
+        heldLink.set(l);
+        long wait = System.nanoTime() - requestTime;
+        linkRequests++;
+        totalWaitNanos += wait;
+        maxWaitNanos = Math.max(maxWaitNanos, wait);
+        return l;
     }
 
     /**
@@ -131,8 +206,11 @@ public class LinkManager {
         if (link == null) {
             synchronized (this) {
                 if (link == null) {
-                    link = getLink();
-                    link.setObeyCommandToExit(obeyCommandToExit);
+                    ClientLink newLink = getLink();
+                    newLink.setObeyCommandToExit(obeyCommandToExit);
+                    links.add(newLink);
+                    link = newLink;
+                    notifyAll();
                 }
             }
         }
@@ -171,28 +249,146 @@ public class LinkManager {
      * others. If it is not called, no one else will be able to use it.
      */
     public void finLink() throws IOException {
-        if (link.isCloseLink()) {
+        ClientLink l = heldLink.get();
+        finLink(l != null ? l : link);
+    }
+
+    /**
+     * Release a link locked by getLink(), or close it if the server
+     * asked for that.
+     */
+    public void finLink(ClientLink l) throws IOException {
+        if (l == null) {
+            return;
+        }
+        if (heldLink.get() == l) {
+            heldLink.remove();
+        }
+
+        if (l.isCloseLink()) {
             Debug.message("link", "LinkManager.finLink: closing Link");
-            link.close();
-            link = null;
+            try {
+                l.close();
+            } finally {
+                remove(l);
+            }
         } else {
             Debug.message("link", "LinkManager.finLink: releasing lock on Link");
-            link.setLocked(false);
+            l.setLocked(false);
+            synchronized (this) {
+                notifyAll();
+            }
         }
     }
 
     /**
-     * Set the link to null.
+     * Shut down the link held by the current thread, after a problem
+     * with it. If the current thread doesn't hold a link, all of the
+     * links are shut down.
      */
     public void resetLink() {
-        if (link != null) {
+        ClientLink l = heldLink.get();
+        heldLink.remove();
+
+        List<ClientLink> toClose;
+        synchronized (this) {
+            if (l != null) {
+                toClose = new ArrayList<ClientLink>(1);
+                toClose.add(l);
+            } else {
+                toClose = new ArrayList<ClientLink>(links);
+            }
+        }
+
+        for (ClientLink cl : toClose) {
             try {
-                link.cleanUp();
-                link.close();
+                cl.cleanUp();
+                cl.close();
             } catch (IOException ioe) {
                 // Nice try...
             }
+            remove(cl);
+        }
+    }
+
+    /**
+     * Forget about a link that has been closed, and wake up the
+     * threads waiting for one.
+     */
+    protected synchronized void remove(ClientLink l) {
+        links.remove(l);
+        if (link == l) {
+            link = null;
         }
-        link = null;
+        notifyAll();
+    }
+
+    /**
+     * Add a round trip time for a request, measured by the client from
+     * sending the request to receiving the response, to the metrics.
+     * 
+     * @param nanos the round trip time, in nanoseconds.
+     */
+    public synchronized void recordRoundTrip(long nanos) {
+        roundTrips++;
+        totalRoundTripNanos += nanos;
+        maxRoundTripNanos = Math.max(maxRoundTripNanos, nanos);
+    }
+
+    /** The number of times a link has been handed out by getLink(). */
+    public synchronized long getLinkRequestCount() {
+        return linkRequests;
+    }
+
+    /** The average time spent waiting for a link in getLink(), in ms. */
+    public synchronized double getAverageWaitMillis() {
+        return linkRequests == 0 ? 0 : totalWaitNanos / 1000000.0 / linkRequests;
+    }
+
+    /** The longest time spent waiting for a link in getLink(), in ms. */
+    public synchronized double getMaxWaitMillis() {
+        return maxWaitNanos / 1000000.0;
+    }
+
+    /** The number of round trips recorded. */
+    public synchronized long getRoundTripCount() {
+        return roundTrips;
+    }
+
+    /** The average round trip time recorded, in ms. */
+    public synchronized double getAverageRoundTripMillis() {
+        return roundTrips == 0 ? 0 : totalRoundTripNanos / 1000000.0 / roundTrips;
+    }
+
+    /** The longest round trip time recorded, in ms. */
+    public synchronized double getMaxRoundTripMillis() {
+        return maxRoundTripNanos / 1000000.0;
+    }
+
+    /** Start the metrics over. */
+    public synchronized void resetMetrics() {
+        linkRequests = 0;
+        totalWaitNanos = 0;
+        maxWaitNanos = 0;
+        roundTrips = 0;
+        totalRoundTripNanos = 0;
+        maxRoundTripNanos = 0;
+    }
+
+    /**
+     * @return a summary of the metrics, for debugging.
+     */
+    public synchronized String getMetrics() {
+        return "LinkManager[" + host + ":" + port + "]: " + links.size()
+                + " of " + maxLinks + " links open, " + linkRequests
+                + " link requests, wait avg " + format(getAverageWaitMillis())
+                + " ms, max " + format(getMaxWaitMillis()) + " ms, "
+                + roundTrips + " round trips, avg "
+                + format(getAverageRoundTripMillis()) + " ms, max "
+                + format(getMaxRoundTripMillis()) + " ms";
+    }
+
+    private static String format(double millis) {
+        return Double.toString(Math.round(millis * 10) / 10.0);
     }
-}
\ No newline at end of file
+}
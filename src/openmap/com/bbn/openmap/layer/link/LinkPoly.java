@@ -72,9 +72,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         dos.writeByte(lType);
         dos.writeInt(llpoints.length);
 
-        for (int i = 0; i < llpoints.length; i++) {
-            dos.writeFloat((float) llpoints[i]);
-        }
+        LinkUtil.writeFloats(dos, llpoints);
 
         dos.writeByte(units);
         dos.writeInt(nsegs);
@@ -112,10 +110,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         dos.writeInt(length);
 
-        for (int i = 0; i < length; i++) {
-            dos.writeFloat(latpoints[i]);
-            dos.writeFloat(lonpoints[i]);
-        }
+        LinkUtil.writeFloats(dos, latpoints, lonpoints, length);
 
         dos.writeByte(units);
         dos.writeInt(nsegs);
@@ -139,9 +134,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         dos.writeByte(RENDERTYPE_XY);
         dos.writeInt(xypoints.length);
 
-        for (int i = 0; i < xypoints.length; i++) {
-            dos.writeInt(xypoints[i]);
-        }
+        LinkUtil.writeInts(dos, xypoints);
         properties.write(dos);
     }
 
@@ -164,10 +157,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         int numPoints = xpoints.length + ypoints.length;
         dos.writeInt(numPoints);
 
-        for (int i = 0; i < numPoints / 2; i++) {
-            dos.writeInt(xpoints[i]);
-            dos.writeInt(ypoints[i]);
-        }
+        LinkUtil.writeInts(dos, xpoints, ypoints, numPoints / 2);
 
         properties.write(dos);
     }
@@ -196,9 +186,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         dos.writeFloat(lonPoint);
         dos.writeInt(xypoints.length);
 
-        for (int i = 0; i < xypoints.length; i++) {
-            dos.writeInt(xypoints[i]);
-        }
+        LinkUtil.writeInts(dos, xypoints);
 
         dos.writeByte(cMode);
         properties.write(dos);
@@ -231,10 +219,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         int numPoints = xpoints.length + ypoints.length;
         dos.writeInt(numPoints);
 
-        for (int i = 0; i < numPoints / 2; i++) {
-            dos.writeInt(xpoints[i]);
-            dos.writeInt(ypoints[i]);
-        }
+        LinkUtil.writeInts(dos, xpoints, ypoints, numPoints / 2);
         dos.writeByte(cMode);
         properties.write(dos);
     }
@@ -311,9 +296,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             numPoints = dis.readInt();
 
             double[] llpoints = new double[numPoints];
-            for (int i = 0; i < numPoints; i++) {
-                llpoints[i] = dis.readFloat();
-            }
+            LinkUtil.readFloats(dis, llpoints);
             int units = dis.readByte();
             int nsegs = dis.readInt();
 
@@ -336,10 +319,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             xpoints = new int[numPoints / 2];
             ypoints = new int[numPoints / 2];
 
-            for (int i = 0; i < numPoints / 2; i += 1) {
-                xpoints[i] = dis.readInt();
-                ypoints[i] = dis.readInt();
-            }
+            LinkUtil.readInts(dis, xpoints, ypoints, numPoints / 2);
 
             if (Debug.debugging("linkdetail")) {
                 System.out.println("  X/Y LinkPoly:");
@@ -360,10 +340,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             xpoints = new int[numPoints / 2];
             ypoints = new int[numPoints / 2];
 
-            for (int i = 0; i < numPoints / 2; i += 1) {
-                xpoints[i] = dis.readInt();
-                ypoints[i] = dis.readInt();
-            }
+            LinkUtil.readInts(dis, xpoints, ypoints, numPoints / 2);
             int cMode = dis.readByte();
 
             if (Debug.debugging("linkdetail")) {
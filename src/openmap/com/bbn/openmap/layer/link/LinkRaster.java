@@ -70,9 +70,7 @@ public class LinkRaster implements LinkGraphicConstants,
         dos.writeInt(h);
         dos.writeInt(pix.length);
 
-        for (int i = 0; i < pix.length; i++) {
-            dos.writeInt(pix[i]);
-        }
+        LinkUtil.writeInts(dos, pix);
         properties.write(dos);
     }
 
@@ -103,9 +101,7 @@ public class LinkRaster implements LinkGraphicConstants,
         dos.writeInt(h);
         dos.writeInt(pix.length);
 
-        for (int i = 0; i < pix.length; i++) {
-            dos.writeInt(pix[i]);
-        }
+        LinkUtil.writeInts(dos, pix);
         properties.write(dos);
     }
 
@@ -142,9 +138,7 @@ public class LinkRaster implements LinkGraphicConstants,
         dos.writeInt(h);
         dos.writeInt(pix.length);
 
-        for (int i = 0; i < pix.length; i++) {
-            dos.writeInt(pix[i]);
-        }
+        LinkUtil.writeInts(dos, pix);
         properties.write(dos);
     }
 
@@ -709,9 +703,7 @@ public class LinkRaster implements LinkGraphicConstants,
                             + " pixels.");
                 }
 
-                for (i = 0; i < length; i++) {
-                    pix[i] = dis.readInt();
-                }
+                LinkUtil.readInts(dis, pix);
                 switch (renderType) {
                 case RENDERTYPE_OFFSET:
                     raster = new OMRaster(lat, lon, x, y, w, h, pix);
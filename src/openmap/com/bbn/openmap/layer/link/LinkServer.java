@@ -32,6 +32,13 @@ import java.net.Socket;
  * LinkServers may be contacting, You'll need to ensure some amount of
  * thread safety for the data if the data is being modified by the
  * LinkServer.
+ * <P>
+ * A LinkServer can be run on its own thread, where handleClient() loops
+ * over the client's requests, or by a LinkServerStarter that serves many
+ * clients from a pool of threads, which calls handleRequest() whenever a
+ * request from the client is waiting. Servers should override
+ * handleRequest() to answer requests, so they work both ways. Servers that
+ * override handleClient() instead are always given their own thread.
  */
 public class LinkServer extends Thread implements LinkPropertiesConstants {
     /** The Link to use to talk to the client. */
@@ -62,16 +69,31 @@ public class LinkServer extends Thread implements LinkPropertiesConstants {
         try {
             handleClient();
         } catch (IOException ioe) {
-            link.cleanUp();
-            link = null;
             if (com.bbn.openmap.util.Debug.debugging("link")) {
                 System.err.println(ioe);
             }
-            com.bbn.openmap.util.Debug.output("LinkServer: Client disconnected");
-            System.gc();
+            disconnect();
+        }
+    }
+
+    /**
+     * Clean up after the client has gone away.
+     */
+    protected void disconnect() {
+        if (link != null) {
+            link.cleanUp();
+            link = null;
         }
+        clientDisconnected();
+        com.bbn.openmap.util.Debug.output("LinkServer: Client disconnected");
     }
 
+    /**
+     * Called when the client has disconnected, so the server can
+     * release anything it was holding for the client.
+     */
+    protected void clientDisconnected() {}
+
     /**
      * handleClient is a method that listens to the link to a client,
      * and responds to requests that are made.
@@ -79,30 +101,67 @@ public class LinkServer extends Thread implements LinkPropertiesConstants {
      * @throws IOException
      */
     public void handleClient() throws IOException {
-        boolean validQuery;
-
         while (true) {
-            link.readAndParse();
-            validQuery = false;
-
-            // For instance, you could do something like this...
-
-            //          LinkMapRequest graphicsQuery = link.getMapRequest();
-            //          LinkActionRequest gestureQuery =
-            // link.getActionRequest();
-
-            //          if (graphicsQuery != null) {
-            //              getRectangle(graphicsQuery, link);
-            //              validQuery = true;
-            //          }
-            //          if (gestureQuery != null) {
-            //              handleGesture(gestureQuery, link);
-            //              validQuery = true;
-            //          }
-
-            if (!validQuery) {
-                huh(link);
+            handleRequest();
+        }
+    }
+
+    /**
+     * Check whether the server answers requests in handleRequest(),
+     * so it can be called for each request. Returns false if a
+     * subclass overrides handleClient() with its own loop, without
+     * overriding handleRequest().
+     */
+    public boolean isRequestDriven() {
+        for (Class<?> c = getClass(); c != LinkServer.class; c = c.getSuperclass()) {
+            if (declares(c, "handleRequest")) {
+                return true;
             }
+            if (declares(c, "handleClient")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean declares(Class<?> c, String methodName) {
+        try {
+            c.getDeclaredMethod(methodName);
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+
+    /**
+     * Read one request from the client off the link, and answer it.
+     * Blocks until a request arrives.
+     * 
+     * @throws IOException
+     */
+    public void handleRequest() throws IOException {
+        boolean validQuery;
+
+        link.readAndParse();
+        validQuery = false;
+
+        // For instance, you could do something like this...
+
+        //          LinkMapRequest graphicsQuery = link.getMapRequest();
+        //          LinkActionRequest gestureQuery =
+        // link.getActionRequest();
+
+        //          if (graphicsQuery != null) {
+        //              getRectangle(graphicsQuery, link);
+        //              validQuery = true;
+        //          }
+        //          if (gestureQuery != null) {
+        //              handleGesture(gestureQuery, link);
+        //              validQuery = true;
+        //          }
+
+        if (!validQuery) {
+            huh(link);
         }
     }
 
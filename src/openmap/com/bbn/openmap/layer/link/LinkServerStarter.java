@@ -22,8 +22,22 @@
 
 package com.bbn.openmap.layer.link;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.bbn.openmap.util.Debug;
 
 /**
  * The LinkServerStarter is the object that listens for Link clients
@@ -33,6 +47,13 @@ import java.net.Socket;
  * you should also create a new LinkServerStarter to launch it
  * properly. Generally, the main() and startNewServer() methods are
  * the only thing you would need to modify.
+ * <P>
+ * By default, each client gets its own thread. If maxThreads is set, the
+ * clients are watched by one thread, and their requests are handed to a
+ * pool of maxThreads threads as they come in, so many clients can be
+ * served by a few threads. The LinkServers have to answer requests in
+ * handleRequest() for that; servers that only override handleClient()
+ * still get their own thread.
  */
 public class LinkServerStarter {
 
@@ -40,6 +61,11 @@ public class LinkServerStarter {
     public static final int DEFAULT_PORT = 3031;
     /** The port being listened to. */
     protected int serverPort;
+    /**
+     * The number of threads answering requests, or 0 for a thread
+     * for each client.
+     */
+    protected int maxThreads = 0;
 
     /** Starts the LinkServerStarter listening to the default port. */
     public LinkServerStarter() {
@@ -61,12 +87,29 @@ public class LinkServerStarter {
         return serverPort;
     }
 
+    /**
+     * Set the number of threads answering client requests. 0, the
+     * default, gives each client its own thread.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(0, maxThreads);
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
     /**
      * The method of the parent server that is listening for clients.
      * When a contact is made, a child thread is spawned off to handle
      * the client.
      */
     public void run() {
+        if (maxThreads > 0) {
+            runPooled();
+            return;
+        }
+
         try {
             ServerSocket serverSocket = new ServerSocket(serverPort);
             Socket socket;
@@ -85,6 +128,175 @@ public class LinkServerStarter {
         }
     }
 
+    /**
+     * Serve the clients from a pool of maxThreads threads. A selector
+     * watches the idle clients, and when a request arrives the client
+     * is taken off the selector and handed to the pool, which answers
+     * all of the requests the client has sent. Then the client goes
+     * back to the selector.
+     */
+    protected void runPooled() {
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+        ConcurrentLinkedQueue<PooledClient> answered = new ConcurrentLinkedQueue<PooledClient>();
+        Selector selector = null;
+        ServerSocketChannel serverChannel = null;
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().bind(new InetSocketAddress(serverPort));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("LinkServerStarter: running on port "
+                    + serverPort + " with " + maxThreads + " threads");
+
+            List<SelectionKey> requests = new ArrayList<SelectionKey>();
+
+            while (true) {
+                PooledClient client;
+                while ((client = answered.poll()) != null) {
+                    client.watch(selector);
+                }
+
+                if (selector.selectedKeys().isEmpty()) {
+                    selector.select();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        SocketChannel channel = serverChannel.accept();
+                        if (channel != null) {
+                            accept(channel, selector);
+                        }
+                    } else if (key.isReadable()) {
+                        // The channel can't go back to blocking mode,
+                        // which the Link streams need, until it's off
+                        // the selector.
+                        key.cancel();
+                        requests.add(key);
+                    }
+                }
+
+                if (!requests.isEmpty()) {
+                    selector.selectNow();
+                    for (SelectionKey key : requests) {
+                        ((PooledClient) key.attachment()).answer(executor, answered, selector);
+                    }
+                    requests.clear();
+                }
+            }
+
+        } catch (IOException ioe) {
+            System.err.println("LinkServer: IOException while running:");
+            System.err.println(ioe);
+        } finally {
+            executor.shutdownNow();
+            try {
+                if (serverChannel != null) {
+                    serverChannel.close();
+                }
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException ioe) {
+            }
+        }
+    }
+
+    /**
+     * Create the server for a new client, and put it on the selector,
+     * or start it on its own thread if it runs its own loop.
+     */
+    protected void accept(SocketChannel channel, Selector selector)
+            throws IOException {
+        System.out.println("LinkServer: fielding connection");
+        Thread server = startNewServer(channel.socket());
+        if (server instanceof LinkServer
+                && ((LinkServer) server).isRequestDriven()) {
+            new PooledClient(channel, (LinkServer) server).watch(selector);
+        } else {
+            server.start();
+        }
+    }
+
+    /**
+     * A client served by the thread pool.
+     */
+    protected static class PooledClient implements Runnable {
+        protected SocketChannel channel;
+        protected LinkServer server;
+        protected ConcurrentLinkedQueue<PooledClient> answered;
+        protected Selector selector;
+
+        protected PooledClient(SocketChannel channel, LinkServer server) {
+            this.channel = channel;
+            this.server = server;
+        }
+
+        /**
+         * Put the client on the selector, to wait for its next
+         * request.
+         */
+        protected void watch(Selector selector) {
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, this);
+            } catch (IOException ioe) {
+                disconnect(ioe);
+            }
+        }
+
+        /**
+         * Answer the waiting requests on the pool, and put the client
+         * on the answered queue when they're done.
+         */
+        protected void answer(ExecutorService executor,
+                              ConcurrentLinkedQueue<PooledClient> answered,
+                              Selector selector) {
+            this.answered = answered;
+            this.selector = selector;
+            try {
+                channel.configureBlocking(true);
+                executor.execute(this);
+            } catch (IOException ioe) {
+                disconnect(ioe);
+            }
+        }
+
+        public void run() {
+            try {
+                do {
+                    server.handleRequest();
+                } while (server.link != null && server.link.isInputAvailable());
+
+                answered.add(this);
+                selector.wakeup();
+            } catch (IOException ioe) {
+                disconnect(ioe);
+            } catch (RuntimeException re) {
+                Debug.error("LinkServer: problem answering request: " + re);
+                disconnect(null);
+            }
+        }
+
+        protected void disconnect(IOException ioe) {
+            if (ioe != null && Debug.debugging("link")) {
+                System.err.println(ioe);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            server.disconnect();
+        }
+    }
+
     /**
      * This method gets called to create a new server to handle a new
      * connection. Thread.start() will get called on the returned
@@ -106,6 +318,7 @@ public class LinkServerStarter {
     public static void main(String[] argv) {
 
         int pnumber = -1;
+        int threads = 0;
 
         com.bbn.openmap.util.Debug.init();
 
@@ -113,22 +326,28 @@ public class LinkServerStarter {
             if (argv[i].equals("-port") && argv.length > i + 1) {
                 try {
                     pnumber = Integer.parseInt(argv[i + 1]);
-                    break;
                 } catch (NumberFormatException e) {
                     pnumber = -1;
                 }
+            } else if (argv[i].equals("-threads") && argv.length > i + 1) {
+                try {
+                    threads = Integer.parseInt(argv[i + 1]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
             }
         }
 
         if (pnumber < 0) {
             System.out.println("Need to start the server with a port number.");
-            System.out.println("Usage: java com.bbn.openmap.layer.link.LinkServerStarter -port <port number>");
+            System.out.println("Usage: java com.bbn.openmap.layer.link.LinkServerStarter -port <port number> [-threads <number of threads>]");
             System.exit(0);
         }
 
         System.out.println("LinkServerStarter: Starting up on port " + pnumber
                 + ".");
         LinkServerStarter serverStarter = new LinkServerStarter(pnumber);
+        serverStarter.setMaxThreads(threads);
         while (true) {
             serverStarter.run();
         }
@@ -25,10 +25,172 @@
 package com.bbn.openmap.layer.link;
 
 import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class LinkUtil {
 
+    /** The size of the buffers used to move arrays on and off the link. */
+    protected final static int BULK_BUFFER_SIZE = 8192;
+
+    /**
+     * A buffer for each thread, used to convert arrays to and from the bytes
+     * on the link in blocks. ByteBuffers are big-endian, like DataInput and
+     * DataOutput, so the bytes are the same as writing the values one at a
+     * time.
+     */
+    private final static ThreadLocal<ByteBuffer> bulkBuffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BULK_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Write an array of doubles as floats, in blocks instead of one value at
+     * a time. Same as calling writeFloat() for each value.
+     */
+    public static void writeFloats(DataOutput dos, double[] values)
+            throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        buf.clear();
+        for (int i = 0; i < values.length; i++) {
+            if (buf.remaining() < 4) {
+                flush(dos, buf);
+            }
+            buf.putFloat((float) values[i]);
+        }
+        flush(dos, buf);
+    }
+
+    /**
+     * Write the first count values of two float arrays, alternating between
+     * them, in blocks. Same as calling writeFloat() for a[0], b[0], a[1],
+     * b[1], etc.
+     */
+    public static void writeFloats(DataOutput dos, float[] a, float[] b,
+                                   int count) throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        buf.clear();
+        for (int i = 0; i < count; i++) {
+            if (buf.remaining() < 8) {
+                flush(dos, buf);
+            }
+            buf.putFloat(a[i]);
+            buf.putFloat(b[i]);
+        }
+        flush(dos, buf);
+    }
+
+    /**
+     * Write an array of ints in blocks. Same as calling writeInt() for each
+     * value.
+     */
+    public static void writeInts(DataOutput dos, int[] values)
+            throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        buf.clear();
+        for (int i = 0; i < values.length; i++) {
+            if (buf.remaining() < 4) {
+                flush(dos, buf);
+            }
+            buf.putInt(values[i]);
+        }
+        flush(dos, buf);
+    }
+
+    /**
+     * Write the first count values of two int arrays, alternating between
+     * them, in blocks. Same as calling writeInt() for a[0], b[0], a[1], b[1],
+     * etc.
+     */
+    public static void writeInts(DataOutput dos, int[] a, int[] b, int count)
+            throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        buf.clear();
+        for (int i = 0; i < count; i++) {
+            if (buf.remaining() < 8) {
+                flush(dos, buf);
+            }
+            buf.putInt(a[i]);
+            buf.putInt(b[i]);
+        }
+        flush(dos, buf);
+    }
+
+    private static void flush(DataOutput dos, ByteBuffer buf)
+            throws IOException {
+        if (buf.position() > 0) {
+            dos.write(buf.array(), 0, buf.position());
+            buf.clear();
+        }
+    }
+
+    /**
+     * Fill an array with floats read in blocks. Same as calling readFloat()
+     * for each value.
+     */
+    public static void readFloats(DataInput dis, double[] values)
+            throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        int i = 0;
+        while (i < values.length) {
+            int n = fill(dis, buf, values.length - i, 4);
+            for (int j = 0; j < n; j++) {
+                values[i++] = buf.getFloat();
+            }
+        }
+    }
+
+    /**
+     * Fill an array with ints read in blocks. Same as calling readInt() for
+     * each value.
+     */
+    public static void readInts(DataInput dis, int[] values)
+            throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        int i = 0;
+        while (i < values.length) {
+            int n = fill(dis, buf, values.length - i, 4);
+            for (int j = 0; j < n; j++) {
+                values[i++] = buf.getInt();
+            }
+        }
+    }
+
+    /**
+     * Read count pairs of ints in blocks, the first of each pair into a and
+     * the second into b. Same as calling readInt() for a[0], b[0], a[1],
+     * b[1], etc.
+     */
+    public static void readInts(DataInput dis, int[] a, int[] b, int count)
+            throws IOException {
+        ByteBuffer buf = bulkBuffer.get();
+        int i = 0;
+        while (i < count) {
+            int n = fill(dis, buf, count - i, 8);
+            for (int j = 0; j < n; j++, i++) {
+                a[i] = buf.getInt();
+                b[i] = buf.getInt();
+            }
+        }
+    }
+
+    /**
+     * Read as many values of a size as fit in the buffer, up to count, and
+     * get the buffer ready to be read.
+     * 
+     * @return the number of values read.
+     */
+    private static int fill(DataInput dis, ByteBuffer buf, int count,
+                            int valueSize) throws IOException {
+        int n = Math.min(count, buf.capacity() / valueSize);
+        buf.clear();
+        dis.readFully(buf.array(), 0, n * valueSize);
+        buf.limit(n * valueSize);
+        return n;
+    }
+
     /**
      * readString reads an expected number of characters off a
      * DataInput and creates a String from it.
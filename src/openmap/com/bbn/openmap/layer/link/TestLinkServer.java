@@ -51,68 +51,66 @@ public class TestLinkServer extends LinkServer implements LinkActionConstants,
     }
 
     /**
-     * handleClient is a method that listens to the link to a client,
-     * and responds to requests that are made.
+     * handleRequest is a method that reads a request from the link to
+     * a client, and responds to it.
      */
-    public void handleClient() throws IOException {
+    public void handleRequest() throws IOException {
         boolean validQuery;
 
-        while (true) {
-            link.readAndParse();
-            validQuery = false;
-            System.out.println("TestLinkServer: fielding request");
+        link.readAndParse();
+        validQuery = false;
+        System.out.println("TestLinkServer: fielding request");
 
-            LinkMapRequest graphicsQuery = link.getMapRequest();
-            LinkActionRequest gestureQuery = link.getActionRequest();
-            LinkActionList actionList = link.getActionList();
-
-            if (graphicsQuery != null) {
-                System.out.println((LinkMapRequest) graphicsQuery);
-                getRectangle(graphicsQuery, link);
-                validQuery = true;
-            }
-            if (gestureQuery != null) {
-                System.out.println(gestureQuery);
-                handleGesture(gestureQuery, link);
-                validQuery = true;
-            }
-            if (actionList != null) {
-                Vector graphicUpdates = actionList.getGraphicUpdates();
-                Iterator it = graphicUpdates.iterator();
-                while (it.hasNext()) {
-                    GraphicUpdate gu = (GraphicUpdate) it.next();
-                    if (gu != null) {
-                        String id = gu.id;
-                        System.out.println("TestLinkServer: graphic id = " + id);
-
-                        OMGraphic graphic = gu.graphic;
-                        int index = clientCreatedGraphics.getOMGraphicIndexWithId(id);
-                        if (index != Link.UNKNOWN) {
-                            System.out.println("TestLinkServer: modifying graphic");
-                            clientCreatedGraphics.setOMGraphicAt(gu.graphic,
-                                    index);
-                        } else {
-                            System.out.println("TestLinkServer: new graphic");
-                            // Set the ID for it, so it can be
-                            // referred to later.
-                            LinkProperties props = (LinkProperties) graphic.getAttribute(OMGraphic.APP_OBJECT);
-
-                            props.setProperty(LPC_GRAPHICID, "graphic"
-                                    + (newGraphicCounter++));
-                            System.out.println("TestLinkServer: new graphic given id "
-                                    + props);
-                        }
-
-                        clientCreatedGraphics.doAction(gu.graphic,
-                                new OMAction(gu.action));
+        LinkMapRequest graphicsQuery = link.getMapRequest();
+        LinkActionRequest gestureQuery = link.getActionRequest();
+        LinkActionList actionList = link.getActionList();
 
+        if (graphicsQuery != null) {
+            System.out.println((LinkMapRequest) graphicsQuery);
+            getRectangle(graphicsQuery, link);
+            validQuery = true;
+        }
+        if (gestureQuery != null) {
+            System.out.println(gestureQuery);
+            handleGesture(gestureQuery, link);
+            validQuery = true;
+        }
+        if (actionList != null) {
+            Vector graphicUpdates = actionList.getGraphicUpdates();
+            Iterator it = graphicUpdates.iterator();
+            while (it.hasNext()) {
+                GraphicUpdate gu = (GraphicUpdate) it.next();
+                if (gu != null) {
+                    String id = gu.id;
+                    System.out.println("TestLinkServer: graphic id = " + id);
+
+                    OMGraphic graphic = gu.graphic;
+                    int index = clientCreatedGraphics.getOMGraphicIndexWithId(id);
+                    if (index != Link.UNKNOWN) {
+                        System.out.println("TestLinkServer: modifying graphic");
+                        clientCreatedGraphics.setOMGraphicAt(gu.graphic,
+                                index);
+                    } else {
+                        System.out.println("TestLinkServer: new graphic");
+                        // Set the ID for it, so it can be
+                        // referred to later.
+                        LinkProperties props = (LinkProperties) graphic.getAttribute(OMGraphic.APP_OBJECT);
+
+                        props.setProperty(LPC_GRAPHICID, "graphic"
+                                + (newGraphicCounter++));
+                        System.out.println("TestLinkServer: new graphic given id "
+                                + props);
                     }
+
+                    clientCreatedGraphics.doAction(gu.graphic,
+                            new OMAction(gu.action));
+
                 }
             }
+        }
 
-            if (!validQuery) {
-                huh(link);
-            }
+        if (!validQuery) {
+            huh(link);
         }
     }
 
@@ -61,6 +61,24 @@ public class ByteRasterLocation
 
     }
 
+    /**
+     * Create a ByteRasterLocation at a latitude/longitude location, with an
+     * icon that has already been created. Locations using the same image can
+     * share the icon.
+     * 
+     * @param latitude latitide in decimal degrees
+     * @param longitude longitude in decimal degrees.
+     * @param name the label for the location.
+     * @param icon the ImageIcon for the location marker, may be null.
+     */
+    public ByteRasterLocation(double latitude, double longitude, String name, ImageIcon icon) {
+        super(latitude, longitude, name, getIconRaster(latitude, longitude, icon));
+
+        if (location instanceof OMRaster) {
+            setHorizontalLabelBuffer((((OMRaster) location).getWidth() / 2) + SPACING);
+        }
+    }
+
     /**
      * Create a ByteRasterLocation at a screen x/y location.
      * 
@@ -112,8 +130,18 @@ public class ByteRasterLocation
      *        image from a database query.
      */
     public static OMRaster getIconRaster(double lat, double lon, byte bytearr[]) {
+        return getIconRaster(lat, lon, getIconRaster(bytearr));
+    }
 
-        ImageIcon icon = getIconRaster(bytearr);
+    /**
+     * Create an OMRaster at a latitude/longitude, centered on the location,
+     * from an ImageIcon.
+     * 
+     * @param lat latitide in decimal degrees
+     * @param lon longitude in decimal degrees.
+     * @param icon the ImageIcon, may be null.
+     */
+    public static OMRaster getIconRaster(double lat, double lon, ImageIcon icon) {
         if (icon == null)
             return null;
 
@@ -26,16 +26,23 @@ package com.bbn.openmap.layer.location.db;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.geom.Rectangle2D;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
 import java.util.logging.Level;
 
 import javax.swing.Box;
+import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 
@@ -47,6 +54,7 @@ import com.bbn.openmap.layer.location.LocationHandler;
 import com.bbn.openmap.layer.location.LocationMenuItem;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.util.ConnectionPool;
 import com.bbn.openmap.util.PropUtils;
 import com.bbn.openmap.util.quadtree.QuadTree;
 
@@ -94,13 +102,51 @@ import com.bbn.openmap.util.quadtree.QuadTree;
  * 
  * In addition, this particular location handler is using the LocationData
  * object to handle the results from the location.
+ * <P>
+ * For large tables, the handler can load only the locations on the map instead
+ * of the whole table. Set the locationBBoxQueryString to a select statement
+ * returning the same columns as the locationQueryString, with four '?'
+ * parameters that are set to the south, north, west and east edges of the map,
+ * in that order. The rows are fetched from the database in pages of fetchSize
+ * rows. Areas that have been loaded are remembered, and only queried again
+ * after the handler has collected more than maxLocations locations and starts
+ * over. Locations read this way are kept by city and state name, so rows read
+ * again for an overlapping area replace the ones already loaded:
+ * 
+ * <pre>
+ * 
+ *  dblocationhandler.locationBBoxQueryString=select CITY, STATE, GRAPHIC, LAT, LON from LOCATIONS where LAT between ? and ? and LON between ? and ?
+ *  dblocationhandler.fetchSize=500
+ *  dblocationhandler.maxLocations=100000
+ * 
+ * </pre>
+ * 
+ * Changes to the table can be picked up without loading everything again, in
+ * either mode. Set the locationUpdateQueryString to a select statement returning
+ * the location columns plus the time the row changed, with one '?' parameter
+ * that is set to the latest change time seen so far. Changed rows replace the
+ * locations with the same city and state names. The updates are checked when
+ * the data is reloaded, and every updateInterval seconds when the map changes
+ * (0, the default, for never). Rows deleted from the table are only removed by
+ * reloading from the palette.
+ * 
+ * <pre>
+ * 
+ *  dblocationhandler.locationUpdateQueryString=select CITY, STATE, GRAPHIC, LAT, LON, MODIFIED from LOCATIONS where MODIFIED &gt; ?
+ *  dblocationhandler.updateInterval=60
+ * 
+ * </pre>
+ * 
+ * Location icons are created the first time a location using them is loaded,
+ * and kept in an icon cache shared by all DBLocationHandlers, holding
+ * iconCacheSize icons.
  */
 public class DBLocationHandler
         extends AbstractLocationHandler
         implements LocationHandler, ActionListener {
 
     /** The storage mechanism for the locations. */
-    protected QuadTree quadtree = null;
+    protected QuadTree<Location> quadtree = null;
 
     // Database variables.
     /*
@@ -136,6 +182,72 @@ public class DBLocationHandler
      */
     protected String locationQueryString = null;
 
+    /**
+     * Property to specify the query string for the locations within a
+     * bounding box, which turns on loading only the locations on the map.
+     */
+    public static final String locationBBoxQueryStringProperty = "locationBBoxQueryString";
+    /** Property to specify the query string for locations changed since a time. */
+    public static final String locationUpdateQueryStringProperty = "locationUpdateQueryString";
+    /** Property to specify the number of rows fetched from the database at a time. */
+    public static final String fetchSizeProperty = "fetchSize";
+    /** Property to specify the number of locations kept from bounding box queries. */
+    public static final String maxLocationsProperty = "maxLocations";
+    /** Property to specify the seconds between checks for changed locations. */
+    public static final String updateIntervalProperty = "updateInterval";
+    /** Property to specify the number of icons in the shared icon cache. */
+    public static final String iconCacheSizeProperty = "iconCacheSize";
+
+    public static final int DEFAULT_FETCH_SIZE = 500;
+    /** The number of rows read between checks for a cancelled query. */
+    protected static final int CANCEL_CHECK_ROWS = 100;
+    public static final int DEFAULT_MAX_LOCATIONS = 100000;
+    public static final int DEFAULT_ICON_CACHE_SIZE = 256;
+
+    /**
+     * The string used to query the database for the locations within a
+     * bounding box. If null, the whole table is loaded with the
+     * locationQueryString.
+     */
+    protected String locationBBoxQueryString = null;
+    /**
+     * The string used to query the database for locations changed since the
+     * last update. If null, changes are only seen when the data is reloaded.
+     */
+    protected String locationUpdateQueryString = null;
+    protected int fetchSize = DEFAULT_FETCH_SIZE;
+    protected int maxLocations = DEFAULT_MAX_LOCATIONS;
+    /** Milliseconds between update checks, 0 for none. */
+    protected long updateInterval = 0;
+
+    /**
+     * The locations in the quadtree, by city and state name, so changed
+     * locations and rows read again for overlapping areas can replace them.
+     * Only kept for the bounding box and update queries, the whole table is
+     * loaded without it so rows with the same names are all drawn.
+     */
+    protected Map<String, Location> locations = new HashMap<String, Location>();
+    /** The lon/lat areas that have been loaded with the bbox query. */
+    protected List<Rectangle2D> loadedAreas = new ArrayList<Rectangle2D>();
+    /** The latest change time of the locations that have been loaded. */
+    protected Timestamp lastUpdate = null;
+    /** When the updates were last checked. */
+    protected long lastUpdateCheck = 0;
+
+    /**
+     * Icons shared by all DBLocationHandlers, by raw data table and graphic
+     * name, least recently used first. Graphics that aren't in the database
+     * are kept as null icons, so they aren't looked for again.
+     */
+    private static final Map<String, ImageIcon> iconCache = new LinkedHashMap<String, ImageIcon>(16, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, ImageIcon> eldest) {
+            return size() > iconCacheSize;
+        }
+    };
+    private static int iconCacheSize = DEFAULT_ICON_CACHE_SIZE;
+
     /** A copy of properties used to construct this Layer */
     protected Properties props;
 
@@ -171,6 +283,15 @@ public class DBLocationHandler
         userPassword = properties.getProperty(prefix + userPasswordProperty);
 
         locationQueryString = properties.getProperty(prefix + locationQueryStringProperty);
+
+        locationBBoxQueryString = properties.getProperty(prefix + locationBBoxQueryStringProperty);
+        locationUpdateQueryString = properties.getProperty(prefix + locationUpdateQueryStringProperty);
+        // 0 leaves the fetch size to the driver, negative sizes are rejected.
+        fetchSize = Math.max(0, PropUtils.intFromProperties(properties, prefix + fetchSizeProperty, fetchSize));
+        maxLocations = PropUtils.intFromProperties(properties, prefix + maxLocationsProperty, maxLocations);
+        updateInterval = PropUtils.intFromProperties(properties, prefix + updateIntervalProperty,
+                                                     (int) (updateInterval / 1000)) * 1000L;
+        setIconCacheSize(PropUtils.intFromProperties(properties, prefix + iconCacheSizeProperty, getIconCacheSize()));
     }
 
     /**
@@ -201,6 +322,12 @@ public class DBLocationHandler
         props.put(prefix + userNameProperty, PropUtils.unnull(userName));
         props.put(prefix + userPasswordProperty, PropUtils.unnull(userPassword));
         props.put(prefix + locationQueryStringProperty, PropUtils.unnull(locationQueryString));
+        props.put(prefix + locationBBoxQueryStringProperty, PropUtils.unnull(locationBBoxQueryString));
+        props.put(prefix + locationUpdateQueryStringProperty, PropUtils.unnull(locationUpdateQueryString));
+        props.put(prefix + fetchSizeProperty, Integer.toString(fetchSize));
+        props.put(prefix + maxLocationsProperty, Integer.toString(maxLocations));
+        props.put(prefix + updateIntervalProperty, Long.toString(updateInterval / 1000));
+        props.put(prefix + iconCacheSizeProperty, Integer.toString(getIconCacheSize()));
 
         // Put the properties in here for the RawDataRecordSet, which
         // gets images that can be used for the locations.
@@ -241,6 +368,14 @@ public class DBLocationHandler
         list.put(userNameProperty, "User name");
         list.put(userPasswordProperty, "User password");
         list.put(locationQueryStringProperty, "Select statement that the data object needs.");
+        list.put(locationBBoxQueryStringProperty,
+                 "Select statement for the locations on the map, with ? for south, north, west and east (optional).");
+        list.put(locationUpdateQueryStringProperty,
+                 "Select statement for changed locations, with the change time as the last column and ? for the last change seen (optional).");
+        list.put(fetchSizeProperty, "Number of rows fetched from the database at a time, 0 for the driver default.");
+        list.put(maxLocationsProperty, "Number of locations kept from the map queries before starting over.");
+        list.put(updateIntervalProperty, "Seconds between checks for changed locations, 0 for never.");
+        list.put(iconCacheSizeProperty, "Number of location icons cached for all database location handlers.");
 
         list.put(RawDataRecordSet.tableNameProperty, "The name of the table in the database that holds the images.");
         list.put(RawDataRecordSet.rawDataColumnNameProperty,
@@ -251,30 +386,52 @@ public class DBLocationHandler
         return list;
     }
 
-    public void reloadData() {
-        quadtree = createData();
+    /**
+     * Reload the locations. If there is a locationUpdateQueryString and the
+     * locations have been loaded, only the changed locations are read.
+     */
+    public synchronized void reloadData() {
+        if (quadtree != null && locationUpdateQueryString != null) {
+            updateData();
+        } else {
+            clearData();
+            if (locationBBoxQueryString == null) {
+                quadtree = createData();
+            }
+        }
+    }
+
+    /**
+     * Forget all of the locations, so they are loaded from the database again.
+     */
+    public synchronized void clearData() {
+        quadtree = null;
+        locations.clear();
+        loadedAreas.clear();
+        lastUpdate = null;
     }
 
     /**
      * Look in the database and create the QuadTree holding all the Locations.
      */
-    protected QuadTree createData() {
+    protected synchronized QuadTree<Location> createData() {
 
-        QuadTree qt = new QuadTree(90.0f, -180.0f, -90.0f, 180.0f, 100, 50f);
-        ByteRasterLocation loc;
-        byte bytearr[];
+        QuadTree<Location> qt = createQuadTree();
+        locations.clear();
 
         if (locationQueryString == null) {
             return qt;
         }
 
+        // Changes made while the table is read will be picked up by the next
+        // update.
+        Timestamp loadTime = new Timestamp(System.currentTimeMillis());
+
         // Code for reading from DB and pushing it into QuadTree.
+        ConnectionPool pool = getConnectionPool();
+        Connection connection = null;
         try {
-            if (jdbcDriver != null) {
-                Class.forName(getJdbcDriver());
-            }
-
-            Connection connection = DriverManager.getConnection(getJdbcString(), getUserName(), getUserPassword());
+            connection = pool.getConnection();
 
             RawDataRecordSet gifdataRS = new RawDataRecordSet(connection, getPropertyPrefix(), props);
 
@@ -288,39 +445,282 @@ public class DBLocationHandler
                     logger.fine("DBLocationHandler:  location information:\n" + ld);
                 }
 
-                bytearr = gifdataRS.getRawData(ld.getGraphicName());
+                Location loc = createLocation(ld, gifdataRS);
+                if (locationUpdateQueryString != null) {
+                    // Keyed by name so the updates can replace them.
+                    putLocation(qt, ld, loc);
+                } else {
+                    qt.put(loc.lat, loc.lon, loc);
+                }
+            }
 
-                float lat = ld.getLatitude();
-                float lon = ld.getLongitude();
+            locationdataRS.close();
+            lastUpdate = loadTime;
+            lastUpdateCheck = System.currentTimeMillis();
 
-                loc = new ByteRasterLocation(lat, lon, ld.getCityName(), bytearr);
+        } catch (SQLException sqlE) {
+            logger.warning("DBLocationHandler:SQL Exception: " + sqlE.getMessage());
+            sqlE.printStackTrace();
+        } finally {
+            pool.release(connection);
+        }
 
-                loc.setLocationHandler(this);
+        return qt;
+    }
 
-                // let the layer handler default set these
-                // initially...
-                loc.setShowName(isShowNames());
-                loc.setShowLocation(isShowLocations());
+    /**
+     * Create an empty QuadTree for the locations.
+     */
+    protected QuadTree<Location> createQuadTree() {
+        return new QuadTree<Location>(90.0f, -180.0f, -90.0f, 180.0f, 100, 50f);
+    }
 
-                loc.setLocationPaint(getLocationColor());
-                loc.getLabel().setLinePaint(getNameColor());
-                loc.setDetails(ld.getCityName() + " is at lat: " + lat + ", lon: " + lon);
+    /**
+     * Make sure the locations in a lon/lat area have been loaded with the
+     * locationBBoxQueryString, querying the parts of the area that haven't
+     * been loaded before.
+     */
+    protected synchronized void loadArea(double nwLat, double nwLon, double seLat, double seLon) {
+        if (quadtree == null || locations.size() > maxLocations) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("DBLocationHandler: starting over with " + locations.size() + " locations");
+            }
+            clearData();
+            quadtree = createQuadTree();
+        }
 
-                qt.put(lat, lon, loc);
+        double north = Math.max(nwLat, seLat);
+        double south = Math.min(nwLat, seLat);
+        if (nwLon > seLon) {
+            // Crossing the dateline
+            queryArea(north, south, nwLon, 180);
+            queryArea(north, south, -180, seLon);
+        } else {
+            queryArea(north, south, nwLon, seLon);
+        }
+    }
 
+    /**
+     * Query an area that's on the map, unless it's inside an area that has
+     * already been loaded.
+     */
+    protected void queryArea(double north, double south, double west, double east) {
+        Rectangle2D area = new Rectangle2D.Double(west, south, east - west, north - south);
+        for (Rectangle2D loaded : loadedAreas) {
+            if (loaded.contains(area)) {
+                return;
             }
+        }
 
-            locationdataRS.close();
-            connection.close();
+        if (lastUpdate == null) {
+            lastUpdate = new Timestamp(System.currentTimeMillis());
+            lastUpdateCheck = System.currentTimeMillis();
+        }
 
+        ConnectionPool pool = getConnectionPool();
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        try {
+            connection = pool.getConnection();
+            stmt = connection.prepareStatement(locationBBoxQueryString);
+            stmt.setDouble(1, south);
+            stmt.setDouble(2, north);
+            stmt.setDouble(3, west);
+            stmt.setDouble(4, east);
+            if (readLocations(stmt, new RawDataRecordSet(connection, getPropertyPrefix(), props), 0) != null) {
+                // Areas cut short aren't remembered, so they're read again.
+                loadedAreas.add(area);
+            }
         } catch (SQLException sqlE) {
             logger.warning("DBLocationHandler:SQL Exception: " + sqlE.getMessage());
-            sqlE.printStackTrace();
-        } catch (ClassNotFoundException cnfE) {
-            logger.warning("DBLocationHandler: Class not found Exception: " + cnfE);
+        } finally {
+            close(stmt);
+            pool.release(connection);
         }
+    }
 
-        return qt;
+    /**
+     * Read the locations that have changed since the last update into the
+     * quadtree, if there is a locationUpdateQueryString.
+     */
+    protected synchronized void updateData() {
+        lastUpdateCheck = System.currentTimeMillis();
+        if (quadtree == null || locationUpdateQueryString == null || lastUpdate == null) {
+            return;
+        }
+
+        ConnectionPool pool = getConnectionPool();
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        try {
+            connection = pool.getConnection();
+            stmt = connection.prepareStatement(locationUpdateQueryString);
+            stmt.setTimestamp(1, lastUpdate);
+            Timestamp latest = readLocations(stmt, new RawDataRecordSet(connection, getPropertyPrefix(), props), 6);
+            if (latest != null) {
+                lastUpdate = latest;
+            }
+        } catch (SQLException sqlE) {
+            logger.warning("DBLocationHandler:SQL Exception: " + sqlE.getMessage());
+        } finally {
+            close(stmt);
+            pool.release(connection);
+        }
+    }
+
+    /**
+     * Run a location query and put the locations in the quadtree, replacing
+     * any with the same names. The rows are fetched fetchSize at a time, and
+     * the query is stopped if the layer cancels the current work, which is
+     * checked every CANCEL_CHECK_ROWS rows.
+     * 
+     * @param stmt the query, with its parameters set.
+     * @param gifdataRS used to get the icons not in the cache.
+     * @param timeColumn the column holding the time each row changed, or 0
+     *        if there isn't one.
+     * @return the latest change time read, or lastUpdate if there wasn't a
+     *         later one. Returns null if the query was stopped before all of
+     *         the rows were read.
+     */
+    protected Timestamp readLocations(PreparedStatement stmt, RawDataRecordSet gifdataRS, int timeColumn)
+            throws SQLException {
+        Timestamp latest = lastUpdate;
+        stmt.setFetchSize(fetchSize);
+        ResultSet rset = stmt.executeQuery();
+        try {
+            int count = 0;
+            while (rset.next()) {
+                if (count++ % CANCEL_CHECK_ROWS == 0 && isCancelled()) {
+                    stmt.cancel();
+                    return null;
+                }
+
+                LocationData ld = new LocationData(rset);
+                putLocation(quadtree, ld, createLocation(ld, gifdataRS));
+
+                if (timeColumn > 0) {
+                    Timestamp changed = rset.getTimestamp(timeColumn);
+                    if (changed != null && (latest == null || changed.after(latest))) {
+                        latest = changed;
+                    }
+                }
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("DBLocationHandler: read " + count + " locations, " + locations.size() + " loaded");
+            }
+        } finally {
+            rset.close();
+        }
+        return latest;
+    }
+
+    /**
+     * Create the Location for a row of location data.
+     */
+    protected Location createLocation(LocationData ld, RawDataRecordSet gifdataRS) {
+        float lat = ld.getLatitude();
+        float lon = ld.getLongitude();
+
+        ByteRasterLocation loc = new ByteRasterLocation(lat, lon, ld.getCityName(), getIcon(ld.getGraphicName(), gifdataRS));
+
+        loc.setLocationHandler(this);
+
+        // let the layer handler default set these
+        // initially...
+        loc.setShowName(isShowNames());
+        loc.setShowLocation(isShowLocations());
+
+        loc.setLocationPaint(getLocationColor());
+        loc.getLabel().setLinePaint(getNameColor());
+        loc.setDetails(ld.getCityName() + " is at lat: " + lat + ", lon: " + lon);
+        return loc;
+    }
+
+    /**
+     * Put a location in a quadtree, replacing the location with the same city
+     * and state names.
+     */
+    protected void putLocation(QuadTree<Location> qt, LocationData ld, Location loc) {
+        Location old = locations.put(ld.getCityName() + "|" + ld.getStateName(), loc);
+        if (old != null) {
+            qt.remove(old.lat, old.lon, old);
+        }
+        qt.put(loc.lat, loc.lon, loc);
+    }
+
+    /**
+     * Get the icon for a graphic name from the shared icon cache, reading it
+     * from the database if it isn't there.
+     * 
+     * @return ImageIcon, or null if the graphic isn't in the database.
+     */
+    protected ImageIcon getIcon(String graphicName, RawDataRecordSet gifdataRS) {
+        if (graphicName == null) {
+            return null;
+        }
+
+        String key = gifdataRS.getTableName() + ":" + graphicName.toLowerCase();
+        synchronized (iconCache) {
+            if (iconCache.containsKey(key)) {
+                return iconCache.get(key);
+            }
+        }
+
+        ImageIcon icon = null;
+        try {
+            icon = ByteRasterLocation.getIconRaster(gifdataRS.readRawData(graphicName));
+        } catch (SQLException sqlE) {
+            logger.fine("DBLocationHandler: can't read icon " + graphicName + ": " + sqlE.getMessage());
+        }
+
+        synchronized (iconCache) {
+            iconCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * Set the number of icons kept in the icon cache shared by all
+     * DBLocationHandlers.
+     */
+    public static void setIconCacheSize(int size) {
+        synchronized (iconCache) {
+            iconCacheSize = Math.max(0, size);
+            while (iconCache.size() > iconCacheSize) {
+                iconCache.remove(iconCache.keySet().iterator().next());
+            }
+        }
+    }
+
+    public static int getIconCacheSize() {
+        synchronized (iconCache) {
+            return iconCacheSize;
+        }
+    }
+
+    /**
+     * Get the pool of connections to the database.
+     */
+    protected ConnectionPool getConnectionPool() {
+        return ConnectionPool.getPool(getJdbcDriver(), getJdbcString(), getUserName(), getUserPassword());
+    }
+
+    /**
+     * @return true if the layer has cancelled the work the handler is doing.
+     */
+    protected boolean isCancelled() {
+        return getLayer() != null && getLayer().isCancelled();
+    }
+
+    protected void close(PreparedStatement stmt) {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException sqlE) {
+                logger.fine("DBLocationHandler: problem closing statement: " + sqlE.getMessage());
+            }
+        }
     }
 
     public String getJdbcString() {
@@ -361,22 +761,30 @@ public class DBLocationHandler
             graphicList.setTraverseMode(OMGraphicList.FIRST_ADDED_ON_TOP);
         }
 
-        // IF the quadtree has not been set up yet, do it!
-        if (quadtree == null) {
-            logger.fine("DBLocationHandler: Figuring out the locations and names! (This is a one-time operation!)");
-            quadtree = createData();
-        }
+        synchronized (this) {
+            if (locationBBoxQueryString != null) {
+                loadArea(nwLat, nwLon, seLat, seLon);
+            } else if (quadtree == null) {
+                // IF the quadtree has not been set up yet, do it!
+                logger.fine("DBLocationHandler: Figuring out the locations and names! (This is a one-time operation!)");
+                quadtree = createData();
+            }
 
-        if (quadtree != null) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("DBLocationHandler|DBLocationHandler.get() ul.lon = " + nwLon + " lr.lon = " + seLon + " delta = "
-                        + (seLon - nwLon));
+            if (updateInterval > 0 && System.currentTimeMillis() - lastUpdateCheck > updateInterval) {
+                updateData();
             }
 
-            Vector vec = new Vector<OMGraphic>();
-            quadtree.get(nwLat, nwLon, seLat, seLon, vec);
+            if (quadtree != null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("DBLocationHandler|DBLocationHandler.get() ul.lon = " + nwLon + " lr.lon = " + seLon
+                            + " delta = " + (seLon - nwLon));
+                }
 
-            graphicList.addAll(vec);
+                Vector vec = new Vector<OMGraphic>();
+                quadtree.get(nwLat, nwLon, seLat, seLon, vec);
+
+                graphicList.addAll(vec);
+            }
         }
 
         return graphicList;
@@ -455,7 +863,7 @@ public class DBLocationHandler
             getLayer().repaint();
         } else if (cmd == readDataCommand) {
             logger.fine("DBLocationHandler: Re-reading Locations file");
-            quadtree = null;
+            clearData();
             getLayer().doPrepare();
         } else {
             logger.warning("DBLocationHandler: Unknown action command \"" + cmd + "\" in actionPerformed().");
@@ -48,9 +48,15 @@ public class LocationData {
 
     public LocationData(RecordSet drs)
             throws SQLException {
+        this(drs.getResultSet());
+    }
 
-        ResultSet rset = drs.getResultSet();
-
+    /**
+     * Read the location from the current row of a ResultSet, for queries that
+     * aren't run through a RecordSet.
+     */
+    public LocationData(ResultSet rset)
+            throws SQLException {
         cityName = rset.getString(1);
         stateName = rset.getString(2);
         graphicName = rset.getString(3);
@@ -22,6 +22,7 @@
 
 package com.bbn.openmap.layer.location.db;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
@@ -97,6 +98,20 @@ public class RawDataRecordSet {
             return foundit;
         }
 
+        byte[] image = readRawData(lookUpKey);
+        if (image != null) {
+            byteCache.put(lookUpKey.toLowerCase().intern(), image);
+        }
+        return image;
+    }
+
+    /**
+     * Returns a byte[] array read from the database if successful, null
+     * otherwise. The bytes are not kept in the cache, for callers that keep
+     * their own.
+     */
+    public byte[] readRawData(String lookUpKey) throws SQLException {
+
         String query = "Select " + rawDataColumnName + " from " + tableName
                 + " where " + rawDataKeyColumnName + " = '"
                 + lookUpKey.toLowerCase() + "' ";
@@ -110,24 +125,23 @@ public class RawDataRecordSet {
             InputStream dbis = rset.getBinaryStream(1);
             int chunksize = 4096;
             byte barr[] = new byte[chunksize];
-            int imagelength = 0;
+            ByteArrayOutputStream image = new ByteArrayOutputStream(chunksize);
 
             try {
-                imagelength = dbis.read(barr);
+                int read;
+                while (dbis != null && (read = dbis.read(barr)) > 0) {
+                    image.write(barr, 0, read);
+                }
             } catch (IOException ioE) {
                 System.err.println("ERROR - while reading raw data\n"
                         + ioE.getMessage());
             }
-            //          System.out.println("image length = " + imagelength);
-            byte image[] = new byte[imagelength];
-            System.arraycopy(barr, 0, image, 0, imagelength);
 
             // close the resultSet
             rset.close();
             // Close the statement
             stmt.close();
-            byteCache.put(lookUpKey.toLowerCase().intern(), image);
-            return image;
+            return image.toByteArray();
 
         } catch (SQLException sqlE) {
             //          throw new SQLException(sqlE.getMessage() + "\n"+
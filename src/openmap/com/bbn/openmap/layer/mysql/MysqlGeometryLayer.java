@@ -24,7 +24,7 @@ package com.bbn.openmap.layer.mysql;
 /* Java Core */
 import java.awt.geom.Point2D;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -40,8 +40,10 @@ import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMPoly;
 import com.bbn.openmap.omGraphics.OMRaster;
 import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.util.ConnectionPool;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * This layer is for the reading and display of any spatial data retrieved from
@@ -61,6 +63,13 @@ import com.bbn.openmap.util.PropUtils;
  * values of double precision in arrays as a sequence of Latitude/Longitude
  * pairs. This differs from the database where values are stored as X/Y or
  * Easting/Northing pairs.
+ * <p>
+ * The layer gets its connections from a ConnectionPool shared by the layers
+ * using the same database, and runs one prepared query for the bounding box
+ * of each projection. The geometries are fetched as WKB and decoded straight
+ * into coordinate arrays by the MysqlWKBGeometryFactory. Rows are streamed
+ * from the server and turned into OMGraphics as they arrive, and a query
+ * still running when the map changes again is cancelled.
  * 
  * <p>
  * Properties to be set:
@@ -79,6 +88,9 @@ import com.bbn.openmap.util.PropUtils;
  *   mygeo.lineColor=&lt;Color for lines&gt; Default is red
  *   mygeo.lineWidth=&lt;Pixel width of lines&gt; Default is 0
  *   mygeo.fillColor=&lt;Color of fill&gt; Default is red
+ *   # Stream rows from the server instead of reading them all first.
+ *   # MySQL driver only, set to false for other JDBC drivers.
+ *   mygeo.streamResults=true
  * 
  * </pre>
  * 
@@ -136,8 +148,23 @@ public class MysqlGeometryLayer extends OMGraphicHandlerLayer {
      */
     public static final String pointSymbolProperty = "pointSymbol";
 
+    /**
+     * Property to have the MySQL driver stream rows as they arrive, instead of
+     * reading the whole result first: <b>streamResults </b>. True by default.
+     * Streaming is asked for with setFetchSize(Integer.MIN_VALUE), which only
+     * the MySQL Connector/J driver understands. Other drivers reject that
+     * fetch size, set this to false when using one.
+     */
+    public static final String streamResultsProperty = "streamResults";
+
+    /** Whether the rows are streamed from the server. */
+    protected boolean streamResults = true;
+
     protected DrawingAttributes drawingAttributes = DrawingAttributes.getDefaultClone();
 
+    /** The query running for the current projection, so it can be cancelled. */
+    protected volatile Statement currentQuery;
+
     /**
      * The properties and prefix are managed and decoded here.
      * 
@@ -154,6 +181,7 @@ public class MysqlGeometryLayer extends OMGraphicHandlerLayer {
         geomTable = properties.getProperty(prefix + geomTableProperty);
         geomColumn = properties.getProperty(prefix + geomColumnProperty);
         pointSymbol = properties.getProperty(prefix + pointSymbolProperty);
+        streamResults = PropUtils.booleanFromProperties(properties, prefix + streamResultsProperty, streamResults);
 
         if (Debug.debugging("mysql")) {
             Debug.output("MysqlGeometryLayer (" + getName() + ") properties:");
@@ -177,56 +205,115 @@ public class MysqlGeometryLayer extends OMGraphicHandlerLayer {
 
         OMGraphicList graphics = new OMGraphicList();
 
-        try {
-
-            Class.forName(dbClass).newInstance();
-            Connection conn = DriverManager.getConnection(dbUrl);
+        ConnectionPool pool = ConnectionPool.getPool(dbClass, dbUrl);
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
 
-            Statement stmt = conn.createStatement();
+        try {
 
-            Point2D ul = getProjection().getUpperLeft();
-            Point2D lr = getProjection().getLowerRight();
+            conn = pool.getConnection();
 
-            String q = "SELECT ID, AsText(" + geomColumn + ") FROM " + geomTable
-                    + " WHERE MBRIntersects(GEO, GeomFromText('Polygon(( " + ul.getX() + " "
-                    + ul.getY() + ", " + ul.getX() + " " + lr.getY() + ", " + lr.getX() + " "
-                    + lr.getY() + ", " + lr.getX() + " " + ul.getY() + ", " + ul.getX() + " "
-                    + ul.getY() + "))'))";
+            String q = getQuery();
 
             if (Debug.debugging("mysql")) {
                 Debug.output("MysqlGeometryLayer query: " + q);
             }
 
-            ResultSet rs = stmt.executeQuery(q);
+            stmt = conn.prepareStatement(q, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (streamResults) {
+                // Tells the MySQL driver to hand over rows as they arrive.
+                stmt.setFetchSize(Integer.MIN_VALUE);
+            }
 
-            graphics.clear();
+            Point2D ul = proj.getUpperLeft();
+            Point2D lr = proj.getLowerRight();
+            stmt.setString(1, "Polygon((" + ul.getX() + " " + ul.getY() + ", " + ul.getX() + " "
+                    + lr.getY() + ", " + lr.getX() + " " + lr.getY() + ", " + lr.getX() + " "
+                    + ul.getY() + ", " + ul.getX() + " " + ul.getY() + "))");
 
-            while (rs.next()) {
+            currentQuery = stmt;
+            if (isCancelled()) {
+                return null;
+            }
+            rs = stmt.executeQuery();
 
-                String result = rs.getString(2);
+            while (rs.next()) {
 
-                if (Debug.debugging("mysql")) {
-                    Debug.output("MysqlGeometryLayer result: " + result);
+                if (isCancelled()) {
+                    // The map has moved on, don't bother reading the rest.
+                    stmt.cancel();
+                    return null;
                 }
 
-                MysqlGeometry mg = MysqlWKTGeometryFactory.createGeometry(result);
+                MysqlGeometry mg = MysqlWKBGeometryFactory.createGeometry(rs.getBytes(1));
                 OMGraphic omg = createGraphic(mg);
-                omg.generate(proj);
-                graphics.add(omg);
+                if (omg != null) {
+                    omg.generate(proj);
+                    graphics.add(omg);
+                }
             }
 
-            rs.close();
-            conn.close();
-            
         } catch (SQLException sqlE) {
+            if (isCancelled()) {
+                Debug.message("mysql", "MysqlGeometryLayer query cancelled");
+                return null;
+            }
             sqlE.printStackTrace();
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            currentQuery = null;
+            close(rs, stmt);
+            pool.release(conn);
         }
 
         return graphics;
     }
 
+    /**
+     * The query for the geometries in the bounding box of the projection,
+     * which is given as the WKT polygon parameter.
+     */
+    protected String getQuery() {
+        return "SELECT AsBinary(" + geomColumn + ") FROM " + geomTable + " WHERE MBRIntersects("
+                + geomColumn + ", GeomFromText(?))";
+    }
+
+    /**
+     * Cancels the query running for the last projection, which will be
+     * replaced, before starting on the new one. The cancel has to go to the
+     * server, so it's done on a separate thread.
+     */
+    public void doPrepare() {
+        final Statement query = currentQuery;
+        if (query != null) {
+            TaskService.singleton().spawn(new Runnable() {
+                public void run() {
+                    try {
+                        query.cancel();
+                    } catch (SQLException e) {
+                        Debug.message("mysql", "MysqlGeometryLayer: problem cancelling query: " + e.getMessage());
+                    }
+                }
+            });
+        }
+        super.doPrepare();
+    }
+
+    protected void close(ResultSet rs, Statement stmt) {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            Debug.message("mysql", "MysqlGeometryLayer: problem closing query: " + e.getMessage());
+        }
+    }
+
     /**
      * Method createPoint. Renders a Point.
      * 
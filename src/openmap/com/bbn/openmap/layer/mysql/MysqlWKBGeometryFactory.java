@@ -0,0 +1,146 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.mysql;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Vector;
+
+import com.bbn.openmap.util.Debug;
+
+/**
+ * Creates the Geometry objects from their WKB (well known binary)
+ * representation, as returned by the MySQL AsBinary() function. The
+ * coordinates are read straight into the double arrays of the geometries, as
+ * Latitude/Longitude pairs, without going through text like the
+ * MysqlWKTGeometryFactory does.
+ * <p>
+ * Each geometry in the WKB carries its own byte order. Coordinates with Z
+ * and/or M values (ISO type codes 1001-3007) are read, and the extra values
+ * are dropped.
+ */
+public class MysqlWKBGeometryFactory {
+
+    public final static int WKB_POINT = 1;
+    public final static int WKB_LINESTRING = 2;
+    public final static int WKB_POLYGON = 3;
+    public final static int WKB_MULTIPOINT = 4;
+    public final static int WKB_MULTILINESTRING = 5;
+    public final static int WKB_MULTIPOLYGON = 6;
+    public final static int WKB_GEOMETRYCOLLECTION = 7;
+
+    /**
+     * Create a geometry from WKB bytes.
+     *
+     * @param wkb the WKB bytes.
+     * @return MysqlGeometry, or null if the WKB is null or holds a type that
+     *         isn't handled.
+     */
+    public static MysqlGeometry createGeometry(byte[] wkb) {
+        if (wkb == null) {
+            return null;
+        }
+        return createGeometry(ByteBuffer.wrap(wkb));
+    }
+
+    /**
+     * Create a geometry from the WKB at the current position of a buffer,
+     * leaving the position after the geometry.
+     *
+     * @param buf the buffer.
+     * @return MysqlGeometry, or null if the geometry type isn't handled.
+     */
+    public static MysqlGeometry createGeometry(ByteBuffer buf) {
+        buf.order(buf.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        int type = buf.getInt();
+        // ISO WKB adds 1000 for Z, 2000 for M and 3000 for ZM
+        int dimensions = 2 + (type / 1000 == 3 ? 2 : (type / 1000 > 0 ? 1 : 0));
+        type %= 1000;
+
+        switch (type) {
+        case WKB_POINT: {
+            MysqlPoint g = new MysqlPoint();
+            double x = buf.getDouble();
+            double y = buf.getDouble();
+            skip(buf, dimensions - 2);
+            g.setNorthings(y);
+            g.setEastings(x);
+            return g;
+        }
+        case WKB_LINESTRING: {
+            MysqlLine g = new MysqlLine();
+            g.setCoordinateArray(readCoordinates(buf, dimensions));
+            return g;
+        }
+        case WKB_POLYGON: {
+            MysqlPolygon g = new MysqlPolygon();
+            int numRings = buf.getInt();
+            Vector<double[]> rings = new Vector<double[]>(numRings);
+            for (int i = 0; i < numRings; i++) {
+                rings.add(readCoordinates(buf, dimensions));
+            }
+            g.setRings(rings);
+            return g;
+        }
+        case WKB_MULTIPOINT:
+            return readElements(buf, new MysqlMultiPoint());
+        case WKB_MULTILINESTRING:
+            return readElements(buf, new MysqlMultiLineString());
+        case WKB_MULTIPOLYGON:
+            return readElements(buf, new MysqlMultiPolygon());
+        case WKB_GEOMETRYCOLLECTION:
+            return readElements(buf, new MysqlCollection());
+        default:
+            Debug.output("MysqlWKBGeometryFactory: Type " + type + " not implemented");
+            return null;
+        }
+    }
+
+    /**
+     * Read the geometries of a multi geometry or collection, each of which
+     * starts with its own byte order.
+     */
+    protected static MysqlGeometry readElements(ByteBuffer buf, MysqlMulti multi) {
+        int numElements = buf.getInt();
+        for (int i = 0; i < numElements; i++) {
+            MysqlGeometry element = createGeometry(buf);
+            if (element != null) {
+                multi.addElement(element);
+            }
+        }
+        return multi;
+    }
+
+    /**
+     * Read a count of points into an array of lat/lon pairs. WKB points are
+     * x/y, so the pairs are swapped.
+     */
+    protected static double[] readCoordinates(ByteBuffer buf, int dimensions) {
+        int numPoints = buf.getInt();
+        double[] coords = new double[numPoints * 2];
+        for (int i = 0; i < coords.length; i += 2) {
+            coords[i + 1] = buf.getDouble();
+            coords[i] = buf.getDouble();
+            skip(buf, dimensions - 2);
+        }
+        return coords;
+    }
+
+    protected static void skip(ByteBuffer buf, int doubles) {
+        if (doubles > 0) {
+            buf.position(buf.position() + doubles * 8);
+        }
+    }
+}
@@ -40,6 +40,7 @@ package com.bbn.openmap.layer.rpf;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 import java.util.List;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -62,6 +63,14 @@ public class RpfCacheHandler {
     /* # CHUM descriptor string */
     public final static int MAX_DESC_LEN = 512;
     public static final int DEFAULT_SUBFRAMEBUFFER = 5;
+    /** The memory used by a subframe held as ARGB pixels. */
+    public final static int DIRECT_SUBFRAME_BYTES = RpfSubframe.PIXEL_EDGE_SIZE
+            * RpfSubframe.PIXEL_EDGE_SIZE * 4;
+    /** The memory used by a subframe held as 8-bit indexed pixels. */
+    public final static int INDEXED_SUBFRAME_BYTES = RpfSubframe.PIXEL_EDGE_SIZE
+            * RpfSubframe.PIXEL_EDGE_SIZE;
+    /** The most subframes that can be held in a cache. */
+    public final static int MAX_CACHE_ENTRIES = Short.MAX_VALUE;
 
     /* DKS fix chum description problem : */
     /** subframe status constant. */
@@ -82,7 +91,7 @@ public class RpfCacheHandler {
     /**
      * The array of indexes for subframes contained in the RpfTocEntry.
      */
-    protected byte[][] subframeIndex;
+    protected short[][] subframeIndex;
     /**
      * The array of version markers for subframes contained in the RpfTocEntry.
      */
@@ -90,6 +99,11 @@ public class RpfCacheHandler {
 
     /** The size of the subframe cache. */
     protected int subframeCacheSize = SUBFRAME_CACHE_SIZE;
+    /**
+     * The memory limit for the image data in the subframe cache, in bytes.
+     * Least recently used subframes are dropped when this is exceeded.
+     */
+    protected long subframeCacheBytes = (long) SUBFRAME_CACHE_SIZE * DIRECT_SUBFRAME_BYTES;
     /**
      * Description of how the frames should be constructed and displayed.
      */
@@ -127,10 +141,15 @@ public class RpfCacheHandler {
     /** The entire subframe cache */
     static public class SubframeCache {
         RpfSubframe[] subframe;
+        /** The image bytes held by each subframe. */
+        int[] bytes;
+        /** The image bytes held by all the subframes. */
+        long totalBytes;
         int LRU_head, LRU_tail;
 
         public SubframeCache(int numSubframes) {
             subframe = new RpfSubframe[numSubframes];
+            bytes = new int[numSubframes];
         }
     }
 
@@ -142,7 +161,10 @@ public class RpfCacheHandler {
     }
 
     /**
-     * Constructor for an auxiliary cache, with a settable cache size.
+     * Constructor for an auxiliary cache, with a settable cache size. The
+     * subframes are held as indexed pixels, so the cache gets the memory that
+     * subframe_cache_size subframes of ARGB pixels would use, and holds about
+     * four times as many subframes.
      */
     public RpfCacheHandler(RpfFrameProvider provider, RpfViewAttributes rva, int subframe_cache_size) {
         DEBUG_RPF = Debug.debugging("rpf");
@@ -152,20 +174,46 @@ public class RpfCacheHandler {
         viewAttributes = rva;
         updateViewAttributes();
 
-        if (subframe_cache_size > Byte.MAX_VALUE) {
-            subframeCacheSize = Byte.MAX_VALUE;
-        } else if (subframe_cache_size >= 0) {
-            subframeCacheSize = subframe_cache_size;
+        if (subframe_cache_size >= 0) {
+            setCacheBytes((long) subframe_cache_size * DIRECT_SUBFRAME_BYTES);
+        } else {
+            setCacheBytes(subframeCacheBytes);
         }
 
-        initCache(true); // subframe cache, and it's new
-
         if (DEBUG_RPF) {
-            Debug.output("RpfCacheHandler: Created with cache size of " + subframeCacheSize);
+            Debug.output("RpfCacheHandler: Created with cache size of " + subframeCacheSize
+                    + " (" + subframeCacheBytes + " bytes)");
         }
 
     }
 
+    /**
+     * Set the memory limit for the image data in the subframe cache. The cache
+     * is cleared, and gets enough entries to hold that many bytes of indexed
+     * subframes.
+     * 
+     * @param numBytes the number of bytes of image data to keep.
+     */
+    public synchronized void setCacheBytes(long numBytes) {
+        subframeCacheBytes = Math.max(0, numBytes);
+        subframeCacheSize = (int) Math.min(MAX_CACHE_ENTRIES, subframeCacheBytes
+                / INDEXED_SUBFRAME_BYTES);
+        if (subframeIndex != null) {
+            // The indexes may refer to entries that aren't there anymore.
+            for (int i = 0; i < subframeIndex.length; i++) {
+                Arrays.fill(subframeIndex[i], (short) NOT_CACHED);
+            }
+        }
+        initCache(true);
+    }
+
+    /**
+     * Get the memory limit for the image data in the subframe cache.
+     */
+    public long getCacheBytes() {
+        return subframeCacheBytes;
+    }
+
     // public void finalize() {
     // Debug.message("gc", "RpfCacheHandler: getting GC'd");
     // }
@@ -378,7 +426,7 @@ public class RpfCacheHandler {
             int matrixheight = (vertFrames * 6) + (subframeBuffer * 2);
             int matrixwidth = (horizFrames * 6) + (subframeBuffer * 2);
 
-            subframeIndex = new byte[matrixheight][matrixwidth];
+            subframeIndex = new short[matrixheight][matrixwidth];
             subframeVersion = new byte[matrixheight][matrixwidth];
             clearCache();
         } else {
@@ -428,6 +476,7 @@ public class RpfCacheHandler {
 
         if (newCache || cache == null) {
             cache = new SubframeCache(subframeCacheSize);
+            newCache = true;
         }
 
         cache.LRU_head = 0;
@@ -454,6 +503,9 @@ public class RpfCacheHandler {
 
             RpfSubframe subframe = cache.subframe[i];
             subframe.version = 0;
+            // Nothing refers to the old images anymore.
+            subframe.clear();
+            cache.bytes[i] = 0;
 
             // Here's where I messed up - forgot to hook up the ends
             // of the chain...
@@ -468,6 +520,37 @@ public class RpfCacheHandler {
                 subframe.prevSubframe = subframeCacheSize - 1;
             }
         }
+        cache.totalBytes = 0;
+    }
+
+    /**
+     * Update the memory count for a cache entry that has been loaded or
+     * emptied, and drop the least recently used subframes, other than that
+     * one, until the cache is back within its memory limit.
+     * 
+     * @param index the cache entry that changed.
+     */
+    protected void updateCacheBytes(int index) {
+        if (cache == null || index < 0 || index >= subframeCacheSize) {
+            return;
+        }
+
+        int numBytes = cache.subframe[index].getByteSize();
+        cache.totalBytes += numBytes - cache.bytes[index];
+        cache.bytes[index] = numBytes;
+
+        int i = cache.LRU_tail;
+        for (int count = 0; cache.totalBytes > subframeCacheBytes && count < subframeCacheSize; count++) {
+            if (i != index && cache.bytes[i] > 0) {
+                RpfSubframe subframe = cache.subframe[i];
+                subframe.clear();
+                // Make sure the subframe matrix doesn't find it.
+                subframe.version++;
+                cache.totalBytes -= cache.bytes[i];
+                cache.bytes[i] = 0;
+            }
+            i = cache.subframe[i].prevSubframe;
+        }
     }
 
     /**
@@ -643,7 +726,7 @@ public class RpfCacheHandler {
                         // if (subframe.version < Byte.MAX_VALUE) {
                         // subframe.version++;
                         // }
-                        subframeIndex[y][x] = (byte) index;
+                        subframeIndex[y][x] = (short) index;
                         subframeVersion[y][x] = subframe.version;
                         ret = cache.subframe[index];
                     }
@@ -658,8 +741,13 @@ public class RpfCacheHandler {
                     }
                 }
                 if (loadSubframe(ret, currentBox, newX, newY)) {
+                    if (cacheIt) {
+                        updateCacheBytes(index);
+                    }
                     return ret;
                 } else if (cacheIt) {
+                    ret.clear();
+                    updateCacheBytes(index);
                     freeCache(index);
                     subframeIndex[y][x] = NOT_PRESENT;
                 }
@@ -736,8 +824,9 @@ public class RpfCacheHandler {
         if (index == NOT_PRESENT) {
             return null;
 
-        } else if (index != NOT_CACHED && cache != null
+        } else if (index != NOT_CACHED && cache != null && index < subframeCacheSize
                 && cache.subframe[index].version == subframeVersion[y][x]
+                && cache.bytes[index] > 0
                 && subframeCount < subframeCacheSize) {
             /* We found it and it's ours; return the cached image */
             referenceCache(index);
@@ -787,14 +876,23 @@ public class RpfCacheHandler {
                 // even
                 // if it's negative?
                 cache.subframe[index].version++;
-                subframeIndex[y][x] = (byte) index;
+                subframeIndex[y][x] = (short) index;
                 subframeVersion[y][x] = cache.subframe[index].version;
                 ret = cache.subframe[index];
             }
 
+            boolean cached = cache != null && index >= 0 && index < subframeCacheSize
+                    && ret == cache.subframe[index];
             if (loadSubframe(ret, currentBox, cbx, cby)) {
+                if (cached) {
+                    updateCacheBytes(index);
+                }
                 return ret;
             } else {
+                if (cached) {
+                    ret.clear();
+                    updateCacheBytes(index);
+                }
                 freeCache(index);
                 if (subframeIndex != null) {
                     subframeIndex[y][x] = NOT_PRESENT;
@@ -815,7 +913,6 @@ public class RpfCacheHandler {
      */
     protected boolean loadSubframe(RpfSubframe subframe, RpfCoverageBox coverageBox, int x, int y) {
         boolean good = false;
-        int[] pixels = null;
 
         if (frameProvider == null) {
             Debug.message("rpf", "RpfCacheHandler.loadSubframes(): null frameProvider");
@@ -826,18 +923,15 @@ public class RpfCacheHandler {
 
         subframe.opaqueness = viewAttributes.opaqueness;
 
-        if (viewAttributes.colorModel == OMRasterObject.COLORMODEL_DIRECT) {
-            pixels = frameProvider.getSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y);
-            if (pixels != null) {
-                subframe.setPixels(pixels);
-                good = true;
-            }
-        } else if (viewAttributes.colorModel == OMRasterObject.COLORMODEL_INDEXED) {
+        if (viewAttributes.colorModel == OMRasterObject.COLORMODEL_DIRECT
+                || viewAttributes.colorModel == OMRasterObject.COLORMODEL_INDEXED) {
+            // Both color models are held as indexed pixels, which take a
+            // quarter of the memory of ARGB pixels. The colors are applied
+            // when the image is drawn.
             RpfIndexedImageData riid = frameProvider.getRawSubframeData(coverageBox.tocNumber, coverageBox.entryNumber, x, y);
 
             if (riid != null && riid.imageData != null && riid.colortable != null) {
-                subframe.setBitsAndColors(riid.imageData, riid.colortable);
-                subframe.setTransparent(viewAttributes.opaqueness);
+                subframe.setIndexedPixels(riid.imageData, riid.colortable);
                 good = true;
             }
 
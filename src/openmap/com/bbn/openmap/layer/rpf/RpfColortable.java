@@ -32,9 +32,14 @@
 package com.bbn.openmap.layer.rpf;
 
 import java.awt.Color;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
@@ -85,6 +90,19 @@ public class RpfColortable {
      */
     protected int entryNumber = -1;
 
+    /**
+     * The number of IndexColorModels kept around for the colortables in use,
+     * so subframes with the same colors share a model.
+     */
+    protected final static int COLOR_MODEL_CACHE_SIZE = 32;
+    private final static Map<ColorKey, IndexColorModel> colorModels = new LinkedHashMap<ColorKey, IndexColorModel>(COLOR_MODEL_CACHE_SIZE, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<ColorKey, IndexColorModel> eldest) {
+            return size() > COLOR_MODEL_CACHE_SIZE;
+        }
+    };
+
     public RpfColortable() {
         this(CADRG_COLORS, DEFAULT_OPAQUENESS, false);
     }
@@ -132,6 +150,62 @@ public class RpfColortable {
         }
     }
 
+    /**
+     * Get an IndexColorModel for 8-bit subframe pixels that index into the
+     * colors. The alpha of each color is the lesser of its own alpha and the
+     * opaqueness, and pixel values past the end of the colors are clear. The
+     * models are shared, so subframes using the same colors and opaqueness
+     * get the same object.
+     * 
+     * @param colors the colortable colors, usually the colors field.
+     * @param opaqueness 0-255, 0 is transparent, 255 is opaque.
+     * @return IndexColorModel, null if the colors are null.
+     */
+    public static IndexColorModel getIndexColorModel(Color[] colors, int opaqueness) {
+        if (colors == null) {
+            return null;
+        }
+
+        int[] argb = new int[256];
+        int numColors = Math.min(colors.length, argb.length);
+        for (int i = 0; i < numColors; i++) {
+            int rgb = colors[i].getRGB();
+            int alpha = Math.min(rgb >>> 24, opaqueness & 0xff);
+            argb[i] = (alpha << 24) | (rgb & 0x00ffffff);
+        }
+
+        ColorKey key = new ColorKey(argb);
+        synchronized (colorModels) {
+            IndexColorModel icm = colorModels.get(key);
+            if (icm == null) {
+                icm = new IndexColorModel(8, argb.length, argb, 0, true, -1, DataBuffer.TYPE_BYTE);
+                colorModels.put(key, icm);
+            }
+            return icm;
+        }
+    }
+
+    /**
+     * The ARGB values of a color model, as a map key.
+     */
+    private static class ColorKey {
+        final int[] argb;
+        final int hash;
+
+        ColorKey(int[] argb) {
+            this.argb = argb;
+            this.hash = Arrays.hashCode(argb);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof ColorKey && Arrays.equals(argb, ((ColorKey) obj).argb);
+        }
+    }
+
     public int getOpaqueness() {
         return opaqueness;
     }
@@ -79,6 +79,16 @@ public class RpfFrame {
    /* DKS NEW for masked subfr info: WAS EXTERNAL. */
    boolean[][] masked = new boolean[6][6];
 
+   /**
+    * Scratch space for decompressing subframes into direct color pixels, one
+    * per thread, so the indexes don't need to be allocated for every subframe.
+    */
+   private final static ThreadLocal<byte[]> subframeIndexes = new ThreadLocal<byte[]>() {
+      protected byte[] initialValue() {
+         return new byte[256 * 256];
+      }
+   };
+
    /** Want to bother with Dchum? */
    boolean Dchum = false;
    int chumVersion; /* Chum version: 2,3,etc. */
@@ -830,7 +840,7 @@ public class RpfFrame {
             Debug.output("RpfFrame: decompress to byte[]");
          }
          byte[] pixels = decompressSubframe(x, y);
-         subframe.setBitsAndColors(pixels, colortable.colors);
+         subframe.setIndexedPixels(pixels, colortable.colors);
       } else {
          int[] pixels = decompressSubframe(x, y, colortable);
          subframe.setPixels(pixels);
@@ -846,6 +856,20 @@ public class RpfFrame {
     * @param y the y coord for the subframe
     */
    public byte[] decompressSubframe(int x, int y) {
+      return decompressSubframe(x, y, (byte[]) null);
+   }
+
+   /**
+    * Decompress a subframe into an array of bytes suitable for in indexed color
+    * model image, reusing the provided array.
+    * 
+    * @param x the x coord for the subframe
+    * @param y the y coord for the subframe
+    * @param pixels the array to decompress into. If null or smaller than
+    *        256x256, a new array is created.
+    * @return the pixels, or null if the subframe isn't in the frame.
+    */
+   public byte[] decompressSubframe(int x, int y, byte[] pixels) {
       // Convert x,y to the subframe index in the frame - they come
       // in as
       // cache subframe indexes
@@ -868,7 +892,9 @@ public class RpfFrame {
       if ((compressedSubframe == null) || masked[y][x]) {
          return null;
       } else { // Normal pixel */
-         byte[] pixels = new byte[256 * 256];
+         if (pixels == null || pixels.length < 256 * 256) {
+            pixels = new byte[256 * 256];
+         }
          for (int i = 0; i < 256; i += 4) {
             for (int j = 0; j < 256; j += 8) {
                int firstByte = compressedSubframe[readptr++] & 0xff;
@@ -914,66 +940,28 @@ public class RpfFrame {
     *        RpfColortable from the frame will be used.
     */
    public int[] decompressSubframe(int x, int y, RpfColortable colortable) {
-      // Convert x,y to the subframe index in the frame - they come
-      // in as
-      // cache subframe indexes
-      x %= 6;
-      y %= 6;
-
-      // used to keep track of location into compressedSubframe
-      // array.
-      int readptr = 0;
-
-      // and the compressedSubframe array
-      byte[] compressedSubframe = this.compressedSubframe[y][x];
-
       if (colortable == null) {
          colortable = this.colortable;
       }
 
-      /*
-       * This should never occur since all subframes should be present
-       */
-      /*
-       * But if it does occur, just put up black pixels on the screen
-       */
-      if ((compressedSubframe == null) || masked[y][x]) {
+      byte[] indexes = decompressSubframe(x, y, subframeIndexes.get());
+      if (indexes == null) {
          return null;
-      } else { // Normal pixel */
-         int[] pixels = new int[256 * 256];
-         for (int i = 0; i < 256; i += 4) {
-            for (int j = 0; j < 256; j += 8) {
-               int firstByte = compressedSubframe[readptr++] & 0xff;
-               int secondByte = compressedSubframe[readptr++] & 0xff;
-               int thirdByte = compressedSubframe[readptr++] & 0xff;
+      }
 
-               // because dealing with half-bytes is hard, we
-               // uncompress two 4x4 tiles at the same time. (a
-               // 4x4 tile compressed is 12 bits )
+      // Look up the ARGB value for each color once, instead of for every
+      // pixel.
+      Color[] colors = colortable.colors;
+      int[] argb = new int[colors.length];
+      for (int i = 0; i < argb.length; i++) {
+         argb[i] = colors[i].getRGB();
+      }
 
-               /* Get first 12-bit value as index into VQ table */
-               int val1 = (firstByte << 4) | (secondByte >> 4);
-               /* Get second 12-bit value as index into VQ table */
-               int val2 = ((secondByte & 0x000F) << 8) | thirdByte;
-               for (int t = 0; t < 4; t++) {
-                  for (int e = 0; e < 4; e++) {
-                     int tableVal1 = table[t][val1][e] & 0xff;
-                     int tableVal2 = table[t][val2][e] & 0xff;
-                     if (tableVal1 >= RpfColortable.CADRG_COLORS) {
-                        tableVal1 = RpfColortable.CADRG_COLORS - 1;
-                     }
-                     if (tableVal2 >= RpfColortable.CADRG_COLORS) {
-                        tableVal2 = RpfColortable.CADRG_COLORS - 1;
-                     }
-                     int pixindex = (i + t) * 256 + j + e;
-                     pixels[pixindex] = colortable.colors[tableVal1].getRGB();
-                     pixels[pixindex + 4] = colortable.colors[tableVal2].getRGB();
-                  } // for e
-               } // for t
-            } /* for j */
-         } // for i
-         return pixels;
-      } /* else */
+      int[] pixels = new int[256 * 256];
+      for (int i = 0; i < pixels.length; i++) {
+         pixels[i] = argb[indexes[i] & 0xff];
+      }
+      return pixels;
    }
 
    public static void main(String[] argv) {
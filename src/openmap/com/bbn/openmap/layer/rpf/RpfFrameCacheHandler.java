@@ -31,6 +31,7 @@ package com.bbn.openmap.layer.rpf;
 
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
@@ -640,22 +641,17 @@ public class RpfFrameCacheHandler
     * kicked off in the frame. If you don't care about Dchum, use the other get
     * method. CacheHandler method.
     */
-   public Object get(RpfFrameEntry rfe) {
+   public Object get(final RpfFrameEntry rfe) {
 
-      CacheObject ret = searchCache(rfe.framePath);
-      if (ret != null)
-         return ret.obj;
-
-      ret = load(rfe);
-      if (ret == null)
-         return null;
-
-      if (Debug.debugging("rpfdetail")) {
-         System.out.println(rfe);
-      }
-
-      replaceLeastUsed(ret);
-      return ret.obj;
+      CacheObject ret = getOrLoad(rfe.framePath, new Callable<CacheObject>() {
+         public CacheObject call() {
+            if (Debug.debugging("rpfdetail")) {
+               System.out.println(rfe);
+            }
+            return load(rfe);
+         }
+      });
+      return ret != null ? ret.obj : null;
    }
 
    public CacheObject load(Object key) {
@@ -33,6 +33,11 @@
 package com.bbn.openmap.layer.rpf;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMScalingRaster;
@@ -108,6 +113,36 @@ public class RpfSubframe {
         imageCreator = new BitsAndColors(bits, colors);
     }
 
+    /**
+     * Set the image as 8-bit pixels indexing into the colors. Only the bits
+     * are kept, and they are colored with a shared IndexColorModel when the
+     * image is drawn. The current opaqueness is used for the color model, so
+     * set that first.
+     */
+    public void setIndexedPixels(byte[] bits, Color[] colors) {
+        imageCreator = new IndexedPixels(bits, colors);
+    }
+
+    /**
+     * Let go of the image data, after the subframe has been dropped from the
+     * cache.
+     */
+    public void clear() {
+        imageCreator = null;
+        data = "";
+    }
+
+    /**
+     * @return the approximate number of bytes held for the image data, for
+     *         keeping the cache within its memory limit.
+     */
+    public int getByteSize() {
+        if (imageCreator != null) {
+            return imageCreator.getByteSize();
+        }
+        return 0;
+    }
+
     public void setTransparent(int opaqueness) {
         if (this.opaqueness != opaqueness) {
             this.opaqueness = opaqueness;
@@ -147,6 +182,11 @@ public class RpfSubframe {
          */
         protected abstract void setTransparent(int opaqueness);
 
+        /**
+         * @return the approximate number of bytes held for the image.
+         */
+        protected abstract int getByteSize();
+
     }
 
     /**
@@ -163,6 +203,10 @@ public class RpfSubframe {
             this.pixels = pixels;
         }
 
+        protected int getByteSize() {
+            return pixels != null ? pixels.length * 4 : 0;
+        }
+
         protected void setTransparent(int opaqueness) {
             if (pixels != null) {
                 for (int i = 0; i < pixels.length; i++) {
@@ -229,6 +273,11 @@ public class RpfSubframe {
             this.colors = colors;
         }
 
+        protected int getByteSize() {
+            // The OMRaster builds int pixels from the bits.
+            return bits != null ? bits.length * 5 : 0;
+        }
+
         protected void setTransparent(int opaqueness) {
             // setTransparent has to be set on the resulting OMScalingRaster and
             // regenerated
@@ -273,4 +322,68 @@ public class RpfSubframe {
             return image;
         }
     }
+
+    /**
+     * Indexed pixels colored by a shared IndexColorModel. The BufferedImage
+     * uses the bits directly, so the pixels are only held as bytes, and are
+     * colored when they are drawn.
+     */
+    public class IndexedPixels
+            extends ImageCreator {
+
+        byte[] bits = null;
+        Color[] colors = null;
+        IndexColorModel colorModel = null;
+
+        protected IndexedPixels(byte[] bits, Color[] colors) {
+            this.bits = bits;
+            this.colors = colors;
+            this.colorModel = RpfColortable.getIndexColorModel(colors, opaqueness);
+        }
+
+        protected int getByteSize() {
+            return bits != null ? bits.length : 0;
+        }
+
+        protected void setTransparent(int opaqueness) {
+            colorModel = RpfColortable.getIndexColorModel(colors, opaqueness);
+            image = null;
+        }
+
+        protected BufferedImage createBufferedImage() {
+            DataBufferByte buffer = new DataBufferByte(bits, bits.length);
+            WritableRaster raster =
+                    Raster.createInterleavedRaster(buffer, PIXEL_EDGE_SIZE, PIXEL_EDGE_SIZE, PIXEL_EDGE_SIZE, 1,
+                                                   new int[] { 0 }, null);
+            return new BufferedImage(colorModel, raster, false, null);
+        }
+
+        protected OMGraphic getImage(Projection proj) {
+            if (bounds == null || bits == null || colorModel == null) {
+                return null;
+            }
+
+            OMGraphic ret;
+            if (proj instanceof EqualArc) {
+                if (image == null) {
+                    image =
+                            new OMScalingRaster(bounds.getMax().getY(), bounds.getMin().getX(), bounds.getMin().getY(),
+                                                bounds.getMax().getX(), createBufferedImage());
+                }
+                ret = image;
+            } else {
+                // The warped image holds ARGB pixels, so it isn't kept with
+                // the subframe.
+                ret = new OMWarpingImage(createBufferedImage(), new LatLonGCT(), bounds);
+            }
+
+            ret.setSelectPaint(Color.yellow);
+            ret.generate(proj);
+            if (data != null) {
+                ret.putAttribute(OMGraphic.TOOLTIP, data);
+            }
+
+            return ret;
+        }
+    }
 }
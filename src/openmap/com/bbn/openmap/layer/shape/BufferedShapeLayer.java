@@ -120,6 +120,11 @@ public class BufferedShapeLayer extends ShapeLayer {
         double lrLat = lr.getY();
         double lrLon = lr.getX();
 
+        // When generating in parallel, the graphics are collected here as
+        // they pass the rule tests and generated all at once. The label
+        // lists are left out, the labels are positioned by their graphics.
+        OMGraphicList toGenerate = isParallelGenerate() ? new OMGraphicList() : null;
+
         // check for dateline anomaly on the screen. we check for
         // ulLon >= lrLon, but we need to be careful of the check for
         // equality because of floating point arguments...
@@ -132,8 +137,8 @@ public class BufferedShapeLayer extends ShapeLayer {
                 double ymin = Math.min(ulLat, lrLat);
                 double ymax = Math.max(ulLat, lrLat);
 
-                checkSpatialIndexEntries(ulLon, ymin, 180.0d, ymax, list, proj);
-                checkSpatialIndexEntries(-180.0d, ymin, lrLon, ymax, list, proj);
+                checkSpatialIndexEntries(ulLon, ymin, 180.0d, ymax, list, proj, toGenerate);
+                checkSpatialIndexEntries(-180.0d, ymin, lrLon, ymax, list, proj, toGenerate);
 
             } else {
 
@@ -141,7 +146,7 @@ public class BufferedShapeLayer extends ShapeLayer {
                 double xmax = Math.max(ulLon, lrLon);
                 double ymin = Math.min(ulLat, lrLat);
                 double ymax = Math.max(ulLat, lrLat);
-                checkSpatialIndexEntries(xmin, ymin, xmax, ymax, list, proj);
+                checkSpatialIndexEntries(xmin, ymin, xmax, ymax, list, proj, toGenerate);
             }
         } catch (FormatException fe) {
             if (logger.isLoggable(Level.FINE)) {
@@ -153,12 +158,31 @@ public class BufferedShapeLayer extends ShapeLayer {
             }
         }
 
+        if (toGenerate != null) {
+            toGenerate.setParallelGenerate(true);
+            toGenerate.generate(proj);
+        }
+
         return list;
     }
 
     protected void checkSpatialIndexEntries(double xmin, double ymin, double xmax, double ymax,
                                             OMGraphicList retList, Projection proj)
             throws IOException, FormatException {
+        checkSpatialIndexEntries(xmin, ymin, xmax, ymax, retList, proj, null);
+    }
+
+    /**
+     * Add the buffered graphics inside the bounds to retList.
+     * 
+     * @param toGenerate if not null, the graphics are added to this list as
+     *        well instead of being generated, so the caller can generate them
+     *        together.
+     */
+    protected void checkSpatialIndexEntries(double xmin, double ymin, double xmax, double ymax,
+                                            OMGraphicList retList, Projection proj,
+                                            OMGraphicList toGenerate)
+            throws IOException, FormatException {
         // There should be the same number of objects in both iterators.
         Iterator<?> entryIt = spatialIndex.entryIterator();
         Iterator<?> omgIt = bufferedList.iterator();
@@ -182,7 +206,11 @@ public class BufferedShapeLayer extends ShapeLayer {
                 // omg can be null from the evaluate method, if the omg doesn't
                 // pass proj and rule tests.
                 if (omg != null) {
-                    omg.generate(proj);
+                    if (toGenerate != null) {
+                        toGenerate.add(omg);
+                    } else {
+                        omg.generate(proj);
+                    }
                     retList.add(omg);
                 }
             }
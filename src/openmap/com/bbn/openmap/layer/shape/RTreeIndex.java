@@ -0,0 +1,559 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.MappedInputReader;
+
+/**
+ * A packed, read-only R-tree over the records of a shape file, stored in a
+ * file next to the shape file with a <code>.rtx</code> extension. The tree is
+ * bulk loaded with the Sort-Tile-Recursive (STR) algorithm from the contents
+ * of the spatial index (.ssx) file, and is read through a MappedByteBuffer, so
+ * a query only touches the nodes that intersect the query rectangle instead of
+ * every record in the shape file.
+ * <p>
+ * The file has a 100 byte header followed by 40 byte node records, root first
+ * and leaves last. All values are little endian.
+ *
+ * <pre>
+ * Header:
+ *  0  int    magic number (0x4F4D5254)
+ *  4  int    version
+ *  8  int    shape type of the shape file
+ *  12 int    node capacity
+ *  16 int    number of leaf records (shape records)
+ *  20 int    total number of node records
+ *  24 int    number of levels in the tree
+ *  28 double xmin, ymin, xmax, ymax of all records
+ *
+ * Node record:
+ *  0  int    internal node: record index of first child
+ *            leaf: shape record offset, in 16 bit words, like the ssx
+ *  4  int    internal node: number of children
+ *            leaf: shape record content length, in 16 bit words
+ *  8  double xmin, ymin, xmax, ymax
+ * </pre>
+ *
+ * The leaf records contain the same information as the spatial index records,
+ * so a leaf can be turned into a SpatialIndex.Entry directly.
+ *
+ * <pre>
+ * <i>Creates R-tree index <code>file.rtx</code> from shape file.shp</i>
+ * java com.bbn.openmap.layer.shape.SpatialIndex -r file.shp
+ * </pre>
+ *
+ * @see SpatialIndex.FileIndex#createRTree(String)
+ */
+public class RTreeIndex {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.shape.RTreeIndex");
+
+    /** Magic number at the start of the file, "OMRT". */
+    public final static int MAGIC = 0x4F4D5254;
+
+    /** The version of the file format written by this class. */
+    public final static int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    public final static int HEADER_LENGTH = 100;
+
+    /** Size of a node record in bytes. */
+    public final static int NODE_RECORD_LENGTH = 40;
+
+    /** The default number of children for each node. */
+    public final static int DEFAULT_NODE_CAPACITY = 16;
+
+    /** Sorts entries by their location in the shape file. */
+    protected final static Comparator<SpatialIndex.Entry> OFFSET_ORDER = new Comparator<SpatialIndex.Entry>() {
+        public int compare(SpatialIndex.Entry e1, SpatialIndex.Entry e2) {
+            int o1 = e1.getByteOffset();
+            int o2 = e2.getByteOffset();
+            return o1 < o2 ? -1 : (o1 == o2 ? 0 : 1);
+        }
+    };
+
+    /** The mapped file contents, only read with absolute gets. */
+    protected ByteBuffer buffer;
+
+    protected int shapeType;
+    protected int numItems;
+    protected int numNodes;
+    protected int numLevels;
+    protected int leafStart;
+    protected ESRIBoundingBox bounds;
+
+    /**
+     * Open an existing R-tree index file.
+     *
+     * @param rtxFile the .rtx file.
+     * @throws IOException if the file can't be mapped or isn't an R-tree
+     *         index file.
+     */
+    public RTreeIndex(File rtxFile) throws IOException {
+        this(MappedInputReader.map(rtxFile));
+    }
+
+    /**
+     * Create an RTreeIndex from a buffer holding the contents of a .rtx file.
+     *
+     * @param contents the file contents.
+     * @throws IOException if the contents aren't an R-tree index file.
+     */
+    public RTreeIndex(ByteBuffer contents) throws IOException {
+        buffer = contents.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new IOException("RTreeIndex: not an R-tree index file");
+        }
+
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("RTreeIndex: unsupported version " + version);
+        }
+
+        shapeType = buffer.getInt(8);
+        numItems = buffer.getInt(16);
+        numNodes = buffer.getInt(20);
+        numLevels = buffer.getInt(24);
+        leafStart = numNodes - numItems;
+
+        if (buffer.limit() < HEADER_LENGTH + (long) numNodes * NODE_RECORD_LENGTH) {
+            throw new IOException("RTreeIndex: file truncated, expected " + numNodes + " nodes");
+        }
+
+        if (numItems > 0) {
+            bounds = new ESRIBoundingBox(buffer.getDouble(28), buffer.getDouble(36));
+            bounds.addPoint(buffer.getDouble(44), buffer.getDouble(52));
+        } else {
+            // Empty, like the bounds gathered from an empty ssx file.
+            bounds = new ESRIBoundingBox();
+        }
+    }
+
+    /**
+     * Figures out the rtx file name from the shp file name.
+     *
+     * @param shpFileName
+     * @return rtx file name from shape file name
+     */
+    public static String rtx(String shpFileName) {
+        String ret = null;
+        if (shpFileName != null) {
+            ret = shpFileName.substring(0, shpFileName.indexOf(".shp")) + ".rtx";
+        }
+        return ret;
+    }
+
+    /**
+     * Opens the R-tree index file for a shape file, if there is one that is
+     * at least as new as the shape file.
+     *
+     * @param shpFileName the path to the shape file.
+     * @return RTreeIndex, or null if there isn't a usable one.
+     */
+    public static RTreeIndex open(String shpFileName) {
+        if (shpFileName == null || shpFileName.indexOf(".shp") < 0) {
+            return null;
+        }
+
+        File shpFile = new File(shpFileName);
+        File rtxFile = new File(rtx(shpFileName));
+        if (!shpFile.exists() || !rtxFile.exists()) {
+            return null;
+        }
+
+        if (rtxFile.lastModified() < shpFile.lastModified()) {
+            logger.fine("R-tree index file is older than shape file, ignoring " + rtxFile);
+            return null;
+        }
+
+        try {
+            return new RTreeIndex(rtxFile);
+        } catch (IOException ioe) {
+            logger.warning("problem reading " + rtxFile + ": " + ioe.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @return the shape type of the indexed shape file.
+     */
+    public int getShapeType() {
+        return shapeType;
+    }
+
+    /**
+     * @return the number of shape records in the index.
+     */
+    public int getNumItems() {
+        return numItems;
+    }
+
+    /**
+     * @return the bounds of all the records in the index.
+     */
+    public ESRIBoundingBox getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Find the index entries that intersect the given rectangle.
+     *
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     * @return List of entries for intersecting shape records, in shape file
+     *         order.
+     */
+    public List<SpatialIndex.Entry> query(double xmin, double ymin, double xmax, double ymax) {
+        List<SpatialIndex.Entry> ret = new ArrayList<SpatialIndex.Entry>();
+        if (numNodes == 0) {
+            return ret;
+        }
+
+        ByteBuffer buf = buffer;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int pos = HEADER_LENGTH + node * NODE_RECORD_LENGTH;
+
+            double nxmin = buf.getDouble(pos + 8);
+            double nymin = buf.getDouble(pos + 16);
+            double nxmax = buf.getDouble(pos + 24);
+            double nymax = buf.getDouble(pos + 32);
+
+            if (!SpatialIndex.intersects(xmin, ymin, xmax, ymax, nxmin, nymin, nxmax, nymax)) {
+                continue;
+            }
+
+            if (node >= leafStart) {
+                ret.add(new SpatialIndex.Entry(nxmin, nymin, nxmax, nymax, buf.getInt(pos) * 2));
+            } else {
+                int firstChild = buf.getInt(pos);
+                int numChildren = buf.getInt(pos + 4);
+                if (top + numChildren > stack.length) {
+                    int[] tmp = new int[Math.max(stack.length * 2, top + numChildren)];
+                    System.arraycopy(stack, 0, tmp, 0, top);
+                    stack = tmp;
+                }
+                // Push in reverse so children are visited in file order.
+                for (int i = numChildren - 1; i >= 0; i--) {
+                    stack[top++] = firstChild + i;
+                }
+            }
+        }
+
+        // Keep the shape file order, so things render the same way they do
+        // from a linear scan of the spatial index.
+        Collections.sort(ret, OFFSET_ORDER);
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("query found " + ret.size() + " of " + numItems + " records");
+        }
+
+        return ret;
+    }
+
+    /**
+     * Build an R-tree index file from a spatial index file.
+     *
+     * @param ssxFileName the spatial index file to read.
+     * @param rtxFileName the R-tree file to write.
+     * @param nodeCapacity the number of children for each node.
+     * @throws IOException
+     */
+    public static void create(String ssxFileName, String rtxFileName, int nodeCapacity)
+            throws IOException {
+
+        if (nodeCapacity < 2) {
+            nodeCapacity = DEFAULT_NODE_CAPACITY;
+        }
+
+        BinaryBufferedFile ssx = new BinaryBufferedFile(ssxFileName);
+        int shapeType;
+        int n;
+        int[] a;
+        int[] b;
+        double[][] box;
+        try {
+            byte fileHeader[] = new byte[SpatialIndex.SPATIAL_INDEX_HEADER_LENGTH];
+            if (ssx.read(fileHeader, 0, fileHeader.length) < fileHeader.length) {
+                throw new IOException("RTreeIndex: " + ssxFileName + " has no header");
+            }
+            shapeType = SpatialIndex.readLEInt(fileHeader, 32);
+
+            n = (int) ((ssx.length() - SpatialIndex.SPATIAL_INDEX_HEADER_LENGTH) / SpatialIndex.SPATIAL_INDEX_RECORD_LENGTH);
+            a = new int[n];
+            b = new int[n];
+            box = new double[4][n];
+
+            byte ixRecord[] = new byte[SpatialIndex.SPATIAL_INDEX_RECORD_LENGTH];
+            ssx.seek(SpatialIndex.SPATIAL_INDEX_HEADER_LENGTH);
+            for (int i = 0; i < n; i++) {
+                if (ssx.read(ixRecord, 0, SpatialIndex.SPATIAL_INDEX_RECORD_LENGTH) < SpatialIndex.SPATIAL_INDEX_RECORD_LENGTH) {
+                    throw new IOException("RTreeIndex: " + ssxFileName + " truncated at record " + i);
+                }
+                a[i] = SpatialIndex.readBEInt(ixRecord, 0);
+                b[i] = SpatialIndex.readBEInt(ixRecord, 4);
+                box[0][i] = SpatialIndex.readLEDouble(ixRecord, 8);
+                box[1][i] = SpatialIndex.readLEDouble(ixRecord, 16);
+                box[2][i] = SpatialIndex.readLEDouble(ixRecord, 24);
+                box[3][i] = SpatialIndex.readLEDouble(ixRecord, 32);
+            }
+        } finally {
+            ssx.close();
+        }
+
+        // Build the levels from the leaves up. Each level is kept in its
+        // final order, internal nodes refer to children by level-relative
+        // index until the level offsets are known.
+        // An empty shape file gets a tree without any nodes.
+        List<TreeLevel> levels = new ArrayList<TreeLevel>();
+        if (n > 0) {
+            TreeLevel level = new TreeLevel(a, b, box).reorder(strOrder(box, n, nodeCapacity));
+            levels.add(level);
+            while (level.size() > 1) {
+                level = level.parents(nodeCapacity);
+                level = level.reorder(strOrder(level.box, level.size(), nodeCapacity));
+                levels.add(level);
+            }
+        }
+
+        int numNodes = 0;
+        int[] levelStart = new int[levels.size()];
+        for (int l = levels.size() - 1; l >= 0; l--) {
+            levelStart[l] = numNodes;
+            numNodes += levels.get(l).size();
+        }
+
+        ESRIBoundingBox allBounds = new ESRIBoundingBox();
+        for (int i = 0; i < n; i++) {
+            allBounds.addPoint(box[0][i], box[1][i]);
+            allBounds.addPoint(box[2][i], box[3][i]);
+        }
+
+        File rtxFile = new File(rtxFileName);
+        File tmpFile = new File(rtxFileName + ".tmp");
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile));
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(shapeType).putInt(nodeCapacity);
+            header.putInt(n).putInt(numNodes).putInt(levels.size());
+            if (n > 0) {
+                header.putDouble(allBounds.min.x).putDouble(allBounds.min.y);
+                header.putDouble(allBounds.max.x).putDouble(allBounds.max.y);
+            }
+            os.write(header.array());
+
+            ByteBuffer rec = ByteBuffer.allocate(NODE_RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            for (int l = levels.size() - 1; l >= 0; l--) {
+                TreeLevel lev = levels.get(l);
+                int childOffset = l > 0 ? levelStart[l - 1] : 0;
+                for (int i = 0; i < lev.size(); i++) {
+                    rec.clear();
+                    rec.putInt(l > 0 ? lev.a[i] + childOffset : lev.a[i]);
+                    rec.putInt(lev.b[i]);
+                    rec.putDouble(lev.box[0][i]).putDouble(lev.box[1][i]);
+                    rec.putDouble(lev.box[2][i]).putDouble(lev.box[3][i]);
+                    os.write(rec.array());
+                }
+            }
+        } finally {
+            os.close();
+        }
+
+        // Swap the new file in at the end, so a half-written file is never
+        // picked up by a reader.
+        if (rtxFile.exists() && !rtxFile.delete()) {
+            throw new IOException("RTreeIndex: can't replace " + rtxFileName);
+        }
+        if (!tmpFile.renameTo(rtxFile)) {
+            throw new IOException("RTreeIndex: can't rename " + tmpFile + " to " + rtxFileName);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("wrote " + rtxFileName + ": " + n + " records, " + numNodes + " nodes, "
+                    + levels.size() + " levels");
+        }
+    }
+
+    /**
+     * Figure out the Sort-Tile-Recursive order of a set of rectangles: sort
+     * by center x, cut into vertical slices, and sort each slice by center y.
+     * Consecutive runs of nodeCapacity rectangles in the returned order make
+     * up the parent nodes.
+     *
+     * @param box xmin, ymin, xmax, ymax arrays
+     * @param n number of rectangles
+     * @param nodeCapacity number of children per node
+     * @return array of indexes into the box arrays, in STR order.
+     */
+    protected static int[] strOrder(double[][] box, int n, int nodeCapacity) {
+        int[] order = new int[n];
+        double[] cx = new double[n];
+        double[] cy = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            cx[i] = (box[0][i] + box[2][i]) / 2.0;
+            cy[i] = (box[1][i] + box[3][i]) / 2.0;
+        }
+
+        int numParents = (n + nodeCapacity - 1) / nodeCapacity;
+        int numSlices = (int) Math.ceil(Math.sqrt(numParents));
+        int sliceSize = Math.max(1, numSlices * nodeCapacity);
+
+        sort(order, 0, n - 1, cx);
+        for (int start = 0; start < n; start += sliceSize) {
+            sort(order, start, Math.min(start + sliceSize, n) - 1, cy);
+        }
+        return order;
+    }
+
+    /**
+     * Quicksort of a range of indexes, ordered by the key values they point
+     * to. Kept primitive to avoid boxing millions of indexes.
+     */
+    protected static void sort(int[] idx, int lo, int hi, double[] key) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            double pivot = key[idx[mid]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key[idx[i]] < pivot) {
+                    i++;
+                }
+                while (key[idx[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = idx[i];
+                    idx[i++] = idx[j];
+                    idx[j--] = tmp;
+                }
+            }
+            // Recurse on the smaller side to bound the stack depth.
+            if (j - lo < hi - i) {
+                sort(idx, lo, j, key);
+                lo = i;
+            } else {
+                sort(idx, i, hi, key);
+                hi = j;
+            }
+        }
+
+        for (int i = lo + 1; i <= hi; i++) {
+            int tmp = idx[i];
+            double k = key[tmp];
+            int j = i - 1;
+            while (j >= lo && key[idx[j]] > k) {
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            idx[j + 1] = tmp;
+        }
+    }
+
+    /**
+     * One level of the tree while it's being built, in parallel arrays.
+     */
+    protected static class TreeLevel {
+        int[] a;
+        int[] b;
+        double[][] box;
+
+        TreeLevel(int[] a, int[] b, double[][] box) {
+            this.a = a;
+            this.b = b;
+            this.box = box;
+        }
+
+        int size() {
+            return a.length;
+        }
+
+        /**
+         * @return a new TreeLevel with the contents of this one in the given
+         *         order.
+         */
+        TreeLevel reorder(int[] order) {
+            int n = order.length;
+            int[] na = new int[n];
+            int[] nb = new int[n];
+            double[][] nbox = new double[4][n];
+            for (int i = 0; i < n; i++) {
+                int j = order[i];
+                na[i] = a[j];
+                nb[i] = b[j];
+                for (int k = 0; k < 4; k++) {
+                    nbox[k][i] = box[k][j];
+                }
+            }
+            return new TreeLevel(na, nb, nbox);
+        }
+
+        /**
+         * @return the level above this one, made from consecutive runs of
+         *         nodeCapacity nodes.
+         */
+        TreeLevel parents(int nodeCapacity) {
+            int n = size();
+            int numParents = (n + nodeCapacity - 1) / nodeCapacity;
+            int[] pa = new int[numParents];
+            int[] pb = new int[numParents];
+            double[][] pbox = new double[4][numParents];
+            for (int p = 0; p < numParents; p++) {
+                int first = p * nodeCapacity;
+                int last = Math.min(first + nodeCapacity, n);
+                pa[p] = first;
+                pb[p] = last - first;
+                double xmin = Double.POSITIVE_INFINITY;
+                double ymin = Double.POSITIVE_INFINITY;
+                double xmax = Double.NEGATIVE_INFINITY;
+                double ymax = Double.NEGATIVE_INFINITY;
+                for (int i = first; i < last; i++) {
+                    xmin = Math.min(xmin, box[0][i]);
+                    ymin = Math.min(ymin, box[1][i]);
+                    xmax = Math.max(xmax, box[2][i]);
+                    ymax = Math.max(ymax, box[3][i]);
+                }
+                pbox[0][p] = xmin;
+                pbox[1][p] = ymin;
+                pbox[2][p] = xmax;
+                pbox[3][p] = ymax;
+            }
+            return new TreeLevel(pa, pb, pbox);
+        }
+    }
+}
@@ -43,8 +43,8 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
+import com.bbn.openmap.dataAccess.shape.DbfFile;
 import com.bbn.openmap.dataAccess.shape.DbfHandler;
-import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.layer.OMGraphicHandlerLayer;
@@ -177,8 +177,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
      * @throws IOException
      */
     protected DbfHandler createDbfHandler(String dbfFileName) throws FormatException, IOException {
-        BinaryBufferedFile bbf = new BinaryBufferedFile(dbfFileName);
-        return new DbfHandler(bbf);
+        return new DbfHandler(DbfFile.map(dbfFileName));
     }
 
     /**
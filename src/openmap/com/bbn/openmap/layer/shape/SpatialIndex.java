@@ -32,6 +32,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -47,6 +48,7 @@ import com.bbn.openmap.dataAccess.shape.ShapeUtils;
 import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.io.MappedInputReader;
 import com.bbn.openmap.omGraphics.DrawingAttributes;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
@@ -76,6 +78,10 @@ import com.bbn.openmap.util.PropUtils;
  * <i>Creates spatial index <code>file.ssx</code> from shape file.shp</i>
  * java com.bbn.openmap.layer.shape.SpatialIndex -c file.shp
  * 
+ * <i>Creates R-tree index <code>file.rtx</code> (and <code>file.ssx</code> if
+ * needed) from shape file.shp</i>
+ * java com.bbn.openmap.layer.shape.SpatialIndex -r file.shp
+ * 
  * </pre>
  * 
  * <b>Notes</b><p>
@@ -84,6 +90,11 @@ import com.bbn.openmap.util.PropUtils;
  * to read in from the Shape file is actually denoted as ((contentLength * 2) +
  * 8). This converts from 16bit units to 8 bit bytes and adds the 8 bytes for
  * the record header.
+ * <p>
+ * If an R-tree index file (.rtx) that is newer than the shape file sits next
+ * to it, queries are answered from the R-tree instead of scanning every
+ * spatial index record. Local shape files are memory mapped once and the
+ * mapping is reused for every query, until close(true) is called.
  * 
  * @author Tom Mitchell
  * @version $Revision: 1.19 $ $Date: 2009/02/25 22:34:04 $
@@ -137,6 +148,28 @@ public class SpatialIndex extends ShapeUtils {
      */
     EsriGraphicFactory factory = new EsriGraphicFactory();
 
+    /**
+     * The packed R-tree for the shape file, if there is one.
+     */
+    protected RTreeIndex rtree;
+
+    /**
+     * Set after the R-tree file has been looked for, so it's only looked for
+     * once.
+     */
+    protected boolean rtreeChecked = false;
+
+    /**
+     * Whether local shape files should be memory mapped.
+     */
+    protected boolean mapShapeFile = true;
+
+    /**
+     * The mapped contents of the shape file, shared by all BinaryFiles handed
+     * out by getShpFile.
+     */
+    protected ByteBuffer shpBuffer;
+
     /**
      * Opens a spatial index file for reading based on the location of the
      * provided shp file.
@@ -200,16 +233,64 @@ public class SpatialIndex extends ShapeUtils {
 
     /**
      * Method that can be overridden to adjust how the BinaryFile is created for
-     * shp files.
+     * shp files. If the shape file is a local file and mapShapeFile is true,
+     * the file is mapped the first time through and the returned BinaryFile
+     * reads from the mapping. Closing that BinaryFile doesn't unmap the file.
      * 
      * @param shapeFileName The path to shape file, absolute, relative or URL
      * @return BinaryFile
      * @throws IOException if the shapeFileName can't be found.
      */
     protected synchronized BinaryFile getShpFile(String shapeFileName) throws IOException {
+        if (mapShapeFile) {
+            if (shpBuffer == null) {
+                File file = new File(shapeFileName);
+                if (file.isFile() && file.length() <= Integer.MAX_VALUE) {
+                    shpBuffer = MappedInputReader.map(file);
+                }
+            }
+
+            if (shpBuffer != null) {
+                return new BinaryFile(new MappedInputReader(shapeFileName, shpBuffer));
+            }
+        }
         return new BinaryBufferedFile(shapeFileName);
     }
 
+    /**
+     * Get the R-tree index for the shape file, if one is available. The .rtx
+     * file is only looked for once.
+     * 
+     * @return RTreeIndex, or null if there isn't one or it is out of date.
+     */
+    public synchronized RTreeIndex getRTree() {
+        if (!rtreeChecked) {
+            rtree = RTreeIndex.open(shpFileName);
+            rtreeChecked = true;
+            if (rtree != null && logger.isLoggable(Level.FINE)) {
+                logger.fine("using R-tree index for " + shpFileName);
+            }
+        }
+        return rtree;
+    }
+
+    /**
+     * @return true if local shape files are memory mapped.
+     */
+    public boolean isMapShapeFile() {
+        return mapShapeFile;
+    }
+
+    /**
+     * Set whether local shape files should be memory mapped. Takes effect the
+     * next time the shape file is opened after close(true).
+     * 
+     * @param mapShapeFile
+     */
+    public void setMapShapeFile(boolean mapShapeFile) {
+        this.mapShapeFile = mapShapeFile;
+    }
+
     /**
      * Returns the bounds of the shape file. If bounds don't exist, they are
      * read from the shape file header.
@@ -298,13 +379,6 @@ public class SpatialIndex extends ShapeUtils {
     public ESRIRecord[] locateRecords(double xmin, double ymin, double xmax, double ymax)
             throws IOException, FormatException {
 
-        boolean gatherBounds = false;
-
-        if (bounds == null) {
-            bounds = new ESRIBoundingBox();
-            gatherBounds = true;
-        }
-
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("locateRecords:\n\txmin: " + xmin + "; ymin: " + ymin + "\n\txmax: " + xmax
                     + "; ymax: " + ymax);
@@ -320,6 +394,19 @@ public class SpatialIndex extends ShapeUtils {
             return null;
         }
 
+        // The R-tree fills in the bounds from its header.
+        RTreeIndex rtree = getRTree();
+        if (rtree != null) {
+            return locateRecords(rtree, xmin, ymin, xmax, ymax);
+        }
+
+        boolean gatherBounds = false;
+
+        if (bounds == null) {
+            bounds = new ESRIBoundingBox();
+            gatherBounds = true;
+        }
+
         BinaryBufferedFile ssx = new BinaryBufferedFile(ssx(shpFileName));
         if (shp == null) {
             shp = getShpFile(shpFileName);
@@ -419,6 +506,87 @@ public class SpatialIndex extends ShapeUtils {
 
     }
 
+    /**
+     * Locates records in the shape file that intersect with the given
+     * rectangle, using the R-tree to find them.
+     * 
+     * @param rtree the R-tree index for the shape file
+     * @param xmin the smaller of the x coordinates
+     * @param ymin the smaller of the y coordinates
+     * @param xmax the larger of the x coordinates
+     * @param ymax the larger of the y coordinates
+     * @return an array of records that intersect the given rectangle
+     * @exception IOException if something goes wrong reading the files
+     */
+    protected ESRIRecord[] locateRecords(RTreeIndex rtree, double xmin, double ymin, double xmax,
+                                         double ymax)
+            throws IOException, FormatException {
+
+        if (bounds == null) {
+            ESRIBoundingBox treeBounds = rtree.getBounds();
+            bounds = new ESRIBoundingBox();
+            if (treeBounds.min != null) {
+                bounds.addPoint(treeBounds.min);
+                bounds.addPoint(treeBounds.max);
+            }
+        }
+
+        List<Entry> hits = rtree.query(xmin, ymin, xmax, ymax);
+        List<ESRIRecord> v = new ArrayList<ESRIRecord>(hits.size());
+        int shapeType = rtree.getShapeType();
+        byte rHdr[] = new byte[SHAPE_RECORD_HEADER_LENGTH];
+        int sRecordSize = DEFAULT_SHAPE_RECORD_SIZE;
+        byte sRecord[] = new byte[sRecordSize];
+
+        if (shp == null) {
+            shp = getShpFile(shpFileName);
+        }
+
+        try {
+            for (Entry entry : hits) {
+                int byteOffset = entry.getByteOffset();
+                shp.seek(byteOffset);
+                if (shp.read(rHdr, 0, SHAPE_RECORD_HEADER_LENGTH) < SHAPE_RECORD_HEADER_LENGTH) {
+                    logger.warning("Shapefile SpatialIndex couldn't read record header at "
+                            + byteOffset);
+                    break;
+                }
+
+                int recordSize = (readBEInt(rHdr, 4) * 2) + SHAPE_RECORD_HEADER_LENGTH;
+                if (recordSize < 0) {
+                    logger.warning("SpatialIndex: supposed to read record size of " + recordSize);
+                    break;
+                }
+
+                if (recordSize > sRecordSize) {
+                    sRecordSize = recordSize;
+                    sRecord = new byte[sRecordSize];
+                }
+
+                shp.seek(byteOffset);
+                int nBytes = shp.read(sRecord, 0, recordSize);
+                if (nBytes < recordSize) {
+                    logger.warning("Shapefile SpatialIndex expected " + recordSize
+                            + " bytes, but got " + nBytes + " bytes instead.");
+                }
+
+                v.add(makeESRIRecord(shapeType, sRecord, 0));
+            }
+        } catch (IOException ioe) {
+            logger.warning("SpatialIndex.locateRecords: IOException. ");
+            ioe.printStackTrace();
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Selected " + v.size() + " of " + rtree.getNumItems()
+                    + " records from R-tree");
+        }
+
+        shp.close();
+        shp = null;
+        return v.toArray(new ESRIRecord[v.size()]);
+    }
+
     /**
      * The factory is used to filter and create OMGraphics from a shape file.
      * This accessor is provided in order to allow you to modify the data
@@ -496,7 +664,13 @@ public class SpatialIndex extends ShapeUtils {
         OMGraphicList labels = new OMGraphicList();
         list.add(labels);
 
-        for (Iterator<?> it = entryIterator(dataProj); it.hasNext();) {
+        // The R-tree holds untransformed coordinates, so it can only answer
+        // for data that doesn't need a coordinate transformation.
+        RTreeIndex rtree = dataProj == null ? getRTree() : null;
+        Iterator<Entry> iterator = rtree != null ? rtree.query(xmin, ymin, xmax, ymax).iterator()
+                : entryIterator(dataProj);
+
+        for (Iterator<?> it = iterator; it.hasNext();) {
             Entry entry = (Entry) it.next();
 
             if (entry.intersects(xmin, ymin, xmax, ymax)) {
@@ -862,6 +1036,10 @@ public class SpatialIndex extends ShapeUtils {
         out.println("java " + className + " -d -b file.shp");
         out.println("Dumps spatial index information including " + "bounding boxes to stdout.");
         out.println();
+        out.println("java " + className + " -r file.shp");
+        out.println("Creates R-tree index <file.rtx> from shape file <file.shp>, "
+                + "creating <file.ssx> first if needed.");
+        out.println();
     }
 
     /**
@@ -979,6 +1157,9 @@ public class SpatialIndex extends ShapeUtils {
         } else if ((argc == 2) && argv[0].equals("-c")) {
             String shapeFile = argv[1];
             SpatialIndex.FileIndex.create(shapeFile);
+        } else if ((argc == 2) && argv[0].equals("-r")) {
+            String shapeFile = argv[1];
+            SpatialIndex.FileIndex.createRTree(shapeFile);
         } else {
             printUsage(System.err);
             System.exit(1);
@@ -1023,6 +1204,14 @@ public class SpatialIndex extends ShapeUtils {
                 entries = null;
             }
 
+            if (done) {
+                synchronized (this) {
+                    shpBuffer = null;
+                    rtree = null;
+                    rtreeChecked = false;
+                }
+            }
+
             return true;
         } catch (IOException ioe) {
 
@@ -1085,6 +1274,17 @@ public class SpatialIndex extends ShapeUtils {
             fi.createIndex(shpFile);
         }
 
+        /**
+         * Creates the packed R-tree index file (.rtx) for a shape file,
+         * creating the spatial index file first if it doesn't exist.
+         * 
+         * @param shpFile the path to the shape file.
+         */
+        public static void createRTree(String shpFile) {
+            FileIndex fi = new FileIndex();
+            fi.createRTreeIndex(shpFile);
+        }
+
         /**
          * Writes the spatial index for a polygon shape file.
          * 
@@ -1372,6 +1572,37 @@ public class SpatialIndex extends ShapeUtils {
                 }
             }
         }
+
+        /**
+         * Creates an R-tree index for a shape file from its spatial index
+         * file. The spatial index file is created first if it isn't there, or
+         * is older than the shape file.
+         * 
+         * @param inFile the shape file or spatial index file, the method will
+         *        figure it out based on the file name extension.
+         */
+        public void createRTreeIndex(String inFile) {
+            String shpFile = null;
+            if (inFile.endsWith(".shp")) {
+                shpFile = inFile;
+            } else if (inFile.endsWith(".ssx")) {
+                shpFile = inFile.substring(0, inFile.indexOf(".ssx")) + ".shp";
+            } else {
+                return;
+            }
+
+            String ssxFile = ssx(shpFile);
+            File ssx = new File(ssxFile);
+            if (!ssx.exists() || ssx.lastModified() < new File(shpFile).lastModified()) {
+                createIndex(shpFile);
+            }
+
+            try {
+                RTreeIndex.create(ssxFile, RTreeIndex.rtx(shpFile), RTreeIndex.DEFAULT_NODE_CAPACITY);
+            } catch (java.io.IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public static class MemoryIndex {
@@ -41,8 +41,8 @@ import com.bbn.openmap.Environment;
 import com.bbn.openmap.I18n;
 import com.bbn.openmap.Layer;
 import com.bbn.openmap.PropertyConsumer;
+import com.bbn.openmap.dataAccess.shape.DbfFile;
 import com.bbn.openmap.dataAccess.shape.DbfHandler;
-import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.layer.shape.SpatialIndex.Entry;
@@ -173,8 +173,7 @@ public class SpatialIndexHandler implements PropertyConsumer {
 
             try {
                 if (BinaryFile.exists(dbfFileName)) {
-                    BinaryBufferedFile bbf = new BinaryBufferedFile(dbfFileName);
-                    DbfHandler dbfh = new DbfHandler(bbf);
+                    DbfHandler dbfh = new DbfHandler(DbfFile.map(dbfFileName));
                     dbfh.setProperties(realPrefix, props);
                     spatialIndex.setDbf(dbfh);
                 }
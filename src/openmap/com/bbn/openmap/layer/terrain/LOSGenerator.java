@@ -26,17 +26,14 @@ import java.awt.Color;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 
-import com.bbn.openmap.MoreMath;
 import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
 import com.bbn.openmap.event.LayerStatusEvent;
-import com.bbn.openmap.event.ProgressEvent;
 import com.bbn.openmap.event.ProgressListener;
 import com.bbn.openmap.event.ProgressSupport;
 import com.bbn.openmap.gui.ProgressListenerGauge;
 import com.bbn.openmap.omGraphics.OMCircle;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMRaster;
-import com.bbn.openmap.proj.Planet;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
@@ -52,14 +49,6 @@ import com.bbn.openmap.util.stateMachine.State;
  */
 public class LOSGenerator implements TerrainTool {
 
-    // These are used to control the algorithm type. Right now, the
-    // first two are eliminated, since the azimuth algorithm is
-    // faster
-    // and more precise.
-    final static int PRECISE = 0;
-    final static int GOODENOUGH = 1;
-    final static int AZIMUTH = 2;
-
     // RED
     Color toolColor = new Color(255, 0, 0);
 
@@ -86,7 +75,6 @@ public class LOSGenerator implements TerrainTool {
     protected OMGraphicList graphics = new OMGraphicList();
     OMRaster LOSimage; // The image for the mask
     OMCircle LOScirc; // The circle modified for the image definition
-    int LOSprecision; // The flag for the algorithm type
     LatLonPoint LOSOffPagell = new LatLonPoint.Double(-79f, -170f);
     Point LOSOffPagep1 = new Point(-10, -10);
 
@@ -100,6 +88,9 @@ public class LOSGenerator implements TerrainTool {
 
     protected ProgressSupport progressSupport;
 
+    /** Computes the mask, on all of the processors. */
+    protected volatile Viewshed viewshed;
+
     class LOSWorker extends SwingWorker {
         /** Constructor used to create a worker thread. */
         public LOSWorker() {}
@@ -179,8 +170,14 @@ public class LOSGenerator implements TerrainTool {
         if (currentWorker == null) {
             currentWorker = new LOSWorker();
             currentWorker.execute();
-        } else
+        } else {
             setCancelled(true);
+            // Stop the mask in progress, the worker will start over.
+            Viewshed v = viewshed;
+            if (v != null) {
+                v.cancel();
+            }
+        }
     }
 
     /**
@@ -247,21 +244,16 @@ public class LOSGenerator implements TerrainTool {
     public void setScreenParameters(Projection p) {
         //reset(true, true);
         proj = p;
-        LOSprecision = AZIMUTH;
         graphics.generate(proj);
     }
 
     /**
-     * Takes the member settings and manages the creation of the
-     * image. A large vector of slope values are created, depending on
-     * the size of the circle, and how many pixels are around it. Each
-     * entry in the vector is the value of the largest slope value in
-     * that direction. The image is created from the inside out, pixel
-     * by pixel. The slope from the pixel to the center is calculated,
-     * and then compared with the value for that direction (in the
-     * vector). If the pixel's slope is larger, the point is visible,
-     * and is colored that way. The vector is updated, and the cycle
-     * continues.
+     * Takes the member settings and manages the creation of the image. The
+     * Viewshed reads the elevations for the circle into a grid, and then
+     * casts rays from the center out to the edge, in sectors handled by
+     * separate threads. A pixel is visible if its slope to the center is
+     * greater than the slopes of the pixels before it on a ray. If the
+     * computation is cancelled, the image is left as it was.
      */
     public synchronized void createLOSImage() {
         if (Debug.debugging("los")) {
@@ -273,104 +265,30 @@ public class LOSGenerator implements TerrainTool {
             return;
         }
 
-        int squareRadius = LOSedge / 2 + 1;
-        int[] newPixels = new int[LOSedge * LOSedge];
-        float[] azimuthVals = new float[8 * (squareRadius - 1)];
-        // center point of raster
-        newPixels[((LOSedge / 2) * LOSedge) + squareRadius] = MAYBEVISIBLE;
-
-        if (Debug.debugging("los")) {
-            Debug.output("createLOSimage: size of azimuth array = "
-                    + azimuthVals.length);
+        Viewshed v = viewshed;
+        if (v == null) {
+            v = new Viewshed(layer.frameCache, progressSupport);
+            viewshed = v;
+        } else {
+            v.setFrameCache(layer.frameCache);
         }
 
-        fireProgressUpdate(ProgressEvent.START,
-                "Building LOS Image Mask...",
-                0,
-                100);
-        int x, y;
-        boolean mark = false;
-        int markColor = colortable[INVISIBLE];
-        int range;
-        float pix_arc_interval = (float) (2 * Math.PI / azimuthVals.length);
-        //  Do this in a spiral, around the center point.
-        for (int round = 1; round < squareRadius; round++) {
-            if (Debug.debugging("los")) {
-                Debug.output("createLOSimage: round " + round);
-            }
-            y = LOScenterP.y - round;
-            x = LOScenterP.x - round;
-
-            if (round == 1) {
-                mark = true;
-                markColor = colortable[MAYBEVISIBLE];
-            }
-
-            else
-                mark = false;
-
-            if (LOSprecision == AZIMUTH) { // As of now, this is the
-                // only option
-                range = ((LOSedge * 4) - 4) / (round * 16);
-                for (; x < LOScenterP.x + round; x++)
-                    // top
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; y < LOScenterP.y + round; y++)
-                    // right
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; x > LOScenterP.x - round; x--)
-                    // bottom
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; y > LOScenterP.y - round; y--)
-                    // left
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-            }
-
-            int whereWeAre = (int) (100f * ((float) round / (float) squareRadius));
-            fireProgressUpdate(ProgressEvent.UPDATE,
-                    "Analyzing data...",
-                    whereWeAre,
-                    100);
-
+        byte[] visibility = v.compute(proj, LOScenterP.x, LOScenterP.y, LOSedge / 2, LOSobjectHeight);
+        if (visibility == null) {
+            Debug.message("los", "createLOSimage: no mask created");
+            return;
         }
 
-        fireProgressUpdate(ProgressEvent.UPDATE, "Creating Mask", 100, 100);
+        int[] newPixels = new int[visibility.length];
+        for (int i = 0; i < newPixels.length; i++) {
+            newPixels[i] = colortable[visibility[i]];
+        }
 
         LOSimage = new OMRaster(LOScenterLLP.getLatitude(), LOScenterLLP.getLongitude(), (-1 - LOSedge / 2), (-1 - LOSedge / 2), LOSedge, LOSedge, newPixels);
         LOSimage.generate(proj);
         graphics.clear();
         graphics.add(LOSimage);
 
-        fireProgressUpdate(ProgressEvent.DONE, "LOS mask complete", 100, 100);
-
         if (Debug.debugging("los")) {
             Debug.output("createLOSimage: Done...");
         }
@@ -380,7 +298,11 @@ public class LOSGenerator implements TerrainTool {
      * Calculates the color for each pixel. After is gets the slope
      * value for that pixel, it manages the comparison to get the
      * pixel colored correctly.
+     *
+     * @deprecated Viewshed computes the whole mask, this isn't called by
+     *             LOSGenerator anymore and will be removed.
      */
+    @Deprecated
     protected void resolveImagePoint(int x, int y, int[] newPixels,
                                      float[] azimuthVals, int range,
                                      float pix_arc_interval, boolean mark,
@@ -458,7 +380,10 @@ public class LOSGenerator implements TerrainTool {
      * radian arc distance of the point from the center point of the
      * image, on the earth. This slope calculation does take the
      * earth's curvature into account, based on the spherical model.
+     *
+     * @deprecated use Viewshed.slope(int, double, int).
      */
+    @Deprecated
     protected double calculateLOSslope(LatLonPoint cord, double arc_dist) {
         DTEDFrameCache frameCache = layer.frameCache;
 
@@ -468,39 +393,7 @@ public class LOSGenerator implements TerrainTool {
 
         int xyheight = frameCache.getElevation(cord.getLatitude(),
                 cord.getLongitude());
-        double ret = 0;
-        double P = Math.sin(arc_dist)
-                * (xyheight + Planet.wgs84_earthEquatorialRadiusMeters);
-
-        double xPrime = Math.cos(arc_dist)
-                * (xyheight + Planet.wgs84_earthEquatorialRadiusMeters);
-
-        double bottom;
-        double cutoff = LOScenterHeight
-                + Planet.wgs84_earthEquatorialRadiusMeters;
-
-        // Suggested changes, submitted by Mark Wigmore. Introduces
-        // use of doubles, and avoidance of PI/2 tan() calculations.
-
-        bottom = cutoff - xPrime;
-        ret = MoreMath.HALF_PI_D - Math.atan(bottom / P);
-        return ret;
-
-        // Old way...
-        //      if (xPrime < cutoff) {
-        //          bottom = cutoff - xPrime;
-        //          ret = Math.atan(P/bottom);
-
-        //      } else if (xPrime == cutoff) {
-        //          ret = MoreMath.HALF_PI_D;
-
-        //      } else if (xPrime > cutoff) {
-        //          double C = xPrime - cutoff;
-        //          double gamma = Math.atan(P/C);
-        //          ret = Math.PI - gamma;
-        //      }
-
-        //      return ret;
+        return Viewshed.slope(xyheight, arc_dist, LOScenterHeight);
     }
 
     /**
@@ -214,26 +214,65 @@ public class ProfileGenerator implements TerrainTool {
             total_distance += distances[j];
         }
 
-        int tmp = 0;
         int max = 0;
-        int[] heights = new int[xypoints.size()];
-        // Go through the points and get the heights
+        int[] heights = getProfileHeights(layer.frameCache);
         for (int i = 0; i < heights.length; i++) {
-            LatLonPoint llp = ((LatLonPoint) coords.elementAt(i));
-            // Ask the cache for the elevation
-            tmp = layer.frameCache.getElevation(llp.getLatitude(),
-                    llp.getLongitude());
-
-            if (tmp == DTEDFrameCache.NO_DATA)
-                tmp = -1;
-            if (tmp > max)
-                max = tmp;
-            heights[i] = tmp;
+            if (heights[i] > max)
+                max = heights[i];
         }
         // get the picture drawn and written
         createGIFFile(total_distance, max, distances, heights);
     }
 
+    /**
+     * Get the elevations of the clicked points of the line, in meters, -1
+     * where there isn't any data. The elevations are read from the frame
+     * cache in one pass, and nothing is displayed, so this can be used
+     * for batch analysis.
+     * 
+     * @param frameCache the DTED data.
+     * @return elevations for the xy points of the line.
+     */
+    public int[] getProfileHeights(DTEDFrameCache frameCache) {
+        int count = xypoints.size();
+        float[] lats = new float[count];
+        float[] lons = new float[count];
+        for (int i = 0; i < count; i++) {
+            LatLonPoint llp = coords.elementAt(i);
+            lats[i] = llp.getLatitude();
+            lons[i] = llp.getLongitude();
+        }
+
+        short[] elevations = frameCache.getElevations(lats, lons, null);
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            heights[i] = elevations[i] == DTEDFrameCache.NO_DATA ? -1 : elevations[i];
+        }
+        return heights;
+    }
+
+    /**
+     * Figure out what can be seen from one of the clicked points of the
+     * line, on the current projection. Nothing is displayed, the Viewshed
+     * does the work on all of the processors.
+     * 
+     * @param frameCache the DTED data.
+     * @param pointIndex the index of the xy point of the line.
+     * @param radius pixel radius of the area to check.
+     * @param objectHeight height of the viewpoint above the ground, in
+     *        meters.
+     * @return array of Viewshed.INVISIBLE, VISIBLE and MAYBEVISIBLE values,
+     *         row by row, (radius * 2 + 1) pixels on a side, null if the
+     *         point isn't available.
+     */
+    public byte[] createViewshed(DTEDFrameCache frameCache, int pointIndex, int radius, int objectHeight) {
+        if (proj == null || pointIndex < 0 || pointIndex >= xypoints.size()) {
+            return null;
+        }
+        Point pt = xypoints.elementAt(pointIndex);
+        return new Viewshed(frameCache).compute(proj, pt.x, pt.y, radius, objectHeight);
+    }
+
     /**
      * Create the image and write it the location.
      * 
@@ -0,0 +1,346 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.terrain;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bbn.openmap.MoreMath;
+import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
+import com.bbn.openmap.event.ProgressEvent;
+import com.bbn.openmap.event.ProgressListener;
+import com.bbn.openmap.event.ProgressSupport;
+import com.bbn.openmap.omGraphics.OMList;
+import com.bbn.openmap.proj.GreatCircle;
+import com.bbn.openmap.proj.Planet;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * The Viewshed figures out which pixels of a circle around a point on a
+ * projection can be seen from that point, using DTED elevations. It doesn't
+ * need a layer or a GUI, so it can be used for batch analysis as well as by
+ * the LOSGenerator.
+ * <P>
+ * The elevations of all the pixels in the circle are read into a grid first,
+ * looking up each DTED frame once. Then rays are cast from the center to each
+ * pixel on the edge of the circle's bounding square, and a pixel is visible if
+ * its slope from the center is greater than the slopes of all the pixels
+ * before it on a ray. The rays are divided into sectors which are handled on
+ * the fork/join pool OMList generates graphics on. The slope calculation takes
+ * the earth's curvature into account, based on the spherical model.
+ * <P>
+ * A Viewshed handles one computation at a time. It can be cancelled from
+ * another thread, and fires progress events to its ProgressListeners.
+ */
+public class Viewshed {
+
+    /** Value for pixels that can't be seen from the center. */
+    public final static byte INVISIBLE = 0;
+    /** Value for pixels that can be seen from the center. */
+    public final static byte VISIBLE = 1;
+    /**
+     * Value for the pixels next to the center and on the edge of the circle,
+     * which can't really be decided.
+     */
+    public final static byte MAYBEVISIBLE = 2;
+
+    /** The number of rays handled by a task without splitting it. */
+    protected final static int RAYS_PER_TASK = 32;
+
+    protected DTEDFrameCache frameCache;
+    protected ProgressSupport progressSupport;
+    protected volatile boolean cancelled = false;
+
+    /**
+     * Create a Viewshed that gets its elevations from a DTEDFrameCache.
+     */
+    public Viewshed(DTEDFrameCache frameCache) {
+        this(frameCache, null);
+    }
+
+    /**
+     * Create a Viewshed that gets its elevations from a DTEDFrameCache, and
+     * fires progress events through the ProgressSupport of the object using
+     * it.
+     */
+    public Viewshed(DTEDFrameCache frameCache, ProgressSupport progressSupport) {
+        this.frameCache = frameCache;
+        this.progressSupport = progressSupport != null ? progressSupport : new ProgressSupport(this);
+    }
+
+    public DTEDFrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    public void setFrameCache(DTEDFrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * Stop the computation in progress, which will return null.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Figure out what can be seen from a pixel on the projection.
+     *
+     * @param proj the projection the pixels are on.
+     * @param centerX x pixel of the viewpoint.
+     * @param centerY y pixel of the viewpoint.
+     * @param radius pixel radius of the circle around the viewpoint.
+     * @param objectHeight height of the viewpoint above the ground, in
+     *        meters, for a tower, building or aircraft.
+     * @return array of INVISIBLE, VISIBLE and MAYBEVISIBLE values for the
+     *         pixels of the square around the circle, row by row, (radius * 2
+     *         + 1) pixels on a side. Returns null if the computation was
+     *         cancelled.
+     */
+    public byte[] compute(Projection proj, int centerX, int centerY, int radius, int objectHeight) {
+        cancelled = false;
+        if (frameCache == null || radius < 1) {
+            return null;
+        }
+
+        int edge = radius * 2 + 1;
+        int count = edge * edge;
+
+        fireProgressUpdate(ProgressEvent.START, "Reading elevations...", 0, 100);
+
+        // Lay out the lat/lons of the pixels, and get their elevations.
+        float[] lats = new float[count];
+        float[] lons = new float[count];
+        LatLonPoint llp = new LatLonPoint.Double();
+        int ox = centerX - radius;
+        int oy = centerY - radius;
+        for (int y = 0, i = 0; y < edge; y++) {
+            for (int x = 0; x < edge; x++, i++) {
+                proj.inverse(ox + x, oy + y, llp);
+                lats[i] = llp.getLatitude();
+                lons[i] = llp.getLongitude();
+            }
+        }
+        short[] elevations = frameCache.getElevations(lats, lons, null);
+
+        if (cancelled) {
+            fireProgressUpdate(ProgressEvent.DONE, "Viewshed cancelled", 100, 100);
+            return null;
+        }
+        fireProgressUpdate(ProgressEvent.UPDATE, "Analyzing data...", 10, 100);
+
+        int centerIndex = radius * edge + radius;
+        int groundHeight = elevations[centerIndex];
+        if (groundHeight == DTEDFrameCache.NO_DATA) {
+            groundHeight = 0;
+        }
+
+        SweepTask task = new SweepTask(new Sweep(lats, lons, elevations, radius, groundHeight + objectHeight), 0, radius * 8);
+        OMList.getGeneratePool().execute(task);
+        try {
+            while (!task.isDone()) {
+                try {
+                    task.get(250, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException te) {
+                    int done = task.sweep.raysDone.get();
+                    fireProgressUpdate(ProgressEvent.UPDATE, "Analyzing data...", 10 + (90 * done) / (radius * 8), 100);
+                }
+            }
+        } catch (InterruptedException ie) {
+            cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            Debug.error("Viewshed: problem computing visibility: " + ee.getCause());
+            return null;
+        }
+
+        if (cancelled) {
+            fireProgressUpdate(ProgressEvent.DONE, "Viewshed cancelled", 100, 100);
+            return null;
+        }
+
+        fireProgressUpdate(ProgressEvent.DONE, "Viewshed complete", 100, 100);
+        return task.sweep.visibility;
+    }
+
+    /**
+     * The slope from a point to the center, in radians from straight down at
+     * the center. The arc distance is the radian arc distance of the point
+     * from the center on the earth.
+     *
+     * @param height elevation of the point, in meters.
+     * @param arcDist distance from the center, in radians.
+     * @param centerHeight height of the viewpoint, in meters.
+     */
+    public static double slope(int height, double arcDist, int centerHeight) {
+        double P = Math.sin(arcDist) * (height + Planet.wgs84_earthEquatorialRadiusMeters);
+        double xPrime = Math.cos(arcDist) * (height + Planet.wgs84_earthEquatorialRadiusMeters);
+        double cutoff = centerHeight + Planet.wgs84_earthEquatorialRadiusMeters;
+        // Suggested changes, submitted by Mark Wigmore. Introduces
+        // use of doubles, and avoidance of PI/2 tan() calculations.
+        return MoreMath.HALF_PI_D - Math.atan((cutoff - xPrime) / P);
+    }
+
+    /**
+     * The grids shared by the tasks of one computation. Pixels are in rows,
+     * radius * 2 + 1 on a side, with the viewpoint in the middle.
+     */
+    protected static class Sweep {
+        protected final int radius;
+        protected final int edge;
+        protected final float[] slopes;
+        protected final byte[] visibility;
+        protected final AtomicInteger raysDone = new AtomicInteger();
+
+        protected Sweep(float[] lats, float[] lons, short[] elevations, int radius, int centerHeight) {
+            this.radius = radius;
+            edge = radius * 2 + 1;
+            int count = edge * edge;
+            slopes = new float[count];
+            visibility = new byte[count];
+
+            int centerIndex = radius * edge + radius;
+            double cLat = Math.toRadians(lats[centerIndex]);
+            double cLon = Math.toRadians(lons[centerIndex]);
+            for (int y = 0, i = 0; y < edge; y++) {
+                for (int x = 0; x < edge; x++, i++) {
+                    int dist = TerrainLayer.numPixelsBetween(radius, radius, x, y);
+                    if (dist > radius) {
+                        continue;
+                    }
+                    if (dist == radius || (Math.abs(x - radius) <= 1 && Math.abs(y - radius) <= 1)) {
+                        visibility[i] = MAYBEVISIBLE;
+                    }
+                    int height = elevations[i];
+                    if (height == DTEDFrameCache.NO_DATA) {
+                        height = 0;
+                    }
+                    double arcDist = GreatCircle.sphericalDistance(cLat, cLon, Math.toRadians(lats[i]), Math.toRadians(lons[i]));
+                    slopes[i] = (float) slope(height, arcDist, centerHeight);
+                }
+            }
+        }
+
+        /**
+         * Cast the ray from the center to a pixel on the edge of the
+         * square, marking the pixels inside the circle that are higher than
+         * everything before them on the ray. Rays are numbered clockwise from
+         * the upper left corner.
+         */
+        protected void castRay(int ray) {
+            int side = ray / (radius * 2);
+            int offset = ray % (radius * 2);
+            int dx, dy;
+            switch (side) {
+            case 0: // top
+                dx = offset - radius;
+                dy = -radius;
+                break;
+            case 1: // right
+                dx = radius;
+                dy = offset - radius;
+                break;
+            case 2: // bottom
+                dx = radius - offset;
+                dy = radius;
+                break;
+            default: // left
+                dx = -radius;
+                dy = radius - offset;
+            }
+
+            float maxSlope = 0f;
+            for (int step = 1; step <= radius; step++) {
+                int x = radius + Math.round((float) (dx * step) / radius);
+                int y = radius + Math.round((float) (dy * step) / radius);
+                if (TerrainLayer.numPixelsBetween(radius, radius, x, y) >= radius) {
+                    break;
+                }
+                int i = y * edge + x;
+                float slope = slopes[i];
+                if (slope > maxSlope) {
+                    maxSlope = slope;
+                    if (visibility[i] == INVISIBLE) {
+                        visibility[i] = VISIBLE;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A fork/join task that casts a range of rays, splitting itself in half
+     * until the range is small enough to do directly.
+     */
+    protected class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        protected final Sweep sweep;
+        protected final int start;
+        protected final int end;
+
+        protected SweepTask(Sweep sweep, int start, int end) {
+            this.sweep = sweep;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start <= RAYS_PER_TASK) {
+                for (int ray = start; ray < end && !cancelled; ray++) {
+                    sweep.castRay(ray);
+                }
+                sweep.raysDone.addAndGet(end - start);
+                return;
+            }
+
+            int middle = (start + end) >>> 1;
+            invokeAll(new SweepTask(sweep, start, middle), new SweepTask(sweep, middle, end));
+        }
+    }
+
+    /**
+     * Add a ProgressListener that will display the progress of computations.
+     */
+    public void addProgressListener(ProgressListener list) {
+        progressSupport.add(list);
+    }
+
+    /**
+     * Remove a ProgressListener.
+     */
+    public void removeProgressListener(ProgressListener list) {
+        progressSupport.remove(list);
+    }
+
+    /**
+     * Clear all progress listeners.
+     */
+    public void clearProgressListeners() {
+        progressSupport.clear();
+    }
+
+    protected void fireProgressUpdate(int type, String task, int value, int total) {
+        progressSupport.fireUpdate(type, task, total, value);
+    }
+}
@@ -18,10 +18,12 @@
 package com.bbn.openmap.layer.vpf;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.proj.ProjMath;
 import com.bbn.openmap.proj.coords.LatLonPoint;
 
 /**
@@ -52,6 +54,12 @@ public class AreaTable extends PrimitiveTable {
     final private TilingAdapter edgeRightFaceAdapter, edgeLeftFaceAdapter, edgeRightEdgeAdapter,
             edgeLeftEdgeAdapter;
 
+    /**
+     * true if all of the edge TilingAdapters can read the edge cursor
+     * directly, otherwise traceRing copies each edge row into a List for them
+     */
+    final private boolean cursorAdapters;
+
     /**
      * Construct an AreaTable for a tile.
      * 
@@ -71,6 +79,10 @@ public class AreaTable extends PrimitiveTable {
         edgeLeftFaceAdapter = edges.getLeftFaceTilingAdapter();
         edgeRightEdgeAdapter = edges.getRightEdgeTilingAdapter();
         edgeLeftEdgeAdapter = edges.getLeftEdgeTilingAdapter();
+        cursorAdapters = (edgeRightFaceAdapter instanceof CursorTilingAdapter)
+                && (edgeLeftFaceAdapter instanceof CursorTilingAdapter)
+                && (edgeRightEdgeAdapter instanceof CursorTilingAdapter)
+                && (edgeLeftEdgeAdapter instanceof CursorTilingAdapter);
 
         if (edges.topologyLevel() != 3) {
             throw new FormatException("AreaTable: need level 3 topology: " + edges.topologyLevel());
@@ -114,30 +126,126 @@ public class AreaTable extends PrimitiveTable {
      */
     public int computeEdgePoints(List<Object> facevec, List<CoordFloatString> allLLPoints)
             throws FormatException {
-        int ring_ptr = ((Number) facevec.get(ringIDColumn)).intValue();
-        List<Object> ring1 = new ArrayList<Object>(rings.getColumnCount());
-        rings.getRow(ring1, ring_ptr);
-        int fac_id = ((Number) ring1.get(faceIDColumn)).intValue();
+        allLLPoints.clear();
+        DcwRecordCursor edge = edges.openCursor();
+        try {
+            int[] ring = traceRing(((Number) facevec.get(ringIDColumn)).intValue(), edge);
+            int coordColumn = edges.getCoordinatesColumn();
+            for (int i = 1; i < ring.length; i++) {
+                edge.getRow(Math.abs(ring[i]));
+                CoordFloatString cfs = edge.getCoordFloatString(coordColumn);
+                if (ring[i] < 0) {
+                    cfs.tcount *= -1;// flag reverse
+                }
+                allLLPoints.add(cfs);
+            }
+            return ring[0];
+        } finally {
+            edge.close();
+        }
+    }
+
+    /**
+     * Computes the full set of points that determine the edge of the area, as
+     * an array ready for an OMPoly. The edge rows are read with cursors, so
+     * unlike computeEdgePoints(), no row lists or CoordFloatStrings are
+     * created along the way.
+     * 
+     * @param facevec a row from the VPF face table for this area
+     * @return lat, lon pairs in radians, in drawing order, or null if the
+     *         area doesn't have any points.
+     * @exception FormatException may throw FormatExceptions
+     */
+    public double[] computeLatLonPoints(List<Object> facevec) throws FormatException {
+        DcwRecordCursor edge = edges.openCursor();
+        try {
+            int[] ring = traceRing(((Number) facevec.get(ringIDColumn)).intValue(), edge);
+            if (ring[0] == 0) {
+                return null;
+            }
+
+            int coordColumn = edges.getCoordinatesColumn();
+            double[] llpts = new double[ring[0] * 2];
+            int npts = 0;
+            for (int i = 1; i < ring.length; i++) {
+                edge.getRow(Math.abs(ring[i]));
+                int count = edge.getTupleCount(coordColumn);
+                if (ring[i] > 0) {
+                    for (int j = 0; j < count; j++) {
+                        llpts[npts++] = ProjMath.degToRad(edge.getCoordinate(coordColumn, j, 1));
+                        llpts[npts++] = ProjMath.degToRad(edge.getCoordinate(coordColumn, j, 0));
+                    }
+                } else {
+                    for (int j = count - 1; j >= 0; j--) {
+                        llpts[npts++] = ProjMath.degToRad(edge.getCoordinate(coordColumn, j, 1));
+                        llpts[npts++] = ProjMath.degToRad(edge.getCoordinate(coordColumn, j, 0));
+                    }
+                }
+            }
+            return llpts;
+        } finally {
+            edge.close();
+        }
+    }
+
+    /**
+     * Follow the edges around a ring.
+     * 
+     * @param ring_ptr the row of the ring in the ring table
+     * @param edge a cursor on the edge table, used to read the edges
+     * @return the total number of points in the ring, followed by the ids of
+     *         the edges that make up the ring in drawing order. Edges that
+     *         have to be traversed in reverse order have negative ids.
+     * @exception FormatException may throw FormatExceptions
+     */
+    private int[] traceRing(int ring_ptr, DcwRecordCursor edge) throws FormatException {
+        int fac_id;
+        int startedgeid;
+        DcwRecordCursor ring = rings.openCursor();
+        try {
+            if (!ring.getRow(ring_ptr)) {
+                throw new FormatException("AreaTable: no ring " + ring_ptr + " in "
+                        + rings.filename);
+            }
+            fac_id = ring.getInt(faceIDColumn);
+            startedgeid = ring.getInt(ringStartColumn);
+        } finally {
+            ring.close();
+        }
 
-        int startedgeid = ((Number) ring1.get(ringStartColumn)).intValue();
         if (startedgeid <= 0) {
-            return 0;
+            return new int[] { 0 };
         }
+        int coordColumn = edges.getCoordinatesColumn();
+        int[] ringEdges = new int[9];
+        int edgeCount = 1;
         int nextedgeid = startedgeid;
         boolean firsttime = true;
-        allLLPoints.clear();
         int polySize = 0;
         int prev_node = -1;
-        final List<Object> edge = new ArrayList<Object>(edges.getColumnCount());
+        List<Object> edgeRow = cursorAdapters ? null : new ArrayList<Object>(edges.getColumnCount());
 
         do {
-            edges.getRow(edge, nextedgeid);
+            if (!edge.getRow(nextedgeid)) {
+                throw new FormatException("AreaTable: no edge " + nextedgeid + " in "
+                        + edges.filename);
+            }
+            int edgeid = nextedgeid;
             int start_node = edges.getStartNode(edge);
             int end_node = edges.getEndNode(edge);
-            int rht_face = edgeRightFaceAdapter.getPrimId(edge);
-            int lft_face = edgeLeftFaceAdapter.getPrimId(edge);
-            int right_edge = edgeRightEdgeAdapter.getPrimId(edge);
-            int left_edge = edgeLeftEdgeAdapter.getPrimId(edge);
+            int rht_face, lft_face, right_edge, left_edge;
+            if (cursorAdapters) {
+                rht_face = ((CursorTilingAdapter) edgeRightFaceAdapter).getPrimId(edge);
+                lft_face = ((CursorTilingAdapter) edgeLeftFaceAdapter).getPrimId(edge);
+                right_edge = ((CursorTilingAdapter) edgeRightEdgeAdapter).getPrimId(edge);
+                left_edge = ((CursorTilingAdapter) edgeLeftEdgeAdapter).getPrimId(edge);
+            } else {
+                edge.copyRow(edgeRow);
+                rht_face = edgeRightFaceAdapter.getPrimId(edgeRow);
+                lft_face = edgeLeftFaceAdapter.getPrimId(edgeRow);
+                right_edge = edgeRightEdgeAdapter.getPrimId(edgeRow);
+                left_edge = edgeLeftEdgeAdapter.getPrimId(edgeRow);
+            }
             if (firsttime) {
                 prev_node = start_node;
                 firsttime = false;
@@ -146,7 +254,6 @@ public class AreaTable extends PrimitiveTable {
             // Debug.message("dcwSpecialist",
             // "edge: " + nextedgeid + " start->end: "
             // + start_node + "->" + end_node);
-            CoordFloatString cfs = edges.getCoordinates(edge);
 
             if ((fac_id == rht_face) && (fac_id == lft_face)) {
                 if (start_node == prev_node) {
@@ -158,22 +265,27 @@ public class AreaTable extends PrimitiveTable {
                 } else {
                     throw new FormatException(" node matching assertion failed ");
                 }
+                continue;
             } else if (fac_id == rht_face) {
                 nextedgeid = right_edge;
                 prev_node = end_node;
-                polySize += cfs.tcount;
-                allLLPoints.add(cfs);
             } else if (fac_id == lft_face) { // reverse direction
                 nextedgeid = left_edge;
                 prev_node = start_node;
-                polySize += cfs.tcount;
-                cfs.tcount *= -1;// flag reverse
-                allLLPoints.add(cfs);
+                edgeid = -edgeid;
             } else {
                 throw new FormatException("Node Assertion failed");
             }
+
+            polySize += edge.getTupleCount(coordColumn);
+            if (edgeCount == ringEdges.length) {
+                ringEdges = Arrays.copyOf(ringEdges, edgeCount * 2);
+            }
+            ringEdges[edgeCount++] = edgeid;
         } while (nextedgeid != startedgeid);
-        return polySize;
+
+        ringEdges[0] = polySize;
+        return Arrays.copyOf(ringEdges, edgeCount);
     }
 
     /**
@@ -58,6 +58,21 @@ public class CoordDoubleString implements CoordTupleString {
         }
     }
 
+    /**
+     * Construct a CoordDoubleString around values that have already been
+     * read.
+     * 
+     * @param tuplecount the number of tuples
+     * @param tuplesize the number of doubles in the tuple
+     * @param vals the values, as x1,y1,z1,x2,y2,z2,...
+     */
+    public CoordDoubleString(int tuplecount, int tuplesize, double vals[]) {
+        this.vals = new double[tuplecount][tuplesize];
+        for (int i = 0, k = 0; i < tuplecount; i++)
+            for (int j = 0; j < tuplesize; j++)
+                this.vals[i][j] = vals[k++];
+    }
+
     /**
      * The maximum indexable tuple value
      * 
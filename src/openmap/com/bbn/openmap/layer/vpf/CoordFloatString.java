@@ -62,6 +62,20 @@ public class CoordFloatString {
         }
     }
 
+    /**
+     * Construct a CoordFloatString around values that have already been
+     * read.
+     * 
+     * @param tuplecount the number of tuples
+     * @param tuplesize the number of floats in the tuple
+     * @param vals the values, as x1,y1,z1,x2,y2,z2,... (not copied)
+     */
+    public CoordFloatString(int tuplecount, int tuplesize, double vals[]) {
+        tcount = tuplecount;
+        tsize = tuplesize;
+        this.vals = vals;
+    }
+
     /**
      * The maximum indexable tuple value
      * 
@@ -25,11 +25,19 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.layer.vpf.LayerGraphicWarehouseSupport.TileGraphics;
 import com.bbn.openmap.layer.vpf.VPFAutoFeatureGraphicWarehouse.FeaturePriorityHolder;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
@@ -55,15 +63,15 @@ public class CoverageTable {
     final private Map<CoverageCharVdt, String> charvdtrec = new HashMap<CoverageCharVdt, String>();
 
     /** hack - used by EdgeTable */
-    public int cachedLineSchema[] = null;
+    public volatile int cachedLineSchema[] = null;
     /** hack - used by AreaTable */
-    public int cachedAreaSchema[] = null;
+    public volatile int cachedAreaSchema[] = null;
     /** hack - used by TextTable */
-    public int cachedTextSchema[] = null;
+    public volatile int cachedTextSchema[] = null;
     /** hack - used by nodetable */
-    public int cachedEPointSchema[] = null;
+    public volatile int cachedEPointSchema[] = null;
     /** hack - used by nodetable */
-    public int cachedCPointSchema[] = null;
+    public volatile int cachedCPointSchema[] = null;
 
     /** featureclasses used for the line feature type */
     public FeatureClassInfo lineinfo[] = new FeatureClassInfo[0];
@@ -102,6 +110,14 @@ public class CoverageTable {
     public static final char COMPLEX_FEATURETYPE = 'C';
     public static final char SKIP_FEATURETYPE = 'S';
 
+    /**
+     * The number of threads used to read tiles in parallel, shared by all
+     * coverages.
+     */
+    private static int tileLoadThreads = Runtime.getRuntime().availableProcessors();
+    /** the pool used to read tiles in parallel, created when first needed */
+    private static ThreadPoolExecutor tileLoadPool;
+
     /**
      * Construct a CoverageTable object. Data is expected to be in a directory
      * called path/covtype.
@@ -411,6 +427,9 @@ public class CoverageTable {
         boolean didSomething = false;
 
         TableHolder tables = new TableHolder(this);
+        // Reads the tiles found through the thematic indexes in
+        // parallel, if the warehouse can handle it.
+        TileLoader loader = TileLoader.create(warehouse);
 
         // First, find the list of features, and iterate through
         // them. Use each one to go through it's feature table, if it
@@ -457,7 +476,12 @@ public class CoverageTable {
             }
 
             // This looks like where most features get processed.
-            if (drawFeaturesFromThematicIndex(fci, warehouse, tables, ll1, ll2, dpplat, dpplon, currentFeature, featureType)) {
+            if (loader != null) {
+                if (queueFeaturesFromThematicIndex(fci, loader, ll1, ll2, dpplat, dpplon, currentFeature, featureType)) {
+                    didSomething = true;
+                    continue;
+                }
+            } else if (drawFeaturesFromThematicIndex(fci, warehouse, tables, ll1, ll2, dpplat, dpplon, currentFeature, featureType)) {
                 didSomething = true;
                 continue;
             }
@@ -465,6 +489,12 @@ public class CoverageTable {
             // the whole file. This looks like the lessor case, trying to do
             // something if the thematic index didn't work.
 
+            if (loader != null) {
+                // Keep the graphics in feature order, the tiles queued
+                // so far go in before these.
+                loader.finish();
+            }
+
             boolean needToFindOurselves = true;
 
             TilingAdapter fciTilingAdapter = fci.getTilingAdapter();
@@ -581,10 +611,264 @@ public class CoverageTable {
             fci.close();
         }
         tables.close();
+        if (loader != null) {
+            loader.finish();
+        }
 
         return didSomething;
     }
 
+    /**
+     * The thematic index version of drawFeatures(), for reading tiles in
+     * parallel. Finds the tiles that contain the currentFeature and are on the
+     * map, and queues a task with the loader to read the features from each
+     * of them. The warehouse is asked if each tile needs to be read here, in
+     * tile order, before the tasks are queued.
+     * 
+     * @return true if the thematic index was available
+     * @see #drawFeaturesFromThematicIndex
+     */
+    protected boolean queueFeaturesFromThematicIndex(FeatureClassInfo fci, TileLoader loader,
+                                                     LatLonPoint ll1, LatLonPoint ll2,
+                                                     float dpplat, float dpplon,
+                                                     String currentFeature, char featureType) {
+
+        if (!fci.initThematicIndex(tablepath)) {
+            return false;
+        }
+
+        VPFFeatureGraphicWarehouse warehouse = loader.warehouse;
+        try {
+            int primitiveIdColIndex = fci.getTilePrimitiveIdColIndex();
+            DcwThematicIndex thematicIndex = fci.getThematicIndex();
+            Object[] indexes = thematicIndex.getValueIndexes();
+
+            // We just know that these values are tile IDs.
+            for (int i = 0; i < indexes.length; i++) {
+                int tileID = VPFUtil.objectToInt(indexes[i]);
+                TileDirectory currentTile = cat.getTileWithID(tileID);
+
+                if (currentTile == null) {
+                    Debug.error("VPFLayer|CoverageTable.drawFeatures: null tile from bogus ID ("
+                            + tileID + ") from " + fci.filename + ", skipping...");
+                    continue;
+                }
+
+                if (!currentTile.inRegion(ll1.getLatitude(), ll2.getLatitude(), ll2.getLongitude(), ll1.getLongitude())) {
+                    if (Debug.debugging("vpf.tile")) {
+                        Debug.output("Skipping " + featureType + " features for " + tileID
+                                + ", not on map");
+                    }
+                    continue;
+                }
+
+                if (!warehouse.needToFetchTileContents(cat.libraryname, currentFeature, currentTile)) {
+                    if (Debug.debugging("vpf")) {
+                        Debug.output("Loaded Cached List for " + currentFeature + " and "
+                                + currentTile.getPath());
+                    }
+                    continue;
+                }
+
+                int[] featureID = thematicIndex.get(indexes[i]);
+
+                if (Debug.debugging("vpf.tile")) {
+                    Debug.output("Queueing " + featureID.length + " " + featureType
+                            + " features for " + tileID + " " + currentTile);
+                }
+
+                loader.submit(new TileFeatures(fci, fci.openCursor(), primitiveIdColIndex, featureID, currentTile, warehouse.createTileGraphics(), warehouse, ll1, ll2, dpplat, dpplon, currentFeature, featureType));
+            }
+            return true;
+        } catch (FormatException f) {
+            if (Debug.debugging("vpf.FormatException")) {
+                Debug.output("CoverageTable.QFFTI: Format Exception queueing features: "
+                        + f.getClass() + " " + f.getMessage());
+            }
+            return false;
+        } finally {
+            fci.close();
+        }
+    }
+
+    /**
+     * Set the number of threads used to read tiles in parallel, shared by all
+     * coverages. The default is the number of processors.
+     */
+    public static synchronized void setTileLoadThreads(int numThreads) {
+        tileLoadThreads = Math.max(1, numThreads);
+        if (tileLoadPool != null) {
+            if (tileLoadThreads > tileLoadPool.getMaximumPoolSize()) {
+                tileLoadPool.setMaximumPoolSize(tileLoadThreads);
+                tileLoadPool.setCorePoolSize(tileLoadThreads);
+            } else {
+                tileLoadPool.setCorePoolSize(tileLoadThreads);
+                tileLoadPool.setMaximumPoolSize(tileLoadThreads);
+            }
+        }
+    }
+
+    /**
+     * Get the number of threads used to read tiles in parallel.
+     */
+    public static synchronized int getTileLoadThreads() {
+        return tileLoadThreads;
+    }
+
+    /**
+     * Get the pool used to read tiles in parallel, creating it if needed.
+     */
+    protected static synchronized ThreadPoolExecutor getTileLoadPool() {
+        if (tileLoadPool == null) {
+            tileLoadPool = new ThreadPoolExecutor(tileLoadThreads, tileLoadThreads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "VPFTileLoader-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            tileLoadPool.allowCoreThreadTimeOut(true);
+        }
+        return tileLoadPool;
+    }
+
+    /**
+     * Keeps track of the tiles being read in parallel for one drawFeatures()
+     * call, and adds their graphics to the warehouse in the order the tiles
+     * were queued.
+     */
+    protected static class TileLoader {
+        protected final VPFFeatureGraphicWarehouse warehouse;
+        protected final List<Future<TileGraphics>> pending = new ArrayList<Future<TileGraphics>>();
+
+        protected TileLoader(VPFFeatureGraphicWarehouse warehouse) {
+            this.warehouse = warehouse;
+        }
+
+        /**
+         * @return a TileLoader if the tiles for the warehouse can be read in
+         *         parallel, null if they should be read one after the other.
+         */
+        protected static TileLoader create(VPFFeatureWarehouse warehouse) {
+            if (warehouse instanceof VPFFeatureGraphicWarehouse
+                    && ((VPFFeatureGraphicWarehouse) warehouse).isConcurrentTiles()
+                    && getTileLoadThreads() > 1) {
+                return new TileLoader((VPFFeatureGraphicWarehouse) warehouse);
+            }
+            return null;
+        }
+
+        protected void submit(TileFeatures task) {
+            pending.add(getTileLoadPool().submit(task));
+        }
+
+        /**
+         * Wait for the queued tiles, adding their graphics to the warehouse in
+         * order.
+         */
+        protected void finish() {
+            try {
+                for (Future<TileGraphics> future : pending) {
+                    try {
+                        warehouse.addTileGraphics(future.get());
+                    } catch (ExecutionException ee) {
+                        logger.warning("problem reading VPF tile: " + ee.getCause());
+                    }
+                }
+            } catch (InterruptedException ie) {
+                for (Future<TileGraphics> future : pending) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+            } finally {
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads the features of one feature class from one tile, on a tile
+     * loading thread. The tile gets its own tables, and the graphics the
+     * warehouse creates are collected in a TileGraphics.
+     */
+    protected class TileFeatures implements Callable<TileGraphics> {
+        protected final FeatureClassInfo fci;
+        protected final DcwRecordCursor fciCursor;
+        protected final int primitiveIdColIndex;
+        protected final int[] featureID;
+        protected final TileDirectory tile;
+        protected final TileGraphics tileGraphics;
+        protected final VPFFeatureGraphicWarehouse warehouse;
+        protected final LatLonPoint ll1;
+        protected final LatLonPoint ll2;
+        protected final float dpplat;
+        protected final float dpplon;
+        protected final String currentFeature;
+        protected final char featureType;
+
+        protected TileFeatures(FeatureClassInfo fci, DcwRecordCursor fciCursor,
+                int primitiveIdColIndex, int[] featureID, TileDirectory tile,
+                TileGraphics tileGraphics, VPFFeatureGraphicWarehouse warehouse,
+                LatLonPoint ll1, LatLonPoint ll2, float dpplat, float dpplon,
+                String currentFeature, char featureType) {
+            this.fci = fci;
+            this.fciCursor = fciCursor;
+            this.primitiveIdColIndex = primitiveIdColIndex;
+            this.featureID = featureID;
+            this.tile = tile;
+            this.tileGraphics = tileGraphics;
+            this.warehouse = warehouse;
+            this.ll1 = ll1;
+            this.ll2 = ll2;
+            this.dpplat = dpplat;
+            this.dpplon = dpplon;
+            this.currentFeature = currentFeature;
+            this.featureType = featureType;
+        }
+
+        public TileGraphics call() {
+            TableHolder tables = new TableHolder(CoverageTable.this);
+            warehouse.setTileGraphics(tileGraphics);
+            try {
+                tables.setTables(featureType, tile);
+                tables.findYourself(fci);
+
+                for (int j = 0; j < featureID.length; j++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    // featurePrimID is the unique ID of this feature. The
+                    // primitiveID looks like it's the fac_id of the feature
+                    // in the tile.
+                    int featurePrimID = featureID[j];
+                    if (!fciCursor.getRow(featurePrimID)) {
+                        // couldn't get row for some reason
+                        continue;
+                    }
+
+                    int primitiveID = fciCursor.getInt(primitiveIdColIndex);
+                    if (primitiveID <= 0) {
+                        continue;
+                    }
+                    // for attribute retrieval, we need the featurePrimID.
+                    tables.drawFeature(primitiveID, warehouse, ll1, ll2, dpplat, dpplon, currentFeature, featurePrimID);
+                }
+            } catch (FormatException f) {
+                if (Debug.debugging("vpf.FormatException")) {
+                    Debug.output("CoverageTable.TileFeatures: Format Exception reading " + tile
+                            + ": " + f.getClass() + " " + f.getMessage());
+                }
+            } finally {
+                warehouse.setTileGraphics(null);
+                tables.close();
+                fciCursor.close();
+            }
+            return tileGraphics;
+        }
+    }
+
     /**
      * This function gets the thematic index from the FeatureClassInfo object,
      * and uses it to look up the tiles that contain the currentFeature. Then,
@@ -1166,8 +1450,8 @@ class TableHolder {
             if ((cnt != null) && cnt.getRow(primitiveVector, primitiveID)) {
                 return cnt.drawFeature(warehouse, dpplat, dpplon, ll1, ll2, primitiveVector, currentFeature, featurePrimID);
             }
-            if ((edg != null) && edg.getRow(primitiveVector, primitiveID)) {
-                return edg.drawFeature(warehouse, dpplat, dpplon, ll1, ll2, primitiveVector, currentFeature, featurePrimID);
+            if (edg != null) {
+                return edg.drawFeature(warehouse, dpplat, dpplon, ll1, ll2, primitiveID, currentFeature, featurePrimID);
             }
         }
 
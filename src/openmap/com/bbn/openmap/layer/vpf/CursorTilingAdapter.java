@@ -0,0 +1,53 @@
+// **********************************************************************
+// 
+// <copyright>
+// 
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+// 
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+// 
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.vpf;
+
+/**
+ * A TilingAdapter that can also read the tiling information straight from a
+ * DcwRecordCursor, without the row being parsed into a List. The adapters
+ * that come with TilingAdapter all implement it, code reading edges with a
+ * cursor checks for it and falls back to the List methods for other
+ * adapters.
+ * 
+ * @see DcwRecordCursor#copyRow(java.util.List)
+ */
+public interface CursorTilingAdapter extends TilingAdapter {
+    /**
+     * Get the tile identifier for the alternate tile
+     * 
+     * @param c a cursor on a row of the table this adapter was
+     *        created for
+     * @return the tile id of the alternate tile
+     */
+    public int getTileId(DcwRecordCursor c);
+
+    /**
+     * Get the primitive identifier in the current tile
+     * 
+     * @param c a cursor on a row of the table this adapter was
+     *        created for
+     * @return the primitive id in the current tile
+     */
+    public int getPrimId(DcwRecordCursor c);
+
+    /**
+     * Get the primitive identifier in the alternate tile
+     * 
+     * @param c a cursor on a row of the table this adapter was
+     *        created for
+     * @return the primitive id in the alternate tile
+     */
+    public int getTilePrimId(DcwRecordCursor c);
+}
@@ -0,0 +1,613 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.vpf;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * A typed, allocation-free way to walk the rows of a DcwRecordFile. The
+ * cursor works on its own view of the table contents (memory-mapped for local
+ * files, see DcwRecordFile.openCursor()), so any number of cursors can read
+ * the same table at the same time, from different threads, without
+ * synchronizing on the table's BinaryFile.
+ * <P>
+ * Reading a row only records where each field starts. The field values are
+ * decoded when they are asked for, straight into primitives, and coordinate
+ * strings are copied straight into a float[] or double[] provided by the
+ * caller. Nothing is boxed, and no List, CoordFloatString or DcwCrossTileID
+ * objects are created. The values are only valid until the cursor moves to
+ * another row.
+ * <P>
+ * A cursor isn't thread-safe itself, use one cursor per thread.
+ *
+ * <pre>
+ * DcwRecordCursor cursor = table.openCursor();
+ * try {
+ *     while (cursor.next()) {
+ *         int id = cursor.getInt(idColumn);
+ *         int count = cursor.getTupleCount(coordColumn);
+ *         ...
+ *     }
+ * } finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ *
+ * @see DcwRecordFile#openCursor()
+ */
+public class DcwRecordCursor {
+
+    /** the table being read */
+    protected final DcwRecordFile table;
+    /** the columns of the table */
+    protected final DcwColumnInfo[] columnInfo;
+    /** this cursor's view of the table contents */
+    protected ByteBuffer data;
+    /** byte offset of each field in the current row */
+    protected final int[] fieldOffset;
+    /**
+     * number of elements in each field of the current row (tuples for
+     * coordinate strings, bytes for text)
+     */
+    protected final int[] fieldCount;
+    /** the row the field offsets are for, 0 before the first row */
+    protected int row = 0;
+    /** the byte offset of the row that next() will read */
+    protected int nextOffset;
+    /** reused for decoding text fields */
+    private byte[] textBuffer = new byte[64];
+
+    /**
+     * Create a cursor positioned before the first row of a table.
+     *
+     * @param table the table to read
+     * @param tableData the contents of the table file, the cursor works on a
+     *        duplicate of it.
+     * @exception FormatException if the first row can't be located
+     */
+    protected DcwRecordCursor(DcwRecordFile table, ByteBuffer tableData)
+            throws FormatException {
+        this.table = table;
+        this.columnInfo = table.getColumnInfo();
+        this.data = tableData.duplicate();
+        this.data.order(table.byteorder ? ByteOrder.BIG_ENDIAN
+                : ByteOrder.LITTLE_ENDIAN);
+        fieldOffset = new int[columnInfo.length];
+        fieldCount = new int[columnInfo.length];
+        nextOffset = table.rowOffset(1);
+    }
+
+    /**
+     * Get the table this cursor is reading.
+     */
+    public DcwRecordFile getTable() {
+        return table;
+    }
+
+    /**
+     * Move to the next row of the table.
+     *
+     * @return true if a row was read, false if there are no more rows
+     * @exception FormatException the row is damaged or truncated
+     */
+    public boolean next() throws FormatException {
+        if (data == null) {
+            throw new FormatException("DcwRecordCursor: cursor on "
+                    + table.filename + " has been closed");
+        }
+        int limit = data.limit();
+        if (nextOffset >= limit) {
+            return false;
+        }
+
+        int pos = nextOffset;
+        try {
+            for (int i = 0; i < columnInfo.length; i++) {
+                DcwColumnInfo dci = columnInfo[i];
+                int numels = dci.getNumberOfElements();
+                char type = dci.getFieldType();
+                switch (type) {
+                case DcwColumnInfo.VPF_COLUMN_TEXT:
+                case DcwColumnInfo.VPF_COLUMN_TEXTL1:
+                case DcwColumnInfo.VPF_COLUMN_TEXTL2:
+                case DcwColumnInfo.VPF_COLUMN_TEXTL3:
+                    if (numels == -1) {
+                        numels = data.getInt(pos);
+                        pos += 4;
+                    }
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = checkCount(numels, i);
+                    pos += numels;
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_FLOAT:
+                case DcwColumnInfo.VPF_COLUMN_INT:
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = 1;
+                    pos += 4;
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = 1;
+                    pos += 8;
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_SHORT:
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = 1;
+                    pos += 2;
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD:
+                case DcwColumnInfo.VPF_COLUMN_DOUBLE_2COORD:
+                case DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD:
+                case DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD:
+                    if (numels == -1) {
+                        numels = data.getInt(pos);
+                        pos += 4;
+                    }
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = checkCount(numels, i);
+                    pos += numels * tupleSize(type) * valueSize(type);
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_DATE:
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = 20;
+                    pos += 20;
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_NULL:
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = 0;
+                    break;
+                case DcwColumnInfo.VPF_COLUMN_TRIPLET: {
+                    int format = data.get(pos) & 0xff;
+                    fieldOffset[i] = pos;
+                    fieldCount[i] = 1;
+                    pos += 1 + keyLength(format >> 6) + keyLength(format >> 4)
+                            + keyLength(format >> 2) + keyLength(format);
+                    break;
+                }
+                default:
+                    throw new FormatException("Unknown field type: " + type);
+                }
+            }
+        } catch (IndexOutOfBoundsException ioobe) {
+            pos = limit + 1;
+        }
+
+        if (pos > limit) {
+            throw new FormatException("DcwRecordCursor: hit EOF in row "
+                    + (row + 1) + " of " + table.filename);
+        }
+
+        row++;
+        nextOffset = pos;
+        return true;
+    }
+
+    /**
+     * Read a row from the table, subsequent calls to next() will read the rows
+     * after it.
+     *
+     * @param rownumber the number of the row to read [1..recordCount]
+     * @return true if the row was read, false if the table doesn't have that
+     *         row
+     * @exception FormatException the row is damaged or truncated
+     * @exception IllegalArgumentException rownumber less than 1
+     */
+    public boolean getRow(int rownumber) throws FormatException {
+        seekToRow(rownumber);
+        return next();
+    }
+
+    /**
+     * Position the cursor so that the next call to next() reads the specified
+     * row.
+     *
+     * @param rownumber the number of the row to seek to
+     * @exception FormatException data format errors
+     * @exception IllegalArgumentException rownumber less than 1
+     */
+    public void seekToRow(int rownumber) throws FormatException {
+        if (rownumber <= 0) {
+            throw new IllegalArgumentException("DcwRecordCursor: seekToRow("
+                    + rownumber + "," + table.filename + ")");
+        }
+        if (rownumber != row + 1) {
+            nextOffset = table.rowOffset(rownumber);
+            row = rownumber - 1;
+        }
+    }
+
+    /**
+     * The number of the current row, 0 if no row has been read yet.
+     */
+    public int getRowNumber() {
+        return row;
+    }
+
+    /**
+     * Get an integer value. Works for int and short columns, for cross-tile
+     * identifiers it returns the key in the current tile, and float and double
+     * values are truncated.
+     *
+     * @param column the column index
+     */
+    public int getInt(int column) {
+        int pos = fieldOffset[column];
+        switch (columnInfo[column].getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_INT:
+            return data.getInt(pos);
+        case DcwColumnInfo.VPF_COLUMN_SHORT:
+            return data.getShort(pos);
+        case DcwColumnInfo.VPF_COLUMN_TRIPLET:
+            return crossTileValue(column, 6);
+        case DcwColumnInfo.VPF_COLUMN_FLOAT:
+            return (int) data.getFloat(pos);
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+            return (int) data.getDouble(pos);
+        default:
+            throw wrongType(column, "int");
+        }
+    }
+
+    /**
+     * Get a numeric value as a double. Works for float, double, int and short
+     * columns.
+     *
+     * @param column the column index
+     */
+    public double getDouble(int column) {
+        int pos = fieldOffset[column];
+        switch (columnInfo[column].getFieldType()) {
+        case DcwColumnInfo.VPF_COLUMN_FLOAT:
+            return data.getFloat(pos);
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+            return data.getDouble(pos);
+        case DcwColumnInfo.VPF_COLUMN_INT:
+            return data.getInt(pos);
+        case DcwColumnInfo.VPF_COLUMN_SHORT:
+            return data.getShort(pos);
+        default:
+            throw wrongType(column, "double");
+        }
+    }
+
+    /**
+     * Get the id of the connected tile from a cross-tile identifier column,
+     * the nextTileID of a DcwCrossTileID.
+     *
+     * @param column the column index
+     * @return the tile id, -1 if there isn't one.
+     */
+    public int getNextTileId(int column) {
+        return crossTileValue(column, 4);
+    }
+
+    /**
+     * Get the key in the connected tile from a cross-tile identifier column,
+     * the nextTileKey of a DcwCrossTileID.
+     *
+     * @param column the column index
+     * @return the primitive id in the connected tile, -1 if there isn't one.
+     */
+    public int getNextTileKey(int column) {
+        return crossTileValue(column, 2);
+    }
+
+    /**
+     * Get the value of a text column. Fixed length strings lose their
+     * trailing whitespace, as they do with DcwRecordFile.parseRow().
+     *
+     * @param column the column index
+     */
+    public String getString(int column) {
+        DcwColumnInfo dci = columnInfo[column];
+        char type = dci.getFieldType();
+        if (type != DcwColumnInfo.VPF_COLUMN_TEXT
+                && type != DcwColumnInfo.VPF_COLUMN_TEXTL1
+                && type != DcwColumnInfo.VPF_COLUMN_TEXTL2
+                && type != DcwColumnInfo.VPF_COLUMN_TEXTL3) {
+            throw wrongType(column, "text");
+        }
+
+        int len = fieldCount[column];
+        if (len == 0) {
+            return "";
+        }
+        if (textBuffer.length < len) {
+            textBuffer = new byte[Math.max(len, textBuffer.length * 2)];
+        }
+        int pos = fieldOffset[column];
+        for (int i = 0; i < len; i++) {
+            textBuffer[i] = data.get(pos + i);
+        }
+
+        String s;
+        if (type == DcwColumnInfo.VPF_COLUMN_TEXT) {
+            s = new String(textBuffer, 0, len);
+        } else {
+            try {
+                s = new String(textBuffer, 0, len, "ISO8859_1");
+            } catch (UnsupportedEncodingException uee) {
+                s = new String(textBuffer, 0, len);
+            }
+        }
+        return (dci.getNumberOfElements() != -1) ? s.trim() : s;
+    }
+
+    /**
+     * Get the number of tuples in a coordinate string column.
+     *
+     * @param column the column index
+     */
+    public int getTupleCount(int column) {
+        checkCoordinates(column);
+        return fieldCount[column];
+    }
+
+    /**
+     * Get the number of values in each tuple of a coordinate string column, 2
+     * or 3.
+     *
+     * @param column the column index
+     */
+    public int getTupleSize(int column) {
+        return tupleSize(checkCoordinates(column));
+    }
+
+    /**
+     * Get one value of a coordinate string.
+     *
+     * @param column the column index
+     * @param tuple the index of the tuple
+     * @param val the index of the value in the tuple (0 for x, 1 for y, 2 for
+     *        z)
+     */
+    public double getCoordinate(int column, int tuple, int val) {
+        char type = checkCoordinates(column);
+        int index = tuple * tupleSize(type) + val;
+        if (valueSize(type) == 4) {
+            return data.getFloat(fieldOffset[column] + index * 4);
+        }
+        return data.getDouble(fieldOffset[column] + index * 8);
+    }
+
+    /**
+     * Copy a coordinate string into an array, as x1,y1(,z1),x2,y2(,z2),...
+     *
+     * @param column the column index
+     * @param dest the array to copy into, must have room for tupleCount *
+     *        tupleSize values after offset.
+     * @param offset where to put the first value
+     * @return the number of values copied
+     */
+    public int getCoordinates(int column, double[] dest, int offset) {
+        char type = checkCoordinates(column);
+        int len = fieldCount[column] * tupleSize(type);
+        int pos = fieldOffset[column];
+        if (valueSize(type) == 4) {
+            for (int i = 0; i < len; i++, pos += 4) {
+                dest[offset++] = data.getFloat(pos);
+            }
+        } else {
+            for (int i = 0; i < len; i++, pos += 8) {
+                dest[offset++] = data.getDouble(pos);
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Copy a coordinate string into an array, as x1,y1(,z1),x2,y2(,z2),...
+     * Double precision coordinates are narrowed to floats.
+     *
+     * @param column the column index
+     * @param dest the array to copy into, must have room for tupleCount *
+     *        tupleSize values after offset.
+     * @param offset where to put the first value
+     * @return the number of values copied
+     */
+    public int getCoordinates(int column, float[] dest, int offset) {
+        char type = checkCoordinates(column);
+        int len = fieldCount[column] * tupleSize(type);
+        int pos = fieldOffset[column];
+        if (valueSize(type) == 4) {
+            for (int i = 0; i < len; i++, pos += 4) {
+                dest[offset++] = data.getFloat(pos);
+            }
+        } else {
+            for (int i = 0; i < len; i++, pos += 8) {
+                dest[offset++] = (float) data.getDouble(pos);
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Get a coordinate string column as a new CoordFloatString, for code that
+     * works with the objects DcwRecordFile.parseRow() returns.
+     *
+     * @param column the column index
+     */
+    public CoordFloatString getCoordFloatString(int column) {
+        int tcount = getTupleCount(column);
+        int tsize = getTupleSize(column);
+        double[] vals = new double[tcount * tsize];
+        getCoordinates(column, vals, 0);
+        return new CoordFloatString(tcount, tsize, vals);
+    }
+
+    /**
+     * Copy the current row into a list, with the same objects
+     * DcwRecordFile.parseRow() would put there, for code that needs the row
+     * as a List. Unlike the table's getRow() and parseRow(), this doesn't
+     * lock the table.
+     *
+     * @param retval the list to fill, it's cleared first.
+     */
+    public void copyRow(List<Object> retval) {
+        retval.clear();
+        for (int i = 0; i < columnInfo.length; i++) {
+            int pos = fieldOffset[i];
+            switch (columnInfo[i].getFieldType()) {
+            case DcwColumnInfo.VPF_COLUMN_TEXT:
+            case DcwColumnInfo.VPF_COLUMN_TEXTL1:
+                retval.add(getString(i));
+                break;
+            case DcwColumnInfo.VPF_COLUMN_TEXTL2:
+            case DcwColumnInfo.VPF_COLUMN_TEXTL3: {
+                byte[] b = new byte[fieldCount[i]];
+                for (int j = 0; j < b.length; j++) {
+                    b[j] = data.get(pos + j);
+                }
+                retval.add(b);
+                break;
+            }
+            case DcwColumnInfo.VPF_COLUMN_FLOAT:
+                retval.add(new Float(data.getFloat(pos)));
+                break;
+            case DcwColumnInfo.VPF_COLUMN_DOUBLE:
+                retval.add(new Double(data.getDouble(pos)));
+                break;
+            case DcwColumnInfo.VPF_COLUMN_SHORT:
+                retval.add(new Short(data.getShort(pos)));
+                break;
+            case DcwColumnInfo.VPF_COLUMN_INT:
+                retval.add(new Integer(data.getInt(pos)));
+                break;
+            case DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD:
+            case DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD:
+                retval.add(getCoordFloatString(i));
+                break;
+            case DcwColumnInfo.VPF_COLUMN_DOUBLE_2COORD:
+            case DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD: {
+                int tcount = getTupleCount(i);
+                int tsize = getTupleSize(i);
+                double[] vals = new double[tcount * tsize];
+                getCoordinates(i, vals, 0);
+                retval.add(new CoordDoubleString(tcount, tsize, vals));
+                break;
+            }
+            case DcwColumnInfo.VPF_COLUMN_DATE:
+                retval.add("[skipped date]");
+                break;
+            case DcwColumnInfo.VPF_COLUMN_NULL:
+                retval.add("[Null Field Type]");
+                break;
+            case DcwColumnInfo.VPF_COLUMN_TRIPLET:
+                retval.add(new DcwCrossTileID(crossTileValue(i, 6), crossTileValue(i, 4), crossTileValue(i, 2)));
+                break;
+            }
+        }
+    }
+
+    /**
+     * Release this cursor's view of the table. The cursor can't be used
+     * afterward.
+     */
+    public void close() {
+        data = null;
+        row = 0;
+    }
+
+    /**
+     * Read one of the values of a cross-tile identifier.
+     *
+     * @param column the column index
+     * @param shift 6 for the current tile key, 4 for the next tile id, 2 for
+     *        the next tile key.
+     */
+    protected int crossTileValue(int column, int shift) {
+        if (columnInfo[column].getFieldType() != DcwColumnInfo.VPF_COLUMN_TRIPLET) {
+            throw wrongType(column, "cross-tile id");
+        }
+        int pos = fieldOffset[column];
+        int format = data.get(pos++) & 0xff;
+        for (int s = 6; s > shift; s -= 2) {
+            pos += keyLength(format >> s);
+        }
+        switch ((format >> shift) & 0x3) {
+        case 1:
+            return data.get(pos) & 0xff;
+        case 2:
+            return data.getShort(pos) & 0xffff;
+        case 3:
+            return data.getInt(pos);
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Make sure that a column holds coordinate strings.
+     *
+     * @return the type of the column
+     */
+    protected char checkCoordinates(int column) {
+        char type = columnInfo[column].getFieldType();
+        switch (type) {
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD:
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_2COORD:
+        case DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD:
+        case DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD:
+            return type;
+        default:
+            throw wrongType(column, "coordinate string");
+        }
+    }
+
+    private int checkCount(int count, int column) throws FormatException {
+        if (count < 0) {
+            throw new FormatException("DcwRecordCursor: bad element count "
+                    + count + " for " + columnInfo[column].getColumnName()
+                    + " in row " + (row + 1) + " of " + table.filename);
+        }
+        return count;
+    }
+
+    private IllegalArgumentException wrongType(int column, String wanted) {
+        DcwColumnInfo dci = columnInfo[column];
+        return new IllegalArgumentException("DcwRecordCursor: column "
+                + dci.getColumnName() + " of type " + dci.getFieldType()
+                + " isn't a " + wanted + " column");
+    }
+
+    /** number of bytes used by a cross-tile id key with the given format */
+    private static int keyLength(int key) {
+        switch (key & 0x3) {
+        case 1:
+            return 1;
+        case 2:
+            return 2;
+        case 3:
+            return 4;
+        default:
+            return 0;
+        }
+    }
+
+    private static int tupleSize(char type) {
+        return (type == DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD
+                || type == DcwColumnInfo.VPF_COLUMN_DOUBLE_3COORD) ? 3 : 2;
+    }
+
+    private static int valueSize(char type) {
+        return (type == DcwColumnInfo.VPF_COLUMN_FLOAT_2COORD
+                || type == DcwColumnInfo.VPF_COLUMN_FLOAT_3COORD) ? 4 : 8;
+    }
+}
@@ -18,7 +18,9 @@
 package com.bbn.openmap.layer.vpf;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,6 +28,7 @@ import com.bbn.openmap.MoreMath;
 import com.bbn.openmap.io.BinaryBufferedFile;
 import com.bbn.openmap.io.BinaryFile;
 import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.io.MappedInputReader;
 
 /**
  * Read and encapsulate VPF table files.
@@ -69,6 +72,11 @@ public class DcwRecordFile {
     protected boolean byteorder = true;
     /** the record number that a call to parseRow() will return */
     int cursorRow = -1;
+    /**
+     * the contents of the table file, mapped (or read) once and shared by
+     * all the cursors opened on the table
+     */
+    private ByteBuffer tableData = null;
 
     /** the name of the row identifier column "id" */
     public static final String ID_COLUMN_NAME = "id";
@@ -547,14 +555,8 @@ public class DcwRecordFile {
             return;
         }
         cursorRow = recordNumber;
-        int offset = 0;
+        int offset = rowOffset(recordNumber);
         try {
-            if ((recordLength == -1) && (recordNumber != 1)) {
-                offset = vli().recordOffset(recordNumber);
-            } else {
-                offset = (recordLength * (recordNumber - 1)) + headerLength;
-            }
-
             inputFile.seek(offset);
         } catch (IOException io) {
             throw new FormatException("SeekToRow IOException "
@@ -563,6 +565,66 @@ public class DcwRecordFile {
         }
     }
 
+    /**
+     * Get the position of a row in the table file.
+     * 
+     * @param recordNumber the number of the row [1..recordCount]
+     * @return the byte offset of the row
+     * @exception FormatException the variable length index couldn't be
+     *            read
+     */
+    synchronized int rowOffset(int recordNumber) throws FormatException {
+        if ((recordLength == -1) && (recordNumber != 1)) {
+            try {
+                return vli().recordOffset(recordNumber);
+            } catch (IOException io) {
+                throw new FormatException("rowOffset IOException "
+                        + io.getMessage() + " " + tablename + " " + filename);
+            }
+        }
+        return (recordLength * (recordNumber - 1)) + headerLength;
+    }
+
+    /**
+     * Open a cursor for typed, allocation-free access to the rows of this
+     * table. Each cursor reads independently of the others and of
+     * parseRow()/getRow(), so several threads can read the table at once,
+     * one cursor each. Local table files are memory-mapped the first time a
+     * cursor is opened, other tables are read into memory.
+     * 
+     * @return a cursor positioned before the first row, should be closed
+     *         when done.
+     * @exception FormatException the table couldn't be read
+     */
+    public DcwRecordCursor openCursor() throws FormatException {
+        return new DcwRecordCursor(this, getTableData());
+    }
+
+    /**
+     * Get the contents of the table file, mapping or reading them if needed.
+     */
+    protected synchronized ByteBuffer getTableData() throws FormatException {
+        if (tableData == null) {
+            try {
+                File file = new File(filename);
+                if (file.isFile()) {
+                    tableData = MappedInputReader.map(file);
+                } else {
+                    BinaryFile bf = new BinaryBufferedFile(filename);
+                    try {
+                        tableData = ByteBuffer.wrap(bf.readBytes((int) bf.length(), false));
+                    } finally {
+                        bf.close();
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new FormatException("DcwRecordFile: couldn't read "
+                        + filename + ": " + ioe.getMessage());
+            }
+        }
+        return tableData;
+    }
+
     /**
      * Returns the index into columnInfo of the column with the
      * specified name
@@ -609,6 +671,7 @@ public class DcwRecordFile {
     /** Closes the associated input file. (may later get reopened) */
     public synchronized void close() {
         cursorRow = -1;
+        tableData = null;
         try {
             if (inputFile != null) {
                 inputFile.close();
@@ -80,6 +80,34 @@ public class EdgeTable extends PrimitiveTable {
         return ((Number) l.get(covtable.cachedLineSchema[2])).intValue();
     }
 
+    /**
+     * Get the value of the start_node column
+     * 
+     * @param c a cursor on a row of this table
+     */
+    public final int getStartNode(DcwRecordCursor c) {
+        return c.getInt(covtable.cachedLineSchema[1]);
+    }
+
+    /**
+     * Get the value of the end_node column
+     * 
+     * @param c a cursor on a row of this table
+     */
+    public final int getEndNode(DcwRecordCursor c) {
+        return c.getInt(covtable.cachedLineSchema[2]);
+    }
+
+    /**
+     * Get the position of the coordinates column, for reading the
+     * coordinates from a cursor.
+     * 
+     * @see DcwRecordCursor#getCoordinates(int, double[], int)
+     */
+    public final int getCoordinatesColumn() {
+        return covtable.cachedLineSchema[7];
+    }
+
     /**
      * Get the TilingAdapter for the right_face column
      */
@@ -160,13 +188,34 @@ public class EdgeTable extends PrimitiveTable {
             return;
         }
 
+        if (!(warehouse instanceof VPFLayerGraphicWarehouse)) {
+            // Other warehouses get each row as a List.
+            try {
+                seekToRow(1);
+                for (List<Object> edge = new ArrayList<Object>(); parseRow(edge);) {
+                    warehouse.createEdge(covtable, this, edge, ll1, ll2, dpplat, dpplon, getCoordinates(edge));
+                }
+            } catch (FormatException f) {
+                System.out.println("Exception: " + f.getClass() + " " + f.getMessage());
+            }
+            return;
+        }
+
+        // The warehouse reads the edge columns and coordinates straight from
+        // the cursor, the rows aren't parsed into objects.
+        VPFLayerGraphicWarehouse lgw = (VPFLayerGraphicWarehouse) warehouse;
+        DcwRecordCursor cursor = null;
         try {
-            seekToRow(1);
-            for (List<Object> edge = new ArrayList<Object>(); parseRow(edge);) {
-                warehouse.createEdge(covtable, this, edge, ll1, ll2, dpplat, dpplon, getCoordinates(edge));
+            cursor = openCursor();
+            while (cursor.next()) {
+                lgw.createEdge(covtable, this, cursor, ll1, ll2, dpplat, dpplon);
             }
         } catch (FormatException f) {
             System.out.println("Exception: " + f.getClass() + " " + f.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
     }
 
@@ -196,4 +245,50 @@ public class EdgeTable extends PrimitiveTable {
         return null;
     }
 
+    /**
+     * Use the warehouse to create a graphic from a row of the edge table. A
+     * VPFFeatureGraphicWarehouse gets the row from a cursor, other warehouses
+     * get it as a List.
+     * 
+     * @param warehouse the warehouse used for createEdge calls (must not be
+     *        null)
+     * @param dpplat threshold for latitude thinning (passed to warehouse)
+     * @param dpplon threshold for longitude thinngin (passed to warehouse)
+     * @param ll1 upperleft of selection region (passed to warehouse)
+     * @param ll2 lowerright of selection region (passed to warehouse)
+     * @param row the row of the edge in the table.
+     * @param featureType the name of the feature. The warehouse may want to do
+     *        some intelligent rendering.
+     * @param primID the primitive ID of the feature, in order to gather attributes if
+     *        necessary.
+     * @return the OMGraphic, or null if the table doesn't have the row.
+     * @exception FormatException the row couldn't be read
+     * @see VPFGraphicWarehouse#createEdge
+     */
+    public OMGraphic drawFeature(VPFFeatureWarehouse warehouse, double dpplat, double dpplon,
+                                 LatLonPoint ll1, LatLonPoint ll2, int row, String featureType,
+                                 int primID) throws FormatException {
+        if (warehouse == null) {
+            return null;
+        }
+
+        if (warehouse instanceof VPFFeatureGraphicWarehouse) {
+            DcwRecordCursor cursor = openCursor();
+            try {
+                if (!cursor.getRow(row)) {
+                    return null;
+                }
+                return ((VPFFeatureGraphicWarehouse) warehouse).createEdge(covtable, this, cursor, ll1, ll2, dpplat, dpplon, featureType, primID);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        List<Object> edge = new ArrayList<Object>(getColumnCount());
+        if (!getRow(edge, row)) {
+            return null;
+        }
+        return drawFeature(warehouse, dpplat, dpplon, ll1, ll2, edge, featureType, primID);
+    }
+
 }
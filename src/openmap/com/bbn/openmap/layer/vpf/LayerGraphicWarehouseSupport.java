@@ -18,6 +18,7 @@
 package com.bbn.openmap.layer.vpf;
 
 import java.awt.Component;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
@@ -227,7 +228,68 @@ public abstract class LayerGraphicWarehouseSupport
       }
    }
 
+   /**
+    * The TileGraphics that graphics created by the current thread go into,
+    * see setTileGraphics().
+    */
+   private final ThreadLocal<TileGraphics> tileGraphics = new ThreadLocal<TileGraphics>();
+
+   /**
+    * Create a holder for the graphics of one tile, to be filled by a thread
+    * loading the tile in parallel with others. Called on the thread driving
+    * the feature extraction, after needToFetchTileContents() for the tile.
+    */
+   public TileGraphics createTileGraphics() {
+      return new TileGraphics();
+   }
+
+   /**
+    * Direct the graphics created by the calling thread into a TileGraphics
+    * instead of the warehouse lists, or back to the warehouse lists if tg is
+    * null.
+    */
+   public void setTileGraphics(TileGraphics tg) {
+      if (tg == null) {
+         tileGraphics.remove();
+      } else {
+         tileGraphics.set(tg);
+      }
+   }
+
+   /**
+    * Get the TileGraphics the calling thread is working on, null if the
+    * graphics should go into the warehouse lists.
+    */
+   protected TileGraphics getTileGraphics() {
+      return tileGraphics.get();
+   }
+
+   /**
+    * Add the graphics collected for a tile to the warehouse lists. The tiles
+    * should be added in the order they would have been read in, so the
+    * graphics end up in the same order no matter which tile finished first.
+    */
+   public synchronized void addTileGraphics(TileGraphics tg) {
+      for (OMGraphic omg : tg.areas) {
+         addArea(omg);
+      }
+      for (OMGraphic omg : tg.edges) {
+         addEdge(omg);
+      }
+      for (OMGraphic omg : tg.texts) {
+         addText(omg);
+      }
+      for (OMGraphic omg : tg.points) {
+         addPoint(omg);
+      }
+   }
+
    protected void addArea(OMGraphic area) {
+      TileGraphics tg = tileGraphics.get();
+      if (tg != null) {
+         tg.areas.add(area);
+         return;
+      }
       if (areaSubList == null) {
          areaSubList = new OMGraphicList();
       }
@@ -235,6 +297,11 @@ public abstract class LayerGraphicWarehouseSupport
    }
 
    protected void addEdge(OMGraphic edge) {
+      TileGraphics tg = tileGraphics.get();
+      if (tg != null) {
+         tg.edges.add(edge);
+         return;
+      }
       if (edgeSubList == null) {
          edgeSubList = new OMGraphicList();
       }
@@ -242,6 +309,11 @@ public abstract class LayerGraphicWarehouseSupport
    }
 
    protected void addText(OMGraphic text) {
+      TileGraphics tg = tileGraphics.get();
+      if (tg != null) {
+         tg.texts.add(text);
+         return;
+      }
       if (textSubList == null) {
          textSubList = new OMGraphicList();
       }
@@ -249,6 +321,11 @@ public abstract class LayerGraphicWarehouseSupport
    }
 
    protected void addPoint(OMGraphic point) {
+      TileGraphics tg = tileGraphics.get();
+      if (tg != null) {
+         tg.points.add(point);
+         return;
+      }
       if (pointSubList == null) {
          pointSubList = new OMGraphicList();
       }
@@ -444,11 +521,6 @@ public abstract class LayerGraphicWarehouseSupport
       // *2 for pairs
       double[] llpts = new double[totalSize * 2];
 
-      // only do it if we're in the vicinity
-      if (doAntarcticaWorkaround) {
-         doAntarcticaWorkaround = (ll2.getLatitude() < -62f);
-      }
-
       int npts = 0;
       for (CoordFloatString cfs : ipts) {
          int cfscnt = cfs.tcount;
@@ -468,6 +540,25 @@ public abstract class LayerGraphicWarehouseSupport
          }
       }
 
+      return createAreaOMPoly(llpts, ll2, doAntarcticaWorkaround);
+   }
+
+   /**
+    * create a filled polygon from points that have already been gathered, see
+    * AreaTable.computeLatLonPoints().
+    * 
+    * @param llpts lat, lon pairs, in radians
+    * @param ll2 lowerright of selection region (passed to warehouse)
+    * @param doAntarcticaWorkaround hack for funny DCW antarctica data (passed
+    *        to warehouse)
+    */
+   public static OMPoly createAreaOMPoly(double[] llpts, LatLonPoint ll2, boolean doAntarcticaWorkaround) {
+
+      // only do it if we're in the vicinity
+      if (doAntarcticaWorkaround) {
+         doAntarcticaWorkaround = (ll2.getLatitude() < -62f);
+      }
+
       // HACK: we will rewrite the data for the Antarctica polygon
       // so that
       // it will display "correctly" in the cylindrical projections.
@@ -563,6 +654,39 @@ public abstract class LayerGraphicWarehouseSupport
       return py;
    }
 
+   /**
+    * Create an OMPoly corresponding to a VPF edge feature, reading the
+    * coordinates straight from an edge table cursor.
+    * 
+    * @param edge a cursor on a row of the edge table
+    * @param coordColumn the coordinate column of the edge table
+    * @param ll1 upper left, used for clipping
+    * @param ll2 lower right, used for clipping
+    * @param dpplat used for latitude thinning
+    * @param dpplon used for longitude thinning
+    * @see EdgeTable#getCoordinatesColumn()
+    */
+   public static OMPoly createEdgeOMPoly(DcwRecordCursor edge, int coordColumn, LatLonPoint ll1, LatLonPoint ll2, double dpplat,
+                                         double dpplon) {
+      int tcount = edge.getTupleCount(coordColumn);
+      int tsize = edge.getTupleSize(coordColumn);
+      double[] llpts = new double[tcount * 2];
+      double[] tuples = llpts; // NOTE: lon,lat order!
+      if (tsize > 2) {
+         tuples = new double[tcount * tsize];
+      }
+      edge.getCoordinates(coordColumn, tuples, 0);
+
+      double lon;
+      for (int i = 0, j = 0; i < llpts.length; i += 2, j += tsize) {
+         lon = ProjMath.degToRad(tuples[j]);
+         llpts[i] = ProjMath.degToRad(tuples[j + 1]);// lat
+         llpts[i + 1] = lon;// lon
+      }
+
+      return new OMPoly(llpts, OMGraphic.RADIANS, OMGraphic.LINETYPE_STRAIGHT);
+   }
+
    /**
     * Set doThinning.
     * 
@@ -667,4 +791,22 @@ public abstract class LayerGraphicWarehouseSupport
 
       return new OMPoint(latitude, longitude);
    }
-}
\ No newline at end of file
+
+   /**
+    * The graphics created for one tile by a thread loading it in parallel
+    * with other tiles, held until they can be added to the warehouse in order.
+    */
+   public static class TileGraphics {
+      protected final List<OMGraphic> areas = new ArrayList<OMGraphic>();
+      protected final List<OMGraphic> edges = new ArrayList<OMGraphic>();
+      protected final List<OMGraphic> texts = new ArrayList<OMGraphic>();
+      protected final List<OMGraphic> points = new ArrayList<OMGraphic>();
+
+      /**
+       * @return the number of graphics collected for the tile.
+       */
+      public int size() {
+         return areas.size() + edges.size() + texts.size() + points.size();
+      }
+   }
+}
@@ -61,6 +61,33 @@ public class TextTable extends PrimitiveTable {
         return (CoordFloatString) textprim.get(coordColumn);
     }
 
+    /**
+     * Returns the text of the text primitive
+     * 
+     * @param c a cursor on a row of this table
+     */
+    public String getText(DcwRecordCursor c) {
+        return c.getString(textColumn);
+    }
+
+    /**
+     * Returns the latitude of the (first point of the) text primitive
+     * 
+     * @param c a cursor on a row of this table
+     */
+    public double getLatitude(DcwRecordCursor c) {
+        return c.getCoordinate(coordColumn, 0, 1);
+    }
+
+    /**
+     * Returns the longitude of the (first point of the) text primitive
+     * 
+     * @param c a cursor on a row of this table
+     */
+    public double getLongitude(DcwRecordCursor c) {
+        return c.getCoordinate(coordColumn, 0, 0);
+    }
+
     /**
      * Parse the text records for this tile, calling warehouse.createText once
      * for each record in the selection region.
@@ -81,19 +108,27 @@ public class TextTable extends PrimitiveTable {
         double ll2lat = ll2.getY();
         double ll2lon = ll2.getX();
 
+        // Check the location with a cursor, only rows in the selection
+        // region need to be copied into a List for the warehouse.
+        DcwRecordCursor cursor = null;
         try {
-            for (List<Object> text = new ArrayList<Object>(); parseRow(text);) {
-                String textval = (String) text.get(textColumn);
-                CoordFloatString coords = (CoordFloatString) text.get(coordColumn);
-                double lat = coords.getYasFloat(0);
-                double lon = coords.getXasFloat(0);
+            cursor = openCursor();
+            List<Object> text = new ArrayList<Object>(getColumnCount());
+            while (cursor.next()) {
+                double lat = getLatitude(cursor);
+                double lon = getLongitude(cursor);
 
                 if ((lat > ll2lat) && (lat < ll1lat) && (lon > ll1lon) && (lon < ll2lon)) {
-                    warehouse.createText(covtable, this, text, lat, lon, textval);
+                    cursor.copyRow(text);
+                    warehouse.createText(covtable, this, text, lat, lon, getText(cursor));
                 }
             }
         } catch (FormatException f) {
             System.out.println("Exception: " + f.getClass() + " " + f.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
     }
 
@@ -64,7 +64,7 @@ public interface TilingAdapter {
      * exist, and the primitive column is not a cross-tile
      * identifier.) Alternate tile will always return -1.
      */
-    public static class UntiledAdapter implements TilingAdapter {
+    public static class UntiledAdapter implements CursorTilingAdapter {
         /** the primitive column */
         final private int column;
 
@@ -87,13 +87,25 @@ public interface TilingAdapter {
         public DcwCrossTileID getPrim(List<Object> l) {
             return new DcwCrossTileID(getPrimId(l), -1, getTilePrimId(l));
         }
+
+        public int getTileId(DcwRecordCursor c) {
+            return -1;
+        }
+
+        public int getPrimId(DcwRecordCursor c) {
+            return c.getInt(column);
+        }
+
+        public int getTilePrimId(DcwRecordCursor c) {
+            return c.getInt(column);
+        }
     }
 
     /**
      * A TilingAdapter for tiled data where the primitive column is a
      * cross-tile identifier.
      */
-    public static class CrossTileAdapter implements TilingAdapter {
+    public static class CrossTileAdapter implements CursorTilingAdapter {
         /** the primitive column */
         final private int column;
 
@@ -116,6 +128,18 @@ public interface TilingAdapter {
         public DcwCrossTileID getPrim(List<Object> l) {
             return (DcwCrossTileID) l.get(column);
         }
+
+        public int getTileId(DcwRecordCursor c) {
+            return c.getNextTileId(column);
+        }
+
+        public int getPrimId(DcwRecordCursor c) {
+            return c.getInt(column);
+        }
+
+        public int getTilePrimId(DcwRecordCursor c) {
+            return c.getNextTileKey(column);
+        }
     }
 
     /**
@@ -123,7 +147,7 @@ public interface TilingAdapter {
      * tile_id column, and the primitive identifier comes from a
      * numeric column.
      */
-    public static class TiledAdapter implements TilingAdapter {
+    public static class TiledAdapter implements CursorTilingAdapter {
         /** the tile column */
         final private int tilecolumn;
         /** the primitive column */
@@ -149,5 +173,17 @@ public interface TilingAdapter {
         public DcwCrossTileID getPrim(List<Object> l) {
             return new DcwCrossTileID(getPrimId(l), getTileId(l), getTilePrimId(l));
         }
+
+        public int getTileId(DcwRecordCursor c) {
+            return c.getInt(tilecolumn);
+        }
+
+        public int getPrimId(DcwRecordCursor c) {
+            return c.getInt(primcolumn);
+        }
+
+        public int getTilePrimId(DcwRecordCursor c) {
+            return c.getInt(primcolumn);
+        }
     }
 }
\ No newline at end of file
@@ -147,7 +147,11 @@ public class VPFCachedFeatureGraphicWarehouse
     * Calls addToCachedList on the feature cache if it's available.
     */
    protected synchronized void addToCachedList(OMGraphic omg, String featureType, PrimitiveTable pt, String type) {
-      if (featureCache != null && cacheList != null) {
+      TileGraphics tg = getTileGraphics();
+      if (tg instanceof CachedTileGraphics && ((CachedTileGraphics) tg).cacheList != null) {
+         // Loading a tile on another thread, held until the tile is merged.
+         ((CachedTileGraphics) tg).cached.add(omg);
+      } else if (tg == null && featureCache != null && cacheList != null) {
 
          // this might be causing problems in the cache, if the list has
          // already be replaced by another library or layer. We're going to
@@ -174,6 +178,45 @@ public class VPFCachedFeatureGraphicWarehouse
       }
    }
 
+   /**
+    * Remembers the cached list returned by the last needToFetchTileContents()
+    * call, so graphics created for the tile on another thread go into it.
+    */
+   public TileGraphics createTileGraphics() {
+      return new CachedTileGraphics(featureCache != null ? cacheList : null);
+   }
+
+   /**
+    * Adds the graphics for a tile loaded on another thread, filling the
+    * tile's cached list in one step.
+    */
+   public synchronized void addTileGraphics(TileGraphics tg) {
+      super.addTileGraphics(tg);
+      if (tg instanceof CachedTileGraphics) {
+         CachedTileGraphics ctg = (CachedTileGraphics) tg;
+         if (ctg.cacheList != null && !ctg.cached.isEmpty()) {
+            ctg.cacheList.addAll(ctg.cached);
+         }
+      }
+   }
+
+   /**
+    * TileGraphics that also holds the cached list for the tile.
+    */
+   public static class CachedTileGraphics
+         extends TileGraphics {
+      protected final FeatureCacheGraphicList cacheList;
+      protected final List<OMGraphic> cached = new ArrayList<OMGraphic>();
+
+      public CachedTileGraphics(FeatureCacheGraphicList cacheList) {
+         this.cacheList = cacheList;
+      }
+
+      public int size() {
+         return super.size() + cached.size();
+      }
+   }
+
    /**
     * Calls VPFFeatureCache.needToFetchTileContents().
     */
@@ -22,6 +22,7 @@
 
 package com.bbn.openmap.layer.vpf;
 
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -33,7 +34,8 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * The VPFFeatureCache is an extended CacheHandler that caches OMGraphicLists
  * representing a specific feature contained in a CoverageTile. It's used by the
  * VPFCachedFeatureGraphicWarehouse, which in turn is used by the LibraryBean as
- * a central warehouse.
+ * a central warehouse. Lists can be looked up and loaded from several tile
+ * reading threads at once, each key is only loaded once.
  */
 public class VPFFeatureCache extends CacheHandler {
 
@@ -59,13 +61,16 @@ public class VPFFeatureCache extends CacheHandler {
      * @param featureType the feature code of the OMGraphic
      * @param pt the PrimitiveTable containing the path to the CoverageTile.
      */
-    protected synchronized void addToCachedList(String libraryName, OMGraphic omg,
-                                                String featureType,
-                                                PrimitiveTable pt, String type) {
+    protected void addToCachedList(String libraryName, OMGraphic omg,
+                                   String featureType, PrimitiveTable pt,
+                                   String type) {
         String key = createTableCacheKey(libraryName, featureType, pt.getTileDirectory()
                 .getPath());
-        FeatureCacheGraphicList omgl = (FeatureCacheGraphicList) get(key);
-        omgl.add(omg);
+        FeatureCacheGraphicList omgl = (FeatureCacheGraphicList) get(key,
+                VPFUtil.getTypeForFeatureCode(featureType));
+        if (omgl != null) {
+            omgl.add(omg);
+        }
     }
 
     /**
@@ -97,29 +102,40 @@ public class VPFFeatureCache extends CacheHandler {
      *         list is in the cache, it will not be returned from this method
      *         but only added to the requestor list.
      */
-    public synchronized FeatureCacheGraphicList loadCachedGraphicList(String libraryName, 
-                                                                      String featureType,
-                                                                      String tilePath,
-                                                                      OMGraphicList requestor) {
+    public FeatureCacheGraphicList loadCachedGraphicList(String libraryName,
+                                                         final String featureType,
+                                                         String tilePath,
+                                                         OMGraphicList requestor) {
 
-        String key = createTableCacheKey(libraryName, featureType, tilePath);
-        boolean exists = (searchCache(key) != null);
+        final String key = createTableCacheKey(libraryName, featureType, tilePath);
 
         // Will retrieve the old list if it exists, create a new one
-        // if it doesn't.
-
-        FeatureCacheGraphicList fcgl = (FeatureCacheGraphicList) get(key,
-                VPFUtil.getTypeForFeatureCode(featureType));
-        if (fcgl.getFeatureName() == null) {
-            fcgl.setFeatureName(featureType);
+        // if it doesn't. The loader only runs for the one caller that
+        // creates the list, even if several tiles and layers ask for
+        // it at once, and that caller is the one that has to fill it.
+        final boolean[] created = new boolean[1];
+        CacheObject co = getOrLoad(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                CacheObject ret = load(key, VPFUtil.getTypeForFeatureCode(featureType));
+                if (ret != null) {
+                    ((FeatureCacheGraphicList) ret.obj).setFeatureName(featureType);
+                    created[0] = true;
+                }
+                return ret;
+            }
+        });
+        if (co == null) {
+            return null;
         }
+
+        FeatureCacheGraphicList fcgl = (FeatureCacheGraphicList) co.obj;
         requestor.add(fcgl);
 
         // Might want to set the current attributes for the existing
         // contents of the list in case they were changed by the user.
 
         FeatureCacheGraphicList ret = null;
-        if (!exists) {
+        if (created[0]) {
             logger.fine("tile list didn't exist in cache, returning it to be loaded.");
             ret = fcgl;
         }
@@ -137,10 +153,10 @@ public class VPFFeatureCache extends CacheHandler {
      *        the files will be added to the list added to the requestor.
      * @return true if the CoverageTable needs to read the data files.
      */
-    public synchronized FeatureCacheGraphicList needToFetchTileContents(String libraryName,
-                                                                        String currentFeature,
-                                                                        TileDirectory currentTile,
-                                                                        OMGraphicList requestor) {
+    public FeatureCacheGraphicList needToFetchTileContents(String libraryName,
+                                                           String currentFeature,
+                                                           TileDirectory currentTile,
+                                                           OMGraphicList requestor) {
 
         // Instead of returning a boolean, loadCachedGraphicList is going
         // to return a cache object (empty OMGraphicList) that has just been
@@ -169,17 +185,13 @@ public class VPFFeatureCache extends CacheHandler {
      * @param featureType the kind of feature, VPFUtil.Area, VPFUtil.Edge,
      *        VPFUtil.Point or VPFUtil.Text.
      */
-    public Object get(String key, String featureType) {
-        CacheObject ret = searchCache(key);
-        if (ret != null)
-            return ret.obj;
-
-        ret = load(key, featureType);
-        if (ret == null)
-            return null;
-
-        replaceLeastUsed(ret);
-        return ret.obj;
+    public Object get(final String key, final String featureType) {
+        CacheObject ret = getOrLoad(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                return load(key, featureType);
+            }
+        });
+        return ret != null ? ret.obj : null;
     }
 
     /**
@@ -23,7 +23,6 @@
 package com.bbn.openmap.layer.vpf;
 
 import java.awt.Component;
-import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Properties;
@@ -54,7 +53,14 @@ public class VPFFeatureGraphicWarehouse extends VPFLayerGraphicWarehouse impleme
         VPFFeatureWarehouse {
 
     public final static String DEFAULT = "DEFAULT";
+    /**
+     * Property to set whether the tiles of a coverage can be read in parallel
+     * by CoverageTable.drawFeatures() ("true" by default).
+     */
+    public final static String ConcurrentTilesProperty = "concurrentTiles";
     protected Hashtable<String, DrawingAttributes> featureDrawingAttributes;
+    /** whether tiles can be read in parallel */
+    protected boolean concurrentTiles = true;
 
     /**
      *  
@@ -80,6 +86,24 @@ public class VPFFeatureGraphicWarehouse extends VPFLayerGraphicWarehouse impleme
     public void setProperties(String prefix, Properties props) {
         super.setProperties(prefix, props);
         createFeatureDrawingAttributes(prefix, props, getFeatures());
+        concurrentTiles = PropUtils.booleanFromProperties(props,
+                PropUtils.getScopedPropertyPrefix(prefix) + ConcurrentTilesProperty,
+                concurrentTiles);
+    }
+
+    /**
+     * Set whether CoverageTable.drawFeatures() can read tiles in parallel.
+     * The graphics are added to the warehouse in the same order either way.
+     */
+    public void setConcurrentTiles(boolean value) {
+        concurrentTiles = value;
+    }
+
+    /**
+     * Whether CoverageTable.drawFeatures() can read tiles in parallel.
+     */
+    public boolean isConcurrentTiles() {
+        return concurrentTiles;
     }
 
     /**
@@ -199,20 +223,18 @@ public class VPFFeatureGraphicWarehouse extends VPFLayerGraphicWarehouse impleme
                                 LatLonPoint ll1, LatLonPoint ll2, double dpplat, double dpplon,
                                 String featureType, int primID) {
 
-        List<CoordFloatString> ipts = new ArrayList<CoordFloatString>();
-
-        int totalSize = 0;
+        double[] llpts;
         try {
-            totalSize = areatable.computeEdgePoints(facevec, ipts);
+            llpts = areatable.computeLatLonPoints(facevec);
         } catch (FormatException f) {
-            Debug.output("FormatException in computeEdgePoints: " + f);
+            Debug.output("FormatException in computeLatLonPoints: " + f);
             return null;
         }
-        if (totalSize == 0) {
+        if (llpts == null) {
             return null;
         }
 
-        OMPoly py = createAreaOMPoly(ipts, totalSize, ll1, ll2, dpplat, dpplon, covtable.doAntarcticaWorkaround);
+        OMPoly py = createAreaOMPoly(llpts, ll2, covtable.doAntarcticaWorkaround);
 
         // getAttributesForFeature(featureType).setTo(py);
         //int id = ((Integer) facevec.get(0)).intValue();
@@ -246,6 +268,28 @@ public class VPFFeatureGraphicWarehouse extends VPFLayerGraphicWarehouse impleme
         return py;
     }
 
+    /**
+     * Create an edge feature from a cursor on the edge table row, without
+     * parsing the row into a List. EdgeTable uses this instead of the List
+     * version for this warehouse and its subclasses, a subclass that changes
+     * how edges are created has to override both.
+     * 
+     * @param c the coverage table for this edge
+     * @param edgetable the edgetable being parsed
+     * @param edge a cursor on the row of the edge table
+     */
+    public OMGraphic createEdge(CoverageTable c, EdgeTable edgetable, DcwRecordCursor edge,
+                                LatLonPoint ll1, LatLonPoint ll2, double dpplat, double dpplon,
+                                String featureType, int primID) {
+
+        OMPoly py = createEdgeOMPoly(edge, edgetable.getCoordinatesColumn(), ll1, ll2, dpplat, dpplon);
+        setAttributesForFeature(py, c, featureType, primID);
+        py.setFillPaint(OMColor.clear);
+        py.setIsPolygon(false);
+        addEdge(py);
+        return py;
+    }
+
     /**
      * @param omg The OMGraphic owning the attributes.
      * @param c the CoverageTable for the feature.
@@ -256,8 +300,11 @@ public class VPFFeatureGraphicWarehouse extends VPFLayerGraphicWarehouse impleme
                                            int id) {
         FeatureDrawingAttributes fda = getAttributesForFeature(featureType);
 
-        if (fda.getFci() == null) {
-            fda.setFci(c.getFeatureClassInfo(featureType));
+        // Tiles may be loading in parallel, only set it once.
+        synchronized (fda) {
+            if (fda.getFci() == null) {
+                fda.setFci(c.getFeatureClassInfo(featureType));
+            }
         }
 
         fda.setTo(omg, id);
@@ -250,6 +250,44 @@ public class VPFLayerGraphicWarehouse extends LayerGraphicWarehouseSupport {
         return false;
     }
 
+    /**
+     * Determine if this primitive should be drawn or skipped, reading the
+     * columns from a cursor the way createFeature(List, int[]) reads them
+     * from a row.
+     * 
+     * @param prim a cursor on the row for the primitive feature object.
+     * @param skipArray a list of columns.
+     * @return true if any of the columns listed in skipArray is
+     *         non-null.
+     */
+    protected boolean createFeature(DcwRecordCursor prim, int[] skipArray) {
+        //length==0 --> user wants everything
+        if (skipArray.length == 0) {
+            return true;
+        }
+        DcwColumnInfo[] columns = prim.getTable().getColumnInfo();
+        for (int i = 0; i < skipArray.length; i++) {
+            int col = skipArray[i];
+            switch (columns[col].getFieldType()) {
+            case DcwColumnInfo.VPF_COLUMN_INT: {
+                int val = prim.getInt(col);
+                if (val != Integer.MIN_VALUE && val != Integer.MIN_VALUE + 1) {
+                    return true;
+                }
+                break;
+            }
+            case DcwColumnInfo.VPF_COLUMN_SHORT:
+                if (prim.getInt(col) != Short.MIN_VALUE + 1) {
+                    return true;
+                }
+                break;
+            default:
+                // Other types are null to VPFUtil.objectToInt.
+            }
+        }
+        return false;
+    }
+
     final transient static java.awt.Color aaronscolor = new java.awt.Color(0xBDDE83);
 
     /**
@@ -357,6 +395,47 @@ public class VPFLayerGraphicWarehouse extends LayerGraphicWarehouseSupport {
         addEdge(py);
     }
 
+    /**
+     * Create an edge from a cursor on the edge table row, without parsing
+     * the row into a List. EdgeTable uses this instead of the List version
+     * for this warehouse and its subclasses, a subclass that changes how
+     * edges are created has to override both.
+     * 
+     * @param c the coverage table for this edge
+     * @param edgetable the edgetable being parsed
+     * @param edge a cursor on the row of the edge table
+     */
+    public void createEdge(CoverageTable c, EdgeTable edgetable, DcwRecordCursor edge,
+                           LatLonPoint ll1, LatLonPoint ll2, double dpplat,
+                           double dpplon) {
+
+        if (edgeSkipFeatures == null) {
+            if (Debug.debugging("vpf")) {
+                Debug.output("Warehouse.createEdge(): edgeFeatures = "
+                        + edgeFeatures);
+
+                final MutableInt lineType = new MutableInt(-1);
+                List<Object> edgevec = new ArrayList<Object>();
+                edge.copyRow(edgevec);
+                Debug.output("Warehouse: "
+                        + c.getLineDescription(edgevec, lineType));
+            }
+
+            String columnName = ".lft_id";
+            edgeSkipFeatures = getSkipArray(edgeFeatures, edgetable, columnName);
+        }
+
+        if (!createFeature(edge, edgeSkipFeatures)) {
+            return;
+        }
+
+        OMPoly py = createEdgeOMPoly(edge, edgetable.getCoordinatesColumn(), ll1, ll2, dpplat, dpplon);
+        drawingAttributes.setTo(py);
+        py.setFillPaint(OMColor.clear);
+        py.setIsPolygon(false);
+        addEdge(py);
+    }
+
     /**
      *  
      */
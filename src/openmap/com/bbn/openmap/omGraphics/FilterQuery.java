@@ -0,0 +1,536 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.omGraphics;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed attribute query for FilterSupport.filter(String). The query is the
+ * WHERE clause of a SQL SELECT statement, tested against the attributes of
+ * the OMGraphics:
+ *
+ * <pre>
+ * SELECT * FROM cities WHERE population &gt;= 100000 AND (state = 'MA' OR name LIKE 'Bos%')
+ * </pre>
+ *
+ * The SELECT and FROM parts are optional and ignored, a query without a WHERE
+ * clause matches everything. Column names are attribute keys, and can be
+ * double quoted if they contain spaces. Values are numbers or single quoted
+ * strings. The operators are =, !=, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=, LIKE
+ * (with % and _ wildcards), IS NULL and IS NOT NULL, combined with AND, OR,
+ * NOT and parentheses.
+ * <P>
+ * The query is evaluated against sorted Columns of attribute values, so each
+ * comparison is a lookup of the matching values instead of a test of every
+ * graphic. Numbers are compared as numbers, everything else as strings.
+ */
+public class FilterQuery {
+
+    /**
+     * Orders the values of a column, numbers before strings.
+     */
+    protected final static Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        public int compare(Object o1, Object o2) {
+            boolean n1 = o1 instanceof Double;
+            boolean n2 = o2 instanceof Double;
+            if (n1 != n2) {
+                return n1 ? -1 : 1;
+            }
+            if (n1) {
+                return ((Double) o1).compareTo((Double) o2);
+            }
+            return ((String) o1).compareTo((String) o2);
+        }
+    };
+
+    /** The lowest string value, which is above all the numbers. */
+    protected final static String FIRST_STRING = "";
+
+    protected final Node root;
+
+    protected FilterQuery(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parse a query.
+     *
+     * @param query the query text.
+     * @return the FilterQuery.
+     * @throws IllegalArgumentException if the query can't be parsed.
+     */
+    public static FilterQuery parse(String query) {
+        return new FilterQuery(new Parser(query).parseQuery());
+    }
+
+    /**
+     * Find the rows that match the query.
+     *
+     * @param source the columns to look the values up in.
+     * @return the matching row numbers.
+     */
+    public BitSet evaluate(ColumnSource source) {
+        if (root == null) {
+            BitSet all = new BitSet(source.size());
+            all.set(0, source.size());
+            return all;
+        }
+        return root.evaluate(source);
+    }
+
+    /**
+     * Convert an attribute value or literal to the form a Column sorts, a
+     * Double for numbers and a String otherwise.
+     */
+    public static Object normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return new Double(((Number) value).doubleValue());
+        }
+        return value.toString();
+    }
+
+    /**
+     * Something that can provide the columns a query needs.
+     */
+    public interface ColumnSource {
+        /**
+         * @return the number of rows.
+         */
+        int size();
+
+        /**
+         * Get a column, building it if needed.
+         *
+         * @param name the column name from the query.
+         */
+        Column getColumn(String name);
+    }
+
+    /**
+     * The values of one attribute for all the rows, sorted, with the rows that
+     * have each value.
+     */
+    public static class Column {
+        protected final NavigableMap<Object, BitSet> values = new TreeMap<Object, BitSet>(VALUE_ORDER);
+        protected final BitSet nulls = new BitSet();
+
+        /**
+         * Add a row's value to the column.
+         */
+        public void add(int row, Object value) {
+            value = normalize(value);
+            if (value == null) {
+                nulls.set(row);
+                return;
+            }
+            BitSet rows = values.get(value);
+            if (rows == null) {
+                rows = new BitSet();
+                values.put(value, rows);
+            }
+            rows.set(row);
+        }
+
+        /**
+         * @return the rows without a value.
+         */
+        public BitSet getNulls() {
+            return nulls;
+        }
+
+        /**
+         * @return the sorted values, mapped to the rows that have them.
+         */
+        public NavigableMap<Object, BitSet> getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * A part of the query that evaluates to a set of rows.
+     */
+    protected abstract static class Node {
+        protected abstract BitSet evaluate(ColumnSource source);
+    }
+
+    protected static class And extends Node {
+        protected final Node left, right;
+
+        protected And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        protected BitSet evaluate(ColumnSource source) {
+            BitSet rows = left.evaluate(source);
+            if (!rows.isEmpty()) {
+                rows.and(right.evaluate(source));
+            }
+            return rows;
+        }
+    }
+
+    protected static class Or extends Node {
+        protected final Node left, right;
+
+        protected Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        protected BitSet evaluate(ColumnSource source) {
+            BitSet rows = left.evaluate(source);
+            rows.or(right.evaluate(source));
+            return rows;
+        }
+    }
+
+    protected static class Not extends Node {
+        protected final Node node;
+
+        protected Not(Node node) {
+            this.node = node;
+        }
+
+        protected BitSet evaluate(ColumnSource source) {
+            BitSet rows = node.evaluate(source);
+            rows.flip(0, source.size());
+            return rows;
+        }
+    }
+
+    /**
+     * A test of one column against a value.
+     */
+    protected static class Compare extends Node {
+        protected final String column;
+        protected final String op;
+        protected final Object value;
+
+        protected Compare(String column, String op, Object value) {
+            this.column = column;
+            this.op = op;
+            this.value = normalize(value);
+        }
+
+        protected BitSet evaluate(ColumnSource source) {
+            Column col = source.getColumn(column);
+            BitSet rows = new BitSet(source.size());
+            if (col == null) {
+                if (op.equals("IS NOT NULL")) {
+                    return rows;
+                }
+                if (op.equals("IS NULL")) {
+                    rows.set(0, source.size());
+                }
+                return rows;
+            }
+
+            NavigableMap<Object, BitSet> values = col.getValues();
+            boolean number = value instanceof Double;
+
+            if (op.equals("IS NULL")) {
+                rows.or(col.getNulls());
+                return rows;
+            } else if (op.equals("IS NOT NULL")) {
+                or(rows, values);
+            } else if (op.equals("=")) {
+                BitSet match = values.get(value);
+                if (match != null) {
+                    rows.or(match);
+                }
+            } else if (op.equals("!=")) {
+                or(rows, values);
+                BitSet match = values.get(value);
+                if (match != null) {
+                    rows.andNot(match);
+                }
+            } else if (op.equals("<") || op.equals("<=")) {
+                boolean inclusive = op.length() == 2;
+                or(rows, number ? values.headMap(value, inclusive) : values.subMap(FIRST_STRING,
+                        true,
+                        value,
+                        inclusive));
+            } else if (op.equals(">") || op.equals(">=")) {
+                boolean inclusive = op.length() == 2;
+                or(rows, number ? values.subMap(value, inclusive, FIRST_STRING, false)
+                        : values.tailMap(value, inclusive));
+            } else if (op.equals("LIKE")) {
+                Pattern pattern = likePattern(value.toString());
+                // Only the distinct values need to be matched.
+                for (Map.Entry<Object, BitSet> entry : values.tailMap(FIRST_STRING, true).entrySet()) {
+                    if (pattern.matcher((String) entry.getKey()).matches()) {
+                        rows.or(entry.getValue());
+                    }
+                }
+            }
+            return rows;
+        }
+
+        protected static void or(BitSet rows, Map<Object, BitSet> values) {
+            for (BitSet match : values.values()) {
+                rows.or(match);
+            }
+        }
+
+        /**
+         * Turn a LIKE pattern into a regular expression.
+         */
+        protected static Pattern likePattern(String like) {
+            StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int i = 0; i < like.length(); i++) {
+                char c = like.charAt(i);
+                if (c == '%' || c == '_') {
+                    if (i > start) {
+                        regex.append(Pattern.quote(like.substring(start, i)));
+                    }
+                    regex.append(c == '%' ? ".*" : ".");
+                    start = i + 1;
+                }
+            }
+            if (start < like.length()) {
+                regex.append(Pattern.quote(like.substring(start)));
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    /**
+     * A recursive descent parser for the query.
+     */
+    protected static class Parser {
+        protected final String text;
+        protected final List<String> tokens = new ArrayList<String>();
+        /** Marks the tokens that were quoted strings. */
+        protected final BitSet strings = new BitSet();
+        protected int pos;
+
+        protected Parser(String text) {
+            if (text == null) {
+                throw new IllegalArgumentException("no query");
+            }
+            this.text = text;
+            tokenize();
+        }
+
+        protected void tokenize() {
+            int i = 0;
+            int len = text.length();
+            while (i < len) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    // Quotes are escaped by doubling them.
+                    StringBuilder sb = new StringBuilder();
+                    int j = i + 1;
+                    while (true) {
+                        if (j >= len) {
+                            throw new IllegalArgumentException("unterminated quote at " + i);
+                        }
+                        char d = text.charAt(j++);
+                        if (d == c) {
+                            if (j < len && text.charAt(j) == c) {
+                                j++;
+                            } else {
+                                break;
+                            }
+                        }
+                        sb.append(d);
+                    }
+                    if (c == '\'') {
+                        strings.set(tokens.size());
+                    }
+                    tokens.add(sb.toString());
+                    i = j;
+                } else if (c == '(' || c == ')' || c == ',' || c == '*') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '=' || c == '<' || c == '>' || c == '!') {
+                    int j = i + 1;
+                    if (j < len && (text.charAt(j) == '=' || (c == '<' && text.charAt(j) == '>'))) {
+                        j++;
+                    }
+                    String op = text.substring(i, j);
+                    if (op.equals("!")) {
+                        throw new IllegalArgumentException("unexpected ! at " + i);
+                    }
+                    tokens.add(op.equals("<>") ? "!=" : op);
+                    i = j;
+                } else {
+                    int j = i;
+                    while (j < len && isWordChar(text.charAt(j))) {
+                        j++;
+                    }
+                    if (j == i) {
+                        throw new IllegalArgumentException("unexpected " + c + " at " + i);
+                    }
+                    tokens.add(text.substring(i, j));
+                    i = j;
+                }
+            }
+        }
+
+        protected static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-' || c == '+';
+        }
+
+        protected String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        /**
+         * @return true if the next token is the unquoted keyword, and moves
+         *         past it.
+         */
+        protected boolean accept(String keyword) {
+            String token = peek();
+            if (token != null && !strings.get(pos) && token.equalsIgnoreCase(keyword)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        protected void expect(String keyword) {
+            if (!accept(keyword)) {
+                throw new IllegalArgumentException("expected " + keyword + " but found "
+                        + (peek() == null ? "end of query" : peek()));
+            }
+        }
+
+        protected Node parseQuery() {
+            if (accept("SELECT")) {
+                while (peek() != null && !accept("FROM")) {
+                    pos++;
+                }
+                if (peek() != null && !accept("WHERE")) {
+                    // The table name.
+                    pos++;
+                    if (peek() != null) {
+                        expect("WHERE");
+                    }
+                }
+            } else {
+                accept("WHERE");
+            }
+
+            if (peek() == null) {
+                return null;
+            }
+
+            Node node = parseOr();
+            if (peek() != null) {
+                throw new IllegalArgumentException("unexpected " + peek());
+            }
+            return node;
+        }
+
+        protected Node parseOr() {
+            Node node = parseAnd();
+            while (accept("OR")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        protected Node parseAnd() {
+            Node node = parseNot();
+            while (accept("AND")) {
+                node = new And(node, parseNot());
+            }
+            return node;
+        }
+
+        protected Node parseNot() {
+            if (accept("NOT")) {
+                return new Not(parseNot());
+            }
+            if (accept("(")) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            return parseCompare();
+        }
+
+        protected Node parseCompare() {
+            String column = peek();
+            if (column == null || strings.get(pos)) {
+                throw new IllegalArgumentException("expected a column name but found "
+                        + (column == null ? "end of query" : "'" + column + "'"));
+            }
+            pos++;
+
+            if (accept("IS")) {
+                boolean not = accept("NOT");
+                expect("NULL");
+                return new Compare(column, not ? "IS NOT NULL" : "IS NULL", null);
+            }
+
+            boolean not = accept("NOT");
+            String op;
+            if (accept("LIKE")) {
+                op = "LIKE";
+            } else if (!not && isOperator(pos)) {
+                op = peek();
+                pos++;
+            } else {
+                throw new IllegalArgumentException("expected an operator after " + column);
+            }
+
+            Node node = new Compare(column, op, parseValue());
+            return not ? new Not(node) : node;
+        }
+
+        protected boolean isOperator(int index) {
+            if (index >= tokens.size() || strings.get(index)) {
+                return false;
+            }
+            String token = tokens.get(index);
+            return token.equals("=") || token.equals("!=") || token.equals("<")
+                    || token.equals("<=") || token.equals(">") || token.equals(">=");
+        }
+
+        protected Object parseValue() {
+            String token = peek();
+            if (token == null) {
+                throw new IllegalArgumentException("expected a value at end of query");
+            }
+            boolean string = strings.get(pos);
+            pos++;
+            if (string) {
+                return token;
+            }
+            try {
+                return Double.valueOf(token);
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("expected a number or quoted string but found "
+                        + token);
+            }
+        }
+    }
+}
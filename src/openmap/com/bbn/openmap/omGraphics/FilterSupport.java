@@ -24,7 +24,15 @@ package com.bbn.openmap.omGraphics;
 
 import java.awt.Shape;
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import com.bbn.openmap.util.Debug;
 
@@ -41,6 +49,19 @@ import com.bbn.openmap.util.Debug;
  * added to a returned list. Use resetFiltering() to turn visibility
  * back on for all the OMGraphics. If a graphic is not visible when a
  * filter is applied, then the filter test will automatically fail.
+ * <p>
+ * 
+ * Shape filters only test the shapes of the graphics whose bounds touch
+ * the bounds of the boundary. If the list has a spatial index from its
+ * last generate(), it's used to find those graphics. When there are a lot
+ * of graphics to test against the boundary, they are tested on several
+ * threads.
+ * <p>
+ * 
+ * SQL filters test the attributes of the graphics, as described in
+ * FilterQuery. The attribute values are sorted into columns the first
+ * time they are queried, and the columns are kept until the list changes
+ * or resetAttributeIndex() is called.
  */
 public class FilterSupport implements OMGraphicHandler, Serializable {
 
@@ -57,6 +78,28 @@ public class FilterSupport implements OMGraphicHandler, Serializable {
 
     protected boolean DEBUG = Debug.debugging("list");
 
+    /**
+     * The default number of graphics that have to be tested against a
+     * boundary before they are tested on several threads.
+     */
+    public final static int DEFAULT_PARALLEL_THRESHOLD = 128;
+
+    /**
+     * Flag to test graphics against a boundary on several threads.
+     */
+    protected boolean parallelFilter = true;
+
+    /**
+     * The number of graphics that have to be tested against a boundary
+     * before they are tested on several threads.
+     */
+    protected int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * The attribute columns for SQL filters, built when needed.
+     */
+    protected transient AttributeIndex attributeIndex;
+
     public FilterSupport() {}
 
     public FilterSupport(OMGraphicList omgl) {
@@ -124,8 +167,18 @@ public class FilterSupport implements OMGraphicHandler, Serializable {
         int count = 0; // for debugging
 
         if (area != null && omgl != null) { // just checking
-            
-            for (OMGraphic omg : omgl) {
+
+            Rectangle2D areaBounds = area.getBounds2D();
+            List<OMGraphic> graphics = new ArrayList<OMGraphic>();
+            int[] candidates = omgl.getSpatialCandidates(areaBounds.getMinX(),
+                    areaBounds.getMinY(),
+                    areaBounds.getMaxX(),
+                    areaBounds.getMaxY(),
+                    graphics);
+            BitSet inside = testGraphics(graphics, candidates, area);
+
+            for (int i = 0; i < graphics.size(); i++) {
+                OMGraphic omg = graphics.get(i);
 
                 if (DEBUG) {
                     Debug.output("FilterSupport.filterList evaluating "
@@ -180,43 +233,12 @@ public class FilterSupport implements OMGraphicHandler, Serializable {
                     }
                     continue;
                 } else {
-                    Shape omgShape = omg.getShape();
-                    if (omgShape != null) {
-                        if (omgShape.getBounds2D().getWidth() == 0 && omgShape.getBounds2D().getHeight() == 0) {
-                            if (area.contains(omgShape.getBounds2D().getX(), omgShape.getBounds2D().getY())) {
-                                if (DEBUG_DETAIL) {
-                                    Debug.output("   +++ omg contains position");
-                                }
-
-                                outsideFilter = false;
-                            }
-                        }
-                        else if (area.intersects(omgShape.getBounds2D())) {
-                            if (DEBUG_DETAIL) {
-                                Debug.output("   +++ omg intersects bounds");
-                            }
-
-                            // The area.interects() method above is a
-                            // general case. If you care about
-                            // preciseness, set the precise flag.
-                            // Depending on the performance cost, we might
-                            // want to make it permanent.
-
-                            if (precise) {
-                                Area omgArea = new Area(omgShape);
-                                if (!omgArea.isSingular()) {
-                                    Area clone = (Area) area.clone();
-                                    clone.intersect(omgArea);
-                                    if (!clone.isEmpty()) {
-                                        outsideFilter = false;
-                                    }
-                                } else {
-                                    outsideFilter = false;
-                                }
-                            } else {
-                                outsideFilter = false;
-                            }
+                    if (inside.get(i)) {
+                        if (DEBUG_DETAIL) {
+                            Debug.output("   +++ omg intersects area");
                         }
+
+                        outsideFilter = false;
                     }
 
                     // decide what to do depending on filteredOut and
@@ -244,12 +266,182 @@ public class FilterSupport implements OMGraphicHandler, Serializable {
         return ret;
     }
 
+    /**
+     * Find the graphics on a list that are touching an area. Only the
+     * graphics whose bounds touch the bounds of the area are tested, and
+     * if there are a lot of them they are tested in parallel. Lists and
+     * graphics that aren't visible are skipped.
+     * 
+     * @param graphics the graphics to test.
+     * @param candidates the indexes of the graphics that may touch the
+     *        area, or null if they all may.
+     * @param area the area.
+     * @return the indexes of the graphics touching the area.
+     */
+    protected BitSet testGraphics(List<OMGraphic> graphics, int[] candidates,
+                                  Area area) {
+        Rectangle2D areaBounds = area.getBounds2D();
+        int size = candidates != null ? candidates.length : graphics.size();
+        int[] toTest = new int[size];
+        Shape[] shapes = new Shape[graphics.size()];
+        int count = 0;
+
+        for (int c = 0; c < size; c++) {
+            int i = candidates != null ? candidates[c] : c;
+            OMGraphic omg = graphics.get(i);
+            if (!omg.isVisible() || omg instanceof OMGraphicList) {
+                continue;
+            }
+
+            Shape omgShape = omg.getShape();
+            if (omgShape == null) {
+                continue;
+            }
+
+            Rectangle2D bounds = omgShape.getBounds2D();
+            if (bounds.getMinX() <= areaBounds.getMaxX()
+                    && bounds.getMaxX() >= areaBounds.getMinX()
+                    && bounds.getMinY() <= areaBounds.getMaxY()
+                    && bounds.getMaxY() >= areaBounds.getMinY()) {
+                shapes[i] = omgShape;
+                toTest[count++] = i;
+            }
+        }
+
+        BitSet inside = new BitSet(graphics.size());
+        if (parallelFilter && count >= parallelThreshold) {
+            ForkJoinPool pool = OMList.getGeneratePool();
+            int chunkSize = Math.max(count / (pool.getParallelism() * 4), 16);
+            boolean[] results = new boolean[count];
+            FilterTask task = new FilterTask(area, shapes, toTest, 0, count, results, chunkSize);
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                pool.invoke(task);
+            }
+            for (int k = 0; k < count; k++) {
+                if (results[k]) {
+                    inside.set(toTest[k]);
+                }
+            }
+        } else {
+            for (int k = 0; k < count; k++) {
+                int i = toTest[k];
+                if (intersects(area, shapes[i])) {
+                    inside.set(i);
+                }
+            }
+        }
+
+        return inside;
+    }
+
+    /**
+     * Test whether a shape touches an area. Called from several threads
+     * at once for large lists, with a different copy of the area for each
+     * thread.
+     * 
+     * @param area the area of the filter.
+     * @param omgShape the shape of an OMGraphic.
+     * @return true if the shape is inside or touching the area.
+     */
+    protected boolean intersects(Area area, Shape omgShape) {
+        Rectangle2D bounds = omgShape.getBounds2D();
+        if (bounds.getWidth() == 0 && bounds.getHeight() == 0) {
+            return area.contains(bounds.getX(), bounds.getY());
+        }
+
+        if (!area.intersects(bounds)) {
+            return false;
+        }
+
+        // The area.interects() method above is a general case. If you
+        // care about preciseness, set the precise flag. Depending on the
+        // performance cost, we might want to make it permanent.
+        if (precise) {
+            Area omgArea = new Area(omgShape);
+            if (!omgArea.isSingular()) {
+                Area clone = (Area) area.clone();
+                clone.intersect(omgArea);
+                return !clone.isEmpty();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An OMList.GenerateTask that tests a range of shapes against an area,
+     * instead of generating graphics. It has no graphics or projection.
+     */
+    protected class FilterTask extends OMList.GenerateTask {
+        private static final long serialVersionUID = 1L;
+        protected final Area area;
+        protected final Shape[] shapes;
+        protected final int[] toTest;
+        protected final boolean[] results;
+
+        protected FilterTask(Area area, Shape[] shapes, int[] toTest,
+                int from, int to, boolean[] results, int chunkSize) {
+            super(null, from, to, null, false, chunkSize);
+            this.area = area;
+            this.shapes = shapes;
+            this.toTest = toTest;
+            this.results = results;
+        }
+
+        protected boolean computeRange() {
+            // Areas cache their bounds, so each thread gets its own.
+            Area copy = (Area) area.clone();
+            for (int k = start; k < end; k++) {
+                results[k] = intersects(copy, shapes[toTest[k]]);
+            }
+            return true;
+        }
+
+        protected OMList.GenerateTask split(int start, int end) {
+            return new FilterTask(area, shapes, toTest, start, end, results, chunkSize);
+        }
+    }
+
+    /**
+     * Set whether large numbers of graphics should be tested against
+     * boundaries on several threads. If intersects() is overridden, it has
+     * to be safe to call from several threads.
+     */
+    public void setParallelFilter(boolean value) {
+        parallelFilter = value;
+    }
+
+    /**
+     * @return true if large numbers of graphics are tested against
+     *         boundaries on several threads.
+     */
+    public boolean isParallelFilter() {
+        return parallelFilter;
+    }
+
+    /**
+     * Set the number of graphics that have to be tested against a
+     * boundary before they are tested on several threads.
+     */
+    public void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * @return the number of graphics that have to be tested against a
+     *         boundary before they are tested on several threads.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
     /**
      * Returns true if the OMGraphicHandler can handle SQL statements
      * for filtering.
      */
     public boolean supportsSQL() {
-        return false;
+        return true;
     }
 
     /**
@@ -257,14 +449,166 @@ public class FilterSupport implements OMGraphicHandler, Serializable {
      * meeting the SQL query statement will be visible. Returns an
      * OMGraphicList with those visible shapes. The returned list
      * should not be assumed to be the same OMGraphicList object that
-     * is maintained inside the OMGraphicHandler.
+     * is maintained inside the OMGraphicHandler. The graphics in nested
+     * lists are tested individually, and returned on the one list. Vague
+     * lists are tested as one graphic.
      * 
-     * @param SQLQuery a SELECT SQL statement
+     * @param SQLQuery a SELECT SQL statement, see FilterQuery for what's
+     *        supported.
      * @return OMGraphicList containing OMGraphics that meet the
-     *         SELECT statement criteria.
+     *         SELECT statement criteria. The list is empty if the query
+     *         can't be parsed.
      */
     public OMGraphicList filter(String SQLQuery) {
-        return new OMGraphicList();
+        OMGraphicList ret = new OMGraphicList();
+
+        FilterQuery query;
+        try {
+            query = FilterQuery.parse(SQLQuery);
+        } catch (IllegalArgumentException iae) {
+            Debug.error("FilterSupport: can't filter with \"" + SQLQuery
+                    + "\": " + iae.getMessage());
+            return ret;
+        }
+
+        AttributeIndex index = getAttributeIndex();
+        if (index == null) {
+            return ret;
+        }
+
+        BitSet matches = query.evaluate(index);
+        List<OMGraphic> graphics = index.getGraphics();
+        for (int i = 0; i < graphics.size(); i++) {
+            OMGraphic omg = graphics.get(i);
+            if (!omg.isVisible()) {
+                continue;
+            }
+
+            if (matches.get(i)) {
+                passedFilter(omg);
+                ret.add(omg);
+            } else {
+                failedFilter(omg);
+            }
+        }
+
+        if (DEBUG) {
+            Debug.output("FilterSupport.filter(" + SQLQuery + ") matched "
+                    + ret.size() + " of " + graphics.size() + " graphics");
+        }
+
+        return ret;
+    }
+
+    /**
+     * Get the attribute index for the current list, making a new one if
+     * the graphics on the list have changed.
+     * 
+     * @return the AttributeIndex, or null if there isn't a list.
+     */
+    protected synchronized AttributeIndex getAttributeIndex() {
+        OMGraphicList list = getList();
+        if (list == null) {
+            attributeIndex = null;
+            return null;
+        }
+
+        List<OMGraphic> graphics = new ArrayList<OMGraphic>();
+        addGraphics(list, graphics);
+
+        if (attributeIndex == null || !attributeIndex.matches(graphics)) {
+            attributeIndex = new AttributeIndex(graphics);
+        }
+        return attributeIndex;
+    }
+
+    /**
+     * Add the graphics that SQL filters test to a list, the graphics in
+     * nested lists and vague lists as a whole.
+     */
+    protected void addGraphics(OMGraphicList omgl, List<OMGraphic> graphics) {
+        for (OMGraphic omg : omgl) {
+            if (omg instanceof OMGraphicList && !((OMGraphicList) omg).isVague()) {
+                if (omg != omgl) {
+                    addGraphics((OMGraphicList) omg, graphics);
+                }
+            } else {
+                graphics.add(omg);
+            }
+        }
+    }
+
+    /**
+     * Drop the attribute columns used for SQL filters, so they are built
+     * again with the current attribute values. Needs to be called if the
+     * attributes of the graphics change and the list doesn't.
+     */
+    public synchronized void resetAttributeIndex() {
+        attributeIndex = null;
+    }
+
+    /**
+     * Get the value of a column for a graphic, for SQL filters. By
+     * default, the column name is used as an attribute key. Subclasses
+     * can override this to find values elsewhere, like in a DBF record.
+     * 
+     * @param omg the graphic.
+     * @param column the column name from the query.
+     * @return the value, or null if the graphic doesn't have one.
+     */
+    protected Object getColumnValue(OMGraphic omg, String column) {
+        return omg.getAttribute(column);
+    }
+
+    /**
+     * The attribute columns of the graphics on the list, built as they are
+     * queried. The rows are the graphics in the order they are on the list.
+     */
+    protected class AttributeIndex implements FilterQuery.ColumnSource {
+        protected final List<OMGraphic> graphics;
+        protected final Map<String, FilterQuery.Column> columns = new HashMap<String, FilterQuery.Column>();
+
+        protected AttributeIndex(List<OMGraphic> graphics) {
+            this.graphics = graphics;
+        }
+
+        public int size() {
+            return graphics.size();
+        }
+
+        public synchronized FilterQuery.Column getColumn(String name) {
+            FilterQuery.Column column = columns.get(name);
+            if (column == null) {
+                column = new FilterQuery.Column();
+                for (int i = 0; i < graphics.size(); i++) {
+                    column.add(i, getColumnValue(graphics.get(i), name));
+                }
+                columns.put(name, column);
+            }
+            return column;
+        }
+
+        /**
+         * @return the graphics, in row order.
+         */
+        public List<OMGraphic> getGraphics() {
+            return graphics;
+        }
+
+        /**
+         * @return true if the index was built for the same graphics.
+         */
+        public boolean matches(List<OMGraphic> current) {
+            if (current.size() != graphics.size()) {
+                return false;
+            }
+            for (int i = 0; i < current.size(); i++) {
+                if (current.get(i) != graphics.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
     /**
@@ -318,6 +662,7 @@ public class FilterSupport implements OMGraphicHandler, Serializable {
                     + (omgl != null ? omgl.size() + " graphics." : "null list."));
         }
         list = omgl;
+        attributeIndex = null;
     }
 
     /**
@@ -127,6 +127,7 @@ public class OMGeometryList extends OMList<OMGeometry> implements Serializable {
      */
     public OMGeometry set(int index, OMGeometry geometry) {
         setNeedToRegenerate(true);
+        clearSpatialIndex();
         synchronized (graphics) {
             return graphics.set(index, geometry);
         }
@@ -420,6 +421,7 @@ public class OMGeometryList extends OMList<OMGeometry> implements Serializable {
 
     public boolean addAll(Collection<? extends OMGeometry> c) {
         setNeedToRegenerate(true);
+        clearSpatialIndex();
         synchronized (graphics) {
             return graphics.addAll(c);
         }
@@ -427,6 +429,7 @@ public class OMGeometryList extends OMList<OMGeometry> implements Serializable {
 
     public boolean addAll(int index, Collection<? extends OMGeometry> c) {
         setNeedToRegenerate(true);
+        clearSpatialIndex();
         synchronized (graphics) {
             return graphics.addAll(index, c);
         }
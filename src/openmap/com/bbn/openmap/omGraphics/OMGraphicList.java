@@ -308,6 +308,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
      * OMGraphicList will behave badly if there are non-OMGraphics on the list.
      */
     public void setTargets(List<OMGraphic> list) {
+        clearSpatialIndex();
         graphics = Collections.synchronizedList(new ArrayList<OMGraphic>(list));
     }
 
@@ -455,16 +456,19 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
 
     public boolean addAll(Collection<? extends OMGraphic> c) {
         setNeedToRegenerate(true);
+        clearSpatialIndex();
         return graphics.addAll(c);
     }
 
     public boolean addAll(int index, Collection<? extends OMGraphic> c) {
         setNeedToRegenerate(true);
+        clearSpatialIndex();
         return graphics.addAll(index, c);
     }
 
     public OMGraphic set(int index, OMGraphic element) {
         setNeedToRegenerate(true);
+        clearSpatialIndex();
         return graphics.set(index, element);
     }
 
@@ -29,6 +29,9 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.ComponentFactory;
@@ -111,6 +114,54 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
      */
     protected List<T> graphics;
 
+    /**
+     * The default number of graphics a list needs to have before it is
+     * generated in parallel, if parallel generation is turned on.
+     */
+    public final static int DEFAULT_PARALLEL_THRESHOLD = 1000;
+
+    /**
+     * Flag to have generate() split the list into chunks that are projected
+     * on several threads. False by default.
+     */
+    protected boolean parallelGenerate = false;
+
+    /**
+     * The number of graphics the list needs to have before it's generated in
+     * parallel.
+     */
+    protected int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * The fork/join pool shared by all lists for parallel generation.
+     */
+    private static ForkJoinPool generatePool;
+
+    /**
+     * The default number of graphics a list needs to have before it builds a
+     * spatial index, if spatial indexing is turned on.
+     */
+    public final static int DEFAULT_SPATIAL_INDEX_THRESHOLD = 500;
+
+    /**
+     * Flag to have generate() build an index of where the graphics were
+     * projected, used by findClosest(), findAll(), selectClosest() and
+     * getContains() to only test the graphics near the mouse. False by
+     * default.
+     */
+    protected boolean spatialIndexing = false;
+
+    /**
+     * The number of graphics the list needs to have before generate() builds
+     * a spatial index.
+     */
+    protected int spatialIndexThreshold = DEFAULT_SPATIAL_INDEX_THRESHOLD;
+
+    /**
+     * The index built by the last generate(), null if there isn't one.
+     */
+    protected transient OMSpatialIndex spatialIndex;
+
     /**
      * Construct an OMGraphicList.
      */
@@ -212,6 +263,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     }
 
     public void clear() {
+        spatialIndex = null;
         graphics.clear();
     }
 
@@ -277,11 +329,13 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
      */
     public boolean add(T g) {
         checkForDuplicate(g);
+        spatialIndex = null;
         return graphics.add(g);
     }
 
     public void add(int index, T g) {
         checkForDuplicate(g);
+        spatialIndex = null;
         graphics.add(index, g);
     }
 
@@ -327,6 +381,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         boolean found = false;
 
         synchronized (graphics) {
+            spatialIndex = null;
             found = graphics.remove(geometry);
 
             if (!found && !isVague()) {
@@ -342,6 +397,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     }
 
     public T remove(int index) {
+        spatialIndex = null;
         return graphics.remove(index);
     }
 
@@ -437,6 +493,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedToFirst(int location) {
         int listSize = size();
         if (location > 0 && location < listSize) {
+            spatialIndex = null;
             T tmpGraphic = get(location);
             for (int i = location; i > 0; i--) {
                 set(i, get(i - 1));
@@ -455,6 +512,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedOneToFront(int location) {
         int listSize = size();
         if (location > 0 && location < listSize) {
+            spatialIndex = null;
             T tmpGraphic = get(location);
             graphics.set(location, get(location - 1));
             graphics.set(location - 1, tmpGraphic);
@@ -473,6 +531,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedToLast(int location) {
         int listSize = size();
         if (location < listSize - 1 && location >= 0) {
+            spatialIndex = null;
             T tmpGraphic = get(location);
             for (int i = location; i < listSize - 1; i++) {
                 set(i, get(i + 1));
@@ -491,6 +550,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedOneToBack(int location) {
         int listSize = size();
         if (location < listSize - 1 && location >= 0) {
+            spatialIndex = null;
             T tmpGraphic = get(location);
             graphics.set(location, get(location + 1));
             graphics.set(location + 1, tmpGraphic);
@@ -553,22 +613,345 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public boolean generate(Projection p, boolean forceProjectAll) {
         boolean ret = true;
         synchronized (graphics) {
-            Iterator<T> iterator = iterator();
-            // Check forceProjectAll outside the loop for slight
-            // performance improvement.
-            if (forceProjectAll) {
-                while (iterator.hasNext()) {
-                    ret &= iterator.next().generate(p);
-                }
+            OMSpatialIndex index = null;
+            if (spatialIndexing && graphics.size() >= spatialIndexThreshold) {
+                index = new OMSpatialIndex(graphics.size());
+            }
+            // Don't use an old index while the graphics are moving.
+            spatialIndex = null;
+
+            if (parallelGenerate && graphics.size() >= parallelThreshold && p != null) {
+                ret = generateParallel(p, forceProjectAll, index);
             } else {
-                while (iterator.hasNext()) {
-                    ret &= iterator.next().regenerate(p);
+                Iterator<T> iterator = iterator();
+                int i = 0;
+                // Check forceProjectAll outside the loop for slight
+                // performance improvement.
+                if (forceProjectAll) {
+                    while (iterator.hasNext()) {
+                        T graphic = iterator.next();
+                        ret &= graphic.generate(p);
+                        if (index != null) {
+                            index.set(i++, graphic);
+                        }
+                    }
+                } else {
+                    while (iterator.hasNext()) {
+                        T graphic = iterator.next();
+                        ret &= graphic.regenerate(p);
+                        if (index != null) {
+                            index.set(i++, graphic);
+                        }
+                    }
                 }
             }
+
+            if (index != null) {
+                index.build(p);
+                spatialIndex = index;
+            }
         }
         return ret;
     }
 
+    /**
+     * Generate the graphics on the list with several threads. The list is split
+     * into chunks that are generated as fork/join tasks, each with its own
+     * clone of the projection, since projections aren't thread safe. The order
+     * of the list isn't changed, so the graphics render in the same order.
+     * 
+     * @param p a <code>Projection</code>
+     * @param forceProjectAll if true, all the graphics on the list are
+     *        generated with the new projection. If false they are only
+     *        generated if getNeedToRegenerate() returns true
+     * @return true if generation was successful for all objects on list.
+     */
+    protected boolean generateParallel(Projection p, boolean forceProjectAll) {
+        return generateParallel(p, forceProjectAll, null);
+    }
+
+    /**
+     * Generate the graphics on the list with several threads, recording where
+     * they end up in a spatial index.
+     * 
+     * @param index the OMSpatialIndex to fill in, may be null.
+     * @see #generateParallel(Projection, boolean)
+     */
+    protected boolean generateParallel(Projection p, boolean forceProjectAll, OMSpatialIndex index) {
+        OMGeometry[] array = graphics.toArray(new OMGeometry[graphics.size()]);
+        ForkJoinPool pool = getGeneratePool();
+        // Aim for a few chunks per thread, so busy threads can steal work.
+        int chunkSize = Math.max(array.length / (pool.getParallelism() * 4), 64);
+        GenerateTask task = new GenerateTask(array, 0, array.length, p, forceProjectAll, chunkSize, index);
+        if (ForkJoinTask.inForkJoinPool()) {
+            // Nested lists being generated in parallel, just fork from here.
+            return task.invoke().booleanValue();
+        }
+        return pool.invoke(task).booleanValue();
+    }
+
+    /**
+     * Get the fork/join pool used for parallel generation, one thread for
+     * each processor. Layers that compute their graphics in parallel share it,
+     * so the application doesn't end up with a pool for each of them.
+     */
+    public static synchronized ForkJoinPool getGeneratePool() {
+        if (generatePool == null) {
+            generatePool = new ForkJoinPool();
+        }
+        return generatePool;
+    }
+
+    /**
+     * Set whether large lists should be generated with several threads. The
+     * OMGraphics on the list need to be safe to generate from a thread other
+     * than the one calling generate(), which the standard OMGraphics are.
+     * Nested lists have to be set separately.
+     */
+    public void setParallelGenerate(boolean value) {
+        parallelGenerate = value;
+    }
+
+    /**
+     * @return true if large lists are generated with several threads.
+     */
+    public boolean isParallelGenerate() {
+        return parallelGenerate;
+    }
+
+    /**
+     * Set the number of graphics the list needs to have before it's generated
+     * in parallel, when parallel generation is turned on. Small lists are
+     * faster to generate on one thread.
+     */
+    public void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * @return the number of graphics the list needs to have before it's
+     *         generated in parallel.
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set whether generate() should build a spatial index of the graphics,
+     * for lists big enough to need one. The index makes the hit-testing
+     * methods only measure the distance to graphics near the mouse. The index
+     * is a snapshot of the last generate(), graphics that move without the list
+     * being generated again should be regenerated through the list, or the
+     * index cleared with clearSpatialIndex(). Nested lists have to be set
+     * separately.
+     */
+    public void setSpatialIndexing(boolean value) {
+        spatialIndexing = value;
+        if (!value) {
+            spatialIndex = null;
+        }
+    }
+
+    /**
+     * @return true if generate() builds a spatial index for large lists.
+     */
+    public boolean isSpatialIndexing() {
+        return spatialIndexing;
+    }
+
+    /**
+     * Set the number of graphics the list needs to have before generate()
+     * builds a spatial index, when spatial indexing is turned on.
+     */
+    public void setSpatialIndexThreshold(int threshold) {
+        spatialIndexThreshold = threshold;
+    }
+
+    /**
+     * @return the number of graphics the list needs to have before generate()
+     *         builds a spatial index.
+     */
+    public int getSpatialIndexThreshold() {
+        return spatialIndexThreshold;
+    }
+
+    /**
+     * Drop the spatial index, so searches test all the graphics until the
+     * next generate(). Every method that changes the list calls this, or
+     * clears the index itself.
+     */
+    public void clearSpatialIndex() {
+        spatialIndex = null;
+    }
+
+    /**
+     * Get the indexes of the graphics that may be within the limit of a point,
+     * in the order they should be tested for the traverse mode. Has to be
+     * called while holding the graphics lock. If resetSelect is true, the
+     * graphics that aren't returned are deselected, like the search would
+     * have done.
+     * 
+     * @return the indexes, or null if the spatial index can't be used and all
+     *         the graphics should be tested.
+     */
+    protected int[] getSpatialCandidates(double x, double y, float limit, boolean resetSelect) {
+        OMSpatialIndex index = spatialIndex;
+        if (index == null) {
+            return null;
+        }
+
+        int[] candidates = index.query(x, y, limit);
+        if (candidates == null) {
+            return null;
+        }
+
+        if (!index.matches(graphics, candidates)) {
+            // The list has changed since the last generate.
+            spatialIndex = null;
+            return null;
+        }
+
+        if (resetSelect) {
+            int size = graphics.size();
+            for (int i = 0, c = 0; i < size; i++) {
+                if (c < candidates.length && candidates[c] == i) {
+                    c++;
+                    continue;
+                }
+                OMGeometry graphic = graphics.get(i);
+                if (shouldProcess(graphic) && !(graphic instanceof OMList<?>)) {
+                    graphic.deselect();
+                }
+            }
+        }
+
+        if (traverseMode != FIRST_ADDED_ON_TOP) {
+            for (int i = 0, j = candidates.length - 1; i < j; i++, j--) {
+                int tmp = candidates[i];
+                candidates[i] = candidates[j];
+                candidates[j] = tmp;
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Copy the graphics on the list into another list, and get the indexes of
+     * the ones whose bounds from the last generate() touch a pixel rectangle.
+     * The copy and the indexes are taken together, so the indexes point into
+     * the copy.
+     * 
+     * @param copy the list to add the graphics to, in list order.
+     * @return the indexes in ascending order, or null if the list doesn't have
+     *         a spatial index and all the graphics should be tested.
+     */
+    protected int[] getSpatialCandidates(double minX, double minY, double maxX, double maxY,
+                                         List<? super T> copy) {
+        synchronized (graphics) {
+            copy.addAll(graphics);
+
+            OMSpatialIndex index = spatialIndex;
+            if (index == null) {
+                return null;
+            }
+
+            int[] candidates = index.query(minX, minY, maxX, maxY);
+            if (!index.matches(graphics, candidates)) {
+                spatialIndex = null;
+                return null;
+            }
+            return candidates;
+        }
+    }
+
+    /**
+     * A fork/join task that generates a range of graphics, splitting itself
+     * in half until the range is small enough to do directly. Subclasses can
+     * do something else with each graphic by overriding generate(int,
+     * Projection), or with each range by overriding computeRange(), and have
+     * to override split() to pass their own state to the halves.
+     */
+    protected static class GenerateTask extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+        protected final OMGeometry[] array;
+        protected final int start;
+        protected final int end;
+        protected final Projection proj;
+        protected final boolean forceProjectAll;
+        protected final int chunkSize;
+        protected final OMSpatialIndex index;
+
+        protected GenerateTask(OMGeometry[] array, int start, int end, Projection proj,
+                boolean forceProjectAll, int chunkSize) {
+            this(array, start, end, proj, forceProjectAll, chunkSize, null);
+        }
+
+        protected GenerateTask(OMGeometry[] array, int start, int end, Projection proj,
+                boolean forceProjectAll, int chunkSize, OMSpatialIndex index) {
+            this.array = array;
+            this.start = start;
+            this.end = end;
+            this.proj = proj;
+            this.forceProjectAll = forceProjectAll;
+            this.chunkSize = chunkSize;
+            this.index = index;
+        }
+
+        protected Boolean compute() {
+            if (end - start <= chunkSize) {
+                return Boolean.valueOf(computeRange());
+            }
+
+            int middle = (start + end) >>> 1;
+            GenerateTask left = split(start, middle);
+            GenerateTask right = split(middle, end);
+            left.fork();
+            boolean ret = right.compute().booleanValue();
+            return Boolean.valueOf(left.join().booleanValue() & ret);
+        }
+
+        /**
+         * Generate the range of this task on the current thread, with its own
+         * copy of the projection.
+         */
+        protected boolean computeRange() {
+            Projection p = proj.makeClone();
+            boolean ret = true;
+            for (int i = start; i < end; i++) {
+                ret &= generate(i, p);
+            }
+            return ret;
+        }
+
+        /**
+         * Generate one graphic, and record where it ended up in the spatial
+         * index.
+         * 
+         * @param i the index of the graphic in the array.
+         * @param p the projection copy for this range.
+         */
+        protected boolean generate(int i, Projection p) {
+            boolean ret;
+            if (forceProjectAll) {
+                ret = array[i].generate(p);
+            } else {
+                ret = array[i].regenerate(p);
+            }
+            if (index != null) {
+                index.set(i, array[i]);
+            }
+            return ret;
+        }
+
+        /**
+         * Create the task for part of this task's range.
+         */
+        protected GenerateTask split(int start, int end) {
+            return new GenerateTask(array, start, end, proj, forceProjectAll, chunkSize, index);
+        }
+    }
+
     /**
      * Renders all the objects in the list a graphics context. This is the same
      * as <code>paint()</code> for AWT components. The graphics are rendered in
@@ -723,7 +1106,20 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         int i;
 
         synchronized (graphics) {
-            if (!isEmpty()) {
+            int[] candidates = isEmpty() ? null : getSpatialCandidates(x, y, limit, resetSelect);
+            if (candidates != null) {
+                boolean firstOnTop = traverseMode == FIRST_ADDED_ON_TOP;
+                for (int c = 0; c < candidates.length; c++) {
+                    i = candidates[c];
+                    // Same indexes as the iterating searches below.
+                    tomd = findClosestTest(omd, firstOnTop ? i : i + 1, graphics.get(i), x, y, limit, resetSelect);
+                    if (tomd == null)
+                        continue;
+                    omd = tomd; // for style
+                    if (omd.d == 0)
+                        break;
+                }
+            } else if (!isEmpty()) {
                 if (traverseMode == FIRST_ADDED_ON_TOP) {
                     i = 0;
                     ListIterator<T> iterator = graphics.listIterator();
@@ -883,7 +1279,14 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         if (!isEmpty()) {
             synchronized (graphics) {
 
-                if (traverseMode == FIRST_ADDED_ON_TOP) {
+                int[] candidates = getSpatialCandidates(x, y, limit, resetSelect);
+                if (candidates != null) {
+                    for (int c = 0; c < candidates.length; c++) {
+                        if (!findAllTest(x, y, limit, resetSelect, addTo, graphics.get(candidates[c]), omd)) {
+                            break;
+                        }
+                    }
+                } else if (traverseMode == FIRST_ADDED_ON_TOP) {
                     ListIterator<? extends OMGeometry> iterator = graphics.listIterator();
                     while (iterator.hasNext()) {
                         if (!findAllTest(x, y, limit, resetSelect, addTo, iterator.next(), omd)) {
@@ -1076,7 +1479,17 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         }
 
         synchronized (graphics) {
-            if (!isEmpty()) {
+            int[] candidates = isEmpty() ? null : getSpatialCandidates(x, y, limit, true);
+            if (candidates != null) {
+                for (int c = 0; c < candidates.length; c++) {
+                    tomd = selectClosestTest(omd, 0, graphics.get(candidates[c]), x, y, limit);
+                    if (tomd == null)
+                        continue;
+                    omd = tomd; // for style
+                    if (omd.d == 0)
+                        break;
+                }
+            } else if (!isEmpty()) {
                 if (traverseMode == FIRST_ADDED_ON_TOP) {
                     ListIterator<? extends OMGeometry> iterator = graphics.listIterator();
                     while (iterator.hasNext()) {
@@ -1164,52 +1577,21 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
 
         synchronized (graphics) {
 
-            if (!isEmpty()) {
+            int[] candidates = isEmpty() ? null : getSpatialCandidates(x, y, 0, false);
+            if (candidates != null) {
+                for (int c = 0; c < candidates.length && ret == null; c++) {
+                    ret = getContains(graphics.get(candidates[c]), x, y);
+                }
+            } else if (!isEmpty()) {
                 if (traverseMode == FIRST_ADDED_ON_TOP) {
-                    ListIterator<? extends OMGeometry> iterator = graphics.listIterator();
-                    while (iterator.hasNext()) {
-                        OMGeometry graphic = iterator.next();
-
-                        // cannot select a graphic which isn't visible
-                        if (!shouldProcess(graphic))
-                            continue;
-
-                        if (graphic instanceof OMList<?>) {
-                            OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
-                            ret = (T) tomgl.getContains(x, y);
-                            if (ret != null) {
-                                if (tomgl.isVague()) {
-                                    ret = (T) graphic;
-                                }
-                                break;
-                            }
-                        } else if (graphic.contains(x, y)) {
-                            ret = (T) graphic;
-                            break;
-                        }
+                    ListIterator<T> iterator = graphics.listIterator();
+                    while (iterator.hasNext() && ret == null) {
+                        ret = getContains(iterator.next(), x, y);
                     }
                 } else {
-                    ListIterator<? extends OMGeometry> iterator = graphics.listIterator(size());
-                    while (iterator.hasPrevious()) {
-                        OMGeometry graphic = iterator.previous();
-
-                        // cannot select a graphic which isn't visible
-                        if (!shouldProcess(graphic))
-                            continue;
-
-                        if (graphic instanceof OMList<?>) {
-                            OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
-                            ret = (T) tomgl.getContains(x, y);
-                            if (ret != null) {
-                                if (tomgl.isVague()) {
-                                    ret = (T) graphic;
-                                }
-                                break;
-                            }
-                        } else if (graphic.contains(x, y)) {
-                            ret = (T) graphic;
-                            break;
-                        }
+                    ListIterator<T> iterator = graphics.listIterator(size());
+                    while (iterator.hasPrevious() && ret == null) {
+                        ret = getContains(iterator.previous(), x, y);
                     }
                 }
             }
@@ -1221,6 +1603,34 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         return ret;
     }
 
+    /**
+     * Check one of the graphics on the list for getContains(x, y).
+     * 
+     * @param graphic the graphic to check.
+     * @param x the horizontal pixel position of the window.
+     * @param y the vertical pixel position of the window.
+     * @return the graphic, or the graphic found in it if it's a list that isn't
+     *         vague, null if it doesn't contain the pixel or isn't visible.
+     */
+    protected T getContains(T graphic, int x, int y) {
+        // cannot select a graphic which isn't visible
+        if (!shouldProcess(graphic)) {
+            return null;
+        }
+
+        if (graphic instanceof OMList<?>) {
+            OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
+            OMGeometry contained = tomgl.getContains(x, y);
+            if (contained == null) {
+                return null;
+            }
+            // The graphic found in a sublist is returned as one of ours.
+            return tomgl.isVague() ? graphic : (T) contained;
+        }
+
+        return graphic.contains(x, y) ? graphic : null;
+    }
+
     /**
      * If you call deselect() on an OMGraphicList, it calls deselect() all the
      * graphics it contains, as well as the deselect method on it's super class.
@@ -31,13 +31,13 @@ import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.io.Serializable;
-import java.util.ArrayList;
 
 import com.bbn.openmap.MoreMath;
 import com.bbn.openmap.geo.Geo;
 import com.bbn.openmap.geo.Intersection;
 import com.bbn.openmap.proj.DrawUtil;
 import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.PolyBuffer;
 import com.bbn.openmap.proj.ProjMath;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
@@ -157,6 +157,16 @@ public class OMPoly extends OMAbstractLine implements Serializable {
      */
     protected boolean doShapes = false;
 
+    /**
+     * The buffers the lat/lon polys are projected into, one for each thread
+     * generating OMPolys, so projecting doesn't create garbage for each poly.
+     */
+    protected final static ThreadLocal<PolyBuffer> polyBuffers = new ThreadLocal<PolyBuffer>() {
+        protected PolyBuffer initialValue() {
+            return new PolyBuffer();
+        }
+    };
+
     /**
      * Construct a default OMPoly.
      */
@@ -670,33 +680,46 @@ public class OMPoly extends OMAbstractLine implements Serializable {
         case RENDERTYPE_LATLON:
             // polygon/polyline project the polygon/polyline.
             // Vertices should already be in radians.
-            ArrayList<float[]> vector;
+            PolyBuffer buffer = polyBuffers.get();
             if (proj instanceof GeoProj) {
                 if (units == DECIMAL_DEGREES) {
                     ProjMath.arrayDegToRad(rawllpts);
                     units = RADIANS;
                 }
-                vector = ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, isPolygon());
+                ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, isPolygon(), buffer);
             } else {
                 if (units == RADIANS) {
                     ProjMath.arrayRadToDeg(rawllpts);
                     units = DECIMAL_DEGREES;
                 }
-                vector = proj.forwardPoly(rawllpts, isPolygon());
+                proj.forwardPoly(rawllpts, isPolygon(), buffer);
             }
 
-            int size = vector.size();
+            int numParts = buffer.getNumParts();
+            int size = numParts * 2;
+
+            // Reuse the coordinate arrays from the last projection if the
+            // parts are the same size, which they usually are.
+            float[][] loc_xpoints = xpoints;
+            float[][] loc_ypoints = ypoints;
+            if (!partsFit(loc_xpoints, loc_ypoints, buffer)) {
+                loc_xpoints = new float[numParts][];
+                loc_ypoints = new float[numParts][];
+                for (int j = 0; j < numParts; j++) {
+                    loc_xpoints[j] = new float[buffer.getPartLength(j)];
+                    loc_ypoints[j] = new float[buffer.getPartLength(j)];
+                }
+            }
 
-            float[][] loc_xpoints = new float[(int) (size / 2)][0];
-            float[][] loc_ypoints = new float[loc_xpoints.length][0];
+            for (int j = 0; j < numParts; j++) {
+                int start = buffer.getPartStart(j);
+                int length = buffer.getPartLength(j);
+                System.arraycopy(buffer.getXs(), start, loc_xpoints[j], 0, length);
+                System.arraycopy(buffer.getYs(), start, loc_ypoints[j], 0, length);
+            }
             xpoints = loc_xpoints;
             ypoints = loc_ypoints;
 
-            for (int i = 0, j = 0; i < size; i += 2, j++) {
-                loc_xpoints[j] = vector.get(i);
-                loc_ypoints[j] = vector.get(i + 1);
-            }
-
             if (!doShapes) {
                 if (size > 1) {
                     if (arrowhead != null) {
@@ -731,6 +754,25 @@ public class OMPoly extends OMAbstractLine implements Serializable {
         return true;
     }
 
+    /**
+     * Return true if the coordinate arrays have the same number of parts as
+     * the PolyBuffer, with the same lengths, so they can be filled again.
+     */
+    protected boolean partsFit(float[][] xpts, float[][] ypts, PolyBuffer buffer) {
+        if (xpts == null || ypts == null || xpts.length != buffer.getNumParts()
+                || ypts.length != xpts.length) {
+            return false;
+        }
+        for (int j = 0; j < xpts.length; j++) {
+            int length = buffer.getPartLength(j);
+            if (xpts[j] == null || ypts[j] == null || xpts[j].length != length
+                    || ypts[j].length != length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Return true if the xpoints and ypoints are not null and contain
      * coordinates.
@@ -0,0 +1,393 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.omGraphics;
+
+import java.awt.BasicStroke;
+import java.awt.Stroke;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+import com.bbn.openmap.proj.Projection;
+
+/**
+ * A grid over the projected bounds of the graphics on an OMList, so the list
+ * only has to measure the distance to the graphics near a mouse location
+ * instead of all of them. The index is filled in while the list is generated,
+ * and reflects where the graphics were projected at that time.
+ * <P>
+ * Each graphic is indexed by the bounds of its shape, widened by its line
+ * width and the bounds of its label. Graphics that can't be bounded that way,
+ * like nested lists or generated graphics without a shape, are tested for
+ * every query, until they have a shape. Graphics that need to be regenerated
+ * are never returned, since they don't have a distance.
+ * <P>
+ * The list drops its index whenever it's changed. The index also checks that
+ * the graphics it returns are still where it found them, in case the list was
+ * changed through an iterator.
+ */
+public class OMSpatialIndex {
+
+    /** Status for a graphic indexed by its bounds. */
+    protected final static byte INDEXED = 0;
+    /** Status for a graphic that is tested for every query. */
+    protected final static byte ALWAYS = 1;
+    /** Status for a graphic that is never near anything. */
+    protected final static byte NEVER = 2;
+    /**
+     * Status for a graphic that got a shape after the grid was built, like an
+     * OMText that gets its bounds when it's first rendered. Checked by its
+     * bounds for every query.
+     */
+    protected final static byte LATE = 3;
+
+    /** The most cells a graphic can cover before it's kept off the grid. */
+    protected final static int MAX_CELLS_PER_ITEM = 64;
+    /** The most cells in the grid. */
+    protected final static int MAX_CELLS = 1 << 16;
+    /** The smallest cell edge, in pixels. */
+    protected final static double MIN_CELL_SIZE = 16;
+
+    /** The graphics on the list, in list order, when the index was filled. */
+    protected final OMGeometry[] items;
+    /** minX, minY, maxX, maxY for each item. */
+    protected final float[] bounds;
+    /** INDEXED, ALWAYS, NEVER or LATE for each item. */
+    protected final byte[] status;
+
+    protected double originX;
+    protected double originY;
+    protected double cellSize;
+    protected int cols;
+    protected int rows;
+    /** Where the items for each cell start in cellItems. */
+    protected int[] cellStart;
+    protected int[] cellItems;
+    /** Items too big for the grid, checked by bounds for every query. */
+    protected int[] largeItems;
+    /** Items tested for every query. */
+    protected int[] alwaysItems;
+
+    /** Marks items already found by the current query. */
+    private int[] stamps;
+    private int stamp;
+
+    /**
+     * Create an index for a list with a number of graphics. The items are set
+     * with set(), and build() makes the index ready to be queried.
+     */
+    public OMSpatialIndex(int size) {
+        items = new OMGeometry[size];
+        bounds = new float[size * 4];
+        status = new byte[size];
+    }
+
+    /**
+     * @return the number of graphics in the index.
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Record the projected bounds of a graphic after it has been generated.
+     * Items can be set from different threads, as long as they are different
+     * items.
+     *
+     * @param index the index of the graphic on the list.
+     * @param geometry the graphic.
+     */
+    public void set(int index, OMGeometry geometry) {
+        items[index] = geometry;
+        status[index] = computeBounds(geometry, bounds, index * 4);
+    }
+
+    /**
+     * Figure out the pixel bounds a graphic could be measured as close to.
+     *
+     * @return INDEXED if the bounds were set, ALWAYS or NEVER otherwise.
+     */
+    protected byte computeBounds(OMGeometry geometry, float[] b, int offset) {
+        if (geometry == null) {
+            return NEVER;
+        }
+
+        if (geometry instanceof OMList<?>) {
+            // Lists take care of their own contents.
+            return ALWAYS;
+        }
+
+        GeneralPath shape = geometry.getShape();
+        if (shape == null) {
+            return geometry.getNeedToRegenerate() ? NEVER : ALWAYS;
+        }
+
+        Rectangle2D rect = shape.getBounds2D();
+        double pad = 0;
+
+        if (geometry instanceof OMGraphic) {
+            OMGraphic omg = (OMGraphic) geometry;
+            Stroke stroke = omg.getStroke();
+            if (stroke instanceof BasicStroke) {
+                pad = ((BasicStroke) stroke).getLineWidth() / 2;
+            }
+
+            Object label = omg.getAttribute(OMGraphic.LABEL);
+            if (label instanceof OMGeometry) {
+                GeneralPath labelShape = ((OMGeometry) label).getShape();
+                if (labelShape == null) {
+                    return ALWAYS;
+                }
+                rect = rect.createUnion(labelShape.getBounds2D());
+            } else if (label != null) {
+                return ALWAYS;
+            }
+        }
+
+        b[offset] = (float) (rect.getMinX() - pad);
+        b[offset + 1] = (float) (rect.getMinY() - pad);
+        b[offset + 2] = (float) (rect.getMaxX() + pad);
+        b[offset + 3] = (float) (rect.getMaxY() + pad);
+        return INDEXED;
+    }
+
+    /**
+     * Build the grid from the bounds of the items. The grid covers the bounds
+     * of the graphics, but not more than a window's size past each side of the
+     * projection's window. Graphics past that are kept in the border cells.
+     *
+     * @param proj the projection the graphics were generated with, may be
+     *        null.
+     */
+    public void build(Projection proj) {
+        int size = items.length;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int numIndexed = 0;
+        int numAlways = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (status[i] == INDEXED) {
+                int o = i * 4;
+                minX = Math.min(minX, bounds[o]);
+                minY = Math.min(minY, bounds[o + 1]);
+                maxX = Math.max(maxX, bounds[o + 2]);
+                maxY = Math.max(maxY, bounds[o + 3]);
+                numIndexed++;
+            } else if (status[i] == ALWAYS) {
+                numAlways++;
+            }
+        }
+
+        alwaysItems = new int[numAlways];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (status[i] == ALWAYS) {
+                alwaysItems[j++] = i;
+            }
+        }
+
+        if (proj != null) {
+            int w = proj.getWidth();
+            int h = proj.getHeight();
+            minX = Math.max(minX, -w);
+            minY = Math.max(minY, -h);
+            maxX = Math.min(maxX, 2 * w);
+            maxY = Math.min(maxY, 2 * h);
+        }
+
+        if (numIndexed == 0 || !(minX < maxX) || !(minY < maxY)) {
+            minX = minY = 0;
+            maxX = maxY = MIN_CELL_SIZE;
+        }
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        int targetCells = Math.max(1, Math.min(MAX_CELLS, numIndexed / 2));
+        cellSize = Math.max(MIN_CELL_SIZE, Math.sqrt(width * height / targetCells));
+        cols = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        originX = minX;
+        originY = minY;
+
+        // Count the items in each cell, then fill them in.
+        int numCells = cols * rows;
+        cellStart = new int[numCells + 1];
+        int numLarge = 0;
+        for (int i = 0; i < size; i++) {
+            if (status[i] != INDEXED) {
+                continue;
+            }
+            int o = i * 4;
+            int c0 = col(bounds[o]), c1 = col(bounds[o + 2]);
+            int r0 = row(bounds[o + 1]), r1 = row(bounds[o + 3]);
+            if ((c1 - c0 + 1) * (r1 - r0 + 1) > MAX_CELLS_PER_ITEM) {
+                numLarge++;
+                continue;
+            }
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellStart[r * cols + c + 1]++;
+                }
+            }
+        }
+
+        for (int i = 0; i < numCells; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+
+        cellItems = new int[cellStart[numCells]];
+        largeItems = new int[numLarge];
+        int[] fill = Arrays.copyOf(cellStart, numCells);
+        for (int i = 0, j = 0; i < size; i++) {
+            if (status[i] != INDEXED) {
+                continue;
+            }
+            int o = i * 4;
+            int c0 = col(bounds[o]), c1 = col(bounds[o + 2]);
+            int r0 = row(bounds[o + 1]), r1 = row(bounds[o + 3]);
+            if ((c1 - c0 + 1) * (r1 - r0 + 1) > MAX_CELLS_PER_ITEM) {
+                largeItems[j++] = i;
+                continue;
+            }
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellItems[fill[r * cols + c]++] = i;
+                }
+            }
+        }
+
+        stamps = new int[size];
+        stamp = 0;
+    }
+
+    protected int col(double x) {
+        int c = (int) Math.floor((x - originX) / cellSize);
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    protected int row(double y) {
+        int r = (int) Math.floor((y - originY) / cellSize);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    /**
+     * Check if the index still matches a list. The sizes have to match, and
+     * each of the candidates has to still be at its index.
+     */
+    public boolean matches(List<?> graphics, int[] candidates) {
+        if (graphics.size() != items.length) {
+            return false;
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            int index = candidates[i];
+            if (graphics.get(index) != items[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the graphics that could be within limit pixels of a point. Not
+     * thread safe, the list calls this while holding its lock.
+     *
+     * @param x the horizontal pixel location.
+     * @param y the vertical pixel location.
+     * @param limit the distance in pixels.
+     * @return the indexes of the graphics, in ascending order, or null if the
+     *         limit is too big for the index to help.
+     */
+    public int[] query(double x, double y, float limit) {
+        if (Float.isNaN(limit) || limit > cols * cellSize + rows * cellSize) {
+            return null;
+        }
+
+        // A pixel of slack for rounding the bounds to floats.
+        return query(x - limit - 1, y - limit - 1, x + limit + 1, y + limit + 1);
+    }
+
+    /**
+     * Find the graphics whose bounds touch a pixel rectangle. Not thread safe,
+     * the list calls this while holding its lock.
+     *
+     * @return the indexes of the graphics, in ascending order. Graphics that
+     *         couldn't be indexed are always included.
+     */
+    public int[] query(double qMinX, double qMinY, double qMaxX, double qMaxY) {
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+
+        int[] found = new int[Math.min(items.length, 16 + alwaysItems.length)];
+        int count = 0;
+
+        for (int i = 0; i < alwaysItems.length; i++) {
+            int index = alwaysItems[i];
+            if (status[index] == ALWAYS && !(items[index] instanceof OMList<?>)
+                    && computeBounds(items[index], bounds, index * 4) == INDEXED) {
+                status[index] = LATE;
+            }
+            if (status[index] == ALWAYS || intersects(index, qMinX, qMinY, qMaxX, qMaxY)) {
+                found[count++] = index;
+            }
+        }
+
+        for (int i = 0; i < largeItems.length; i++) {
+            int index = largeItems[i];
+            if (intersects(index, qMinX, qMinY, qMaxX, qMaxY)) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, Math.min(items.length, count * 2));
+                }
+                found[count++] = index;
+            }
+        }
+
+        int c0 = col(qMinX), c1 = col(qMaxX);
+        int r0 = row(qMinY), r1 = row(qMaxY);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * cols + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int index = cellItems[k];
+                    if (stamps[index] == stamp) {
+                        continue;
+                    }
+                    stamps[index] = stamp;
+                    if (intersects(index, qMinX, qMinY, qMaxX, qMaxY)) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, Math.min(items.length, count * 2));
+                        }
+                        found[count++] = index;
+                    }
+                }
+            }
+        }
+
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Check the bounds of an item against a rectangle, edges included.
+     */
+    protected boolean intersects(int index, double minX, double minY, double maxX, double maxY) {
+        int o = index * 4;
+        return bounds[o] <= maxX && bounds[o + 2] >= minX && bounds[o + 1] <= maxY
+                && bounds[o + 3] >= minY;
+    }
+}
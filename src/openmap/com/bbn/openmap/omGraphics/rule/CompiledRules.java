@@ -0,0 +1,292 @@
+/*
+ * <copyright>
+ *  Copyright 2015 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.omGraphics.rule;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bbn.openmap.proj.Projection;
+
+/**
+ * A list of IndexRules compiled against the columns of the records they
+ * evaluate. Each rule's key column is read once into primitive arrays, the
+ * rule value is parsed once, and each record is tested against the rules in
+ * order until one passes, skipping rules that aren't displayed at the current
+ * scale. The index of the passing rule is kept for each record, so records are
+ * only tested again when the scale moves across a rule's display limits.
+ * <P>
+ * The tests give the same answers as IndexRule.evaluate(List). The compiled
+ * rules are a snapshot of the rules and the data; the RuleHandler compiles
+ * them again when its rules are changed.
+ */
+public class CompiledRules {
+
+    /** Marks records that haven't been tested yet. */
+    protected final static short UNTESTED = -2;
+    /** Returned for records that didn't pass any displayed rule. */
+    public final static int NO_RULE = -1;
+    /** Returned for records the compiled rules don't know about. */
+    public final static int NOT_COMPILED = -2;
+
+    protected final IndexRule[] rules;
+    protected final Test[] tests;
+    protected final short[] ruleForRow;
+
+    /** Which rules are displayed at the scale of the cached results. */
+    protected final boolean[] displayed;
+    protected boolean allDisplayed = false;
+    protected float displayedScale = Float.NaN;
+
+    protected CompiledRules(IndexRule[] rules, Test[] tests, int rowCount) {
+        this.rules = rules;
+        this.tests = tests;
+        this.ruleForRow = new short[rowCount];
+        this.displayed = new boolean[rules.length];
+        Arrays.fill(ruleForRow, UNTESTED);
+    }
+
+    /**
+     * Compile rules against the columns of their records.
+     *
+     * @param ruleList the rules, in the order they are evaluated.
+     * @param columns the columns of the records.
+     * @return CompiledRules, or null if the rules can't be compiled, because
+     *         they aren't all IndexRules or use columns that aren't there.
+     */
+    // Takes the raw List<Rule> that RuleHandler.getRules() holds.
+    @SuppressWarnings("rawtypes")
+    public static CompiledRules compile(List<Rule> ruleList, RuleColumns columns) {
+        Rule[] ruleArray;
+        synchronized (ruleList) {
+            ruleArray = ruleList.toArray(new Rule[ruleList.size()]);
+        }
+
+        if (columns == null || ruleArray.length > Short.MAX_VALUE) {
+            return null;
+        }
+
+        IndexRule[] rules = new IndexRule[ruleArray.length];
+        Test[] tests = new Test[ruleArray.length];
+        Map<Integer, ColumnValues> columnValues = new HashMap<Integer, ColumnValues>();
+
+        for (int i = 0; i < ruleArray.length; i++) {
+            if (!(ruleArray[i] instanceof IndexRule)) {
+                return null;
+            }
+
+            IndexRule rule = (IndexRule) ruleArray[i];
+            RuleOp op = rule.getOp();
+            Object key = rule.getVal();
+            rules[i] = rule;
+
+            if (op == RuleOp.ALL || op == RuleOp.NONE || key == null) {
+                // These don't depend on the record value.
+                tests[i] = new ConstantTest(key == null ? op.compare(-1) : op.compare(0));
+                continue;
+            }
+
+            int column = rule.getKeyIndex();
+            if (column < 0 || column >= columns.getColumnCount()) {
+                return null;
+            }
+
+            ColumnValues values = columnValues.get(column);
+            if (values == null) {
+                values = new ColumnValues(columns, column);
+                columnValues.put(column, values);
+            }
+
+            tests[i] = new ColumnTest(op, key, values);
+        }
+
+        return new CompiledRules(rules, tests, columns.getRowCount());
+    }
+
+    /**
+     * Find the first rule a record passes, out of the rules displayed at the
+     * projection's scale.
+     *
+     * @param row the record number.
+     * @param proj the current projection, may be null for all rules.
+     * @return the index of the rule, NO_RULE if none passed, NOT_COMPILED if
+     *         the row isn't one of the compiled records.
+     */
+    public synchronized int getRuleIndex(int row, Projection proj) {
+        if (row < 0 || row >= ruleForRow.length) {
+            return NOT_COMPILED;
+        }
+
+        updateDisplayed(proj);
+
+        int index = ruleForRow[row];
+        if (index == UNTESTED) {
+            index = NO_RULE;
+            for (int i = 0; i < tests.length; i++) {
+                if (displayed[i] && tests[i].test(row)) {
+                    index = i;
+                    break;
+                }
+            }
+            ruleForRow[row] = (short) index;
+        }
+        return index;
+    }
+
+    /**
+     * @return the rule at an index returned by getRuleIndex.
+     */
+    public IndexRule getRule(int index) {
+        return rules[index];
+    }
+
+    /**
+     * Figure out which rules are displayed at the projection's scale, and
+     * forget the cached results if that's different than before.
+     */
+    protected void updateDisplayed(Projection proj) {
+        if (proj == null) {
+            if (!allDisplayed) {
+                Arrays.fill(displayed, true);
+                Arrays.fill(ruleForRow, UNTESTED);
+                allDisplayed = true;
+                displayedScale = Float.NaN;
+            }
+            return;
+        }
+
+        float scale = proj.getScale();
+        if (!allDisplayed && scale == displayedScale) {
+            return;
+        }
+
+        boolean changed = allDisplayed;
+        for (int i = 0; i < rules.length; i++) {
+            boolean d = rules[i].isDisplayed(proj);
+            if (d != displayed[i]) {
+                displayed[i] = d;
+                changed = true;
+            }
+        }
+
+        if (changed || Float.isNaN(displayedScale)) {
+            Arrays.fill(ruleForRow, UNTESTED);
+        }
+        allDisplayed = false;
+        displayedScale = scale;
+    }
+
+    /**
+     * The test a rule makes on a record.
+     */
+    protected abstract static class Test {
+        protected abstract boolean test(int row);
+    }
+
+    protected static class ConstantTest extends Test {
+        protected final boolean result;
+
+        protected ConstantTest(boolean result) {
+            this.result = result;
+        }
+
+        protected boolean test(int row) {
+            return result;
+        }
+    }
+
+    /**
+     * Compares the rule value to a column, as numbers for the cells that are
+     * numbers and as Strings for the rest.
+     */
+    protected static class ColumnTest extends Test {
+        protected final RuleOp op;
+        protected final Object key;
+        protected final String stringKey;
+        protected final boolean numberKey;
+        protected final double doubleKey;
+        protected final ColumnValues values;
+
+        protected ColumnTest(RuleOp op, Object key, ColumnValues values) {
+            this.op = op;
+            this.key = key;
+            this.values = values;
+            stringKey = key.toString();
+            Double number = values.hasNumbers ? RuleOp.parseKey(key) : null;
+            numberKey = number != null;
+            doubleKey = numberKey ? number.doubleValue() : Double.NaN;
+        }
+
+        protected boolean test(int row) {
+            String string = values.strings[row];
+            if (string != null) {
+                return op.evaluate(stringKey, string);
+            }
+
+            if (op == RuleOp.STARTS_WITH || op == RuleOp.ENDS_WITH) {
+                return op.evaluate(key, new Double(values.numbers[row]));
+            }
+
+            if (!numberKey) {
+                return op.compare(-1);
+            }
+
+            return op.evaluate(doubleKey, values.numbers[row]);
+        }
+    }
+
+    /**
+     * The values of a column, split into numbers and Strings the way the
+     * cells would be in the record Lists.
+     */
+    protected static class ColumnValues {
+        /** The numbers, for rows that don't have a String. */
+        protected double[] numbers;
+        /** The Strings for cells that aren't numbers, null for numbers. */
+        protected final String[] strings;
+        protected boolean hasNumbers;
+
+        protected ColumnValues(RuleColumns columns, int column) {
+            int rowCount = columns.getRowCount();
+            strings = new String[rowCount];
+
+            if (columns.isNumerical(column)) {
+                numbers = columns.getDoubleColumn(column);
+                boolean copied = false;
+                for (int row = 0; row < rowCount; row++) {
+                    if (Double.isNaN(numbers[row])) {
+                        Object value = columns.getValue(row, column);
+                        if (value instanceof Number) {
+                            if (!copied) {
+                                // Don't change the shared column.
+                                numbers = numbers.clone();
+                                copied = true;
+                            }
+                            numbers[row] = ((Number) value).doubleValue();
+                        } else {
+                            strings[row] = String.valueOf(value);
+                        }
+                    }
+                }
+                hasNumbers = true;
+            } else {
+                for (int row = 0; row < rowCount; row++) {
+                    Object value = columns.getValue(row, column);
+                    if (value instanceof Number) {
+                        if (numbers == null) {
+                            numbers = new double[rowCount];
+                        }
+                        numbers[row] = ((Number) value).doubleValue();
+                        hasNumbers = true;
+                    } else {
+                        strings[row] = String.valueOf(value);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -76,7 +76,7 @@ public abstract class IndexRule extends Rule<List<?>> {
 	 * @return String of content
 	 */
 	public String getContent(List<String> fieldNames, List<?> record) {
-		StringBuffer buf = new StringBuffer();
+		StringBuilder buf = new StringBuilder();
 		if (fieldNames != null) {
 			for (String field : fieldNames) {
 				int index = getRecordColumnIndexForName(field);
@@ -100,53 +100,45 @@ public abstract class IndexRule extends Rule<List<?>> {
 	}
 
 	/**
-	 * Evaluate the record against this rule.
+	 * Apply the actions of this rule to an OMGraphic whose record has already
+	 * met the rule.
 	 * 
 	 * @param record A List of attributes for a particular OMGraphic/map object.
 	 *            The indices for the rule are indexes into this record.
-	 * @param omg The OMGraphic to evaluate.
+	 * @param omg The OMGraphic that met the rule.
 	 * @param proj The current map projection.
 	 * @return the OMGraphic if it should be drawn, null if it shouldn't.
 	 */
-	public OMGraphic evaluate(List<?> record, OMGraphic omg, Projection proj) {
-
-		if (evaluate(record)) {
-
-			float scale = 0f;
-
-			if (proj != null) {
-				scale = proj.getScale();
+	public OMGraphic apply(List<?> record, OMGraphic omg, Projection proj) {
 
-				if (scale < displayMinScale || scale > displayMaxScale) {
-					// We met the rule, it's telling us not to display.
-					return null;
-				}
-			}
+		if (!isDisplayed(proj)) {
+			// We met the rule, it's telling us not to display.
+			return null;
+		}
 
-			if (infolineIndicies != null) {
-				omg.putAttribute(OMGraphicConstants.INFOLINE, getContentFromIndicies(infolineIndicies, record));
-			}
-			if (tooltipIndicies != null) {
-				omg.putAttribute(OMGraphicConstants.TOOLTIP, getContentFromIndicies(tooltipIndicies, record));
-			}
-			if (labelIndicies != null && scale >= labelMinScale && scale <= labelMaxScale) {
-				String curLabel = getContentFromIndicies(labelIndicies, record);
+		float scale = proj != null ? proj.getScale() : 0f;
 
-				OMTextLabeler label = new OMTextLabeler(curLabel, OMText.JUSTIFY_CENTER);
-				// Needs to get added to the OMGraphic so it gets
-				// generated with the projection at the right point.
-				omg.putAttribute(OMGraphicConstants.LABEL, label);
-			}
+		if (infolineIndicies != null) {
+			omg.putAttribute(OMGraphicConstants.INFOLINE, getContentFromIndicies(infolineIndicies, record));
+		}
+		if (tooltipIndicies != null) {
+			omg.putAttribute(OMGraphicConstants.TOOLTIP, getContentFromIndicies(tooltipIndicies, record));
+		}
+		if (labelIndicies != null && scale >= labelMinScale && scale <= labelMaxScale) {
+			String curLabel = getContentFromIndicies(labelIndicies, record);
 
-			if (drawingAttributes != null) {
-				drawingAttributes.setTo(omg);
-			}
-			omg.setVisible(drawingAttributes != null);
+			OMTextLabeler label = new OMTextLabeler(curLabel, OMText.JUSTIFY_CENTER);
+			// Needs to get added to the OMGraphic so it gets
+			// generated with the projection at the right point.
+			omg.putAttribute(OMGraphicConstants.LABEL, label);
+		}
 
-			return omg;
+		if (drawingAttributes != null) {
+			drawingAttributes.setTo(omg);
 		}
+		omg.setVisible(drawingAttributes != null);
 
-		return null;
+		return omg;
 	}
 
 	/**
@@ -159,11 +151,11 @@ public abstract class IndexRule extends Rule<List<?>> {
 	 */
 	public String getContentFromIndicies(int[] indicies, List<?> record) {
 		int numIndicies = indicies.length;
-		StringBuffer buf = new StringBuffer();
+		StringBuilder buf = new StringBuilder();
 		for (int i = 0; i < numIndicies; i++) {
 			int val = indicies[i];
 			if (val != -1) {
-				buf.append((String) record.get(val)).append(" ");
+				buf.append(PropUtils.unnull(record.get(val))).append(' ');
 			}
 		}
 		return buf.toString().trim();
@@ -198,50 +198,75 @@ public abstract class Rule<T> extends OMComponent {
     public OMGraphic evaluate(T record, OMGraphic omg, Projection proj) {
 
         if (evaluate(record)) {
+            return apply(record, omg, proj);
+        }
 
-            float scale = 0f;
+        return null;
+    }
 
-            if (proj != null) {
-                scale = proj.getScale();
+    /**
+     * Apply the actions of this rule to an OMGraphic whose record has already
+     * met the rule.
+     * 
+     * @param record A Map of attributes for a particular OMGraphic/map object.
+     * @param omg The OMGraphic that met the rule.
+     * @param proj The current map projection.
+     * @return the OMGraphic if it should be drawn, null if it shouldn't.
+     */
+    public OMGraphic apply(T record, OMGraphic omg, Projection proj) {
 
-                if (scale < displayMinScale || scale > displayMaxScale) {
-                    // We met the rule, it's telling us not to display.
-                    return null;
-                }
-            }
+        if (!isDisplayed(proj)) {
+            // We met the rule, it's telling us not to display.
+            return null;
+        }
 
-            if (infolineFields != null) {
-                omg.putAttribute(OMGraphicConstants.INFOLINE, getContent(infolineFields, record));
-            }
-            if (tooltipFields != null) {
-                omg.putAttribute(OMGraphicConstants.TOOLTIP, getContent(tooltipFields, record));
-            }
-            if (labelFields != null && scale >= labelMinScale && scale <= labelMaxScale) {
-                String curLabel = getContent(labelFields, record);
+        float scale = proj != null ? proj.getScale() : 0f;
 
-                OMTextLabeler label = new OMTextLabeler(curLabel, OMText.JUSTIFY_CENTER);
-                // Needs to get added to the OMGraphic so it gets
-                // generated with the projection at the right point.
-                omg.putAttribute(OMGraphicConstants.LABEL, label);
-            }
+        if (infolineFields != null) {
+            omg.putAttribute(OMGraphicConstants.INFOLINE, getContent(infolineFields, record));
+        }
+        if (tooltipFields != null) {
+            omg.putAttribute(OMGraphicConstants.TOOLTIP, getContent(tooltipFields, record));
+        }
+        if (labelFields != null && scale >= labelMinScale && scale <= labelMaxScale) {
+            String curLabel = getContent(labelFields, record);
 
-            if (drawingAttributes != null) {
-                drawingAttributes.setTo(omg);
-            }
-            omg.setVisible(drawingAttributes != null);
+            OMTextLabeler label = new OMTextLabeler(curLabel, OMText.JUSTIFY_CENTER);
+            // Needs to get added to the OMGraphic so it gets
+            // generated with the projection at the right point.
+            omg.putAttribute(OMGraphicConstants.LABEL, label);
+        }
 
-            if (getLogger().isLoggable(Level.FINE)) {
-                getLogger().fine(this.getPropertyPrefix() + " being assigned to "
-                        + op.getClass().getName() + " " + keyField + " " + val + " vs "
-                        + ((Map) record).get(keyField));
+        if (drawingAttributes != null) {
+            drawingAttributes.setTo(omg);
+        }
+        omg.setVisible(drawingAttributes != null);
 
-                omg.putAttribute("RULE", getPropertyPrefix());
-            }
+        if (getLogger().isLoggable(Level.FINE)) {
+            getLogger().fine(this.getPropertyPrefix() + " being assigned to "
+                    + op.getClass().getName() + " " + keyField + " " + val + " vs "
+                    + ((Map) record).get(keyField));
 
-            return omg;
+            omg.putAttribute("RULE", getPropertyPrefix());
         }
 
-        return null;
+        return omg;
+    }
+
+    /**
+     * Check the display scale limits of this rule against a projection.
+     * 
+     * @param proj The current map projection, may be null.
+     * @return true if OMGraphics meeting the rule are displayed at the
+     *         projection's scale, always true for a null projection.
+     */
+    public boolean isDisplayed(Projection proj) {
+        if (proj == null) {
+            return true;
+        }
+
+        float scale = proj.getScale();
+        return !(scale < displayMinScale || scale > displayMaxScale);
     }
 
     /**
@@ -0,0 +1,46 @@
+/*
+ * <copyright>
+ *  Copyright 2015 BBN Technologies
+ * </copyright>
+ */
+package com.bbn.openmap.omGraphics.rule;
+
+/**
+ * Column access to the records that IndexRules are evaluated against, so
+ * rules can be compiled to test whole columns of primitive values instead of
+ * the boxed values in each record List. The column indexes are the same ones
+ * the IndexRules use for the record Lists.
+ */
+public interface RuleColumns {
+
+    /**
+     * @return the number of records.
+     */
+    int getRowCount();
+
+    /**
+     * @return the number of columns in each record.
+     */
+    int getColumnCount();
+
+    /**
+     * @return true if the column holds numbers, which can be read with
+     *         getDoubleColumn().
+     */
+    boolean isNumerical(int column);
+
+    /**
+     * Get all of the values of a numerical column. The array may be shared,
+     * and shouldn't be modified.
+     *
+     * @return double[] with a value for each row, Double.NaN for cells that
+     *         aren't numbers.
+     */
+    double[] getDoubleColumn(int column);
+
+    /**
+     * Get the value of a cell, the same object the record List for the row
+     * would hold.
+     */
+    Object getValue(int row, int column);
+}
@@ -62,12 +62,30 @@ import com.bbn.openmap.util.PropUtils;
  * # The render attribute is assumed to be true.  You can hide OMGraphics by setting it to false.
  * </pre>
  * 
+ * If a subclass can provide the records as columns, through compileRules()
+ * and getRecordIndexForOMGraphic(), the rules are compiled the first time
+ * they are needed. The rule each record passes is then found from primitive
+ * column values and remembered, instead of testing the record values against
+ * each rule for every evaluation. Rules are compiled again when they are set,
+ * added or removed; call resetCompiledRules() if a rule is modified in place.
+ * 
  * @author dietrick
  */
 public abstract class RuleHandler<T> extends OMComponent {
 
     List<Rule> rules;
 
+    /**
+     * The rules compiled against the record columns, null if they couldn't
+     * be.
+     */
+    protected CompiledRules compiledRules;
+
+    /**
+     * Whether compileRules() has been tried for the current rules.
+     */
+    protected boolean rulesCompiled = false;
+
     /**
      * Create a Rule object that knows how to interpret properties to create the
      * proper indices into the record List.
@@ -140,16 +158,19 @@ public abstract class RuleHandler<T> extends OMComponent {
 
     public void setRules(List<Rule> rules) {
         this.rules = rules;
+        resetCompiledRules();
     }
 
     public void addRule(Rule rule) {
         if (rule != null) {
             getRules().add(rule);
+            resetCompiledRules();
         }
     }
 
     public boolean removeRule(Rule rule) {
         if (rule != null) {
+            resetCompiledRules();
             return getRules().remove(rule);
         }
 
@@ -158,6 +179,56 @@ public abstract class RuleHandler<T> extends OMComponent {
 
     public void clearRules() {
         getRules().clear();
+        resetCompiledRules();
+    }
+
+    /**
+     * Compile the rules against the columns of the records. Subclasses that
+     * can provide the records as RuleColumns should return
+     * CompiledRules.compile(rules, columns).
+     * 
+     * @param rules the current rules.
+     * @return CompiledRules, or null if the rules can't be compiled, which is
+     *         the default.
+     */
+    // Takes the raw List<Rule> that getRules() holds.
+    @SuppressWarnings("rawtypes")
+    protected CompiledRules compileRules(List<Rule> rules) {
+        return null;
+    }
+
+    /**
+     * Return the record number for a particular OMGraphic, the row of the
+     * columns the rules were compiled against.
+     * 
+     * @param omg OMGraphic being queried
+     * @return the record number, or -1 if it's not known.
+     */
+    protected int getRecordIndexForOMGraphic(OMGraphic omg) {
+        return -1;
+    }
+
+    /**
+     * Get the compiled rules, compiling them if needed.
+     * 
+     * @return CompiledRules, or null if the rules can't be compiled.
+     */
+    public synchronized CompiledRules getCompiledRules() {
+        if (!rulesCompiled) {
+            compiledRules = compileRules(getRules());
+            rulesCompiled = true;
+        }
+        return compiledRules;
+    }
+
+    /**
+     * Forget the compiled rules and the rule each record passed, so the rules
+     * are compiled again the next time they are needed. Needs to be called if
+     * the rules or the record data change.
+     */
+    public synchronized void resetCompiledRules() {
+        compiledRules = null;
+        rulesCompiled = false;
     }
 
     public List<Rule> getRules() {
@@ -194,6 +265,14 @@ public abstract class RuleHandler<T> extends OMComponent {
             return omg;
         }
 
+        CompiledRules compiled = getCompiledRules();
+        int row = compiled != null ? getRecordIndexForOMGraphic(omg) : -1;
+        int ruleIndex = row >= 0 ? compiled.getRuleIndex(row, proj) : CompiledRules.NOT_COMPILED;
+        if (ruleIndex == CompiledRules.NO_RULE) {
+            // None of the rules displayed at this scale pass the record.
+            return null;
+        }
+
         T record = getRecordDataForOMGraphic(omg);
         if (record == null) {
             return omg;
@@ -201,31 +280,23 @@ public abstract class RuleHandler<T> extends OMComponent {
 
         OMGraphic passedEval = null;
 
+        if (ruleIndex >= 0) {
+            // Only the rule that passed needs the record, for its content.
+            // Compiled rules are IndexRules, so the records are Lists.
+            IndexRule rule = compiled.getRule(ruleIndex);
+            passedEval = rule.apply((List<?>) record, omg, proj);
+            if (passedEval != null) {
+                addLabel(omg, labelList);
+            }
+            return passedEval;
+        }
+
         for (Rule rule : rules) {
 
             passedEval = rule.evaluate(record, omg, proj);
 
             if (passedEval != null) {
-
-                /**
-                 * Let's do some stuff with a label to minimize the number of
-                 * labels that might show up.
-                 */
-                Object labelObj = omg.getAttribute(OMGraphic.LABEL);
-                if (labelObj instanceof OMTextLabeler) {
-                    String curLabel = ((OMTextLabeler) labelObj).getData();
-
-                    if (lastLabel == null
-                            || (lastLabel != null && !lastLabel.equalsIgnoreCase(curLabel))) {
-                        labelList.add((OMTextLabeler) labelObj);
-                    } else {
-                        // The Rule adds the label to the OMGraphic, we'll
-                        // remove it so it doesn't get rendered underneath
-                        omg.removeAttribute(OMGraphic.LABEL);
-                    }
-
-                    lastLabel = curLabel;
-                }
+                addLabel(omg, labelList);
                 break;
             }
 
@@ -235,4 +306,25 @@ public abstract class RuleHandler<T> extends OMComponent {
         return passedEval;
     }
 
+    /**
+     * Let's do some stuff with a label to minimize the number of labels that
+     * might show up.
+     */
+    protected void addLabel(OMGraphic omg, OMGraphicList labelList) {
+        Object labelObj = omg.getAttribute(OMGraphic.LABEL);
+        if (labelObj instanceof OMTextLabeler) {
+            String curLabel = ((OMTextLabeler) labelObj).getData();
+
+            if (lastLabel == null || (lastLabel != null && !lastLabel.equalsIgnoreCase(curLabel))) {
+                labelList.add((OMTextLabeler) labelObj);
+            } else {
+                // The Rule adds the label to the OMGraphic, we'll
+                // remove it so it doesn't get rendered underneath
+                omg.removeAttribute(OMGraphic.LABEL);
+            }
+
+            lastLabel = curLabel;
+        }
+    }
+
 }
@@ -91,6 +91,10 @@ public enum RuleOp {
         public boolean evaluate(Object key, Object val) {
             return (val.toString()).startsWith(key.toString());
         }
+
+        public boolean evaluate(String key, String val) {
+            return val.startsWith(key);
+        }
     },
     /**
      * ends: ends with
@@ -103,6 +107,10 @@ public enum RuleOp {
         public boolean evaluate(Object key, Object val) {
             return (val.toString()).endsWith(key.toString());
         }
+
+        public boolean evaluate(String key, String val) {
+            return val.endsWith(key);
+        }
     };
 
     protected String description;
@@ -119,21 +127,53 @@ public enum RuleOp {
         }
 
         if (val instanceof Number) {
-            if (!(key instanceof Double)) {
-                java.text.DecimalFormat df = new java.text.DecimalFormat();
-                DecimalFormatSymbols dfs = new DecimalFormatSymbols(Locale.ENGLISH);
-                df.setDecimalFormatSymbols(dfs);
-                try {
-                    key = new Double(df.parse(key.toString()).doubleValue());
-                } catch (java.text.ParseException pe) {
-                    return compare(-1);
-                }
+            Double number = parseKey(key);
+            if (number == null) {
+                return compare(-1);
             }
 
-            return compare(((Double) key).compareTo(((Number) val).doubleValue()));
+            return evaluate(number.doubleValue(), ((Number) val).doubleValue());
+        }
+
+        return evaluate(key.toString(), val.toString());
+    }
+
+    /**
+     * Evaluate a numerical rule key against a numerical value, without boxing
+     * either of them.
+     */
+    public boolean evaluate(double key, double val) {
+        return compare(Double.compare(key, val));
+    }
+
+    /**
+     * Evaluate a rule key against a value as Strings.
+     */
+    public boolean evaluate(String key, String val) {
+        return compare(key.compareTo(val));
+    }
+
+    /**
+     * Get the number a rule key represents, for comparing against numerical
+     * values.
+     * 
+     * @param key the rule value, a Double or something with a number as its
+     *        String.
+     * @return the Double, or null if the key isn't a number.
+     */
+    public static Double parseKey(Object key) {
+        if (key instanceof Double) {
+            return (Double) key;
         }
 
-        return compare(((String) key.toString()).compareTo(val.toString()));
+        java.text.DecimalFormat df = new java.text.DecimalFormat();
+        DecimalFormatSymbols dfs = new DecimalFormatSymbols(Locale.ENGLISH);
+        df.setDecimalFormatSymbols(dfs);
+        try {
+            return new Double(df.parse(key.toString()).doubleValue());
+        } catch (java.text.ParseException pe) {
+            return null;
+        }
     }
 
     public abstract boolean compare(int keyValcompareResult);
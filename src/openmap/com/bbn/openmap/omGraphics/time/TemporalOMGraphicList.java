@@ -25,6 +25,8 @@
 package com.bbn.openmap.omGraphics.time;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
@@ -67,15 +69,60 @@ public class TemporalOMGraphicList extends OMGraphicList implements
 
     /**
      * Calls generate(proj, time) on temporal geometries, regular generate(proj)
-     * on non-temporal OMGeometries.
+     * on non-temporal OMGeometries. If parallel generation is turned on and the
+     * list is big enough, the graphics are moved to the new time in parallel,
+     * in chunks that each have their own copy of the projection.
      */
     public void generate(Projection proj, long time) {
-        for (OMGraphic geom : this) {
-            if (geom instanceof TemporalOMGraphic) {
-                ((TemporalOMGraphic) geom).generate(proj, time);
+        if (parallelGenerate && size() >= parallelThreshold && proj != null) {
+            OMGraphic[] array = toArray(new OMGraphic[size()]);
+            ForkJoinPool pool = getGeneratePool();
+            int chunkSize = Math.max(array.length / (pool.getParallelism() * 4), 64);
+            TemporalGenerateTask task = new TemporalGenerateTask(array, 0, array.length, proj, time, chunkSize);
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
             } else {
-                geom.generate(proj);
+                pool.invoke(task);
             }
+            return;
+        }
+
+        for (OMGraphic geom : this) {
+            generate(geom, proj, time);
+        }
+    }
+
+    /**
+     * Generate one graphic for a time.
+     */
+    protected static void generate(OMGraphic geom, Projection proj, long time) {
+        if (geom instanceof TemporalOMGraphic) {
+            ((TemporalOMGraphic) geom).generate(proj, time);
+        } else {
+            geom.generate(proj);
+        }
+    }
+
+    /**
+     * A GenerateTask that moves a range of graphics to a time.
+     */
+    protected static class TemporalGenerateTask extends GenerateTask {
+        private static final long serialVersionUID = 1L;
+        protected final long time;
+
+        protected TemporalGenerateTask(OMGraphic[] array, int start, int end, Projection proj,
+                long time, int chunkSize) {
+            super(array, start, end, proj, true, chunkSize);
+            this.time = time;
+        }
+
+        protected boolean generate(int i, Projection p) {
+            TemporalOMGraphicList.generate((OMGraphic) array[i], p, time);
+            return true;
+        }
+
+        protected GenerateTask split(int start, int end) {
+            return new TemporalGenerateTask((OMGraphic[]) array, start, end, proj, time, chunkSize);
         }
     }
     
@@ -36,6 +36,21 @@ public class TemporalPointSupport extends TemporalSupport {
 
     protected int renderType = OMGraphic.RENDERTYPE_UNKNOWN;
 
+    /**
+     * The records the great circle parameters were last figured for, so
+     * positions between the same records only need one more point
+     * calculation.
+     */
+    protected TemporalRecord arcPrevious;
+    protected TemporalRecord arcNext;
+    /** The start of the great circle, radians. */
+    protected double arcLat;
+    protected double arcLon;
+    /** The arc distance to the next point, radians. */
+    protected double arcDistance;
+    /** The azimuth to the next point, radians. */
+    protected double arcAzimuth;
+
     public TemporalPointSupport(int renderType) {
         this.renderType = renderType;
     }
@@ -54,8 +69,10 @@ public class TemporalPointSupport extends TemporalSupport {
     }
 
     /**
-     * Just returns the TemporalRecord that is closes to the current time.
-     * Assumes neither previous or next are null.
+     * Returns a point along the great circle between the two records, for the
+     * fraction of the time between them. For XY points, returns the
+     * TemporalRecord that is closest to the current time. Assumes neither
+     * previous or next are null.
      * 
      * @param time the current time.
      * @param previous TemporalRecord that occurred before current time.
@@ -77,33 +94,51 @@ public class TemporalPointSupport extends TemporalSupport {
             break;
         default:
             // assume lat/lons
-            Point2D prevPt = ((TemporalPoint) previous).getLocation();
-            Point2D nextPt = ((TemporalPoint) next).getLocation();
-            LatLonPoint prevLL;
-            LatLonPoint nextLL;
-            if (prevPt instanceof LatLonPoint) {
-                prevLL = (LatLonPoint) prevPt;
-            } else {
-                prevLL = new LatLonPoint.Double(prevPt);
-            }
-            if (nextPt instanceof LatLonPoint) {
-                nextLL = (LatLonPoint) nextPt;
-            } else {
-                nextLL = new LatLonPoint.Double(nextPt);
+            if (previous != arcPrevious || next != arcNext) {
+                setArc(((TemporalPoint) previous).getLocation(),
+                        ((TemporalPoint) next).getLocation());
+                arcPrevious = previous;
+                arcNext = next;
             }
 
-            double[] pts = GreatCircle.greatCircle(prevLL.getRadLat(),
-                    prevLL.getRadLon(),
-                    nextLL.getRadLat(),
-                    nextLL.getRadLon(),
-                    100,
-                    true);
+            ret = new TemporalPoint(GreatCircle.sphericalBetween(arcLat,
+                    arcLon,
+                    arcDistance * percent,
+                    arcAzimuth), time);
+        }
 
-            int index = (int) (2 * Math.floor(100 * percent));
+        return ret;
+    }
 
-            ret = new TemporalPoint(new LatLonPoint.Double(pts[index], pts[index + 1], true), time);
+    public void resetCursor() {
+        super.resetCursor();
+        arcPrevious = null;
+        arcNext = null;
+    }
+
+    /**
+     * Figure out the great circle between two points, for interpolating
+     * between them.
+     */
+    protected void setArc(Point2D prevPt, Point2D nextPt) {
+        LatLonPoint prevLL;
+        LatLonPoint nextLL;
+        if (prevPt instanceof LatLonPoint) {
+            prevLL = (LatLonPoint) prevPt;
+        } else {
+            prevLL = new LatLonPoint.Double(prevPt);
+        }
+        if (nextPt instanceof LatLonPoint) {
+            nextLL = (LatLonPoint) nextPt;
+        } else {
+            nextLL = new LatLonPoint.Double(nextPt);
         }
 
-        return ret;
+        arcLat = prevLL.getRadLat();
+        arcLon = prevLL.getRadLon();
+        double nextLat = nextLL.getRadLat();
+        double nextLon = nextLL.getRadLon();
+        arcDistance = GreatCircle.sphericalDistance(arcLat, arcLon, nextLat, nextLon);
+        arcAzimuth = GreatCircle.sphericalAzimuth(arcLat, arcLon, nextLat, nextLon);
     }
 }
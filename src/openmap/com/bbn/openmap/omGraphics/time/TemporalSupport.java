@@ -25,6 +25,7 @@
 package com.bbn.openmap.omGraphics.time;
 
 import java.util.Iterator;
+import java.util.NavigableSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,6 +39,13 @@ import java.util.logging.Logger;
  * object from the start of time, so that an object's status can be observed and
  * calculated based on everything that might have changed in the TemporalRecord
  * list before a given time.
+ * <P>
+ * The records are found with floor/ceiling lookups in the sorted set, so
+ * finding a position takes log time. The support also remembers the records
+ * found for the last time asked for, so a clock moving forward only has to
+ * look at the records it passed. The cursor is reset when records are added or
+ * removed through this object; if the set from getTemporals() is changed
+ * directly, call resetCursor().
  */
 public abstract class TemporalSupport {
 
@@ -45,6 +53,30 @@ public abstract class TemporalSupport {
 
     protected TreeSet<? extends TemporalRecord> temporals;
 
+    /**
+     * The record at or before the last time asked for, null if there wasn't
+     * one.
+     */
+    protected TemporalRecord cursorPrevious;
+    /**
+     * The record after the last time asked for, null if there wasn't one.
+     */
+    protected TemporalRecord cursorNext;
+    /**
+     * The last time asked for, Long.MIN_VALUE if the cursor isn't set.
+     */
+    protected long cursorTime = Long.MIN_VALUE;
+    /**
+     * The size of the set when the cursor was set, to notice records being
+     * added and removed behind our back, -1 if the cursor needs to be reset.
+     */
+    protected int cursorSize = -1;
+
+    /**
+     * A record used to look up times in the set.
+     */
+    protected final TimeKey timeKey = new TimeKey();
+
     /**
      * 
      * @param time in milliseconds
@@ -53,36 +85,40 @@ public abstract class TemporalSupport {
      *        between Temporal objects.
      */
     public <T extends TemporalRecord> T getPosition(long time, boolean interpolate) {
-        T previous = null;
-        T next = null;
-
         // Find out where the timestamp is in relation to the reported
         // positions
-        synchronized (temporals) {
+        synchronized (getTemporals()) {
 
-            Iterator<T> it = iterator();
-            while (it.hasNext()) {
-                T temporal = it.next();
-                long recTimeStamp = temporal.getTime();
-
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer("evaluating: " + temporal + " vs " + time);
-                }
+            if (temporals.comparator() == null) {
+                // Can't look up a time in a set of Comparables, have to check
+                // each one.
+                return scanPosition(time, interpolate);
+            }
 
-                if (recTimeStamp < time) {
-                    previous = temporal;
-                    updateForTemporal(time, temporal);
-                } else if (recTimeStamp > time) {
-                    next = temporal;
-                    break;
-                } else {
-                    // Hit a time right at a position.
-                    updateForTemporal(time, temporal);
-                    return temporal;
-                }
+            moveCursor(time);
+            // The cursor holds records from the set, which getTemporals()
+            // hands out as T too.
+            @SuppressWarnings("unchecked")
+            T previous = (T) cursorPrevious;
+            @SuppressWarnings("unchecked")
+            T next = (T) cursorNext;
+
+            if (previous != null && previous.getTime() == time) {
+                // Hit a time right at a position.
+                return previous;
             }
+
+            // Interpolation can cache things about the records, so it's
+            // done under the lock too.
+            return resolvePosition(time, interpolate, previous, next);
         }
+    }
 
+    /**
+     * Figure out the position from the records on either side of a time.
+     */
+    protected <T extends TemporalRecord> T resolvePosition(long time, boolean interpolate,
+                                                           T previous, T next) {
         T pos = null;
 
         // OK, now's the opportunity to leave if
@@ -131,6 +167,113 @@ public abstract class TemporalSupport {
         return pos;
     }
 
+    /**
+     * Move the cursor to a time, calling updateForTemporal for the records the
+     * cursor moves past. If the time moves forward, only the records after the
+     * last time get updates. Otherwise, resetForTemporal is called and the
+     * records from the start of the set get updates again. Has to be called
+     * while holding the temporals lock.
+     * 
+     * @param time in milliseconds.
+     */
+    protected void moveCursor(long time) {
+        NavigableSet<TemporalRecord> set = getTemporals();
+
+        if (cursorSize != set.size() || time < cursorTime) {
+            resetCursor();
+            resetForTemporal(time);
+        }
+
+        if (cursorNext != null && cursorNext.getTime() > time) {
+            // Still in the same interval, nothing new has happened.
+            cursorTime = time;
+            return;
+        }
+
+        NavigableSet<TemporalRecord> passed;
+        timeKey.setTime(time);
+        if (cursorPrevious == null) {
+            if (cursorTime != Long.MIN_VALUE && cursorNext == null) {
+                // No records.
+                cursorTime = time;
+                return;
+            }
+            passed = set.headSet(timeKey, true);
+        } else {
+            passed = set.subSet(cursorPrevious, false, timeKey, true);
+        }
+
+        for (TemporalRecord temporal : passed) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("evaluating: " + temporal + " vs " + time);
+            }
+            updateForTemporal(time, temporal);
+            cursorPrevious = temporal;
+        }
+
+        cursorNext = set.higher(timeKey);
+        cursorTime = time;
+        cursorSize = set.size();
+    }
+
+    /**
+     * Forget the records found for the last time, so the next lookup starts
+     * from the beginning of the set. Needs to be called if the set from
+     * getTemporals() is modified directly.
+     */
+    public void resetCursor() {
+        cursorPrevious = null;
+        cursorNext = null;
+        cursorTime = Long.MIN_VALUE;
+        cursorSize = -1;
+    }
+
+    /**
+     * Find the position by going through the records from the start, for sets
+     * without a comparator. The lock on the temporals has to be held.
+     */
+    protected <T extends TemporalRecord> T scanPosition(long time, boolean interpolate) {
+        T previous = null;
+        T next = null;
+
+        resetForTemporal(time);
+        Iterator<T> it = iterator();
+        while (it.hasNext()) {
+            T temporal = it.next();
+            long recTimeStamp = temporal.getTime();
+
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("evaluating: " + temporal + " vs " + time);
+            }
+
+            if (recTimeStamp < time) {
+                previous = temporal;
+                updateForTemporal(time, temporal);
+            } else if (recTimeStamp > time) {
+                next = temporal;
+                break;
+            } else {
+                // Hit a time right at a position.
+                updateForTemporal(time, temporal);
+                return temporal;
+            }
+        }
+
+        return resolvePosition(time, interpolate, previous, next);
+    }
+
+    /**
+     * Called before updateForTemporal is called for the records from the start
+     * of the set again, because the time moved backward or the records
+     * changed. Override this method to clear whatever status
+     * updateForTemporal keeps.
+     * 
+     * @param time milliseconds reflecting the current time.
+     */
+    protected void resetForTemporal(long time) {
+
+    }
+
     /**
      * Override this method to use the TemporalRecord's contents to affect the
      * status of whatever you like.
@@ -170,6 +313,7 @@ public abstract class TemporalSupport {
 
     public <T extends TemporalRecord> void setTemporals(TreeSet<T> temporals) {
         this.temporals = temporals;
+        resetCursor();
     }
 
     public abstract <T extends TemporalRecord> TreeSet<T> createTemporalSet();
@@ -177,7 +321,11 @@ public abstract class TemporalSupport {
     public abstract <T extends TemporalRecord> Iterator<T> iterator();
 
     public void add(TemporalRecord tr) {
-        getTemporals().add(tr);
+        TreeSet<TemporalRecord> set = getTemporals();
+        synchronized (set) {
+            set.add(tr);
+            resetCursor();
+        }
     }
 
     /**
@@ -187,10 +335,34 @@ public abstract class TemporalSupport {
      * @return true if removal was successful.
      */
     public boolean remove(TemporalRecord tr) {
-        return getTemporals().remove(tr);
+        TreeSet<TemporalRecord> set = getTemporals();
+        synchronized (set) {
+            resetCursor();
+            return set.remove(tr);
+        }
     }
 
     public void clear() {
-        temporals.clear();
+        TreeSet<TemporalRecord> set = getTemporals();
+        synchronized (set) {
+            set.clear();
+            resetCursor();
+        }
+    }
+
+    /**
+     * A TemporalRecord that's only a time, for looking up times in the set.
+     * The set's comparator has to order the records by time.
+     */
+    protected static class TimeKey implements TemporalRecord {
+        protected long time;
+
+        public long getTime() {
+            return time;
+        }
+
+        public void setTime(long t) {
+            time = t;
+        }
     }
 }
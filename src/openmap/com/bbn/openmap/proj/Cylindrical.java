@@ -457,6 +457,69 @@ public abstract class Cylindrical
         return ret_val;
     }// _forwardPoly()
 
+    /**
+     * Forward project a raw double[] Poly into a PolyBuffer, the same way
+     * _forwardPoly(double[], int, int, boolean) does, but without creating
+     * new arrays. The continuous poly is the first part in the buffer, the
+     * shifted copies for the wrap minima and maxima follow it.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segments between vertices (or if &lt; 0, generate
+     *        this value internally)
+     * @param isFilled filled poly? this is currently ignored for cylindrical
+     *        projections.
+     * @param buffer the PolyBuffer to add the projected parts to.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int n, k, flag = 0, min = 0, max = 0;
+        float xp, xadj = 0;
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point2D temp = buffer.tmpPoint;
+        int start = buffer.reserve(len);
+        float[] xs = buffer.getXs();
+        float[] ys = buffer.getYs();
+
+        // forward project the first point
+        forward(rawllpts[0], rawllpts[1], temp, true);
+        xp = (float) temp.getX();
+        xs[start] = xp;
+        ys[start] = (float) temp.getY();
+        // forward project the other points
+        for (n = start + 1, k = 2; k < len * 2; n++, k += 2) {
+            forward(rawllpts[k], rawllpts[k + 1], temp, true);
+            xs[n] = (float) temp.getX();
+            ys[n] = (float) temp.getY();
+            // segment crosses longitude along screen edge
+            if (Math.abs(xp - xs[n]) >= half_world) {
+                flag += (xp < xs[n]) ? -1 : 1;// inc/dec the wrap count
+                min = (flag < min) ? flag : min;// left wrap count
+                max = (flag > max) ? flag : max;// right wrap count
+                xadj = flag * world.x;// adjustment to x coordinates
+            }
+            xp = (float) temp.getX();// save previous unshifted x coordinate
+            if (flag != 0) {
+                xs[n] += xadj;// adjust x coordinates
+            }
+        }
+
+        buffer.addPart(start, len);
+        // add the extra left-wrap and right-wrap polys
+        buffer.addWrappedParts(start, len, -min, max, world.x);
+    }
+
     // print out polygon
     public static final void dumpPoly(float[] rawllpts, float[] xs, float[] ys) {
         Debug.output("poly:");
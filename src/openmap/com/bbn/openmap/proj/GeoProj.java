@@ -1470,6 +1470,47 @@ public abstract class GeoProj extends Proj {
         return stuff;
     }
 
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer.
+     * <p>
+     * The same as forwardPoly(double[], int, int, boolean), but the projected
+     * parts are put in the buffer instead of new arrays, so a buffer used over
+     * and over for many polys keeps garbage from being created for each one.
+     * The buffer is reset first. Delegates to _forwardPoly(), and may do
+     * additional clipping for Java XWindows problem. Remember to specify
+     * vertices in radians!
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the PolyBuffer to fill with the projected parts.
+     * @see #forwardPoly(double[], int, int, boolean)
+     */
+    public void forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                            PolyBuffer buffer) {
+        buffer.reset();
+        _forwardPoly(rawllpts, ltype, nsegs, isFilled, buffer);
+        // @HACK: workaround XWindows bug. simple clip to a boundary.
+        if (Environment.doingXWindowsWorkaround && (scale <= XSCALE_THRESHOLD)) {
+            float[] xpts = buffer.getXs();
+            float[] ypts = buffer.getYs();
+            for (int j = 0; j < buffer.size(); j++) {
+                if (xpts[j] <= -XTHRESHOLD) {
+                    xpts[j] = -XTHRESHOLD;
+                } else if (xpts[j] >= XTHRESHOLD) {
+                    xpts[j] = XTHRESHOLD;
+                }
+                if (ypts[j] <= -XTHRESHOLD) {
+                    ypts[j] = -XTHRESHOLD;
+                } else if (ypts[j] >= XTHRESHOLD) {
+                    ypts[j] = XTHRESHOLD;
+                }
+            }
+        }
+    }
+
     /**
      * Forward project a lat/lon Poly defined as decimal degree lat/lons.
      * <p>
@@ -1522,6 +1563,26 @@ public abstract class GeoProj extends Proj {
     protected abstract ArrayList<float[]> _forwardPoly(double[] rawllpts, int ltype, int nsegs,
                                                        boolean isFilled);
 
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer, which has already been
+     * reset. Remember to specify vertices in radians!
+     * <p>
+     * This version copies the results of _forwardPoly(double[], int, int,
+     * boolean) into the buffer. Projections override it to project straight
+     * into the buffer without creating new arrays.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the PolyBuffer to add the projected parts to.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        buffer.set(_forwardPoly(rawllpts, ltype, nsegs, isFilled));
+    }
+
     /**
      * Get the unprojected coordinates units of measure.
      * 
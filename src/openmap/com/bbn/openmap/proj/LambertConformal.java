@@ -606,7 +606,9 @@ public class LambertConformal
                               int copylen) {
 
         double[] drawllpts = new double[rawllpts.length];
-        System.arraycopy(drawllpts, 0, rawllpts, 0, rawllpts.length);
+        for (int i = 0; i < rawllpts.length; i++) {
+            drawllpts[i] = rawllpts[i];
+        }
 
         return forwardRaw(drawllpts, rawoff, xcoords, ycoords, visible, copyoff, copylen);
     }
@@ -647,7 +649,9 @@ public class LambertConformal
     protected ArrayList<float[]> _forwardPoly(float[] rawllpts, int ltype, int nsegs, boolean isFilled) {
 
         double[] drawllpts = new double[rawllpts.length];
-        System.arraycopy(drawllpts, 0, rawllpts, 0, rawllpts.length);
+        for (int i = 0; i < rawllpts.length; i++) {
+            drawllpts[i] = rawllpts[i];
+        }
 
         return _forwardPoly(drawllpts, ltype, nsegs, isFilled);
     }
@@ -739,6 +743,97 @@ public class LambertConformal
         return ret_val;
     }
 
+    /**
+     * Forward project a poly into a PolyBuffer, the same way
+     * _forwardPoly(double[], int, int, boolean) does, but without creating
+     * new coordinate arrays. The poly is split into parts where it crosses the
+     * dateline behind the projection, and the last part is joined to the front
+     * of the first if the poly is closed.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int i, j, k;
+
+        // determine length of pairs
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // Not concerned with any polygons that are completely below
+        // 60S
+        double minlat = ProjMath.degToRad(-60f);
+        boolean allBelowMinLat = true;
+        for (j = 0; j < len * 2; j += 2) {
+            if (rawllpts[j] > minlat) {
+                allBelowMinLat = false;
+                break;
+            }
+        }
+        if (allBelowMinLat) {
+            return;
+        }
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.tmpPixel;
+        int[] xa = buffer.getIndexes(len + 1);
+        int start = buffer.reserve(len);
+        float[] xs = buffer.getXs();
+        float[] ys = buffer.getYs();
+        double dlamda1, dlamda2;
+
+        // forward project the points, noting where the poly jumps across
+        // the dateline
+        k = 0;
+        xa[k] = 0;
+        dlamda1 = _forward(rawllpts[0], rawllpts[1], temp, true);
+        xs[start] = temp.x;
+        ys[start] = temp.y;
+        for (i = 1, j = 2; i < len; i++, j += 2) {
+            dlamda2 = _forward(rawllpts[j], rawllpts[j + 1], temp, true);
+            if (Math.abs(dlamda2 - dlamda1) >= Math.PI) {
+                xa[++k] = i;
+            }
+            xs[start + i] = temp.x;
+            ys[start + i] = temp.y;
+            dlamda1 = dlamda2;
+        }
+
+        if (xa[k] < len)
+            xa[++k] = len;
+
+        boolean closed = xs[start] == xs[start + len - 1] && ys[start] == ys[start + len - 1];
+        if (k > 1 && closed) {
+            // The last part wraps around to the first, put them together
+            // (last part first) as a new first part.
+            int lastLen = xa[k] - xa[k - 1];
+            int firstLen = xa[1];
+            int joined = buffer.reserve(lastLen + firstLen);
+            xs = buffer.getXs();
+            ys = buffer.getYs();
+            System.arraycopy(xs, start + xa[k - 1], xs, joined, lastLen);
+            System.arraycopy(ys, start + xa[k - 1], ys, joined, lastLen);
+            System.arraycopy(xs, start, xs, joined + lastLen, firstLen);
+            System.arraycopy(ys, start, ys, joined + lastLen, firstLen);
+            buffer.addPart(joined, lastLen + firstLen);
+            k--;
+            i = 1;
+        } else {
+            i = 0;
+        }
+
+        for (; i < k; i++) {
+            int partLen = xa[i + 1] - xa[i];
+            if (partLen > 0) {
+                buffer.addPart(start + xa[i], partLen);
+            }
+        }
+    }
+
     /**
      * Given a couple of points representing a bounding box, find out what the
      * scale should be in order to make those points appear at the corners of
@@ -0,0 +1,255 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.proj;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+
+/**
+ * A reusable output buffer for projected polygons and polylines. A projected
+ * poly may come back in several parts (the wrapped copies of a poly that
+ * crosses the dateline in a cylindrical projection, for instance), so the
+ * buffer holds the x and y coordinates of all the parts one after the other,
+ * along with the start index and length of each part.
+ * <p>
+ * The arrays only grow, so a buffer that is handed to
+ * Projection.forwardPoly(double[], boolean, PolyBuffer) over and over stops
+ * allocating memory once it's big enough for the largest poly. The contents
+ * are only valid until the buffer is used again, and a buffer should only be
+ * used by one thread at a time.
+ *
+ * @see Projection#forwardPoly(double[], boolean, PolyBuffer)
+ * @see GeoProj#forwardPoly(double[], int, int, boolean, PolyBuffer)
+ */
+public class PolyBuffer {
+
+    protected float[] xs;
+    protected float[] ys;
+    /** The number of coordinates used in xs and ys. */
+    protected int size;
+
+    protected int[] partStarts;
+    protected int[] partLengths;
+    protected int numParts;
+
+    /** Scratch index array for projections that split polys. */
+    protected int[] indexes;
+
+    /** Points the projections can use while projecting into this buffer. */
+    protected final Point2D.Float tmpPoint = new Point2D.Float();
+    protected final Point tmpPixel = new Point();
+
+    public PolyBuffer() {
+        this(64);
+    }
+
+    /**
+     * @param capacity the initial number of coordinates the buffer can hold.
+     */
+    public PolyBuffer(int capacity) {
+        capacity = Math.max(capacity, 4);
+        xs = new float[capacity];
+        ys = new float[capacity];
+        partStarts = new int[4];
+        partLengths = new int[4];
+    }
+
+    /**
+     * Forget the contents, keeping the arrays.
+     */
+    public void reset() {
+        size = 0;
+        numParts = 0;
+    }
+
+    /**
+     * @return the number of parts of the projected poly, 0 if nothing was
+     *         projected.
+     */
+    public int getNumParts() {
+        return numParts;
+    }
+
+    /**
+     * @return the index into getXs() and getYs() of the first coordinate of a
+     *         part.
+     */
+    public int getPartStart(int part) {
+        return partStarts[part];
+    }
+
+    /**
+     * @return the number of coordinates in a part.
+     */
+    public int getPartLength(int part) {
+        return partLengths[part];
+    }
+
+    /**
+     * @return the x coordinates of all the parts. The array is usually longer
+     *         than the contents, use the part starts and lengths to read it.
+     */
+    public float[] getXs() {
+        return xs;
+    }
+
+    /**
+     * @return the y coordinates of all the parts. The array is usually longer
+     *         than the contents, use the part starts and lengths to read it.
+     */
+    public float[] getYs() {
+        return ys;
+    }
+
+    /**
+     * @return the number of coordinates used in the buffer.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Make sure the coordinate arrays can hold a number of coordinates, keeping
+     * the current contents.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > xs.length) {
+            int newLength = Math.max(capacity, xs.length + (xs.length >> 1));
+            float[] newXs = new float[newLength];
+            float[] newYs = new float[newLength];
+            System.arraycopy(xs, 0, newXs, 0, size);
+            System.arraycopy(ys, 0, newYs, 0, size);
+            xs = newXs;
+            ys = newYs;
+        }
+    }
+
+    /**
+     * Reserve space for a number of coordinates at the end of the buffer,
+     * without adding a part.
+     *
+     * @return the index of the first reserved coordinate.
+     */
+    public int reserve(int length) {
+        ensureCapacity(size + length);
+        int start = size;
+        size += length;
+        return start;
+    }
+
+    /**
+     * Add a part made up of coordinates already written into the buffer.
+     *
+     * @param start the index of the first coordinate of the part.
+     * @param length the number of coordinates in the part.
+     */
+    public void addPart(int start, int length) {
+        if (numParts == partStarts.length) {
+            int[] newStarts = new int[numParts * 2];
+            int[] newLengths = new int[numParts * 2];
+            System.arraycopy(partStarts, 0, newStarts, 0, numParts);
+            System.arraycopy(partLengths, 0, newLengths, 0, numParts);
+            partStarts = newStarts;
+            partLengths = newLengths;
+        }
+        partStarts[numParts] = start;
+        partLengths[numParts] = length;
+        numParts++;
+    }
+
+    /**
+     * Add a part to the buffer, copying the coordinates.
+     */
+    public void addPart(float[] x, float[] y) {
+        int length = Math.min(x.length, y.length);
+        int start = reserve(length);
+        System.arraycopy(x, 0, xs, start, length);
+        System.arraycopy(y, 0, ys, start, length);
+        addPart(start, length);
+    }
+
+    /**
+     * Add shifted copies of a part, for polys that wrap around the world in
+     * cylindrical projections. The copies are added as new parts, the left
+     * wrapped copies first.
+     *
+     * @param start the index of the first coordinate of the part to copy.
+     * @param length the number of coordinates in the part.
+     * @param left the number of copies shifted right by the world width.
+     * @param right the number of copies shifted left by the world width.
+     * @param worldWidth the width of the world in pixels.
+     */
+    public void addWrappedParts(int start, int length, int left, int right, float worldWidth) {
+        for (int i = 1; i <= left; i++) {
+            addShiftedPart(start, length, i * worldWidth);
+        }
+        for (int i = 1; i <= right; i++) {
+            addShiftedPart(start, length, -i * worldWidth);
+        }
+    }
+
+    protected void addShiftedPart(int start, int length, float xadj) {
+        int copy = reserve(length);
+        for (int j = 0; j < length; j++) {
+            xs[copy + j] = xs[start + j] + xadj;
+        }
+        System.arraycopy(ys, start, ys, copy, length);
+        addPart(copy, length);
+    }
+
+    /**
+     * Replace the contents of the buffer with the parts of a projected poly
+     * in the x[], y[], x[], y[]... form the ArrayList forwardPoly methods
+     * return.
+     */
+    public void set(ArrayList<float[]> poly) {
+        reset();
+        if (poly != null) {
+            int count = poly.size() - 1;
+            for (int i = 0; i < count; i += 2) {
+                addPart(poly.get(i), poly.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * Copy the contents of the buffer to a new ArrayList of x[], y[], x[],
+     * y[]..., the form returned by the forwardPoly methods.
+     */
+    public ArrayList<float[]> toArrayList() {
+        ArrayList<float[]> ret = new ArrayList<float[]>(numParts * 2);
+        for (int i = 0; i < numParts; i++) {
+            float[] x = new float[partLengths[i]];
+            float[] y = new float[partLengths[i]];
+            System.arraycopy(xs, partStarts[i], x, 0, x.length);
+            System.arraycopy(ys, partStarts[i], y, 0, y.length);
+            ret.add(x);
+            ret.add(y);
+        }
+        return ret;
+    }
+
+    /**
+     * Get a scratch int array at least as long as asked for, for projections
+     * that need to keep track of indexes while filling the buffer.
+     */
+    protected int[] getIndexes(int length) {
+        if (indexes == null || indexes.length < length) {
+            indexes = new int[Math.max(length, 16)];
+        }
+        return indexes;
+    }
+}
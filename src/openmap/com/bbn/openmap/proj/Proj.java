@@ -765,6 +765,26 @@ public abstract class Proj implements Projection, Cloneable, Serializable {
         return ret_val;
     }
 
+    public void forwardPoly(double[] rawllpts, boolean isFilled, PolyBuffer buffer) {
+        buffer.reset();
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        Point temp = buffer.tmpPixel;
+        int start = buffer.reserve(len);
+        float[] xs = buffer.xs;
+        float[] ys = buffer.ys;
+        for (int n = start, k = 0; k < len * 2; n++, k += 2) {
+            forward(rawllpts[k], rawllpts[k + 1], temp);
+            xs[n] = temp.x;
+            ys[n] = temp.y;
+        }
+        buffer.addPart(start, len);
+    }
+
     /**
      * Pan the map/projection.
      * <p>
@@ -382,6 +382,19 @@ public interface Projection extends java.io.Serializable {
      */
     public ArrayList<float[]> forwardPoly(double[] rawllpts, boolean isFilled);
 
+    /**
+     * Forward project a polygon defined by the coordinates into a PolyBuffer,
+     * instead of new arrays. The buffer is reset first, and holds the same
+     * parts that forwardPoly(double[], boolean) would return. Reuse the buffer
+     * for many polys to avoid creating garbage for each one.
+     * 
+     * @param rawllpts a set of y, x coordinates.
+     * @param isFilled true of is important to note the area of the poly,
+     *        instead of just the edge.
+     * @param buffer the PolyBuffer to fill.
+     */
+    public void forwardPoly(double[] rawllpts, boolean isFilled, PolyBuffer buffer);
+
     /**
      * Forward project a raw array of world coordinates. This assumes nothing
      * about the array of coordinates. In no way does it assume the points are
@@ -360,6 +360,65 @@ public class UTMProjection extends GeoProj {
         return ret_val;
     }
 
+    /**
+     * Forward project a poly into a PolyBuffer, the same way
+     * _forwardPoly(double[], int, int, boolean) does, but without creating
+     * new coordinate arrays.
+     */
+    @Override
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int n, k, flag = 0, min = 0, max = 0, xp, xadj = 0;
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.tmpPixel;
+        int start = buffer.reserve(len);
+        float[] xs = buffer.getXs();
+        float[] ys = buffer.getYs();
+
+        UTMPoint tempUtm = new UTMPoint();
+        LatLonPoint tempLL = new LatLonPoint.Double();
+
+        // forward project the first point
+        tempLL.setLatLon(rawllpts[0], rawllpts[1], true);
+        forward(tempLL, temp, tempUtm);
+        xp = temp.x;
+        xs[start] = temp.x;
+        ys[start] = temp.y;
+        // forward project the other points
+        for (n = start + 1, k = 2; k < len * 2; n++, k += 2) {
+            tempLL.setLatLon(rawllpts[k], rawllpts[k + 1], true);
+            forward(tempLL, temp, tempUtm);
+            xs[n] = temp.x;
+            ys[n] = temp.y;
+            // segment crosses longitude along screen edge
+            if (Math.abs(xp - xs[n]) >= half_world) {
+                flag += (xp < xs[n]) ? -1 : 1;// inc/dec the wrap count
+                min = (flag < min) ? flag : min;// left wrap count
+                max = (flag > max) ? flag : max;// right wrap count
+                xadj = flag * world.x;// adjustment to x coordinates
+            }
+            xp = temp.x;// save previous unshifted x coordinate
+            if (flag != 0) {
+                xs[n] += xadj;// adjust x coordinates
+            }
+        }
+
+        buffer.addPart(start, len);
+        // add the extra left-wrap and right-wrap polys
+        buffer.addWrappedParts(start, len, -min, max, world.x);
+    }
+
     /**
      * Draw the background for the projection.
      * 
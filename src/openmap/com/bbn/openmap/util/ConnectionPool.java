@@ -0,0 +1,251 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of JDBC connections to one database. Components that query the
+ * same database over and over, like layers running a query for every
+ * projection change, can get a connection from the pool and give it back when
+ * they are done, instead of connecting every time. Idle connections are
+ * checked before they are handed out, and replaced if the database has
+ * dropped them.
+ * <P>
+ * Pools are shared by driver class, database URL and user, use getPool() to
+ * get one.
+ */
+public class ConnectionPool {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.util.ConnectionPool");
+
+    /** The default number of idle connections kept open. */
+    public final static int DEFAULT_MAX_IDLE = 4;
+
+    /** Seconds to wait for an idle connection to answer when checking it. */
+    protected final static int VALIDATION_TIMEOUT = 2;
+
+    private final static Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+    protected final String driverClass;
+    protected final String url;
+    protected final String user;
+    protected final String password;
+    protected final LinkedList<Connection> idle = new LinkedList<Connection>();
+    protected int maxIdle = DEFAULT_MAX_IDLE;
+    protected boolean driverLoaded = false;
+
+    /**
+     * Create a pool. Use getPool() to share pools between components.
+     *
+     * @param driverClass class name of the JDBC driver, loaded before the
+     *        first connection is made. May be null if the driver is already
+     *        registered.
+     * @param url the JDBC URL of the database.
+     */
+    public ConnectionPool(String driverClass, String url) {
+        this(driverClass, url, null, null);
+    }
+
+    /**
+     * Create a pool that logs into the database with a user name and
+     * password. Use getPool() to share pools between components.
+     *
+     * @param driverClass class name of the JDBC driver, may be null.
+     * @param url the JDBC URL of the database.
+     * @param user the user name, or null if it's in the URL.
+     * @param password the password for the user.
+     */
+    public ConnectionPool(String driverClass, String url, String user, String password) {
+        this.driverClass = driverClass;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * Get the shared pool for a database, creating it if needed.
+     *
+     * @param driverClass class name of the JDBC driver, may be null.
+     * @param url the JDBC URL of the database.
+     * @return ConnectionPool
+     */
+    public static ConnectionPool getPool(String driverClass, String url) {
+        return getPool(driverClass, url, null, null);
+    }
+
+    /**
+     * Get the shared pool for a database user, creating it if needed.
+     *
+     * @param driverClass class name of the JDBC driver, may be null.
+     * @param url the JDBC URL of the database.
+     * @param user the user name, or null if it's in the URL.
+     * @param password the password for the user.
+     * @return ConnectionPool
+     */
+    public static ConnectionPool getPool(String driverClass, String url, String user, String password) {
+        String key = driverClass + " " + url + " " + user;
+        synchronized (pools) {
+            ConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new ConnectionPool(driverClass, url, user, password);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Get a connection, an idle one if there is one that still works, or a new
+     * one. The connection should be given back with release() when the caller
+     * is done with it.
+     *
+     * @return Connection
+     * @throws SQLException if the driver can't be loaded or the database
+     *         can't be reached.
+     */
+    public Connection getConnection() throws SQLException {
+        while (true) {
+            Connection conn;
+            synchronized (this) {
+                conn = idle.poll();
+            }
+            if (conn == null) {
+                break;
+            }
+            if (isValid(conn)) {
+                return conn;
+            }
+            close(conn);
+        }
+
+        loadDriver();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("connecting to " + url);
+        }
+        if (user != null) {
+            return DriverManager.getConnection(url, user, password);
+        }
+        return DriverManager.getConnection(url);
+    }
+
+    /**
+     * Give a connection back to the pool. It's closed if the pool already has
+     * enough idle connections, or if it's broken.
+     *
+     * @param conn the connection from getConnection(), may be null.
+     */
+    public void release(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            if (!conn.isClosed()) {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+                synchronized (this) {
+                    if (idle.size() < maxIdle) {
+                        idle.addFirst(conn);
+                        return;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "dropping connection to " + url, e);
+        }
+        close(conn);
+    }
+
+    /**
+     * Close all of the idle connections.
+     */
+    public void close() {
+        while (true) {
+            Connection conn;
+            synchronized (this) {
+                conn = idle.poll();
+            }
+            if (conn == null) {
+                return;
+            }
+            close(conn);
+        }
+    }
+
+    /**
+     * Set the number of idle connections kept open.
+     */
+    public synchronized void setMaxIdle(int maxIdle) {
+        this.maxIdle = Math.max(0, maxIdle);
+        while (idle.size() > this.maxIdle) {
+            close(idle.removeLast());
+        }
+    }
+
+    public synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Check that an idle connection still works.
+     */
+    protected boolean isValid(Connection conn) {
+        try {
+            return conn.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        } catch (AbstractMethodError ame) {
+            // Pre-JDBC 4 driver, can't tell.
+            try {
+                return !conn.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+    }
+
+    protected void close(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "problem closing connection to " + url, e);
+        }
+    }
+
+    protected synchronized void loadDriver() throws SQLException {
+        if (driverLoaded || driverClass == null) {
+            return;
+        }
+        try {
+            Class.forName(driverClass).newInstance();
+            driverLoaded = true;
+        } catch (Exception e) {
+            throw new SQLException("can't load JDBC driver " + driverClass + ": " + e.getMessage());
+        }
+    }
+}
@@ -24,6 +24,14 @@
 
 package com.bbn.openmap.util.cacheHandler;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,17 +39,49 @@ import java.util.logging.Logger;
  * A base cache support object. Based on the
  * com.bbn.openmap.layer.util.cacheHandler package components, this CacheHandler
  * uses Objects instead of Strings and will be replacing the earlier version.
+ * <P>
+ * CacheObjects are found through a hash lookup, and the order they get tossed
+ * out when the cache is full is decided by an EvictionPolicy, least recently
+ * used by default. Large caches are split into segments with their own locks,
+ * so threads working on different keys don't wait for each other. If a
+ * maximum cost is set, objects are also tossed until the total cost of the
+ * cached objects (see CacheObject.setCost()) fits under it.
+ * <P>
+ * The get() method only calls load() once for a key, no matter how many
+ * threads ask for it at the same time. The other threads wait for that load
+ * to finish and get the same object. Hit, miss, load and eviction counts are
+ * kept for tuning cache sizes.
  * 
  * @author dietrick
  */
 public abstract class CacheHandler {
-    protected CacheObject[] objs;
-    protected int logicalClock;
 
     public static Logger logger = Logger.getLogger("com.bbn.openmap.util.cacheHandler.CacheHandler");
 
     public static int DEFAULT_MAX_CACHE_SIZE = 25;
 
+    /** The most segments a cache will be split into. */
+    public final static int MAX_SEGMENTS = 16;
+
+    /** The smallest number of objects a segment is sized for. */
+    public final static int MIN_SEGMENT_SIZE = 32;
+
+    /** The cache contents, a key always lives in the same segment. */
+    protected volatile Segment[] segments;
+    /** The maximum number of objects in the cache. */
+    protected int maxSize;
+    /** The maximum total cost of the objects in the cache, 0 for no limit. */
+    protected long maxCost = 0;
+    /** Decides what gets tossed when the cache is full. */
+    protected EvictionPolicy evictionPolicy = new LRUEvictionPolicy();
+    /** Loads that are underway, so other threads can wait for them. */
+    protected final ConcurrentHashMap<Object, FutureTask<CacheObject>> loading = new ConcurrentHashMap<Object, FutureTask<CacheObject>>();
+
+    protected final AtomicLong hitCount = new AtomicLong();
+    protected final AtomicLong missCount = new AtomicLong();
+    protected final AtomicLong loadCount = new AtomicLong();
+    protected final AtomicLong evictionCount = new AtomicLong();
+
     /**
      * Standard default constructor
      */
@@ -57,25 +97,48 @@ public abstract class CacheHandler {
     }
 
     /**
-     * Set the size, reset the logical clock
+     * Set the size, empty the cache.
      */
-    private void initCache(int max_size) {
-        if (objs != null && objs.length == max_size) {
-            clear();
-        } else {
-            objs = new CacheObject[max_size];
+    private synchronized void initCache(int max_size) {
+        maxSize = Math.max(0, max_size);
+        segments = createSegments(maxSize, maxCost);
+    }
+
+    /**
+     * Create the segments for a cache of the given size. Small caches get one
+     * segment, so the eviction order is exact. Bigger caches get up to
+     * MAX_SEGMENTS, each with an even share of the size and cost limits.
+     */
+    protected Segment[] createSegments(int max_size, long max_cost) {
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && numSegments * 2 * MIN_SEGMENT_SIZE <= max_size) {
+            numSegments <<= 1;
         }
-        logicalClock = 0;
+
+        Segment[] segs = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            int segSize = max_size / numSegments + (i < max_size % numSegments ? 1 : 0);
+            long segCost = max_cost / numSegments;
+            segs[i] = new Segment(evictionPolicy.newInstance(), segSize, segCost);
+        }
+        return segs;
+    }
+
+    /**
+     * @return the segment a key lives in.
+     */
+    protected Segment segmentFor(Segment[] segs, Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segs[h & (segs.length - 1)];
     }
 
     /**
      * Remove all the objects from the cache.
      */
     public void clear() {
-        if (objs != null) {
-            for (int i = 0; i < objs.length; i++) {
-                objs[i] = null;
-            }
+        for (Segment segment : segments) {
+            segment.clear();
         }
     }
 
@@ -83,40 +146,116 @@ public abstract class CacheHandler {
      * Need to clear memory, get gc moving, and ready for new objects
      */
     public void resetCache() {
-        initCache(objs.length);
+        initCache(maxSize);
     }
 
     /**
      * Need to clear memory, get gc moving, and ready for new objects. Delete
-     * the current Hashtable and create a new one with the new capacity.
+     * the current contents and set a new capacity.
      * 
-     * @param max_size the capacity of the Hashtable.
+     * @param max_size the capacity of the cache.
      */
     public void resetCache(int max_size) {
         initCache(max_size);
     }
 
     /**
-     * Get the current size of the cache.
+     * Change the capacity of the cache, keeping as many of the cached objects
+     * as will fit.
+     * 
+     * @param max_size the capacity of the cache.
+     */
+    protected synchronized void resize(int max_size) {
+        List<CacheObject> current = getCacheObjects();
+        maxSize = Math.max(0, max_size);
+        Segment[] segs = createSegments(maxSize, maxCost);
+        for (CacheObject co : current) {
+            evictionCount.addAndGet(segmentFor(segs, co.id).put(co));
+        }
+        segments = segs;
+    }
+
+    /**
+     * Get the current size of the cache, the maximum number of objects it
+     * will hold.
      */
     public int getCacheSize() {
-        return objs.length;
+        return maxSize;
     }
 
     /**
-     * The main call to retrieve something from the cache
+     * @return the number of objects currently in the cache.
      */
-    public Object get(Object key) {
-        CacheObject ret = searchCache(key);
-        if (ret != null)
-            return ret.obj;
+    public int getNumCached() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the total cost of the objects currently in the cache.
+     */
+    public long getCachedCost() {
+        long cost = 0;
+        for (Segment segment : segments) {
+            cost += segment.getCost();
+        }
+        return cost;
+    }
+
+    /**
+     * @return the maximum total cost of the cached objects, 0 if there isn't a
+     *         limit.
+     */
+    public long getMaxCost() {
+        return maxCost;
+    }
 
-        ret = load(key);
-        if (ret == null)
-            return null;
+    /**
+     * Set the maximum total cost of the objects in the cache, like a byte
+     * count if the CacheObjects have their cost set to their size. The cache
+     * still won't hold more than getCacheSize() objects. Cached objects are
+     * kept if they fit.
+     * 
+     * @param maxCost the maximum cost, 0 for no limit.
+     */
+    public synchronized void setMaxCost(long maxCost) {
+        this.maxCost = Math.max(0, maxCost);
+        resize(maxSize);
+    }
+
+    /**
+     * @return the EvictionPolicy deciding what's removed from a full cache.
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Set the EvictionPolicy deciding what's removed from a full cache. Cached
+     * objects are kept.
+     * 
+     * @param policy LRUEvictionPolicy, LFUEvictionPolicy or your own.
+     */
+    public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+        if (policy != null) {
+            evictionPolicy = policy;
+            resize(maxSize);
+        }
+    }
 
-        replaceLeastUsed(ret);
-        return ret.obj;
+    /**
+     * The main call to retrieve something from the cache
+     */
+    public Object get(final Object key) {
+        CacheObject ret = getOrLoad(key, new Callable<CacheObject>() {
+            public CacheObject call() {
+                return load(key);
+            }
+        });
+        return ret != null ? ret.obj : null;
     }
 
     /**
@@ -127,88 +266,254 @@ public abstract class CacheHandler {
     public abstract CacheObject load(Object key);
 
     /**
-     * Search the cache for a match -return null if not found. The key search is
-     * case insensitive.
+     * Look for a key in the cache, and if it isn't there, use the loader to
+     * create the CacheObject and add it to the cache. If another thread is
+     * already loading the same key, wait for it instead of loading it again.
+     * Subclasses with their own get methods and load arguments can use this
+     * to get the same behavior as get(Object).
+     * 
+     * @param key the cache key.
+     * @param loader called to create the CacheObject if it isn't cached.
+     * @return the CacheObject, or null if it isn't cached and the loader
+     *         returned null.
      */
-    public CacheObject searchCache(Object key) {
-        for (int i = 0; i < objs.length; i++) {
-            CacheObject co = objs[i];
-            if (co == null) {
-                // Since we load 0 -> length - 1, if we get a null
-                // one, the rest are null, too.
-                break;
-            } else if (co.id.equals(key)) {
-                return co;
+    protected CacheObject getOrLoad(Object key, Callable<CacheObject> loader) {
+        CacheObject ret = searchCache(key);
+        if (ret != null) {
+            return ret;
+        }
+
+        FutureTask<CacheObject> task = new FutureTask<CacheObject>(loader);
+        FutureTask<CacheObject> running = loading.putIfAbsent(key, task);
+
+        if (running == null) {
+            running = task;
+            try {
+                // Another thread might have finished loading it between the
+                // search and now.
+                ret = segmentFor(segments, key).get(key, false);
+                if (ret != null) {
+                    return ret;
+                }
+
+                task.run();
+                ret = result(key, task);
+                if (ret != null) {
+                    loadCount.incrementAndGet();
+                    replaceLeastUsed(ret);
+                }
+                return ret;
+            } finally {
+                // Removed after the object is in the cache, so no other thread
+                // can miss both.
+                loading.remove(key, task);
             }
         }
-        return null;
+
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("waiting for another thread to load " + key);
+        }
+        return result(key, running);
     }
 
     /**
-     * If there is space in the cache, put the object in. If there isn't space,
-     * find the least used object, and replace it.
+     * Get the result of a load, passing along unchecked exceptions thrown by
+     * the loader.
      */
-    protected void replaceLeastUsed(CacheObject newObj) {
-
-        // If the cache has room...
-        int i;
-        for (i = objs.length - 1; i >= 0; i--) {
-            if (objs[i] == null) {
-                // Somewhere in a partially filled cache, keep looking
-                // for the last taken place...
-                if (i == 0) {
-                    // there is nothing in the cache.
-                    objs[0] = newObj;
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("was empty - added " + newObj.id);
-                    }
-
-                    return;
-                } else {
-                    continue;
-                }
-            } else if (i == objs.length - 1) {
-                // We're at the end, and there is no empty space -
-                // we'll need to look at the LRU clock.
-                break;
-            } else {
-                // We are at the index of the last taken spot, and the
-                // next place is available.
-                objs[i + 1] = newObj;
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("had room - added " + newObj.id + " to the "
-                            + i + " spot.");
-                }
-                return;
+    private CacheObject result(Object key, FutureTask<CacheObject> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            logger.warning("problem loading " + key + ": " + cause);
         }
+        return null;
+    }
 
-        // If we get here, we need to replace something in the cache.
+    /**
+     * Search the cache for a match -return null if not found.
+     */
+    public CacheObject searchCache(Object key) {
+        CacheObject co = segmentFor(segments, key).get(key, true);
+        if (co != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return co;
+    }
 
-        int minClock = logicalClock + 1;
-        int LUIndex = -1;
+    /**
+     * Put an object in the cache. If there isn't space, the eviction policy
+     * decides which objects are removed to make room. An object already
+     * cached with the same id is replaced.
+     */
+    protected void replaceLeastUsed(CacheObject newObj) {
+        int evicted = segmentFor(segments, newObj.id).put(newObj);
+        if (evicted > 0) {
+            evictionCount.addAndGet(evicted);
+        }
 
-        for (i = objs.length - 1; i >= 0; i--) {
-            if (objs[i].older(minClock)) {
-                LUIndex = i;
-                minClock = objs[i].cachedTime;
-            }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("added " + newObj.id + (evicted > 0 ? ", tossed " + evicted : ""));
         }
+    }
 
-        if (LUIndex != -1) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("Tossing " + objs[LUIndex].id
-                        + " from cache[" + LUIndex + "] to add " + newObj.id);
-            }
-            objs[LUIndex] = newObj;
-            newObj.cachedTime = logicalClock++;
+    /**
+     * Remove an object from the cache.
+     * 
+     * @param key the id of the cached object.
+     * @return the removed CacheObject, null if it wasn't cached.
+     */
+    public CacheObject remove(Object key) {
+        return segmentFor(segments, key).remove(key);
+    }
+
+    /**
+     * @return a snapshot List of the objects in the cache.
+     */
+    public List<CacheObject> getCacheObjects() {
+        List<CacheObject> ret = new ArrayList<CacheObject>();
+        for (Segment segment : segments) {
+            segment.addTo(ret);
         }
+        return ret;
     }
 
     /**
      * Return a ListIterator of the cache objects.
      */
     public java.util.ListIterator<CacheObject> listIterator() {
-        return java.util.Arrays.asList(objs).listIterator();
+        return getCacheObjects().listIterator();
+    }
+
+    /**
+     * @return the number of searches that found their object in the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of searches that didn't find their object.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of objects loaded by get() calls.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @return the number of objects tossed to make room for others.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Set the hit, miss, load and eviction counts back to zero.
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        loadCount.set(0);
+        evictionCount.set(0);
+    }
+
+    /**
+     * A part of the cache with its own lock, lookup table and eviction
+     * policy.
+     */
+    protected static class Segment {
+        protected final HashMap<Object, CacheObject> map = new HashMap<Object, CacheObject>();
+        protected final EvictionPolicy policy;
+        protected final int maxSize;
+        protected final long maxCost;
+        protected long cost = 0;
+
+        protected Segment(EvictionPolicy policy, int maxSize, long maxCost) {
+            this.policy = policy;
+            this.maxSize = maxSize;
+            this.maxCost = maxCost;
+        }
+
+        protected synchronized CacheObject get(Object key, boolean recordAccess) {
+            CacheObject co = map.get(key);
+            if (co != null && recordAccess) {
+                policy.accessed(co);
+            }
+            return co;
+        }
+
+        /**
+         * @return the number of objects evicted to make room.
+         */
+        protected synchronized int put(CacheObject co) {
+            CacheObject old = map.put(co.id, co);
+            if (old != null) {
+                policy.removed(old);
+                cost -= old.getCost();
+            }
+            policy.added(co);
+            cost += co.getCost();
+
+            int evicted = 0;
+            while (map.size() > maxSize || (maxCost > 0 && cost > maxCost && map.size() > 1)) {
+                CacheObject victim = policy.victim();
+                if (victim == null) {
+                    break;
+                }
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer("Tossing " + victim.id + " from cache to add " + co.id);
+                }
+                removeObject(victim);
+                evicted++;
+            }
+            return evicted;
+        }
+
+        protected synchronized CacheObject remove(Object key) {
+            CacheObject co = map.get(key);
+            if (co != null) {
+                removeObject(co);
+            }
+            return co;
+        }
+
+        private void removeObject(CacheObject co) {
+            map.remove(co.id);
+            policy.removed(co);
+            cost -= co.getCost();
+        }
+
+        protected synchronized void clear() {
+            map.clear();
+            policy.clear();
+            cost = 0;
+        }
+
+        protected synchronized int size() {
+            return map.size();
+        }
+
+        protected synchronized long getCost() {
+            return cost;
+        }
+
+        protected synchronized void addTo(List<CacheObject> list) {
+            list.addAll(map.values());
+        }
     }
-}
\ No newline at end of file
+}
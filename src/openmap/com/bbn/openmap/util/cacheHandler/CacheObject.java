@@ -29,6 +29,12 @@ public class CacheObject {
     public Object obj = null;
     public int cachedTime = 0;
     public Object id = null;
+    /**
+     * The relative cost of keeping this object in the cache, used when the
+     * CacheHandler has a maximum cost set. Should be set before the object is
+     * added to the cache. Usually a byte count, 1 by default.
+     */
+    protected long cost = 1;
 
     /**
      * New object, set the local clock to zero
@@ -45,5 +51,23 @@ public class CacheObject {
     public boolean older(int time) {
         return (cachedTime < time);
     }
+
+    /**
+     * @return the cost of keeping this object in the cache.
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    /**
+     * Set the cost of keeping this object in the cache, like the number of
+     * bytes it takes up. Needs to be set before the object is added to the
+     * cache, the cache doesn't notice changes after that.
+     * 
+     * @param cost
+     */
+    public void setCost(long cost) {
+        this.cost = cost;
+    }
 }
 
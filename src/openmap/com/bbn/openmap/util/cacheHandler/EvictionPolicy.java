@@ -0,0 +1,62 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+/**
+ * An EvictionPolicy keeps track of the order that CacheObjects should be
+ * tossed from a CacheHandler when it's full. The CacheHandler tells the policy
+ * when objects are added, accessed and removed, and asks it for a victim when
+ * room needs to be made. All of these calls should be constant time, or
+ * close to it.
+ * <P>
+ * A CacheHandler may split itself into several independently locked segments,
+ * and each segment gets its own policy from newInstance(). The policy methods
+ * are always called while the segment is locked, so a policy doesn't need to
+ * do its own synchronization.
+ */
+public abstract class EvictionPolicy {
+
+    /**
+     * Create a new, empty policy of the same type, for a cache segment.
+     */
+    public abstract EvictionPolicy newInstance();
+
+    /**
+     * Called when an object has been put in the cache.
+     */
+    public abstract void added(CacheObject co);
+
+    /**
+     * Called when an object has been found in the cache.
+     */
+    public abstract void accessed(CacheObject co);
+
+    /**
+     * Called when an object has been removed from the cache, for any reason.
+     */
+    public abstract void removed(CacheObject co);
+
+    /**
+     * @return the CacheObject that should be removed next, or null if the
+     *         policy isn't tracking anything. The object isn't removed from
+     *         the policy until removed() is called.
+     */
+    public abstract CacheObject victim();
+
+    /**
+     * Forget about everything.
+     */
+    public abstract void clear();
+}
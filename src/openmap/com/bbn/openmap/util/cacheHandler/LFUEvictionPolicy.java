@@ -0,0 +1,105 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * An EvictionPolicy that tosses the least frequently used object, and the
+ * least recently used one of those if there's a tie. Objects are kept in
+ * buckets by use count, and the policy keeps track of the lowest count, so
+ * every operation is constant time.
+ */
+public class LFUEvictionPolicy extends EvictionPolicy {
+
+    /** Use count for each cached object id. */
+    protected Map<Object, Integer> counts = new HashMap<Object, Integer>();
+    /** Objects with the same use count, oldest first. */
+    protected Map<Integer, LinkedHashSet<CacheObject>> buckets = new HashMap<Integer, LinkedHashSet<CacheObject>>();
+    /** The lowest use count of anything in the buckets. */
+    protected int minCount = 0;
+
+    public EvictionPolicy newInstance() {
+        return new LFUEvictionPolicy();
+    }
+
+    public void added(CacheObject co) {
+        removed(co);
+        counts.put(co.id, 1);
+        bucket(1).add(co);
+        minCount = 1;
+    }
+
+    public void accessed(CacheObject co) {
+        Integer count = counts.get(co.id);
+        if (count == null) {
+            added(co);
+            return;
+        }
+
+        LinkedHashSet<CacheObject> current = buckets.get(count);
+        current.remove(co);
+        if (current.isEmpty()) {
+            buckets.remove(count);
+            if (minCount == count) {
+                minCount = count + 1;
+            }
+        }
+
+        counts.put(co.id, count + 1);
+        bucket(count + 1).add(co);
+    }
+
+    public void removed(CacheObject co) {
+        Integer count = counts.remove(co.id);
+        if (count != null) {
+            LinkedHashSet<CacheObject> current = buckets.get(count);
+            current.remove(co);
+            if (current.isEmpty()) {
+                buckets.remove(count);
+            }
+        }
+    }
+
+    public CacheObject victim() {
+        if (counts.isEmpty()) {
+            return null;
+        }
+
+        // minCount only goes stale after a remove(), and then only upward.
+        LinkedHashSet<CacheObject> lowest = buckets.get(minCount);
+        while (lowest == null) {
+            lowest = buckets.get(++minCount);
+        }
+        return lowest.iterator().next();
+    }
+
+    public void clear() {
+        counts.clear();
+        buckets.clear();
+        minCount = 0;
+    }
+
+    protected LinkedHashSet<CacheObject> bucket(int count) {
+        LinkedHashSet<CacheObject> bucket = buckets.get(count);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<CacheObject>();
+            buckets.put(count, bucket);
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,54 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An EvictionPolicy that tosses the least recently used object. An access
+ * ordered LinkedHashMap keeps the objects in order, so every operation is
+ * constant time.
+ */
+public class LRUEvictionPolicy extends EvictionPolicy {
+
+    protected LinkedHashMap<Object, CacheObject> order = new LinkedHashMap<Object, CacheObject>(16, 0.75f, true);
+
+    public EvictionPolicy newInstance() {
+        return new LRUEvictionPolicy();
+    }
+
+    public void added(CacheObject co) {
+        order.put(co.id, co);
+    }
+
+    public void accessed(CacheObject co) {
+        // Moves it to the most recently used end.
+        order.get(co.id);
+    }
+
+    public void removed(CacheObject co) {
+        order.remove(co.id);
+    }
+
+    public CacheObject victim() {
+        Iterator<CacheObject> it = order.values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public void clear() {
+        order.clear();
+    }
+}